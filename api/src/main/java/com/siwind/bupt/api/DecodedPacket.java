@@ -0,0 +1,142 @@
+/*
+ * Copyright © 2016 siwind, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package com.siwind.bupt.api;
+
+/**
+ * A received packet-in, shared by all {@link PacketConsumer}s. Fields are decoded
+ * on first access and remembered, so a packet costs only what its consumers read.
+ * It does not change while consumers see it; consumers must not modify the
+ * payload. Fields of groups no consumer asked for are left at their defaults.
+ */
+public interface DecodedPacket {
+
+    /**
+     * @return time the packet-in was received, in milliseconds since the epoch
+     */
+    long getTimestampMillis();
+
+    /**
+     * @return node connector id of the ingress port, e.g. openflow:1:2
+     */
+    String getIngress();
+
+    /**
+     * @return whether the packet came in on a port linking two switches, so it
+     *         was already seen at the previous hop; always available
+     */
+    boolean isTransit();
+
+    /**
+     * @return N when the packet was kept as 1 in N packets of its ingress, counts
+     *         scale by it; 1 when not sampled
+     */
+    int getSamplingRate();
+
+    /**
+     * @return the frame as received, possibly truncated by the switch
+     */
+    byte[] getPayload();
+
+    /**
+     * @return ethertype, -1 if the ethernet header is truncated
+     */
+    int getEtherType();
+
+    /**
+     * @return destination MAC address in the low 48 bits
+     */
+    long getDstMac();
+
+    /**
+     * @return source MAC address in the low 48 bits
+     */
+    long getSrcMac();
+
+    /**
+     * @return whether this is an IPv4 packet with a complete IP header
+     */
+    boolean isIpv4();
+
+    /**
+     * @return source IPv4 address, 0 if not IPv4
+     */
+    int getSrcIp();
+
+    /**
+     * @return destination IPv4 address, 0 if not IPv4
+     */
+    int getDstIp();
+
+    /**
+     * @return whether this is an IPv6 packet with a complete fixed header
+     */
+    boolean isIpv6();
+
+    /**
+     * @return high 64 bits of the source IPv6 address, 0 if not IPv6
+     */
+    long getSrcIpv6Hi();
+
+    long getSrcIpv6Lo();
+
+    /**
+     * @return high 64 bits of the destination IPv6 address, 0 if not IPv6
+     */
+    long getDstIpv6Hi();
+
+    long getDstIpv6Lo();
+
+    /**
+     * @return source address in dotted decimal or compact IPv6 form, null if
+     *         neither IPv4 nor IPv6
+     */
+    String getSrcIpString();
+
+    /**
+     * @return destination address in dotted decimal or compact IPv6 form, null
+     *         if neither IPv4 nor IPv6
+     */
+    String getDstIpString();
+
+    /**
+     * @return IP protocol number; for IPv6 the header following the extension
+     *         headers, or the one they stop at when truncated or unknown
+     */
+    short getProtocol();
+
+    /**
+     * @return whether this is a TCP or UDP packet with both ports present
+     */
+    boolean hasPorts();
+
+    int getSrcPort();
+
+    int getDstPort();
+
+    /**
+     * @return TCP flags octet, 0 if truncated or not TCP
+     */
+    int getTcpFlags();
+
+    /**
+     * @return whether the TCP segment carries data
+     */
+    boolean hasTcpPayload();
+
+    /**
+     * @return whether this is an ICMP or ICMPv6 packet with type and code present
+     */
+    boolean hasIcmp();
+
+    /**
+     * @return ICMP or ICMPv6 type, 0 if not present
+     */
+    int getIcmpType();
+
+    int getIcmpCode();
+}
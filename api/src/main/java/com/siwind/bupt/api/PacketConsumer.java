@@ -0,0 +1,43 @@
+/*
+ * Copyright © 2016 siwind, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package com.siwind.bupt.api;
+
+import java.util.Set;
+
+/**
+ * Receives every decoded packet-in. Register an implementation as an OSGi service
+ * of this interface, e.g. with a blueprint {@code <service>}, to be added to the
+ * getpacket pipeline.
+ *
+ * <p>Unless {@link #isInline()}, a consumer is called from a thread of its own
+ * behind a bounded queue; packets are dropped for it alone when it falls behind.
+ */
+public interface PacketConsumer {
+
+    /**
+     * @return short name of the consumer, for thread names and statistics
+     */
+    String getName();
+
+    /**
+     * @return fields the consumer reads, only the fields some consumer needs are decoded
+     */
+    Set<PacketField> getRequiredFields();
+
+    /**
+     * @param packet decoded packet, the same instance is passed to all consumers
+     */
+    void onPacket(DecodedPacket packet);
+
+    /**
+     * @return true to be called on the notification thread, for consumers which never block
+     */
+    default boolean isInline() {
+        return false;
+    }
+}
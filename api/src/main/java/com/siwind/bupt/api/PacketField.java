@@ -0,0 +1,43 @@
+/*
+ * Copyright © 2016 siwind, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package com.siwind.bupt.api;
+
+/**
+ * Groups of {@link DecodedPacket} fields a {@link PacketConsumer} may need. The
+ * payload, ethertype and timestamp are always available.
+ */
+public enum PacketField {
+    /**
+     * node connector id of the ingress port
+     */
+    INGRESS,
+    /**
+     * source and destination MAC addresses
+     */
+    ETHERNET,
+    /**
+     * IPv4 addresses and protocol
+     */
+    IPV4,
+    /**
+     * TCP or UDP ports, implies IPV4 and IPV6
+     */
+    PORTS,
+    /**
+     * TCP flags and whether the segment carries data, implies PORTS
+     */
+    TCP,
+    /**
+     * IPv6 addresses and upper layer protocol, after the extension headers
+     */
+    IPV6,
+    /**
+     * ICMP or ICMPv6 type and code, implies IPV4 and IPV6
+     */
+    ICMP
+}
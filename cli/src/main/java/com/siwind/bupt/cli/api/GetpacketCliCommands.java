@@ -7,11 +7,105 @@
  */
 package com.siwind.bupt.cli.api;
 
+import java.io.PrintStream;
+
 public interface GetpacketCliCommands {
 
     /**
-     * Define the Karaf command method signatures and the Javadoc for each.
-     * Below method is just an example
+     * Start capturing packet-ins to a pcapng ring file.
+     *
+     * @param file capture file, null for the configured one
+     * @param sizeMb size of the ring file, null for the configured one
+     * @param filter filter expression, null to capture everything
+     * @return description of the started capture or the error
+     */
+    String startCapture(String file, Long sizeMb, String filter);
+
+    /**
+     * Stop the running packet capture.
+     *
+     * @return summary of the stopped capture
+     */
+    String stopCapture();
+
+    /**
+     * Show the latency percentiles of the stages of traced packets.
+     *
+     * @return one line per stage, or why there is none
+     */
+    String showLatency();
+
+    /**
+     * Show the packet and export rates of the last statistics interval, the
+     * counters since the last reset and the latency percentiles.
+     *
+     * @return statistics table or the error
+     */
+    String showStats();
+
+    /**
+     * Show the source addresses sending the most packet-ins.
+     *
+     * @param datapath datapath id, e.g. openflow:1, null for all of them
+     * @param count talkers per datapath, null for the default
+     * @return one table per datapath or the error
+     */
+    String showTopTalkers(String datapath, Integer count);
+
+    /**
+     * Show the flow records last written to the operational datastore, most
+     * packets first.
+     *
+     * @param filter blank separated ingress=, proto=, host=, port= terms, null for all
+     * @param offset flows to skip
+     * @param limit flows to show at most
+     * @return one line per flow or the error
+     */
+    String showFlows(String filter, int offset, int limit);
+
+    /**
+     * Show the state, queue and connection pool of every Trident receiver.
+     *
+     * @return one block per receiver or the error
+     */
+    String showExporter();
+
+    /**
+     * Reset the statistics, latencies and top talkers.
+     *
+     * @return confirmation or the error
+     */
+    String resetStats();
+
+    /**
+     * Print a summary line of every packet-in matching the filter, until the
+     * duration is over or the calling thread is interrupted.
+     *
+     * @param filter blank separated ingress=, ethertype=, proto=, host=, port= terms, null for all
+     * @param maxRate packets printed per second at most
+     * @param durationSec length of the session in seconds
+     * @param verbose whether to print the MAC addresses, TCP flags and ICMP type too
+     * @param out console to print to
+     * @return summary of the session or the error
+     */
+    String tail(String filter, int maxRate, int durationSec, boolean verbose, PrintStream out);
+
+    /**
+     * Push synthetic packet-ins through the packet handler; every parameter may
+     * be null for its default.
+     *
+     * @param flows distinct flows
+     * @param skew Zipf exponent of the packets per flow, 0 for uniform
+     * @param mix protocol weights, e.g. tcp=80,udp=15,icmp=5
+     * @param ipv6Percent percentage of IPv6 flows
+     * @param vlanPercent percentage of 802.1Q tagged flows
+     * @param sizes frame size weights, e.g. 64=50,576=20,1500=30
+     * @param switches datapaths the ingress ports rotate over
+     * @param ports ingress ports per datapath
+     * @param rate packets per second, 0 for as fast as possible
+     * @param durationSec length of the run in seconds
+     * @return throughput and latencies of the run, or the error
      */
-    Object testCommand(Object testArgument);
+    String generateTraffic(Long flows, Double skew, String mix, Short ipv6Percent, Short vlanPercent, String sizes,
+            Integer switches, Integer ports, Long rate, Long durationSec);
 }
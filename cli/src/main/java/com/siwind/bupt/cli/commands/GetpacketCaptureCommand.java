@@ -0,0 +1,66 @@
+/*
+ * Copyright © 2016 siwind, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package com.siwind.bupt.cli.commands;
+
+import org.apache.karaf.shell.commands.Argument;
+import org.apache.karaf.shell.commands.Command;
+import org.apache.karaf.shell.commands.Option;
+import org.apache.karaf.shell.console.AbstractAction;
+import com.siwind.bupt.cli.api.GetpacketCliCommands;
+
+/**
+ * Starts or stops the pcapng capture of received packet-ins, e.g.
+ * {@code getpacket:capture -f "proto=6 port=80" start}.
+ */
+@Command(name = "capture", scope = "getpacket", description = "Start or stop the pcapng capture of packet-ins")
+public class GetpacketCaptureCommand extends AbstractAction {
+
+    protected final GetpacketCliCommands service;
+
+    public GetpacketCaptureCommand(final GetpacketCliCommands service) {
+        this.service = service;
+    }
+
+    @Argument(index = 0,
+            name = "action",
+            description = "start or stop",
+            required = true,
+            multiValued = false)
+    private String action;
+
+    @Option(name = "-o",
+            aliases = { "--file" },
+            description = "capture file, the configured one by default",
+            required = false,
+            multiValued = false)
+    private String file;
+
+    @Option(name = "-s",
+            aliases = { "--size" },
+            description = "size of the ring file in megabytes",
+            required = false,
+            multiValued = false)
+    private Long sizeMb;
+
+    @Option(name = "-f",
+            aliases = { "--filter" },
+            description = "filter, blank separated ingress=, ethertype=, proto=, host=, port= terms",
+            required = false,
+            multiValued = false)
+    private String filter;
+
+    @Override
+    protected Object doExecute() throws Exception {
+        if ("start".equals(action)) {
+            return service.startCapture(file, sizeMb, filter);
+        } else if ("stop".equals(action)) {
+            return service.stopCapture();
+        }
+        return "Unknown action " + action + ", use start or stop";
+    }
+}
@@ -0,0 +1,31 @@
+/*
+ * Copyright © 2016 siwind, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package com.siwind.bupt.cli.commands;
+
+import org.apache.karaf.shell.commands.Command;
+import org.apache.karaf.shell.console.AbstractAction;
+import com.siwind.bupt.cli.api.GetpacketCliCommands;
+
+/**
+ * Shows the circuit state, queue depth, spill journal and HTTP connection pool
+ * of every Trident receiver, as of the last statistics interval.
+ */
+@Command(name = "exporter", scope = "getpacket", description = "Show the state, queue and connection pool of the Trident receivers")
+public class GetpacketExporterCommand extends AbstractAction {
+
+    protected final GetpacketCliCommands service;
+
+    public GetpacketExporterCommand(final GetpacketCliCommands service) {
+        this.service = service;
+    }
+
+    @Override
+    protected Object doExecute() throws Exception {
+        return service.showExporter();
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright © 2016 siwind, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package com.siwind.bupt.cli.commands;
+
+import org.apache.karaf.shell.commands.Command;
+import org.apache.karaf.shell.commands.Option;
+import org.apache.karaf.shell.console.AbstractAction;
+import com.siwind.bupt.cli.api.GetpacketCliCommands;
+
+/**
+ * Shows a page of the flow records of the operational datastore, e.g.
+ * {@code getpacket:flows -f "proto=6 port=80" --offset 50}.
+ */
+@Command(name = "flows", scope = "getpacket", description = "Show the recorded flows, most packets first")
+public class GetpacketFlowsCommand extends AbstractAction {
+
+    protected final GetpacketCliCommands service;
+
+    public GetpacketFlowsCommand(final GetpacketCliCommands service) {
+        this.service = service;
+    }
+
+    @Option(name = "-f",
+            aliases = { "--filter" },
+            description = "filter, blank separated ingress=, proto=, host=, port= terms",
+            required = false,
+            multiValued = false)
+    private String filter;
+
+    @Option(name = "-o",
+            aliases = { "--offset" },
+            description = "flows to skip",
+            required = false,
+            multiValued = false)
+    private int offset = 0;
+
+    @Option(name = "-l",
+            aliases = { "--limit" },
+            description = "flows to show, 50 by default",
+            required = false,
+            multiValued = false)
+    private int limit = 50;
+
+    @Override
+    protected Object doExecute() throws Exception {
+        return service.showFlows(filter, offset, limit);
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright © 2016 siwind, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package com.siwind.bupt.cli.commands;
+
+import org.apache.karaf.shell.commands.Command;
+import org.apache.karaf.shell.commands.Option;
+import org.apache.karaf.shell.console.AbstractAction;
+import com.siwind.bupt.cli.api.GetpacketCliCommands;
+
+/**
+ * Pushes synthetic packet-ins through the packet handler and reports the
+ * throughput and latencies, e.g.
+ * {@code getpacket:generate -n 100000 -m tcp=60,udp=40 -r 200000 -d 30}. Only
+ * when traffic-generator-enabled is set: the packets reach every consumer,
+ * Trident included.
+ */
+@Command(name = "generate", scope = "getpacket", description = "Push synthetic packet-ins through the packet handler")
+public class GetpacketGenerateCommand extends AbstractAction {
+
+    protected final GetpacketCliCommands service;
+
+    public GetpacketGenerateCommand(final GetpacketCliCommands service) {
+        this.service = service;
+    }
+
+    @Option(name = "-n",
+            aliases = { "--flows" },
+            description = "distinct flows, 1024 by default",
+            required = false,
+            multiValued = false)
+    private Long flows;
+
+    @Option(name = "-k",
+            aliases = { "--skew" },
+            description = "Zipf exponent of the packets per flow, 0 for uniform, 1 by default",
+            required = false,
+            multiValued = false)
+    private Double skew;
+
+    @Option(name = "-m",
+            aliases = { "--mix" },
+            description = "protocol weights, tcp=80,udp=15,icmp=5 by default; arp too",
+            required = false,
+            multiValued = false)
+    private String mix;
+
+    @Option(name = "-6",
+            aliases = { "--ipv6" },
+            description = "percentage of IPv6 flows, 0 by default",
+            required = false,
+            multiValued = false)
+    private Short ipv6Percent;
+
+    @Option(name = "-v",
+            aliases = { "--vlan" },
+            description = "percentage of 802.1Q tagged flows, 0 by default",
+            required = false,
+            multiValued = false)
+    private Short vlanPercent;
+
+    @Option(name = "-s",
+            aliases = { "--sizes" },
+            description = "frame size weights, 64=50,576=20,1500=30 by default",
+            required = false,
+            multiValued = false)
+    private String sizes;
+
+    @Option(name = "-w",
+            aliases = { "--switches" },
+            description = "datapaths the ingress rotates over, 1 by default",
+            required = false,
+            multiValued = false)
+    private Integer switches;
+
+    @Option(name = "-p",
+            aliases = { "--ports" },
+            description = "ingress ports per datapath, 4 by default",
+            required = false,
+            multiValued = false)
+    private Integer ports;
+
+    @Option(name = "-r",
+            aliases = { "--rate" },
+            description = "packets per second, as fast as possible by default",
+            required = false,
+            multiValued = false)
+    private Long rate;
+
+    @Option(name = "-d",
+            aliases = { "--duration" },
+            description = "seconds to run, 10 by default",
+            required = false,
+            multiValued = false)
+    private Long durationSec;
+
+    @Override
+    protected Object doExecute() throws Exception {
+        return service.generateTraffic(flows, skew, mix, ipv6Percent, vlanPercent, sizes, switches, ports, rate,
+                durationSec);
+    }
+}
@@ -0,0 +1,31 @@
+/*
+ * Copyright © 2016 siwind, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package com.siwind.bupt.cli.commands;
+
+import org.apache.karaf.shell.commands.Command;
+import org.apache.karaf.shell.console.AbstractAction;
+import com.siwind.bupt.cli.api.GetpacketCliCommands;
+
+/**
+ * Shows the latency percentiles of the stages of traced packets, as last
+ * written to the operational datastore.
+ */
+@Command(name = "latency", scope = "getpacket", description = "Show the latencies of the stages of traced packets")
+public class GetpacketLatencyCommand extends AbstractAction {
+
+    protected final GetpacketCliCommands service;
+
+    public GetpacketLatencyCommand(final GetpacketCliCommands service) {
+        this.service = service;
+    }
+
+    @Override
+    protected Object doExecute() throws Exception {
+        return service.showLatency();
+    }
+}
@@ -0,0 +1,31 @@
+/*
+ * Copyright © 2016 siwind, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package com.siwind.bupt.cli.commands;
+
+import org.apache.karaf.shell.commands.Command;
+import org.apache.karaf.shell.console.AbstractAction;
+import com.siwind.bupt.cli.api.GetpacketCliCommands;
+
+/**
+ * Resets the counters shown by the stats, latency and top commands, from the
+ * next statistics interval on.
+ */
+@Command(name = "reset", scope = "getpacket", description = "Reset the statistics, latencies and top talkers")
+public class GetpacketResetCommand extends AbstractAction {
+
+    protected final GetpacketCliCommands service;
+
+    public GetpacketResetCommand(final GetpacketCliCommands service) {
+        this.service = service;
+    }
+
+    @Override
+    protected Object doExecute() throws Exception {
+        return service.resetStats();
+    }
+}
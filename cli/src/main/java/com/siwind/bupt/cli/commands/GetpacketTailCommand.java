@@ -0,0 +1,61 @@
+/*
+ * Copyright © 2016 siwind, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package com.siwind.bupt.cli.commands;
+
+import org.apache.karaf.shell.commands.Command;
+import org.apache.karaf.shell.commands.Option;
+import org.apache.karaf.shell.console.AbstractAction;
+import com.siwind.bupt.cli.api.GetpacketCliCommands;
+
+/**
+ * Prints a line per matching packet-in for a while, e.g.
+ * {@code getpacket:tail -f "host=10.0.0.1 port=53" -r 20 -d 60 -v}; Ctrl-C stops
+ * it early.
+ */
+@Command(name = "tail", scope = "getpacket", description = "Print the matching packet-ins as they come in")
+public class GetpacketTailCommand extends AbstractAction {
+
+    protected final GetpacketCliCommands service;
+
+    public GetpacketTailCommand(final GetpacketCliCommands service) {
+        this.service = service;
+    }
+
+    @Option(name = "-f",
+            aliases = { "--filter" },
+            description = "filter, blank separated ingress=, ethertype=, proto=, host=, port= terms",
+            required = false,
+            multiValued = false)
+    private String filter;
+
+    @Option(name = "-r",
+            aliases = { "--rate" },
+            description = "packets printed per second at most, 10 by default",
+            required = false,
+            multiValued = false)
+    private int maxRate = 10;
+
+    @Option(name = "-d",
+            aliases = { "--duration" },
+            description = "seconds to run, 30 by default",
+            required = false,
+            multiValued = false)
+    private int durationSec = 30;
+
+    @Option(name = "-v",
+            aliases = { "--verbose" },
+            description = "also print the MAC addresses, TCP flags and ICMP type, punting longer headers",
+            required = false,
+            multiValued = false)
+    private boolean verbose = false;
+
+    @Override
+    protected Object doExecute() throws Exception {
+        return service.tail(filter, maxRate, durationSec, verbose, System.out);
+    }
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright © 2016 siwind, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package com.siwind.bupt.cli.commands;
+
+import org.apache.karaf.shell.commands.Command;
+import org.apache.karaf.shell.commands.Option;
+import org.apache.karaf.shell.console.AbstractAction;
+import com.siwind.bupt.cli.api.GetpacketCliCommands;
+
+/**
+ * Shows the heavy talkers of every datapath, e.g.
+ * {@code getpacket:top -d openflow:1 -n 5}.
+ */
+@Command(name = "top", scope = "getpacket", description = "Show the sources sending the most packet-ins per datapath")
+public class GetpacketTopCommand extends AbstractAction {
+
+    protected final GetpacketCliCommands service;
+
+    public GetpacketTopCommand(final GetpacketCliCommands service) {
+        this.service = service;
+    }
+
+    @Option(name = "-d",
+            aliases = { "--datapath" },
+            description = "datapath id, e.g. openflow:1, all datapaths by default",
+            required = false,
+            multiValued = false)
+    private String datapath;
+
+    @Option(name = "-n",
+            aliases = { "--count" },
+            description = "talkers per datapath, 10 by default",
+            required = false,
+            multiValued = false)
+    private Integer count;
+
+    @Override
+    protected Object doExecute() throws Exception {
+        return service.showTopTalkers(datapath, count);
+    }
+}
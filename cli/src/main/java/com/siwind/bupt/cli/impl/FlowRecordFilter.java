@@ -0,0 +1,93 @@
+/*
+ * Copyright © 2016 siwind, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package com.siwind.bupt.cli.impl;
+
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.getpacket.rev150105.flow.records.FlowRecord;
+
+/**
+ * Filter of flow records, a blank separated list of {@code key=value} terms
+ * which must all match, like the capture filter:
+ * <ul>
+ * <li>{@code ingress=openflow:1:2} ingress port, or {@code ingress=openflow:1}
+ * any port of the datapath</li>
+ * <li>{@code proto=6} IP protocol</li>
+ * <li>{@code host=10.0.0.1} source or destination address, IPv4 or IPv6</li>
+ * <li>{@code port=80} source or destination port</li>
+ * </ul>
+ */
+final class FlowRecordFilter {
+
+    private final String ingress;
+    private final int protocol;
+    private final String host;
+    private final int port;
+
+    private FlowRecordFilter(String ingress, int protocol, String host, int port) {
+        this.ingress = ingress;
+        this.protocol = protocol;
+        this.host = host;
+        this.port = port;
+    }
+
+    /**
+     * @param expression filter expression, may be null or empty
+     * @return compiled filter
+     * @throws IllegalArgumentException if the expression is invalid
+     */
+    static FlowRecordFilter compile(String expression) {
+        String ingress = null;
+        int protocol = -1;
+        String host = null;
+        int port = -1;
+        if (expression != null && !expression.trim().isEmpty()) {
+            for (String term : expression.trim().split("\\s+")) {
+                int idx = term.indexOf('=');
+                if (idx <= 0 || idx == term.length() - 1) {
+                    throw new IllegalArgumentException("Invalid filter term: " + term);
+                }
+                String key = term.substring(0, idx);
+                String value = term.substring(idx + 1);
+                switch (key) {
+                    case "ingress":
+                        ingress = value;
+                        break;
+                    case "proto":
+                        protocol = Integer.decode(value);
+                        break;
+                    case "host":
+                        host = value;
+                        break;
+                    case "port":
+                        port = Integer.parseInt(value);
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown filter key: " + key);
+                }
+            }
+        }
+        return new FlowRecordFilter(ingress, protocol, host, port);
+    }
+
+    boolean matches(FlowRecord flow) {
+        if (ingress != null && (flow.getIngress() == null
+                || !flow.getIngress().equals(ingress) && !flow.getIngress().startsWith(ingress + ":"))) {
+            return false;
+        }
+        if (protocol >= 0 && (flow.getProtocol() == null || flow.getProtocol() != protocol)) {
+            return false;
+        }
+        if (host != null && !host.equalsIgnoreCase(flow.getSrcIp()) && !host.equalsIgnoreCase(flow.getDstIp())) {
+            return false;
+        }
+        if (port >= 0 && !Integer.valueOf(port).equals(flow.getSrcPort())
+                && !Integer.valueOf(port).equals(flow.getDstPort())) {
+            return false;
+        }
+        return true;
+    }
+}
@@ -7,23 +7,294 @@
  */
 package com.siwind.bupt.cli.impl;
 
+import java.io.PrintStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+
 import org.opendaylight.controller.md.sal.binding.api.DataBroker;
+import org.opendaylight.controller.md.sal.binding.api.ReadOnlyTransaction;
+import org.opendaylight.controller.md.sal.common.api.data.LogicalDatastoreType;
+import org.opendaylight.controller.md.sal.common.api.data.ReadFailedException;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.getpacket.rev150105.FlowRecords;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.getpacket.rev150105.GenerateTrafficInputBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.getpacket.rev150105.GenerateTrafficOutput;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.getpacket.rev150105.GetExporterStatusOutput;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.getpacket.rev150105.GetStatsOutput;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.getpacket.rev150105.GetTopTalkersInputBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.getpacket.rev150105.GetTopTalkersOutput;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.getpacket.rev150105.GetpacketService;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.getpacket.rev150105.Latency;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.getpacket.rev150105.ResetStatsOutput;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.getpacket.rev150105.StartCaptureInputBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.getpacket.rev150105.StartCaptureOutput;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.getpacket.rev150105.StopCaptureOutput;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.getpacket.rev150105.flow.records.FlowRecord;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.getpacket.rev150105.get.exporter.status.output.Receiver;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.getpacket.rev150105.get.stats.output.Consumer;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.getpacket.rev150105.get.top.talkers.output.Datapath;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.getpacket.rev150105.get.top.talkers.output.datapath.Talker;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.getpacket.rev150105.latency.Stage;
+import org.opendaylight.yangtools.yang.binding.InstanceIdentifier;
+import org.opendaylight.yangtools.yang.common.RpcResult;
+import org.osgi.framework.BundleContext;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Optional;
 import com.siwind.bupt.cli.api.GetpacketCliCommands;
 
 public class GetpacketCliCommandsImpl implements GetpacketCliCommands {
 
     private static final Logger LOG = LoggerFactory.getLogger(GetpacketCliCommandsImpl.class);
     private final DataBroker dataBroker;
+    private final GetpacketService getpacketService;
+    private final BundleContext bundleContext;
+
+    /**
+     * longest tail session, in seconds
+     */
+    private static final int MAX_TAIL_DURATION_SEC = 3600;
 
-    public GetpacketCliCommandsImpl(final DataBroker db) {
+    public GetpacketCliCommandsImpl(final DataBroker db, final GetpacketService getpacketService,
+            final BundleContext bundleContext) {
         this.dataBroker = db;
+        this.getpacketService = getpacketService;
+        this.bundleContext = bundleContext;
         LOG.info("GetpacketCliCommandImpl initialized");
     }
 
     @Override
-    public Object testCommand(Object testArgument) {
-        return "This is a test implementation of test-command";
+    public String startCapture(String file, Long sizeMb, String filter) {
+        try {
+            RpcResult<StartCaptureOutput> result = getpacketService.startCapture(new StartCaptureInputBuilder()
+                    .setFile(file).setSize(sizeMb).setFilter(filter).build()).get();
+            return result.isSuccessful() ? result.getResult().getResult() : "Failed: " + result.getErrors();
+        } catch (InterruptedException | ExecutionException e) {
+            LOG.warn("start-capture failed", e);
+            return "Failed: " + e.getMessage();
+        }
+    }
+
+    @Override
+    public String stopCapture() {
+        try {
+            RpcResult<StopCaptureOutput> result = getpacketService.stopCapture().get();
+            return result.isSuccessful() ? result.getResult().getResult() : "Failed: " + result.getErrors();
+        } catch (InterruptedException | ExecutionException e) {
+            LOG.warn("stop-capture failed", e);
+            return "Failed: " + e.getMessage();
+        }
+    }
+
+    @Override
+    public String showLatency() {
+        Optional<Latency> latency;
+        try (ReadOnlyTransaction tx = dataBroker.newReadOnlyTransaction()) {
+            latency = tx.read(LogicalDatastoreType.OPERATIONAL, InstanceIdentifier.create(Latency.class)).checkedGet();
+        } catch (ReadFailedException e) {
+            LOG.warn("reading latency failed", e);
+            return "Failed: " + e.getMessage();
+        }
+        if (!latency.isPresent() || latency.get().getStage() == null || latency.get().getStage().isEmpty()) {
+            return "No latency traced yet, or tracing disabled by latency-trace-rate=0";
+        }
+        StringBuilder text = new StringBuilder(String.format("%-8s %12s %12s %12s %12s %12s%n",
+                "stage", "count", "p50 (us)", "p99 (us)", "p99.9 (us)", "max (us)"));
+        for (Stage stage : latency.get().getStage()) {
+            text.append(String.format("%-8s %12d %12.1f %12.1f %12.1f %12.1f%n", stage.getName(), stage.getCount(),
+                    micros(stage.getP50()), micros(stage.getP99()), micros(stage.getP999()), micros(stage.getMax())));
+        }
+        return text.toString();
+    }
+
+    @Override
+    public String showStats() {
+        GetStatsOutput stats;
+        try {
+            RpcResult<GetStatsOutput> result = getpacketService.getStats().get();
+            if (!result.isSuccessful()) {
+                return "Failed: " + result.getErrors();
+            }
+            stats = result.getResult();
+        } catch (InterruptedException | ExecutionException e) {
+            LOG.warn("get-stats failed", e);
+            return "Failed: " + e.getMessage();
+        }
+        StringBuilder text = new StringBuilder(String.format("%-20s %16s %12s %12s %12s%n",
+                "", "total", "per second", "dropped", "failed"));
+        text.append(String.format("%-20s %16d %12d %12d %12s%n", "received",
+                number(stats.getReceived()), number(stats.getReceivedRate()), number(stats.getDuplicates()), "-"));
+        if (stats.getConsumer() != null) {
+            for (Consumer consumer : stats.getConsumer()) {
+                text.append(String.format("%-20s %16d %12d %12d %12d%n", consumer.getName(),
+                        number(consumer.getDelivered()), number(consumer.getDeliveredRate()),
+                        number(consumer.getDropped()), number(consumer.getFailed())));
+            }
+        }
+        text.append(String.format("%-20s %16d %12d %12d %12s%n", "exported",
+                number(stats.getExported()), number(stats.getExportRate()), number(stats.getExportDropped()), "-"));
+        text.append("(received dropped: duplicates)").append(System.lineSeparator())
+                .append(System.lineSeparator()).append(showLatency());
+        return text.toString();
+    }
+
+    @Override
+    public String showTopTalkers(String datapath, Integer count) {
+        GetTopTalkersOutput top;
+        try {
+            RpcResult<GetTopTalkersOutput> result = getpacketService.getTopTalkers(new GetTopTalkersInputBuilder()
+                    .setDatapath(datapath).setCount(count).build()).get();
+            if (!result.isSuccessful()) {
+                return "Failed: " + result.getErrors();
+            }
+            top = result.getResult();
+        } catch (InterruptedException | ExecutionException e) {
+            LOG.warn("get-top-talkers failed", e);
+            return "Failed: " + e.getMessage();
+        }
+        if (top.getDatapath() == null || top.getDatapath().isEmpty()) {
+            return "No talkers yet, or counting disabled by top-talkers-enabled=false";
+        }
+        StringBuilder text = new StringBuilder();
+        for (Datapath dp : top.getDatapath()) {
+            text.append(dp.getId()).append(System.lineSeparator());
+            if (dp.getTalker() == null || dp.getTalker().isEmpty()) {
+                // an empty list may come back as null through the binding
+                text.append("  no talkers").append(System.lineSeparator());
+                continue;
+            }
+            text.append(String.format("  %-40s %14s %16s %12s%n", "address", "packets", "bytes", "error"));
+            for (Talker talker : dp.getTalker()) {
+                text.append(String.format("  %-40s %14d %16d %12d%n", talker.getAddress(),
+                        number(talker.getPackets()), number(talker.getBytes()), number(talker.getError())));
+            }
+        }
+        return text.toString();
+    }
+
+    @Override
+    public String showFlows(String filter, int offset, int limit) {
+        FlowRecordFilter flowFilter;
+        try {
+            flowFilter = FlowRecordFilter.compile(filter);
+        } catch (IllegalArgumentException e) {
+            return "Failed: " + e.getMessage();
+        }
+        Optional<FlowRecords> records;
+        try (ReadOnlyTransaction tx = dataBroker.newReadOnlyTransaction()) {
+            records = tx.read(LogicalDatastoreType.OPERATIONAL,
+                    InstanceIdentifier.create(FlowRecords.class)).checkedGet();
+        } catch (ReadFailedException e) {
+            LOG.warn("reading flow records failed", e);
+            return "Failed: " + e.getMessage();
+        }
+        if (!records.isPresent() || records.get().getFlowRecord() == null) {
+            return "No flow records, or storing disabled by flow-store-enabled=false";
+        }
+        List<FlowRecord> flows = new ArrayList<>();
+        for (FlowRecord flow : records.get().getFlowRecord()) {
+            if (flowFilter.matches(flow)) {
+                flows.add(flow);
+            }
+        }
+        flows.sort((a, b) -> Long.compare(number(b.getPackets()), number(a.getPackets())));
+        int from = Math.min(Math.max(0, offset), flows.size());
+        int to = Math.min(from + Math.max(0, limit), flows.size());
+        StringBuilder text = new StringBuilder(String.format("%-20s %-60s %14s %14s%n",
+                "ingress", "flow", "packets", "idle (s)"));
+        long now = System.currentTimeMillis();
+        for (FlowRecord flow : flows.subList(from, to)) {
+            text.append(String.format("%-20s %-60s %14d %14d%n", flow.getIngress(), flow.getId(),
+                    number(flow.getPackets()), Math.max(0, now - number(flow.getLastSeen())) / 1000));
+        }
+        text.append(String.format("%d-%d of %d flows%n", to == from ? 0 : from + 1, to, flows.size()));
+        return text.toString();
+    }
+
+    @Override
+    public String showExporter() {
+        List<Receiver> receivers;
+        try {
+            RpcResult<GetExporterStatusOutput> result = getpacketService.getExporterStatus().get();
+            if (!result.isSuccessful()) {
+                return "Failed: " + result.getErrors();
+            }
+            receivers = result.getResult().getReceiver();
+        } catch (InterruptedException | ExecutionException e) {
+            LOG.warn("get-exporter-status failed", e);
+            return "Failed: " + e.getMessage();
+        }
+        if (receivers == null || receivers.isEmpty()) {
+            return "No Trident receiver configured in trident-urls";
+        }
+        StringBuilder text = new StringBuilder();
+        for (Receiver receiver : receivers) {
+            text.append(String.format("%s  circuit %s%n", receiver.getUrl(), receiver.getState()));
+            text.append(String.format("  queue     %d records, %d offered, %d dropped%n",
+                    receiver.getQueueDepth(), number(receiver.getOffered()), number(receiver.getDropped())));
+            text.append(String.format("  export    %d exported, %d per second, %d failed%n",
+                    number(receiver.getExported()), number(receiver.getExportRate()), number(receiver.getFailed())));
+            text.append(String.format("  spill     %d spilled, %d replayed, %d pending%n",
+                    number(receiver.getSpilled()), number(receiver.getReplayed()),
+                    number(receiver.getSpillPending())));
+            text.append(String.format("  pool      %d leased, %d available, %d pending, %d max%n",
+                    receiver.getPoolLeased(), receiver.getPoolAvailable(), receiver.getPoolPending(),
+                    receiver.getPoolMax()));
+        }
+        return text.toString();
+    }
+
+    @Override
+    public String resetStats() {
+        try {
+            RpcResult<ResetStatsOutput> result = getpacketService.resetStats().get();
+            return result.isSuccessful() ? result.getResult().getResult() : "Failed: " + result.getErrors();
+        } catch (InterruptedException | ExecutionException e) {
+            LOG.warn("reset-stats failed", e);
+            return "Failed: " + e.getMessage();
+        }
+    }
+
+    @Override
+    public String tail(String filter, int maxRate, int durationSec, boolean verbose, PrintStream out) {
+        if (maxRate < 1) {
+            return "Failed: the rate must be at least 1 packet per second";
+        }
+        if (durationSec < 1 || durationSec > MAX_TAIL_DURATION_SEC) {
+            return "Failed: the duration must be 1 to " + MAX_TAIL_DURATION_SEC + " seconds";
+        }
+        TailFilter tailFilter;
+        try {
+            tailFilter = TailFilter.compile(filter);
+        } catch (IllegalArgumentException e) {
+            return "Failed: " + e.getMessage();
+        }
+        return new TailSession(tailFilter, maxRate, verbose).run(bundleContext, durationSec * 1000L, out);
+    }
+
+    @Override
+    public String generateTraffic(Long flows, Double skew, String mix, Short ipv6Percent, Short vlanPercent,
+            String sizes, Integer switches, Integer ports, Long rate, Long durationSec) {
+        try {
+            RpcResult<GenerateTrafficOutput> result = getpacketService.generateTraffic(new GenerateTrafficInputBuilder()
+                    .setFlows(flows).setSkew(skew == null ? null : BigDecimal.valueOf(skew)).setMix(mix)
+                    .setIpv6Percent(ipv6Percent).setVlanPercent(vlanPercent).setSizes(sizes)
+                    .setSwitches(switches).setPorts(ports).setRate(rate).setDuration(durationSec).build()).get();
+            return result.isSuccessful() ? result.getResult().getResult() : "Failed: " + result.getErrors();
+        } catch (InterruptedException | ExecutionException e) {
+            LOG.warn("generate-traffic failed", e);
+            return "Failed: " + e.getMessage();
+        }
+    }
+
+    private static double micros(BigInteger nanos) {
+        return nanos == null ? 0 : nanos.doubleValue() / 1000;
+    }
+
+    private static long number(BigInteger value) {
+        return value == null ? 0 : value.longValue();
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright © 2016 siwind, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package com.siwind.bupt.cli.impl;
+
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.EnumSet;
+import java.util.Set;
+
+import com.siwind.bupt.api.DecodedPacket;
+import com.siwind.bupt.api.PacketField;
+
+/**
+ * Filter of decoded packets, a blank separated list of {@code key=value} terms
+ * which must all match, like the capture filter:
+ * <ul>
+ * <li>{@code ingress=openflow:1:2} ingress port, or {@code ingress=openflow:1}
+ * any port of the datapath</li>
+ * <li>{@code ethertype=0x0806} ethernet type</li>
+ * <li>{@code proto=6} IP protocol</li>
+ * <li>{@code host=10.0.0.1} source or destination address, IPv4 or IPv6</li>
+ * <li>{@code port=80} TCP/UDP source or destination port</li>
+ * </ul>
+ * Matching reads the decoded fields only and does not allocate, as it runs on
+ * the notification thread for every packet-in.
+ */
+final class TailFilter {
+
+    private final String ingress;
+    private final String ingressPrefix;
+    private final int etherType;
+    private final int protocol;
+    private final boolean hasIpv4Host;
+    private final int ipv4Host;
+    private final boolean hasIpv6Host;
+    private final long ipv6HostHi;
+    private final long ipv6HostLo;
+    private final int port;
+    private final Set<PacketField> requiredFields = EnumSet.noneOf(PacketField.class);
+
+    private TailFilter(String ingress, int etherType, int protocol, byte[] host, int port) {
+        this.ingress = ingress;
+        this.ingressPrefix = ingress == null ? null : ingress + ":";
+        this.etherType = etherType;
+        this.protocol = protocol;
+        this.hasIpv4Host = host != null && host.length == 4;
+        this.ipv4Host = hasIpv4Host ? (int) getLong(host, 0, 4) : 0;
+        this.hasIpv6Host = host != null && host.length == 16;
+        this.ipv6HostHi = hasIpv6Host ? getLong(host, 0, 8) : 0;
+        this.ipv6HostLo = hasIpv6Host ? getLong(host, 8, 8) : 0;
+        this.port = port;
+        if (ingress != null) {
+            requiredFields.add(PacketField.INGRESS);
+        }
+        if (protocol >= 0) {
+            requiredFields.add(PacketField.IPV4);
+            requiredFields.add(PacketField.IPV6);
+        }
+        if (hasIpv4Host) {
+            requiredFields.add(PacketField.IPV4);
+        }
+        if (hasIpv6Host) {
+            requiredFields.add(PacketField.IPV6);
+        }
+        if (port >= 0) {
+            requiredFields.add(PacketField.PORTS);
+        }
+    }
+
+    /**
+     * @param expression filter expression, may be null or empty
+     * @return compiled filter
+     * @throws IllegalArgumentException if the expression is invalid
+     */
+    static TailFilter compile(String expression) {
+        String ingress = null;
+        int etherType = -1;
+        int protocol = -1;
+        byte[] host = null;
+        int port = -1;
+        if (expression != null && !expression.trim().isEmpty()) {
+            for (String term : expression.trim().split("\\s+")) {
+                int idx = term.indexOf('=');
+                if (idx <= 0 || idx == term.length() - 1) {
+                    throw new IllegalArgumentException("Invalid filter term: " + term);
+                }
+                String key = term.substring(0, idx);
+                String value = term.substring(idx + 1);
+                switch (key) {
+                    case "ingress":
+                        ingress = value;
+                        break;
+                    case "ethertype":
+                        etherType = Integer.decode(value);
+                        break;
+                    case "proto":
+                        protocol = Integer.decode(value);
+                        break;
+                    case "host":
+                        host = parseAddress(value);
+                        break;
+                    case "port":
+                        port = Integer.parseInt(value);
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown filter key: " + key);
+                }
+            }
+        }
+        return new TailFilter(ingress, etherType, protocol, host, port);
+    }
+
+    /**
+     * Literal addresses only, never a name to resolve.
+     */
+    private static byte[] parseAddress(String value) {
+        if (value.indexOf(':') < 0 && !value.matches("[0-9]{1,3}(\\.[0-9]{1,3}){3}")) {
+            throw new IllegalArgumentException("Invalid IP address: " + value);
+        }
+        try {
+            InetAddress address = InetAddress.getByName(value);
+            if (value.indexOf(':') >= 0 && address instanceof Inet4Address) {
+                // IPv4-mapped IPv6 literals come back as IPv4, which never matches an IPv6 packet
+                throw new IllegalArgumentException("IPv4-mapped address, use the IPv4 form: " + value);
+            }
+            return address.getAddress();
+        } catch (UnknownHostException e) {
+            throw new IllegalArgumentException("Invalid IP address: " + value, e);
+        }
+    }
+
+    /**
+     * @return the field groups the terms read, none for the ethernet type
+     */
+    Set<PacketField> getRequiredFields() {
+        return requiredFields;
+    }
+
+    boolean matches(DecodedPacket packet) {
+        if (ingress != null) {
+            String packetIngress = packet.getIngress();
+            if (packetIngress == null
+                    || !packetIngress.equals(ingress) && !packetIngress.startsWith(ingressPrefix)) {
+                return false;
+            }
+        }
+        if (etherType >= 0 && packet.getEtherType() != etherType) {
+            return false;
+        }
+        if (protocol >= 0 && (!packet.isIpv4() && !packet.isIpv6() || packet.getProtocol() != protocol)) {
+            return false;
+        }
+        if (hasIpv4Host && (!packet.isIpv4()
+                || packet.getSrcIp() != ipv4Host && packet.getDstIp() != ipv4Host)) {
+            return false;
+        }
+        if (hasIpv6Host && (!packet.isIpv6()
+                || !(packet.getSrcIpv6Hi() == ipv6HostHi && packet.getSrcIpv6Lo() == ipv6HostLo)
+                && !(packet.getDstIpv6Hi() == ipv6HostHi && packet.getDstIpv6Lo() == ipv6HostLo))) {
+            return false;
+        }
+        if (port >= 0 && (!packet.hasPorts() || packet.getSrcPort() != port && packet.getDstPort() != port)) {
+            return false;
+        }
+        return true;
+    }
+
+    private static long getLong(byte[] data, int offset, int length) {
+        long value = 0;
+        for (int i = offset; i < offset + length; i++) {
+            value = value << 8 | data[i] & 0xFF;
+        }
+        return value;
+    }
+}
@@ -0,0 +1,247 @@
+/*
+ * Copyright © 2016 siwind, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package com.siwind.bupt.cli.impl;
+
+import java.io.PrintStream;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceRegistration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.siwind.bupt.api.DecodedPacket;
+import com.siwind.bupt.api.PacketConsumer;
+import com.siwind.bupt.api.PacketField;
+
+/**
+ * A {@code getpacket:tail} session: a packet consumer registered as an OSGi
+ * service for the length of the session only, so the pipeline picks it up
+ * through its consumer reference list and drops it again when the session
+ * ends. While no session runs the pipeline does not know about tailing at all.
+ *
+ * <p>The consumer is inline: the filter and the rate limit run on the
+ * notification thread without allocating, and only the packets let through are
+ * formatted and handed to the console thread, through a bounded queue which
+ * drops rather than waits.
+ */
+final class TailSession implements PacketConsumer {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TailSession.class);
+
+    private static final AtomicInteger SESSIONS = new AtomicInteger();
+
+    /**
+     * lines waiting for the console
+     */
+    private static final int QUEUE_SIZE = 1024;
+
+    /**
+     * fields of the brief summary line: addresses, ports and protocol
+     */
+    private static final Set<PacketField> SUMMARY_FIELDS =
+            EnumSet.of(PacketField.INGRESS, PacketField.IPV4, PacketField.IPV6, PacketField.PORTS);
+
+    /**
+     * fields the verbose summary line adds: MAC addresses, TCP flags, ICMP type and code
+     */
+    private static final Set<PacketField> VERBOSE_FIELDS =
+            EnumSet.of(PacketField.ETHERNET, PacketField.TCP, PacketField.ICMP);
+
+    private final String name = "tail-" + SESSIONS.incrementAndGet();
+    private final TailFilter filter;
+    private final int maxRate;
+    private final boolean verbose;
+    private final Set<PacketField> requiredFields;
+    private final BlockingQueue<String> lines = new ArrayBlockingQueue<>(QUEUE_SIZE);
+
+    // rate limit window, racy across notification threads, which only lets a few more through
+    private long windowStart = 0;
+    private int windowCount = 0;
+
+    private final AtomicLong matched = new AtomicLong();
+    private final AtomicLong limited = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+
+    /**
+     * @param filter compiled filter
+     * @param maxRate packets shown per second at most
+     * @param verbose whether the summary line shows the MAC addresses, TCP flags and ICMP type
+     */
+    TailSession(TailFilter filter, int maxRate, boolean verbose) {
+        this.filter = filter;
+        this.maxRate = maxRate;
+        this.verbose = verbose;
+        Set<PacketField> fields = EnumSet.copyOf(SUMMARY_FIELDS);
+        fields.addAll(filter.getRequiredFields());
+        if (verbose) {
+            fields.addAll(VERBOSE_FIELDS);
+        }
+        this.requiredFields = fields;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * What the filter and the summary line read, so a brief session does not
+     * raise the punted length to the TCP flags.
+     */
+    @Override
+    public Set<PacketField> getRequiredFields() {
+        return requiredFields;
+    }
+
+    @Override
+    public boolean isInline() {
+        return true;
+    }
+
+    @Override
+    public void onPacket(DecodedPacket packet) {
+        if (!filter.matches(packet)) {
+            return;
+        }
+        matched.incrementAndGet();
+        long now = packet.getTimestampMillis();
+        if (now - windowStart >= 1000) {
+            windowStart = now;
+            windowCount = 0;
+        }
+        if (windowCount >= maxRate) {
+            limited.incrementAndGet();
+            return;
+        }
+        windowCount++;
+        if (!lines.offer(summary(packet, verbose))) {
+            dropped.incrementAndGet();
+        }
+    }
+
+    /**
+     * Register the consumer, print the packets let through until the duration
+     * is over or the command is interrupted, then unregister it.
+     *
+     * @param bundleContext context to register the consumer with
+     * @param durationMs length of the session
+     * @param out console of the command
+     * @return summary of the session
+     */
+    String run(BundleContext bundleContext, long durationMs, PrintStream out) {
+        ServiceRegistration<PacketConsumer> registration =
+                bundleContext.registerService(PacketConsumer.class, this, null);
+        LOG.info("[Siwind] Started {} for {} ms", name, durationMs);
+        long deadline = System.currentTimeMillis() + durationMs;
+        long shown = 0;
+        try {
+            long remaining;
+            while ((remaining = deadline - System.currentTimeMillis()) > 0) {
+                String line = lines.poll(Math.min(remaining, 200), TimeUnit.MILLISECONDS);
+                if (line != null) {
+                    out.println(line);
+                    shown++;
+                }
+            }
+        } catch (InterruptedException e) {
+            // Ctrl-C
+            Thread.currentThread().interrupt();
+        } finally {
+            registration.unregister();
+            LOG.info("[Siwind] Stopped {}", name);
+        }
+        shown += lines.size();
+        for (String line = lines.poll(); line != null; line = lines.poll()) {
+            out.println(line);
+        }
+        return String.format("%d packets shown, %d matched, %d over the rate limit, %d dropped by the console",
+                shown, matched.get(), limited.get(), dropped.get());
+    }
+
+    /**
+     * @param packet packet to show
+     * @param verbose whether to add the MAC addresses of non-IP packets, the
+     *        TCP flags and the ICMP type and code
+     * @return one line like tcpdump's, e.g.
+     *         {@code 12:00:00.123 openflow:1:2 10.0.0.1.5000 > 10.0.0.2.53 udp 42 bytes}
+     */
+    static String summary(DecodedPacket packet, boolean verbose) {
+        StringBuilder line = new StringBuilder(128);
+        line.append(new SimpleDateFormat("HH:mm:ss.SSS").format(new Date(packet.getTimestampMillis())))
+                .append(' ').append(packet.getIngress());
+        if (packet.isTransit()) {
+            line.append(" transit");
+        }
+        if (packet.isIpv4() || packet.isIpv6()) {
+            line.append(' ').append(packet.getSrcIpString());
+            if (packet.hasPorts()) {
+                line.append('.').append(packet.getSrcPort());
+            }
+            line.append(" > ").append(packet.getDstIpString());
+            if (packet.hasPorts()) {
+                line.append('.').append(packet.getDstPort());
+            }
+            line.append(' ').append(protocolName(packet.getProtocol(), packet.isIpv6()));
+            if (verbose && packet.getProtocol() == 6 && packet.hasPorts()) {
+                line.append(" flags ").append(tcpFlags(packet.getTcpFlags()));
+            } else if (verbose && packet.hasIcmp()) {
+                line.append(" type ").append(packet.getIcmpType()).append(" code ").append(packet.getIcmpCode());
+            }
+        } else {
+            if (verbose) {
+                line.append(' ').append(mac(packet.getSrcMac())).append(" > ").append(mac(packet.getDstMac()));
+            }
+            line.append(String.format(" ethertype 0x%04x", packet.getEtherType()));
+        }
+        line.append(' ').append(packet.getPayload().length).append(" bytes");
+        if (packet.getSamplingRate() > 1) {
+            line.append(" sampled 1/").append(packet.getSamplingRate());
+        }
+        return line.toString();
+    }
+
+    private static String protocolName(short protocol, boolean ipv6) {
+        switch (protocol) {
+            case 1:
+                return "icmp";
+            case 6:
+                return "tcp";
+            case 17:
+                return "udp";
+            case 58:
+                return ipv6 ? "icmp6" : "proto 58";
+            default:
+                return "proto " + protocol;
+        }
+    }
+
+    private static String tcpFlags(int flags) {
+        StringBuilder text = new StringBuilder("[");
+        String names = "FSRPAUEC";
+        for (int i = 0; i < names.length(); i++) {
+            if ((flags & 1 << i) != 0) {
+                text.append(names.charAt(i));
+            }
+        }
+        return text.append(']').toString();
+    }
+
+    private static String mac(long address) {
+        return String.format("%02x:%02x:%02x:%02x:%02x:%02x", address >>> 40 & 0xFF, address >>> 32 & 0xFF,
+                address >>> 24 & 0xFF, address >>> 16 & 0xFF, address >>> 8 & 0xFF, address & 0xFF);
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright © 2016 siwind, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package com.siwind.bupt.cli.impl;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.getpacket.rev150105.flow.records.FlowRecord;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.getpacket.rev150105.flow.records.FlowRecordBuilder;
+
+public class FlowRecordFilterTest {
+
+    /**
+     * 10.0.0.1:40000 > 10.0.0.2:80 TCP on openflow:1:2
+     */
+    private static FlowRecord tcp() {
+        return new FlowRecordBuilder().setId("1").setIngress("openflow:1:2").setSrcIp("10.0.0.1")
+                .setDstIp("10.0.0.2").setProtocol((short) 6).setSrcPort(40000).setDstPort(80).build();
+    }
+
+    /**
+     * ICMPv6 without ports nor ingress
+     */
+    private static FlowRecord icmp6() {
+        return new FlowRecordBuilder().setId("2").setSrcIp("2001:db8::1").setDstIp("2001:db8::2")
+                .setProtocol((short) 58).build();
+    }
+
+    @Test
+    public void testEmpty() {
+        for (String expression : new String[] { null, "", "  " }) {
+            FlowRecordFilter filter = FlowRecordFilter.compile(expression);
+            assertTrue(filter.matches(tcp()));
+            assertTrue(filter.matches(icmp6()));
+        }
+    }
+
+    @Test
+    public void testInvalid() {
+        String[] invalid = { "port", "port=", "=80", "bogus=1", "port=http", "proto=tcp", "ethertype=0x0800" };
+        for (String expression : invalid) {
+            try {
+                FlowRecordFilter.compile(expression);
+                fail(expression);
+            } catch (IllegalArgumentException e) {
+                // expected, NumberFormatException included
+            }
+        }
+    }
+
+    @Test
+    public void testIngress() {
+        assertTrue(FlowRecordFilter.compile("ingress=openflow:1:2").matches(tcp()));
+        assertTrue(FlowRecordFilter.compile("ingress=openflow:1").matches(tcp()));
+        assertFalse(FlowRecordFilter.compile("ingress=openflow:12").matches(tcp()));
+        assertFalse(FlowRecordFilter.compile("ingress=openflow:1").matches(icmp6()));
+    }
+
+    @Test
+    public void testProtocolHostAndPort() {
+        assertTrue(FlowRecordFilter.compile("proto=6").matches(tcp()));
+        assertTrue(FlowRecordFilter.compile("proto=0x3a").matches(icmp6()));
+        assertFalse(FlowRecordFilter.compile("proto=17").matches(tcp()));
+
+        assertTrue(FlowRecordFilter.compile("host=10.0.0.1").matches(tcp()));
+        assertTrue(FlowRecordFilter.compile("host=10.0.0.2").matches(tcp()));
+        assertTrue(FlowRecordFilter.compile("host=2001:DB8::2").matches(icmp6()));
+        assertFalse(FlowRecordFilter.compile("host=10.0.0.3").matches(tcp()));
+
+        assertTrue(FlowRecordFilter.compile("port=80").matches(tcp()));
+        assertTrue(FlowRecordFilter.compile("port=40000").matches(tcp()));
+        assertFalse(FlowRecordFilter.compile("port=443").matches(tcp()));
+        assertFalse(FlowRecordFilter.compile("port=0").matches(icmp6()));
+    }
+
+    @Test
+    public void testAllTermsMustMatch() {
+        FlowRecordFilter filter = FlowRecordFilter.compile(" ingress=openflow:1  proto=6 host=10.0.0.2 port=80 ");
+        assertTrue(filter.matches(tcp()));
+        assertFalse(filter.matches(icmp6()));
+        assertFalse(FlowRecordFilter.compile("proto=6 port=443").matches(tcp()));
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright © 2016 siwind, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package com.siwind.bupt.cli.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.EnumSet;
+
+import org.junit.Test;
+
+import com.siwind.bupt.api.DecodedPacket;
+import com.siwind.bupt.api.PacketField;
+
+public class TailFilterTest {
+
+    /**
+     * 10.0.0.1:40000 > 10.0.0.2:80 TCP on openflow:1:2
+     */
+    static DecodedPacket ipv4Tcp() {
+        DecodedPacket packet = mock(DecodedPacket.class);
+        when(packet.getIngress()).thenReturn("openflow:1:2");
+        when(packet.getEtherType()).thenReturn(0x0800);
+        when(packet.isIpv4()).thenReturn(true);
+        when(packet.getSrcIp()).thenReturn(0x0A000001);
+        when(packet.getDstIp()).thenReturn(0x0A000002);
+        when(packet.getSrcIpString()).thenReturn("10.0.0.1");
+        when(packet.getDstIpString()).thenReturn("10.0.0.2");
+        when(packet.getProtocol()).thenReturn((short) 6);
+        when(packet.hasPorts()).thenReturn(true);
+        when(packet.getSrcPort()).thenReturn(40000);
+        when(packet.getDstPort()).thenReturn(80);
+        when(packet.getTcpFlags()).thenReturn(0x12);
+        when(packet.getPayload()).thenReturn(new byte[60]);
+        when(packet.getSamplingRate()).thenReturn(1);
+        return packet;
+    }
+
+    /**
+     * 2001:db8::1 > 2001:db8::2 ICMPv6 echo request on openflow:2:1
+     */
+    static DecodedPacket ipv6Icmp() {
+        DecodedPacket packet = mock(DecodedPacket.class);
+        when(packet.getIngress()).thenReturn("openflow:2:1");
+        when(packet.getEtherType()).thenReturn(0x86DD);
+        when(packet.isIpv6()).thenReturn(true);
+        when(packet.getSrcIpv6Hi()).thenReturn(0x20010DB800000000L);
+        when(packet.getSrcIpv6Lo()).thenReturn(1L);
+        when(packet.getDstIpv6Hi()).thenReturn(0x20010DB800000000L);
+        when(packet.getDstIpv6Lo()).thenReturn(2L);
+        when(packet.getSrcIpString()).thenReturn("2001:db8::1");
+        when(packet.getDstIpString()).thenReturn("2001:db8::2");
+        when(packet.getProtocol()).thenReturn((short) 58);
+        when(packet.hasIcmp()).thenReturn(true);
+        when(packet.getIcmpType()).thenReturn(128);
+        when(packet.getPayload()).thenReturn(new byte[70]);
+        when(packet.getSamplingRate()).thenReturn(1);
+        return packet;
+    }
+
+    static DecodedPacket arp() {
+        DecodedPacket packet = mock(DecodedPacket.class);
+        when(packet.getIngress()).thenReturn("openflow:1:2");
+        when(packet.getEtherType()).thenReturn(0x0806);
+        when(packet.getSrcMac()).thenReturn(0x0A0000000001L);
+        when(packet.getDstMac()).thenReturn(0xFFFFFFFFFFFFL);
+        when(packet.getPayload()).thenReturn(new byte[60]);
+        when(packet.getSamplingRate()).thenReturn(1);
+        return packet;
+    }
+
+    @Test
+    public void testEmpty() {
+        for (String expression : new String[] { null, "", "  " }) {
+            TailFilter filter = TailFilter.compile(expression);
+            assertTrue(filter.matches(ipv4Tcp()));
+            assertTrue(filter.matches(arp()));
+            assertTrue(filter.getRequiredFields().isEmpty());
+        }
+    }
+
+    @Test
+    public void testInvalid() {
+        String[] invalid = { "port", "port=", "=80", "bogus=1", "port=http", "proto=tcp", "host=10.0.0.256",
+            "host=10.0.0.0/24", "host=localhost", "host=::ffff:10.0.0.1", "host=::ffff:a00:1" };
+        for (String expression : invalid) {
+            try {
+                TailFilter.compile(expression);
+                fail(expression);
+            } catch (IllegalArgumentException e) {
+                // expected, NumberFormatException included
+            }
+        }
+    }
+
+    @Test
+    public void testIngress() {
+        assertTrue(TailFilter.compile("ingress=openflow:1:2").matches(ipv4Tcp()));
+        assertTrue(TailFilter.compile("ingress=openflow:1").matches(ipv4Tcp()));
+        assertFalse(TailFilter.compile("ingress=openflow:1:20").matches(ipv4Tcp()));
+        // a datapath, not a string prefix
+        assertFalse(TailFilter.compile("ingress=openflow:1:").matches(ipv4Tcp()));
+        assertFalse(TailFilter.compile("ingress=openflow:12").matches(ipv4Tcp()));
+        assertFalse(TailFilter.compile("ingress=openflow:1").matches(ipv6Icmp()));
+    }
+
+    @Test
+    public void testEtherTypeAndProtocol() {
+        assertTrue(TailFilter.compile("ethertype=0x0806").matches(arp()));
+        assertFalse(TailFilter.compile("ethertype=0x0806").matches(ipv4Tcp()));
+        assertTrue(TailFilter.compile("ethertype=2048").matches(ipv4Tcp()));
+
+        assertTrue(TailFilter.compile("proto=6").matches(ipv4Tcp()));
+        assertTrue(TailFilter.compile("proto=58").matches(ipv6Icmp()));
+        assertFalse(TailFilter.compile("proto=17").matches(ipv4Tcp()));
+        // no IP protocol at all
+        assertFalse(TailFilter.compile("proto=0").matches(arp()));
+    }
+
+    @Test
+    public void testHost() {
+        assertTrue(TailFilter.compile("host=10.0.0.1").matches(ipv4Tcp()));
+        assertTrue(TailFilter.compile("host=10.0.0.2").matches(ipv4Tcp()));
+        assertFalse(TailFilter.compile("host=10.0.0.3").matches(ipv4Tcp()));
+        assertFalse(TailFilter.compile("host=10.0.0.1").matches(ipv6Icmp()));
+
+        assertTrue(TailFilter.compile("host=2001:db8::1").matches(ipv6Icmp()));
+        assertTrue(TailFilter.compile("host=2001:DB8:0:0:0:0:0:2").matches(ipv6Icmp()));
+        assertFalse(TailFilter.compile("host=2001:db8::3").matches(ipv6Icmp()));
+        assertFalse(TailFilter.compile("host=2001:db8::1").matches(ipv4Tcp()));
+    }
+
+    @Test
+    public void testPortAndAllTerms() {
+        assertTrue(TailFilter.compile("port=80").matches(ipv4Tcp()));
+        assertTrue(TailFilter.compile("port=40000").matches(ipv4Tcp()));
+        assertFalse(TailFilter.compile("port=443").matches(ipv4Tcp()));
+        assertFalse(TailFilter.compile("port=0").matches(ipv6Icmp()));
+
+        TailFilter filter = TailFilter.compile(" ingress=openflow:1  proto=6 host=10.0.0.2 port=80 ");
+        assertTrue(filter.matches(ipv4Tcp()));
+        assertFalse(filter.matches(ipv6Icmp()));
+        assertFalse(TailFilter.compile("proto=6 port=443").matches(ipv4Tcp()));
+    }
+
+    @Test
+    public void testRequiredFields() {
+        assertEquals(EnumSet.of(PacketField.INGRESS), TailFilter.compile("ingress=openflow:1").getRequiredFields());
+        assertTrue(TailFilter.compile("ethertype=0x0806").getRequiredFields().isEmpty());
+        assertEquals(EnumSet.of(PacketField.IPV4, PacketField.IPV6),
+                TailFilter.compile("proto=17").getRequiredFields());
+        assertEquals(EnumSet.of(PacketField.IPV4), TailFilter.compile("host=10.0.0.1").getRequiredFields());
+        assertEquals(EnumSet.of(PacketField.IPV6), TailFilter.compile("host=2001:db8::1").getRequiredFields());
+        assertEquals(EnumSet.of(PacketField.PORTS, PacketField.IPV4),
+                TailFilter.compile("port=53 host=10.0.0.1").getRequiredFields());
+    }
+}
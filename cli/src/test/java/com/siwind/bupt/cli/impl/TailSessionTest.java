@@ -0,0 +1,98 @@
+/*
+ * Copyright © 2016 siwind, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package com.siwind.bupt.cli.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.EnumSet;
+
+import org.junit.Test;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceRegistration;
+
+import com.siwind.bupt.api.DecodedPacket;
+import com.siwind.bupt.api.PacketConsumer;
+import com.siwind.bupt.api.PacketField;
+
+public class TailSessionTest {
+
+    private static DecodedPacket at(DecodedPacket packet, long timestampMillis) {
+        when(packet.getTimestampMillis()).thenReturn(timestampMillis);
+        return packet;
+    }
+
+    /**
+     * Run the session for a moment, printing what was let through before it.
+     */
+    @SuppressWarnings("unchecked")
+    private static String run(TailSession session, ByteArrayOutputStream out) {
+        BundleContext bundleContext = mock(BundleContext.class);
+        ServiceRegistration<PacketConsumer> registration = mock(ServiceRegistration.class);
+        when(bundleContext.registerService(eq(PacketConsumer.class), any(PacketConsumer.class), any()))
+                .thenReturn(registration);
+        String result = session.run(bundleContext, 1, new PrintStream(out, true));
+        verify(bundleContext).registerService(PacketConsumer.class, session, null);
+        verify(registration).unregister();
+        return result;
+    }
+
+    @Test
+    public void testRateLimit() {
+        TailSession session = new TailSession(TailFilter.compile("proto=6"), 3, false);
+        DecodedPacket packet = TailFilterTest.ipv4Tcp();
+        for (int i = 0; i < 5; i++) {
+            session.onPacket(at(packet, 10000 + i));
+        }
+        // filtered out before the rate limit
+        session.onPacket(at(TailFilterTest.arp(), 10005));
+        // a new window
+        session.onPacket(at(packet, 11000));
+        session.onPacket(at(packet, 11999));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertEquals("5 packets shown, 7 matched, 2 over the rate limit, 0 dropped by the console",
+                run(session, out));
+        assertEquals(5, new String(out.toByteArray(), StandardCharsets.UTF_8).split("\n").length);
+    }
+
+    @Test
+    public void testRequiredFields() {
+        EnumSet<PacketField> brief =
+                EnumSet.of(PacketField.INGRESS, PacketField.IPV4, PacketField.IPV6, PacketField.PORTS);
+        assertEquals(brief, new TailSession(TailFilter.compile(null), 10, false).getRequiredFields());
+        assertEquals(brief, new TailSession(TailFilter.compile("host=10.0.0.1 port=80"), 10, false)
+                .getRequiredFields());
+        assertEquals(EnumSet.allOf(PacketField.class),
+                new TailSession(TailFilter.compile(null), 10, true).getRequiredFields());
+    }
+
+    @Test
+    public void testSummary() {
+        String tcp = TailSession.summary(at(TailFilterTest.ipv4Tcp(), 0), false);
+        assertTrue(tcp, tcp.endsWith(" openflow:1:2 10.0.0.1.40000 > 10.0.0.2.80 tcp 60 bytes"));
+        tcp = TailSession.summary(at(TailFilterTest.ipv4Tcp(), 0), true);
+        assertTrue(tcp, tcp.endsWith(" 10.0.0.1.40000 > 10.0.0.2.80 tcp flags [SA] 60 bytes"));
+
+        String icmp = TailSession.summary(at(TailFilterTest.ipv6Icmp(), 0), true);
+        assertTrue(icmp, icmp.endsWith(" 2001:db8::1 > 2001:db8::2 icmp6 type 128 code 0 70 bytes"));
+
+        String arp = TailSession.summary(at(TailFilterTest.arp(), 0), false);
+        assertTrue(arp, arp.endsWith(" openflow:1:2 ethertype 0x0806 60 bytes"));
+        arp = TailSession.summary(at(TailFilterTest.arp(), 0), true);
+        assertTrue(arp, arp.endsWith(" 0a:00:00:00:00:01 > ff:ff:ff:ff:ff:ff ethertype 0x0806 60 bytes"));
+    }
+}
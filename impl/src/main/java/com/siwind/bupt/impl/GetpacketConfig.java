@@ -0,0 +1,1023 @@
+/*
+ * Copyright © 2016 siwind, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package com.siwind.bupt.impl;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+
+/**
+ * Runtime settings of the getpacket module.
+ *
+ * <p>Populated by blueprint from the {@code com.siwind.bupt.getpacket} config admin
+ * pid; the defaults here are the ones used when no property is given.
+ */
+public class GetpacketConfig {
+
+    /**
+     * whether exported flows are offloaded to the ingress switch
+     */
+    private boolean offloadEnabled = false;
+
+    /**
+     * FORWARD (output NORMAL) or SUPPRESS (drop) for offloaded flows
+     */
+    private String offloadAction = "FORWARD";
+
+    private short offloadTableId = 0;
+
+    private int offloadPriority = 200;
+
+    /**
+     * idle timeout in seconds of an offloaded flow
+     */
+    private int offloadIdleTimeout = 10;
+
+    /**
+     * hard timeout in seconds of an offloaded flow, 0 means none
+     */
+    private int offloadHardTimeout = 60;
+
+    /**
+     * max number of flow installs issued per flush
+     */
+    private int offloadBatchSize = 64;
+
+    private long offloadFlushIntervalMs = 50;
+
+    /**
+     * max number of flow installs per second per switch
+     */
+    private int offloadInstallRate = 100;
+
+    /**
+     * max number of offloaded flows kept on a single switch
+     */
+    private int offloadMaxFlowsPerSwitch = 1000;
+
+    /**
+     * max number of installs waiting to be flushed
+     */
+    private int offloadMaxPending = 4096;
+
+    /**
+     * whether getpacket programs its own table-miss (punt) flow on every switch
+     */
+    private boolean puntEnabled = false;
+
+    private short puntTableId = 0;
+
+    private int puntPriority = 0;
+
+    /**
+     * controller max_len of the punt flow, 0 sizes it to the headers the pipeline reads
+     */
+    private int puntMaxLength = 0;
+
+    /**
+     * whether a packet capture is started with the module
+     */
+    private boolean captureEnabled = false;
+
+    /**
+     * pcapng ring file of the packet capture
+     */
+    private String captureFile = "data/getpacket/capture.pcapng";
+
+    private long captureSizeMb = 64;
+
+    /**
+     * max bytes kept of every captured packet
+     */
+    private int captureSnapLength = 65535;
+
+    /**
+     * max number of captured packets waiting for the writer
+     */
+    private int captureQueueSize = 8192;
+
+    private String captureFilter = "";
+
+    /**
+     * comma separated base URLs of the Trident receivers flow records are exported to
+     */
+    private String tridentUrls = "http://127.0.0.1:12321/";
+
+    /**
+     * records waiting for the exporter before new ones are dropped
+     */
+    private int exportQueueSize = 8192;
+
+    private int exportConnectTimeoutMs = 1000;
+
+    private int exportSocketTimeoutMs = 2000;
+
+    /**
+     * consecutive failed exports which open the circuit breaker
+     */
+    private int exportBreakerFailures = 3;
+
+    /**
+     * time the breaker stays open before a probe export is tried
+     */
+    private long exportBreakerOpenMs = 5000;
+
+    /**
+     * spill records to a journal on disk while the receiver is unreachable
+     */
+    private boolean spillEnabled = true;
+
+    private String spillDirectory = "data/getpacket/spill";
+
+    private int spillSegmentSizeMb = 16;
+
+    /**
+     * disk budget of the spill journal of each receiver, the oldest segment is dropped beyond it;
+     * spilling is disabled if it does not hold two segments
+     */
+    private long spillMaxSizeMb = 256;
+
+    /**
+     * spilled records older than this are not replayed, 0 for no limit
+     */
+    private long spillMaxAgeSeconds = 3600;
+
+    /**
+     * points of every receiver on the consistent hash ring
+     */
+    private int exportVirtualNodes = 128;
+
+    /**
+     * interval of the health checks of unavailable receivers
+     */
+    private long exportHealthIntervalMs = 1000;
+
+    /**
+     * which TCP packets are exported: ALL, NEW (connection opens) or OPEN_CLOSE (opens and closes)
+     */
+    private String exportMode = "ALL";
+
+    /**
+     * connections tracked at most when the export mode is not ALL
+     */
+    private int conntrackMaxEntries = 65536;
+
+    private int conntrackSynTimeoutSec = 30;
+
+    private int conntrackEstablishedTimeoutSec = 300;
+
+    private int conntrackClosingTimeoutSec = 30;
+
+    private int conntrackClosedTimeoutSec = 10;
+
+    /**
+     * packets queued for a packet consumer which is not inline before they are dropped for it
+     */
+    private int consumerQueueSize = 4096;
+
+    /**
+     * whether received packets are published in decoded-packets notifications
+     */
+    private boolean publishEnabled = false;
+
+    /**
+     * packets published in one notification at most
+     */
+    private int publishBatchSize = 256;
+
+    /**
+     * time a packet waits at most for its notification to fill up
+     */
+    private int publishBatchIntervalMs = 100;
+
+    /**
+     * packets waiting to be published before they are dropped
+     */
+    private int publishQueueSize = 8192;
+
+    /**
+     * time a notification waits at most for room in the notification queue before it is dropped
+     */
+    private int publishOfferTimeoutMs = 1000;
+
+    /**
+     * whether recent flows are kept in the operational datastore
+     */
+    private boolean flowStoreEnabled = false;
+
+    /**
+     * time between writes of the changed flows to the datastore
+     */
+    private int flowStoreIntervalMs = 1000;
+
+    /**
+     * changed flows which trigger a write before the interval is over
+     */
+    private int flowStoreBatchSize = 1024;
+
+    /**
+     * writes to the datastore not yet committed at most, further changes wait for the next write
+     */
+    private int flowStoreMaxOutstanding = 2;
+
+    /**
+     * flows kept at most, packets of further flows are not recorded
+     */
+    private int flowStoreMaxEntries = 65536;
+
+    /**
+     * time without packets after which a flow is removed from the datastore
+     */
+    private int flowStoreIdleTimeoutSec = 60;
+
+    /**
+     * ethertypes dropped before decoding unless handled, comma separated names
+     * (lldp, bpdu, arp, ipv4, ipv6) or numbers such as 0x88cc
+     */
+    private String dropEtherTypes = "lldp,bpdu,arp";
+
+    /**
+     * whether host locations are learned from ARP and IPv4 packet-ins
+     */
+    private boolean hostTrackerEnabled = true;
+
+    /**
+     * hosts tracked at most, further hosts are not learned until others age out
+     */
+    private int hostMaxEntries = 16384;
+
+    /**
+     * time without packets after which a host is forgotten
+     */
+    private int hostTimeoutSec = 300;
+
+    /**
+     * comma separated prefix=tenant:site:segment entries tagging exported records
+     * by subnet, e.g. 10.1.0.0/16=1:2:3
+     */
+    private String subnetTags = "";
+
+    /**
+     * whether only packets with a tagged source or destination are exported
+     */
+    private boolean exportTaggedOnly = false;
+
+    /**
+     * whether packets coming in on ports linking two switches are exported too, tagged as transit
+     */
+    private boolean exportTransit = false;
+
+    /**
+     * whether frames punted again by another switch within the dedup window are dropped
+     */
+    private boolean dedupEnabled = false;
+
+    /**
+     * milliseconds a frame is remembered for, at least, to drop its duplicates
+     */
+    private long dedupWindowMs = 100;
+
+    /**
+     * size in bits of each of the two bloom filters remembering the frames
+     */
+    private int dedupFilterBits = 1048576;
+
+    /**
+     * bytes after the ethernet header compared to find duplicates
+     */
+    private int dedupPrefixBytes = 128;
+
+    /**
+     * keep 1 in N packets of ingresses without a rate of their own, 1 to keep all
+     */
+    private int samplingRate = 1;
+
+    /**
+     * how packets are sampled: deterministic (every Nth) or random (probability 1/N)
+     */
+    private String samplingMode = "deterministic";
+
+    /**
+     * sampling rates of given ingresses, comma separated node-connector=N, e.g. openflow:1:2=100
+     */
+    private String samplingIngressRates = "";
+
+    /**
+     * largest rate the sampling may be raised to while the consumer or export queues fill up, 1 not to adapt
+     */
+    private int samplingMaxRate = 1;
+
+    /**
+     * protocols exported to Trident, comma separated tcp, udp and icmp; only TCP follows the export mode
+     */
+    private String exportProtocols = "tcp";
+
+    /**
+     * whether later IPv4 fragments are given the ports of their first fragment
+     */
+    private boolean fragmentTrackerEnabled = true;
+
+    /**
+     * fragmented packets tracked at most
+     */
+    private int fragmentMaxEntries = 4096;
+
+    /**
+     * milliseconds the ports of a first fragment are remembered
+     */
+    private long fragmentTimeoutMs = 2000;
+
+    /**
+     * trace the stage latencies of 1 in N packets, 0 to disable
+     */
+    private int latencyTraceRate = 64;
+
+    /**
+     * milliseconds between two writes of the latencies
+     */
+    private long latencyPublishIntervalMs = 5000;
+
+    /**
+     * whether the flight recorder events of the pipeline are registered, each still
+     * disabled until enabled in a recording
+     */
+    private boolean jfrEnabled = true;
+
+    /**
+     * flight recorder events emitted at most per second of each type
+     */
+    private int jfrMaxEventsPerSecond = 1000;
+
+    /**
+     * milliseconds between two snapshots of the statistics
+     */
+    private long statsIntervalMs = 1000;
+
+    /**
+     * whether the heaviest source addresses of every datapath are counted
+     */
+    private boolean topTalkersEnabled = true;
+
+    /**
+     * source addresses counted per datapath
+     */
+    private int topTalkersCapacity = 64;
+
+    /**
+     * whether the generate-traffic RPC may push synthetic packet-ins
+     */
+    private boolean trafficGeneratorEnabled = false;
+
+    public boolean isOffloadEnabled() {
+        return offloadEnabled;
+    }
+
+    public void setOffloadEnabled(boolean offloadEnabled) {
+        this.offloadEnabled = offloadEnabled;
+    }
+
+    public String getOffloadAction() {
+        return offloadAction;
+    }
+
+    public void setOffloadAction(String offloadAction) {
+        this.offloadAction = offloadAction;
+    }
+
+    public short getOffloadTableId() {
+        return offloadTableId;
+    }
+
+    public void setOffloadTableId(short offloadTableId) {
+        this.offloadTableId = offloadTableId;
+    }
+
+    public int getOffloadPriority() {
+        return offloadPriority;
+    }
+
+    public void setOffloadPriority(int offloadPriority) {
+        this.offloadPriority = offloadPriority;
+    }
+
+    public int getOffloadIdleTimeout() {
+        return offloadIdleTimeout;
+    }
+
+    public void setOffloadIdleTimeout(int offloadIdleTimeout) {
+        this.offloadIdleTimeout = offloadIdleTimeout;
+    }
+
+    public int getOffloadHardTimeout() {
+        return offloadHardTimeout;
+    }
+
+    public void setOffloadHardTimeout(int offloadHardTimeout) {
+        this.offloadHardTimeout = offloadHardTimeout;
+    }
+
+    public int getOffloadBatchSize() {
+        return offloadBatchSize;
+    }
+
+    public void setOffloadBatchSize(int offloadBatchSize) {
+        this.offloadBatchSize = offloadBatchSize;
+    }
+
+    public long getOffloadFlushIntervalMs() {
+        return offloadFlushIntervalMs;
+    }
+
+    public void setOffloadFlushIntervalMs(long offloadFlushIntervalMs) {
+        this.offloadFlushIntervalMs = offloadFlushIntervalMs;
+    }
+
+    public int getOffloadInstallRate() {
+        return offloadInstallRate;
+    }
+
+    public void setOffloadInstallRate(int offloadInstallRate) {
+        this.offloadInstallRate = offloadInstallRate;
+    }
+
+    public int getOffloadMaxFlowsPerSwitch() {
+        return offloadMaxFlowsPerSwitch;
+    }
+
+    public void setOffloadMaxFlowsPerSwitch(int offloadMaxFlowsPerSwitch) {
+        this.offloadMaxFlowsPerSwitch = offloadMaxFlowsPerSwitch;
+    }
+
+    public int getOffloadMaxPending() {
+        return offloadMaxPending;
+    }
+
+    public void setOffloadMaxPending(int offloadMaxPending) {
+        this.offloadMaxPending = offloadMaxPending;
+    }
+
+    public boolean isPuntEnabled() {
+        return puntEnabled;
+    }
+
+    public void setPuntEnabled(boolean puntEnabled) {
+        this.puntEnabled = puntEnabled;
+    }
+
+    public short getPuntTableId() {
+        return puntTableId;
+    }
+
+    public void setPuntTableId(short puntTableId) {
+        this.puntTableId = puntTableId;
+    }
+
+    public int getPuntPriority() {
+        return puntPriority;
+    }
+
+    public void setPuntPriority(int puntPriority) {
+        this.puntPriority = puntPriority;
+    }
+
+    public int getPuntMaxLength() {
+        return puntMaxLength;
+    }
+
+    public void setPuntMaxLength(int puntMaxLength) {
+        this.puntMaxLength = puntMaxLength;
+    }
+
+    public boolean isCaptureEnabled() {
+        return captureEnabled;
+    }
+
+    public void setCaptureEnabled(boolean captureEnabled) {
+        this.captureEnabled = captureEnabled;
+    }
+
+    public String getCaptureFile() {
+        return captureFile;
+    }
+
+    public void setCaptureFile(String captureFile) {
+        this.captureFile = captureFile;
+    }
+
+    public long getCaptureSizeMb() {
+        return captureSizeMb;
+    }
+
+    public void setCaptureSizeMb(long captureSizeMb) {
+        this.captureSizeMb = captureSizeMb;
+    }
+
+    public int getCaptureSnapLength() {
+        return captureSnapLength;
+    }
+
+    public void setCaptureSnapLength(int captureSnapLength) {
+        this.captureSnapLength = captureSnapLength;
+    }
+
+    public int getCaptureQueueSize() {
+        return captureQueueSize;
+    }
+
+    public void setCaptureQueueSize(int captureQueueSize) {
+        this.captureQueueSize = captureQueueSize;
+    }
+
+    public String getCaptureFilter() {
+        return captureFilter;
+    }
+
+    public void setCaptureFilter(String captureFilter) {
+        this.captureFilter = captureFilter;
+    }
+
+    public String getTridentUrls() {
+        return tridentUrls;
+    }
+
+    public void setTridentUrls(String tridentUrls) {
+        this.tridentUrls = tridentUrls;
+    }
+
+    public int getExportQueueSize() {
+        return exportQueueSize;
+    }
+
+    public void setExportQueueSize(int exportQueueSize) {
+        this.exportQueueSize = exportQueueSize;
+    }
+
+    public int getExportConnectTimeoutMs() {
+        return exportConnectTimeoutMs;
+    }
+
+    public void setExportConnectTimeoutMs(int exportConnectTimeoutMs) {
+        this.exportConnectTimeoutMs = exportConnectTimeoutMs;
+    }
+
+    public int getExportSocketTimeoutMs() {
+        return exportSocketTimeoutMs;
+    }
+
+    public void setExportSocketTimeoutMs(int exportSocketTimeoutMs) {
+        this.exportSocketTimeoutMs = exportSocketTimeoutMs;
+    }
+
+    public int getExportBreakerFailures() {
+        return exportBreakerFailures;
+    }
+
+    public void setExportBreakerFailures(int exportBreakerFailures) {
+        this.exportBreakerFailures = exportBreakerFailures;
+    }
+
+    public long getExportBreakerOpenMs() {
+        return exportBreakerOpenMs;
+    }
+
+    public void setExportBreakerOpenMs(long exportBreakerOpenMs) {
+        this.exportBreakerOpenMs = exportBreakerOpenMs;
+    }
+
+    public boolean isSpillEnabled() {
+        return spillEnabled;
+    }
+
+    public void setSpillEnabled(boolean spillEnabled) {
+        this.spillEnabled = spillEnabled;
+    }
+
+    public String getSpillDirectory() {
+        return spillDirectory;
+    }
+
+    public void setSpillDirectory(String spillDirectory) {
+        this.spillDirectory = spillDirectory;
+    }
+
+    public int getSpillSegmentSizeMb() {
+        return spillSegmentSizeMb;
+    }
+
+    public void setSpillSegmentSizeMb(int spillSegmentSizeMb) {
+        this.spillSegmentSizeMb = spillSegmentSizeMb;
+    }
+
+    public long getSpillMaxSizeMb() {
+        return spillMaxSizeMb;
+    }
+
+    public void setSpillMaxSizeMb(long spillMaxSizeMb) {
+        this.spillMaxSizeMb = spillMaxSizeMb;
+    }
+
+    public long getSpillMaxAgeSeconds() {
+        return spillMaxAgeSeconds;
+    }
+
+    public void setSpillMaxAgeSeconds(long spillMaxAgeSeconds) {
+        this.spillMaxAgeSeconds = spillMaxAgeSeconds;
+    }
+
+    public int getExportVirtualNodes() {
+        return exportVirtualNodes;
+    }
+
+    public void setExportVirtualNodes(int exportVirtualNodes) {
+        this.exportVirtualNodes = exportVirtualNodes;
+    }
+
+    public long getExportHealthIntervalMs() {
+        return exportHealthIntervalMs;
+    }
+
+    public void setExportHealthIntervalMs(long exportHealthIntervalMs) {
+        this.exportHealthIntervalMs = exportHealthIntervalMs;
+    }
+
+    public String getExportMode() {
+        return exportMode;
+    }
+
+    public void setExportMode(String exportMode) {
+        this.exportMode = exportMode;
+    }
+
+    public int getConntrackMaxEntries() {
+        return conntrackMaxEntries;
+    }
+
+    public void setConntrackMaxEntries(int conntrackMaxEntries) {
+        this.conntrackMaxEntries = conntrackMaxEntries;
+    }
+
+    public int getConntrackSynTimeoutSec() {
+        return conntrackSynTimeoutSec;
+    }
+
+    public void setConntrackSynTimeoutSec(int conntrackSynTimeoutSec) {
+        this.conntrackSynTimeoutSec = conntrackSynTimeoutSec;
+    }
+
+    public int getConntrackEstablishedTimeoutSec() {
+        return conntrackEstablishedTimeoutSec;
+    }
+
+    public void setConntrackEstablishedTimeoutSec(int conntrackEstablishedTimeoutSec) {
+        this.conntrackEstablishedTimeoutSec = conntrackEstablishedTimeoutSec;
+    }
+
+    public int getConntrackClosingTimeoutSec() {
+        return conntrackClosingTimeoutSec;
+    }
+
+    public void setConntrackClosingTimeoutSec(int conntrackClosingTimeoutSec) {
+        this.conntrackClosingTimeoutSec = conntrackClosingTimeoutSec;
+    }
+
+    public int getConntrackClosedTimeoutSec() {
+        return conntrackClosedTimeoutSec;
+    }
+
+    public void setConntrackClosedTimeoutSec(int conntrackClosedTimeoutSec) {
+        this.conntrackClosedTimeoutSec = conntrackClosedTimeoutSec;
+    }
+
+    public int getConsumerQueueSize() {
+        return consumerQueueSize;
+    }
+
+    public void setConsumerQueueSize(int consumerQueueSize) {
+        this.consumerQueueSize = consumerQueueSize;
+    }
+
+    public boolean isPublishEnabled() {
+        return publishEnabled;
+    }
+
+    public void setPublishEnabled(boolean publishEnabled) {
+        this.publishEnabled = publishEnabled;
+    }
+
+    public int getPublishBatchSize() {
+        return publishBatchSize;
+    }
+
+    public void setPublishBatchSize(int publishBatchSize) {
+        this.publishBatchSize = publishBatchSize;
+    }
+
+    public int getPublishBatchIntervalMs() {
+        return publishBatchIntervalMs;
+    }
+
+    public void setPublishBatchIntervalMs(int publishBatchIntervalMs) {
+        this.publishBatchIntervalMs = publishBatchIntervalMs;
+    }
+
+    public int getPublishQueueSize() {
+        return publishQueueSize;
+    }
+
+    public void setPublishQueueSize(int publishQueueSize) {
+        this.publishQueueSize = publishQueueSize;
+    }
+
+    public int getPublishOfferTimeoutMs() {
+        return publishOfferTimeoutMs;
+    }
+
+    public void setPublishOfferTimeoutMs(int publishOfferTimeoutMs) {
+        this.publishOfferTimeoutMs = publishOfferTimeoutMs;
+    }
+
+    public boolean isFlowStoreEnabled() {
+        return flowStoreEnabled;
+    }
+
+    public void setFlowStoreEnabled(boolean flowStoreEnabled) {
+        this.flowStoreEnabled = flowStoreEnabled;
+    }
+
+    public int getFlowStoreIntervalMs() {
+        return flowStoreIntervalMs;
+    }
+
+    public void setFlowStoreIntervalMs(int flowStoreIntervalMs) {
+        this.flowStoreIntervalMs = flowStoreIntervalMs;
+    }
+
+    public int getFlowStoreBatchSize() {
+        return flowStoreBatchSize;
+    }
+
+    public void setFlowStoreBatchSize(int flowStoreBatchSize) {
+        this.flowStoreBatchSize = flowStoreBatchSize;
+    }
+
+    public int getFlowStoreMaxOutstanding() {
+        return flowStoreMaxOutstanding;
+    }
+
+    public void setFlowStoreMaxOutstanding(int flowStoreMaxOutstanding) {
+        this.flowStoreMaxOutstanding = flowStoreMaxOutstanding;
+    }
+
+    public int getFlowStoreMaxEntries() {
+        return flowStoreMaxEntries;
+    }
+
+    public void setFlowStoreMaxEntries(int flowStoreMaxEntries) {
+        this.flowStoreMaxEntries = flowStoreMaxEntries;
+    }
+
+    public int getFlowStoreIdleTimeoutSec() {
+        return flowStoreIdleTimeoutSec;
+    }
+
+    public void setFlowStoreIdleTimeoutSec(int flowStoreIdleTimeoutSec) {
+        this.flowStoreIdleTimeoutSec = flowStoreIdleTimeoutSec;
+    }
+
+    public String getDropEtherTypes() {
+        return dropEtherTypes;
+    }
+
+    public void setDropEtherTypes(String dropEtherTypes) {
+        this.dropEtherTypes = dropEtherTypes;
+    }
+
+    public boolean isHostTrackerEnabled() {
+        return hostTrackerEnabled;
+    }
+
+    public void setHostTrackerEnabled(boolean hostTrackerEnabled) {
+        this.hostTrackerEnabled = hostTrackerEnabled;
+    }
+
+    public int getHostMaxEntries() {
+        return hostMaxEntries;
+    }
+
+    public void setHostMaxEntries(int hostMaxEntries) {
+        this.hostMaxEntries = hostMaxEntries;
+    }
+
+    public int getHostTimeoutSec() {
+        return hostTimeoutSec;
+    }
+
+    public void setHostTimeoutSec(int hostTimeoutSec) {
+        this.hostTimeoutSec = hostTimeoutSec;
+    }
+
+    public String getSubnetTags() {
+        return subnetTags;
+    }
+
+    public void setSubnetTags(String subnetTags) {
+        this.subnetTags = subnetTags;
+    }
+
+    public boolean isExportTaggedOnly() {
+        return exportTaggedOnly;
+    }
+
+    public void setExportTaggedOnly(boolean exportTaggedOnly) {
+        this.exportTaggedOnly = exportTaggedOnly;
+    }
+
+    public boolean isExportTransit() {
+        return exportTransit;
+    }
+
+    public void setExportTransit(boolean exportTransit) {
+        this.exportTransit = exportTransit;
+    }
+
+    public boolean isDedupEnabled() {
+        return dedupEnabled;
+    }
+
+    public void setDedupEnabled(boolean dedupEnabled) {
+        this.dedupEnabled = dedupEnabled;
+    }
+
+    public long getDedupWindowMs() {
+        return dedupWindowMs;
+    }
+
+    public void setDedupWindowMs(long dedupWindowMs) {
+        this.dedupWindowMs = dedupWindowMs;
+    }
+
+    public int getDedupFilterBits() {
+        return dedupFilterBits;
+    }
+
+    public void setDedupFilterBits(int dedupFilterBits) {
+        this.dedupFilterBits = dedupFilterBits;
+    }
+
+    public int getDedupPrefixBytes() {
+        return dedupPrefixBytes;
+    }
+
+    public void setDedupPrefixBytes(int dedupPrefixBytes) {
+        this.dedupPrefixBytes = dedupPrefixBytes;
+    }
+
+    public int getSamplingRate() {
+        return samplingRate;
+    }
+
+    public void setSamplingRate(int samplingRate) {
+        this.samplingRate = samplingRate;
+    }
+
+    public String getSamplingMode() {
+        return samplingMode;
+    }
+
+    public void setSamplingMode(String samplingMode) {
+        this.samplingMode = samplingMode;
+    }
+
+    public String getSamplingIngressRates() {
+        return samplingIngressRates;
+    }
+
+    public void setSamplingIngressRates(String samplingIngressRates) {
+        this.samplingIngressRates = samplingIngressRates;
+    }
+
+    public int getSamplingMaxRate() {
+        return samplingMaxRate;
+    }
+
+    public void setSamplingMaxRate(int samplingMaxRate) {
+        this.samplingMaxRate = samplingMaxRate;
+    }
+
+    public String getExportProtocols() {
+        return exportProtocols;
+    }
+
+    public void setExportProtocols(String exportProtocols) {
+        this.exportProtocols = exportProtocols;
+    }
+
+    public boolean isFragmentTrackerEnabled() {
+        return fragmentTrackerEnabled;
+    }
+
+    public void setFragmentTrackerEnabled(boolean fragmentTrackerEnabled) {
+        this.fragmentTrackerEnabled = fragmentTrackerEnabled;
+    }
+
+    public int getFragmentMaxEntries() {
+        return fragmentMaxEntries;
+    }
+
+    public void setFragmentMaxEntries(int fragmentMaxEntries) {
+        this.fragmentMaxEntries = fragmentMaxEntries;
+    }
+
+    public long getFragmentTimeoutMs() {
+        return fragmentTimeoutMs;
+    }
+
+    public void setFragmentTimeoutMs(long fragmentTimeoutMs) {
+        this.fragmentTimeoutMs = fragmentTimeoutMs;
+    }
+
+    public int getLatencyTraceRate() {
+        return latencyTraceRate;
+    }
+
+    public void setLatencyTraceRate(int latencyTraceRate) {
+        this.latencyTraceRate = latencyTraceRate;
+    }
+
+    public long getLatencyPublishIntervalMs() {
+        return latencyPublishIntervalMs;
+    }
+
+    public void setLatencyPublishIntervalMs(long latencyPublishIntervalMs) {
+        this.latencyPublishIntervalMs = latencyPublishIntervalMs;
+    }
+
+    public boolean isJfrEnabled() {
+        return jfrEnabled;
+    }
+
+    public void setJfrEnabled(boolean jfrEnabled) {
+        this.jfrEnabled = jfrEnabled;
+    }
+
+    public int getJfrMaxEventsPerSecond() {
+        return jfrMaxEventsPerSecond;
+    }
+
+    public void setJfrMaxEventsPerSecond(int jfrMaxEventsPerSecond) {
+        this.jfrMaxEventsPerSecond = jfrMaxEventsPerSecond;
+    }
+
+    public long getStatsIntervalMs() {
+        return statsIntervalMs;
+    }
+
+    public void setStatsIntervalMs(long statsIntervalMs) {
+        this.statsIntervalMs = statsIntervalMs;
+    }
+
+    public boolean isTopTalkersEnabled() {
+        return topTalkersEnabled;
+    }
+
+    public void setTopTalkersEnabled(boolean topTalkersEnabled) {
+        this.topTalkersEnabled = topTalkersEnabled;
+    }
+
+    public int getTopTalkersCapacity() {
+        return topTalkersCapacity;
+    }
+
+    public void setTopTalkersCapacity(int topTalkersCapacity) {
+        this.topTalkersCapacity = topTalkersCapacity;
+    }
+
+    public boolean isTrafficGeneratorEnabled() {
+        return trafficGeneratorEnabled;
+    }
+
+    public void setTrafficGeneratorEnabled(boolean trafficGeneratorEnabled) {
+        this.trafficGeneratorEnabled = trafficGeneratorEnabled;
+    }
+
+    /**
+     * @return a copy of every setting, to be changed without affecting this one
+     */
+    public GetpacketConfig copy() {
+        GetpacketConfig copy = new GetpacketConfig();
+        try {
+            for (Field field : GetpacketConfig.class.getDeclaredFields()) {
+                if (!Modifier.isStatic(field.getModifiers()) && !field.isSynthetic()) {
+                    field.set(copy, field.get(this));
+                }
+            }
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        }
+        return copy;
+    }
+}
@@ -9,17 +9,32 @@ package com.siwind.bupt.impl;
 
 import org.opendaylight.controller.md.sal.binding.api.NotificationPublishService;
 import org.opendaylight.controller.md.sal.binding.api.NotificationService;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.flow.service.rev130819.SalFlowService;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.module.config.rev141015.NodeConfigService;
 
 import org.opendaylight.yangtools.concepts.ListenerRegistration;
 import org.opendaylight.yangtools.concepts.Registration;
 import org.opendaylight.yangtools.yang.binding.NotificationListener;
-import org.apache.http.client.methods.CloseableHttpResponse;
-import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.HttpClients;
 import org.opendaylight.controller.md.sal.binding.api.DataBroker;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.siwind.bupt.impl.capture.PacketCapture;
+import com.siwind.bupt.impl.export.TridentExportConsumer;
+import com.siwind.bupt.impl.export.TridentExporter;
+import com.siwind.bupt.impl.flow.ConnectionTracker;
+import com.siwind.bupt.impl.flow.FlowOffloader;
+import com.siwind.bupt.impl.flow.FlowRecordSink;
+import com.siwind.bupt.impl.flow.PuntFlowManager;
+import com.siwind.bupt.impl.host.HostTracker;
+import com.siwind.bupt.impl.pipeline.EtherTypeTable;
+import com.siwind.bupt.impl.pipeline.PacketPipeline;
+import com.siwind.bupt.impl.publish.DecodedPacketPublisher;
+import com.siwind.bupt.impl.stats.StatsCollector;
+import com.siwind.bupt.impl.subnet.SubnetTagger;
+import com.siwind.bupt.impl.trace.FlightEvents;
+import com.siwind.bupt.impl.trace.LatencyPublisher;
+
 public class GetpacketProvider {
 
     private static final Logger LOG = LoggerFactory.getLogger(GetpacketProvider.class);
@@ -28,19 +43,58 @@ public class GetpacketProvider {
 
     private final NotificationPublishService notificationPublishService;
     private final NotificationService notificationService;
+    private final SalFlowService salFlowService;
+    private final NodeConfigService nodeConfigService;
+    private final GetpacketConfig config;
+    private final PacketCapture packetCapture;
+    private final PacketPipeline pipeline;
+
+    private final SubnetTagger subnetTagger;
+
+    private final StatsCollector statsCollector;
     
     private Registration listenerRegistration;
 
+    private TridentExporter exporter = null;
+
+    private TridentExportConsumer exportConsumer = null;
+
+    private FlowOffloader flowOffloader = null;
+
+    private PuntFlowManager puntFlowManager = null;
+
+    private DecodedPacketPublisher packetPublisher = null;
+
+    private FlowRecordSink flowRecordSink = null;
+
+    private HostTracker hostTracker = null;
+
+    private LatencyPublisher latencyPublisher = null;
+
     // registration for PacketProcessingListener
     private ListenerRegistration<NotificationListener> registration = null;
 
     public GetpacketProvider(final DataBroker dataBroker,
             final NotificationPublishService notificationPublishService,
-            final NotificationService notificationService ) {
+            final NotificationService notificationService,
+            final SalFlowService salFlowService,
+            final NodeConfigService nodeConfigService,
+            final GetpacketConfig config,
+            final PacketCapture packetCapture,
+            final PacketPipeline pipeline,
+            final SubnetTagger subnetTagger,
+            final StatsCollector statsCollector ) {
 
         this.dataBroker = dataBroker;
         this.notificationPublishService = notificationPublishService;
         this.notificationService = notificationService;
+        this.salFlowService = salFlowService;
+        this.nodeConfigService = nodeConfigService;
+        this.config = config;
+        this.packetCapture = packetCapture;
+        this.pipeline = pipeline;
+        this.subnetTagger = subnetTagger;
+        this.statsCollector = statsCollector;
     }
 
     /**
@@ -48,21 +102,82 @@ public class GetpacketProvider {
      */
     public void init() {
         LOG.info("GetpacketProvider Session Initiated");
+
+        FlightEvents.start(config);
         
         if (notificationService != null) {
             LOG.info("NotificationService is: " + notificationService.toString());
             
-            CloseableHttpClient client = HttpClients.createDefault();
+            exporter = new TridentExporter(config, pipeline.getLatencyTracer());
+            exporter.start();
+            statsCollector.setExporter(exporter);
             
-            LOG.info("Created httpclient");
+            LOG.info("Created TridentExporter to " + config.getTridentUrls());
+
+            if (pipeline.getLatencyTracer() != null) {
+                latencyPublisher = new LatencyPublisher(dataBroker, pipeline.getLatencyTracer(), config);
+                latencyPublisher.start();
+                LOG.info("Created LatencyPublisher, tracing 1 in " + config.getLatencyTraceRate() + " packets");
+            }
+
+            if (config.isOffloadEnabled()) {
+                flowOffloader = new FlowOffloader(salFlowService, config);
+                flowOffloader.start();
+                LOG.info("Created FlowOffloader");
+            }
             
-            PacketHandler packetHandler = new PacketHandler(client, this.dataBroker);
+            ConnectionTracker connectionTracker = null;
+            if (!ConnectionTracker.Mode.ALL.name().equalsIgnoreCase(config.getExportMode().trim())) {
+                try {
+                    connectionTracker = new ConnectionTracker(config);
+                    LOG.info("Created ConnectionTracker, export mode " + connectionTracker.getMode());
+                } catch (IllegalArgumentException e) {
+                    LOG.warn("Unknown export mode " + config.getExportMode() + ", exporting all packets");
+                }
+            }
+
+            if (config.isHostTrackerEnabled()) {
+                hostTracker = new HostTracker(config, pipeline.getInterSwitchPorts());
+                pipeline.addConsumer(hostTracker);
+                pipeline.getEtherTypes().setHandler(EtherTypeTable.ETHER_TYPE_ARP, hostTracker);
+                LOG.info("Created HostTracker");
+            }
+
+            exportConsumer = new TridentExportConsumer(exporter, connectionTracker, flowOffloader, hostTracker,
+                    subnetTagger, config.isExportTransit(),
+                    TridentExportConsumer.Protocol.parse(config.getExportProtocols()));
+            pipeline.addConsumer(exportConsumer);
+            pipeline.setExporter(exporter);
+            pipeline.setCapture(packetCapture);
+
+            if (config.isPublishEnabled() && notificationPublishService != null) {
+                packetPublisher = new DecodedPacketPublisher(notificationPublishService, config);
+                packetPublisher.start();
+                pipeline.addConsumer(packetPublisher);
+                LOG.info("Created DecodedPacketPublisher");
+            }
+
+            if (config.isFlowStoreEnabled()) {
+                flowRecordSink = new FlowRecordSink(dataBroker, config);
+                flowRecordSink.start();
+                pipeline.addConsumer(flowRecordSink);
+                LOG.info("Created FlowRecordSink");
+            }
+
+            PacketHandler packetHandler = new PacketHandler(pipeline, this.dataBroker);
             registration = notificationService.registerNotificationListener(packetHandler);
 
             listenerRegistration = packetHandler.registerAsDataChangeListener();
             
             LOG.info("Created DataChangeListener");
 
+            if (config.isPuntEnabled()) {
+                puntFlowManager = new PuntFlowManager(dataBroker, salFlowService, nodeConfigService, config,
+                        pipeline);
+                puntFlowManager.register();
+                LOG.info("Created PuntFlowManager");
+            }
+
         }
 
     }
@@ -76,9 +191,49 @@ public class GetpacketProvider {
         if( registration != null){
             registration.close();           
         }
+
+        if( exportConsumer != null){
+            pipeline.removeConsumer(exportConsumer);
+            pipeline.setExporter(null);
+            pipeline.setCapture(null);
+        }
+
+        if( packetPublisher != null){
+            pipeline.removeConsumer(packetPublisher);
+            packetPublisher.close();
+        }
+
+        if( hostTracker != null){
+            pipeline.getEtherTypes().setHandler(EtherTypeTable.ETHER_TYPE_ARP, null);
+            pipeline.removeConsumer(hostTracker);
+        }
+
+        if( flowRecordSink != null){
+            pipeline.removeConsumer(flowRecordSink);
+            flowRecordSink.close();
+        }
         
         if( listenerRegistration != null){
         	listenerRegistration.close();           
         }
+
+        if( flowOffloader != null){
+            flowOffloader.close();
+        }
+
+        if( exporter != null){
+            statsCollector.setExporter(null);
+            exporter.close();
+        }
+
+        if( puntFlowManager != null){
+            puntFlowManager.close();
+        }
+
+        if( latencyPublisher != null){
+            latencyPublisher.close();
+        }
+
+        FlightEvents.stop();
     }
 }
@@ -0,0 +1,324 @@
+/*
+ * Copyright © 2016 siwind, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package com.siwind.bupt.impl;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.getpacket.rev150105.GenerateTrafficInput;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.getpacket.rev150105.GenerateTrafficOutput;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.getpacket.rev150105.GenerateTrafficOutputBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.getpacket.rev150105.GetExporterStatusOutput;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.getpacket.rev150105.GetExporterStatusOutputBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.getpacket.rev150105.GetStatsOutput;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.getpacket.rev150105.GetStatsOutputBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.getpacket.rev150105.GetTopTalkersInput;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.getpacket.rev150105.GetTopTalkersOutput;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.getpacket.rev150105.GetTopTalkersOutputBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.getpacket.rev150105.GetpacketService;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.getpacket.rev150105.ResetStatsOutput;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.getpacket.rev150105.ResetStatsOutputBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.getpacket.rev150105.SetSubnetTagsInput;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.getpacket.rev150105.SetSubnetTagsOutput;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.getpacket.rev150105.SetSubnetTagsOutputBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.getpacket.rev150105.StartCaptureInput;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.getpacket.rev150105.StartCaptureOutput;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.getpacket.rev150105.StartCaptureOutputBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.getpacket.rev150105.StopCaptureOutput;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.getpacket.rev150105.StopCaptureOutputBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.getpacket.rev150105.get.exporter.status.output.Receiver;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.getpacket.rev150105.get.exporter.status.output.ReceiverBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.getpacket.rev150105.get.stats.output.Consumer;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.getpacket.rev150105.get.stats.output.ConsumerBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.getpacket.rev150105.get.top.talkers.output.Datapath;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.getpacket.rev150105.get.top.talkers.output.DatapathBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.getpacket.rev150105.get.top.talkers.output.datapath.Talker;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.getpacket.rev150105.get.top.talkers.output.datapath.TalkerBuilder;
+import org.opendaylight.yangtools.yang.common.RpcError.ErrorType;
+import org.opendaylight.yangtools.yang.common.RpcResult;
+import org.opendaylight.yangtools.yang.common.RpcResultBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.util.concurrent.SettableFuture;
+import com.siwind.bupt.impl.capture.PacketCapture;
+import com.siwind.bupt.impl.stats.StatsCollector;
+import com.siwind.bupt.impl.stats.TopTalkers;
+import com.siwind.bupt.impl.subnet.SubnetTagger;
+import com.siwind.bupt.impl.tools.BenchmarkHarness;
+import com.siwind.bupt.impl.tools.TrafficGenerator;
+
+/**
+ * Implementation of the getpacket RPCs. Statistics come from the snapshots of
+ * the {@link StatsCollector}, never from the live components.
+ */
+public class GetpacketServiceImpl implements GetpacketService, AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(GetpacketServiceImpl.class);
+
+    private final PacketCapture packetCapture;
+
+    private final SubnetTagger subnetTagger;
+
+    private final StatsCollector statsCollector;
+
+    private final GetpacketConfig config;
+
+    /**
+     * set while generate-traffic runs, one run at a time
+     */
+    private final AtomicBoolean generating = new AtomicBoolean(false);
+
+    /**
+     * runs generate-traffic, off the RPC caller's thread
+     */
+    private final ExecutorService generator = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "getpacket-generator");
+        t.setDaemon(true);
+        return t;
+    });
+
+    /**
+     * talkers per datapath when not given
+     */
+    private static final int DEFAULT_TOP_COUNT = 10;
+
+    /**
+     * length of a generate-traffic run when not given, and the longest one
+     */
+    private static final long DEFAULT_GENERATE_DURATION_SEC = 10;
+    private static final long MAX_GENERATE_DURATION_SEC = 600;
+
+    /**
+     * longest wait for the exports of a generate-traffic run once it is over
+     */
+    private static final long GENERATE_DRAIN_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    public GetpacketServiceImpl(final PacketCapture packetCapture, final SubnetTagger subnetTagger,
+            final StatsCollector statsCollector, final GetpacketConfig config) {
+        this.packetCapture = packetCapture;
+        this.subnetTagger = subnetTagger;
+        this.statsCollector = statsCollector;
+        this.config = config;
+    }
+
+    @Override
+    public Future<RpcResult<StartCaptureOutput>> startCapture(StartCaptureInput input) {
+        try {
+            String result = packetCapture.start(input.getFile(),
+                    input.getSize() == null ? 0 : input.getSize(), input.getFilter());
+            return RpcResultBuilder.success(new StartCaptureOutputBuilder().setResult(result).build()).buildFuture();
+        } catch (IOException | IllegalArgumentException e) {
+            LOG.warn("[Siwind] start-capture failed", e);
+            return RpcResultBuilder.<StartCaptureOutput>failed()
+                    .withError(ErrorType.APPLICATION, e.getMessage()).buildFuture();
+        }
+    }
+
+    @Override
+    public Future<RpcResult<StopCaptureOutput>> stopCapture() {
+        String result = packetCapture.stop();
+        return RpcResultBuilder.success(new StopCaptureOutputBuilder().setResult(result).build()).buildFuture();
+    }
+
+    @Override
+    public Future<RpcResult<SetSubnetTagsOutput>> setSubnetTags(SetSubnetTagsInput input) {
+        try {
+            int prefixes = subnetTagger.update(input.getTags());
+            return RpcResultBuilder.success(new SetSubnetTagsOutputBuilder()
+                    .setResult("Tagging " + prefixes + " subnets").build()).buildFuture();
+        } catch (IllegalArgumentException e) {
+            LOG.warn("[Siwind] set-subnet-tags failed", e);
+            return RpcResultBuilder.<SetSubnetTagsOutput>failed()
+                    .withError(ErrorType.APPLICATION, e.getMessage()).buildFuture();
+        }
+    }
+
+    @Override
+    public Future<RpcResult<GetStatsOutput>> getStats() {
+        StatsCollector.Snapshot stats = statsCollector.getSnapshot();
+        List<Consumer> consumers = new ArrayList<>(stats.getConsumers().size());
+        for (StatsCollector.ConsumerSnapshot consumer : stats.getConsumers()) {
+            consumers.add(new ConsumerBuilder()
+                    .setName(consumer.getName())
+                    .setDelivered(BigInteger.valueOf(consumer.getDelivered()))
+                    .setDeliveredRate(BigInteger.valueOf(consumer.getDeliveredRate()))
+                    .setDropped(BigInteger.valueOf(consumer.getDropped()))
+                    .setFailed(BigInteger.valueOf(consumer.getFailed()))
+                    .build());
+        }
+        return RpcResultBuilder.success(new GetStatsOutputBuilder()
+                .setTimestamp(BigInteger.valueOf(stats.getTimestampMillis()))
+                .setReceived(BigInteger.valueOf(stats.getReceived()))
+                .setReceivedRate(BigInteger.valueOf(stats.getReceivedRate()))
+                .setDuplicates(BigInteger.valueOf(stats.getDuplicates()))
+                .setExported(BigInteger.valueOf(stats.getExported()))
+                .setExportRate(BigInteger.valueOf(stats.getExportRate()))
+                .setExportDropped(BigInteger.valueOf(stats.getExportDropped()))
+                .setConsumer(consumers)
+                .build()).buildFuture();
+    }
+
+    @Override
+    public Future<RpcResult<GetTopTalkersOutput>> getTopTalkers(GetTopTalkersInput input) {
+        int count = input.getCount() == null ? DEFAULT_TOP_COUNT : input.getCount();
+        List<Datapath> datapaths = new ArrayList<>();
+        for (Map.Entry<String, List<TopTalkers.Talker>> entry : statsCollector.getTopTalkers().entrySet()) {
+            if (input.getDatapath() != null && !input.getDatapath().equals(entry.getKey())) {
+                continue;
+            }
+            List<TopTalkers.Talker> top = entry.getValue();
+            List<Talker> talkers = new ArrayList<>(Math.min(count, top.size()));
+            for (TopTalkers.Talker talker : top.subList(0, Math.min(count, top.size()))) {
+                talkers.add(new TalkerBuilder()
+                        .setAddress(talker.getAddress())
+                        .setPackets(BigInteger.valueOf(talker.getPackets()))
+                        .setBytes(BigInteger.valueOf(talker.getBytes()))
+                        .setError(BigInteger.valueOf(talker.getError()))
+                        .build());
+            }
+            datapaths.add(new DatapathBuilder().setId(entry.getKey()).setTalker(talkers).build());
+        }
+        return RpcResultBuilder.success(new GetTopTalkersOutputBuilder().setDatapath(datapaths).build())
+                .buildFuture();
+    }
+
+    @Override
+    public Future<RpcResult<GetExporterStatusOutput>> getExporterStatus() {
+        List<Receiver> receivers = new ArrayList<>();
+        for (StatsCollector.ReceiverSnapshot receiver : statsCollector.getSnapshot().getReceivers()) {
+            receivers.add(new ReceiverBuilder()
+                    .setUrl(receiver.getUrl())
+                    .setState(receiver.getState())
+                    .setQueueDepth((long) receiver.getQueueDepth())
+                    .setOffered(BigInteger.valueOf(receiver.getOffered()))
+                    .setExported(BigInteger.valueOf(receiver.getExported()))
+                    .setExportRate(BigInteger.valueOf(receiver.getExportRate()))
+                    .setFailed(BigInteger.valueOf(receiver.getFailed()))
+                    .setSpilled(BigInteger.valueOf(receiver.getSpilled()))
+                    .setReplayed(BigInteger.valueOf(receiver.getReplayed()))
+                    .setDropped(BigInteger.valueOf(receiver.getDropped()))
+                    .setSpillPending(BigInteger.valueOf(receiver.getSpillPending()))
+                    .setPoolLeased((long) receiver.getPoolLeased())
+                    .setPoolAvailable((long) receiver.getPoolAvailable())
+                    .setPoolPending((long) receiver.getPoolPending())
+                    .setPoolMax((long) receiver.getPoolMax())
+                    .build());
+        }
+        return RpcResultBuilder.success(new GetExporterStatusOutputBuilder().setReceiver(receivers).build())
+                .buildFuture();
+    }
+
+    @Override
+    public Future<RpcResult<ResetStatsOutput>> resetStats() {
+        statsCollector.reset();
+        LOG.info("[Siwind] Statistics reset");
+        return RpcResultBuilder.success(new ResetStatsOutputBuilder()
+                .setResult("Statistics, latencies and top talkers reset").build()).buildFuture();
+    }
+
+    /**
+     * Runs for up to {@link #MAX_GENERATE_DURATION_SEC} on its own thread; the
+     * returned future completes when the run is over.
+     */
+    @Override
+    public Future<RpcResult<GenerateTrafficOutput>> generateTraffic(GenerateTrafficInput input) {
+        if (!config.isTrafficGeneratorEnabled()) {
+            return RpcResultBuilder.<GenerateTrafficOutput>failed().withError(ErrorType.APPLICATION,
+                    "Traffic generator disabled, set traffic-generator-enabled to use it").buildFuture();
+        }
+        long duration = input.getDuration() == null ? DEFAULT_GENERATE_DURATION_SEC : input.getDuration();
+        if (duration < 1 || duration > MAX_GENERATE_DURATION_SEC) {
+            return RpcResultBuilder.<GenerateTrafficOutput>failed().withError(ErrorType.APPLICATION,
+                    "Duration must be 1 to " + MAX_GENERATE_DURATION_SEC + " seconds").buildFuture();
+        }
+        TrafficGenerator.Profile profile = new TrafficGenerator.Profile();
+        if (input.getFlows() != null) {
+            profile.setFlows((int) Math.min(Integer.MAX_VALUE, input.getFlows()));
+        }
+        if (input.getSkew() != null) {
+            profile.setSkew(input.getSkew().doubleValue());
+        }
+        if (input.getMix() != null) {
+            profile.setMix(input.getMix());
+        }
+        if (input.getIpv6Percent() != null) {
+            profile.setIpv6Percent(input.getIpv6Percent());
+        }
+        if (input.getVlanPercent() != null) {
+            profile.setVlanPercent(input.getVlanPercent());
+        }
+        if (input.getSizes() != null) {
+            profile.setSizes(input.getSizes());
+        }
+        if (input.getSwitches() != null) {
+            profile.setSwitches(input.getSwitches());
+        }
+        if (input.getPorts() != null) {
+            profile.setPorts(input.getPorts());
+        }
+        long rate = input.getRate() == null ? 0 : input.getRate();
+
+        if (!generating.compareAndSet(false, true)) {
+            return RpcResultBuilder.<GenerateTrafficOutput>failed()
+                    .withError(ErrorType.APPLICATION, "Traffic generator already running").buildFuture();
+        }
+        SettableFuture<RpcResult<GenerateTrafficOutput>> future = SettableFuture.create();
+        try {
+            generator.execute(() -> future.set(generate(profile, rate, duration)));
+        } catch (RejectedExecutionException e) {
+            generating.set(false);
+            return RpcResultBuilder.<GenerateTrafficOutput>failed()
+                    .withError(ErrorType.APPLICATION, "Traffic generator closed").buildFuture();
+        }
+        return future;
+    }
+
+    /**
+     * Run the generator against a pipeline of its own, built from a copy of the
+     * configuration and exporting to a stub receiver, so that synthetic packets
+     * never reach the live consumers nor the real Trident receivers.
+     */
+    private RpcResult<GenerateTrafficOutput> generate(TrafficGenerator.Profile profile, long rate, long duration) {
+        try (BenchmarkHarness harness = new BenchmarkHarness(config.copy(), 0)) {
+            TrafficGenerator generator = new TrafficGenerator(profile);
+            LOG.info("[Siwind] Generating traffic from {} frames for {} s, rate {}", generator.size(), duration,
+                    rate > 0 ? rate : "max");
+            TrafficGenerator.Result result = generator.run(harness.getHandler(), rate,
+                    TimeUnit.SECONDS.toNanos(duration));
+            harness.drain(GENERATE_DRAIN_TIMEOUT_NANOS);
+            String output = result + "exported    " + harness.getReceiver().getRequests() + " records, "
+                    + harness.getExporter().getDropped() + " dropped";
+            LOG.info("[Siwind] Generated traffic: {}", output);
+            return RpcResultBuilder.success(new GenerateTrafficOutputBuilder().setResult(output).build()).build();
+        } catch (IOException | RuntimeException e) {
+            LOG.warn("[Siwind] generate-traffic failed", e);
+            return RpcResultBuilder.<GenerateTrafficOutput>failed()
+                    .withError(ErrorType.APPLICATION, e.getMessage()).build();
+        } finally {
+            generating.set(false);
+        }
+    }
+
+    /**
+     * Stop a generate-traffic run, if any, which completes with what it did so far.
+     */
+    @Override
+    public void close() {
+        generator.shutdownNow();
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright © 2016 siwind, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package com.siwind.bupt.impl.capture;
+
+import com.siwind.bupt.impl.util.NetUtils;
+
+/**
+ * Compiled packet filter, a blank separated list of {@code key=value} terms which
+ * must all match:
+ * <ul>
+ * <li>{@code ingress=openflow:1:2} ingress port</li>
+ * <li>{@code ethertype=0x0800} ethernet type</li>
+ * <li>{@code proto=6} IPv4 protocol</li>
+ * <li>{@code host=10.0.0.1} IPv4 source or destination address</li>
+ * <li>{@code port=80} TCP/UDP source or destination port</li>
+ * </ul>
+ * An empty filter matches every packet. Matching reads the raw payload only and
+ * does not allocate.
+ */
+public final class CaptureFilter {
+
+    public static final CaptureFilter ALL = new CaptureFilter(null, -1, -1, 0, false, -1);
+
+    private static final int ETHER_TYPE_POSITION = 12;
+    private static final int IPV4_START_POSITION = 14;
+    private static final int ETHERTYPE_IPV4 = 0x0800;
+
+    private final String ingress;
+    private final int etherType;
+    private final int protocol;
+    private final int host;
+    private final boolean hasHost;
+    private final int port;
+
+    private CaptureFilter(String ingress, int etherType, int protocol, int host, boolean hasHost, int port) {
+        this.ingress = ingress;
+        this.etherType = etherType;
+        this.protocol = protocol;
+        this.host = host;
+        this.hasHost = hasHost;
+        this.port = port;
+    }
+
+    /**
+     * @param expression filter expression, may be null or empty
+     * @return compiled filter
+     * @throws IllegalArgumentException if the expression is invalid
+     */
+    public static CaptureFilter compile(String expression) {
+        if (expression == null || expression.trim().isEmpty()) {
+            return ALL;
+        }
+        String ingress = null;
+        int etherType = -1;
+        int protocol = -1;
+        int host = 0;
+        boolean hasHost = false;
+        int port = -1;
+
+        for (String term : expression.trim().split("\\s+")) {
+            int idx = term.indexOf('=');
+            if (idx <= 0 || idx == term.length() - 1) {
+                throw new IllegalArgumentException("Invalid filter term: " + term);
+            }
+            String key = term.substring(0, idx);
+            String value = term.substring(idx + 1);
+            switch (key) {
+                case "ingress":
+                    ingress = value;
+                    break;
+                case "ethertype":
+                    etherType = Integer.decode(value);
+                    break;
+                case "proto":
+                    protocol = Integer.decode(value);
+                    break;
+                case "host":
+                    if (value.indexOf('/') >= 0 || !NetUtils.isIPv4AddressValid(value)) {
+                        throw new IllegalArgumentException("Invalid IPv4 address: " + value);
+                    }
+                    host = NetUtils.byteArray4ToInt(NetUtils.parseInetAddress(value).getAddress());
+                    hasHost = true;
+                    break;
+                case "port":
+                    port = Integer.parseInt(value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown filter key: " + key);
+            }
+        }
+        return new CaptureFilter(ingress, etherType, protocol, host, hasHost, port);
+    }
+
+    /**
+     * @param ingressStr ingress port of the packet
+     * @param payload frame of the packet
+     * @return true if the packet matches
+     */
+    public boolean matches(String ingressStr, byte[] payload) {
+        if (ingress != null && !ingress.equals(ingressStr)) {
+            return false;
+        }
+        if (etherType < 0 && protocol < 0 && !hasHost && port < 0) {
+            return true;
+        }
+        if (payload.length < IPV4_START_POSITION) {
+            return false;
+        }
+        int type = (payload[ETHER_TYPE_POSITION] & 0xFF) << 8 | payload[ETHER_TYPE_POSITION + 1] & 0xFF;
+        if (etherType >= 0 && type != etherType) {
+            return false;
+        }
+        if (protocol < 0 && !hasHost && port < 0) {
+            return true;
+        }
+        if (type != ETHERTYPE_IPV4 || payload.length < IPV4_START_POSITION + 20) {
+            return false;
+        }
+        int proto = payload[IPV4_START_POSITION + 9] & 0xFF;
+        if (protocol >= 0 && proto != protocol) {
+            return false;
+        }
+        if (hasHost && getInt(payload, IPV4_START_POSITION + 12) != host
+                && getInt(payload, IPV4_START_POSITION + 16) != host) {
+            return false;
+        }
+        if (port >= 0) {
+            int l4Start = IPV4_START_POSITION + (payload[IPV4_START_POSITION] & 0x0F) * 4;
+            if (payload.length < l4Start + 4) {
+                return false;
+            }
+            int srcPort = (payload[l4Start] & 0xFF) << 8 | payload[l4Start + 1] & 0xFF;
+            int dstPort = (payload[l4Start + 2] & 0xFF) << 8 | payload[l4Start + 3] & 0xFF;
+            return srcPort == port || dstPort == port;
+        }
+        return true;
+    }
+
+    private static int getInt(byte[] data, int offset) {
+        return (data[offset] & 0xFF) << 24 | (data[offset + 1] & 0xFF) << 16
+                | (data[offset + 2] & 0xFF) << 8 | data[offset + 3] & 0xFF;
+    }
+}
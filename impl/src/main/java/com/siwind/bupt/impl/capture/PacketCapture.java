@@ -0,0 +1,202 @@
+/*
+ * Copyright © 2016 siwind, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package com.siwind.bupt.impl.capture;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.siwind.bupt.impl.GetpacketConfig;
+
+/**
+ * Optional capture stage of the packet handler, appending received payloads to a
+ * {@link PcapngCaptureRing}. The pipeline taps it at intake, before any packet
+ * is dropped, so control protocols, packets left out by the sampler and
+ * duplicates are captured too. When no capture is running it costs a single
+ * volatile read per packet.
+ *
+ * <p>The packet path only filters, timestamps and queues a reference to the
+ * payload; a single writer thread copies it into the ring. Packets are dropped and
+ * counted when the writer falls behind.
+ */
+public class PacketCapture implements AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(PacketCapture.class);
+
+    private static final long MEGABYTE = 1024L * 1024L;
+
+    private final GetpacketConfig config;
+
+    /**
+     * wall clock nanoseconds minus System.nanoTime()
+     */
+    private final long epochOffsetNanos;
+
+    private volatile Session session = null;
+
+    public PacketCapture(GetpacketConfig config) {
+        this.config = config;
+        this.epochOffsetNanos = TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis()) - System.nanoTime();
+    }
+
+    /**
+     * Called by blueprint, starts the capture configured at startup if any.
+     */
+    public void init() {
+        if (config.isCaptureEnabled()) {
+            try {
+                start(null, 0, config.getCaptureFilter());
+            } catch (IOException | IllegalArgumentException e) {
+                LOG.warn("[Siwind] Failed to start packet capture", e);
+            }
+        }
+    }
+
+    /**
+     * Capture a received packet if a capture is running and the packet matches its filter.
+     */
+    public void capture(String ingress, byte[] payload) {
+        Session current = session;
+        if (current != null && current.filter.matches(ingress, payload)) {
+            current.offer(new CapturedPacket(epochOffsetNanos + System.nanoTime(), ingress, payload));
+        }
+    }
+
+    /**
+     * Start a capture, replacing the running one if any.
+     *
+     * @param file capture file, null for the configured one
+     * @param sizeMb size of the capture file in megabytes, 0 for the configured one
+     * @param filter filter expression, see {@link CaptureFilter}
+     * @return description of the started capture
+     */
+    public synchronized String start(String file, long sizeMb, String filter) throws IOException {
+        CaptureFilter compiled = CaptureFilter.compile(filter);
+        Path path = Paths.get(file == null || file.isEmpty() ? config.getCaptureFile() : file);
+        long size = (sizeMb > 0 ? sizeMb : config.getCaptureSizeMb()) * MEGABYTE;
+        if (size > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Capture file size is limited to 2047 MB");
+        }
+
+        stop();
+        if (path.getParent() != null) {
+            Files.createDirectories(path.getParent());
+        }
+        Session started = new Session(new PcapngCaptureRing(path, (int) size, config.getCaptureSnapLength()),
+                compiled, config.getCaptureQueueSize(), path);
+        started.writer.start();
+        session = started;
+
+        String description = "Capturing to " + path + " (" + size / MEGABYTE + " MB)"
+                + (filter == null || filter.isEmpty() ? "" : " filter '" + filter + "'");
+        LOG.info("[Siwind] {}", description);
+        return description;
+    }
+
+    /**
+     * Stop the running capture, if any.
+     *
+     * @return summary of the stopped capture
+     */
+    public synchronized String stop() {
+        Session stopped = session;
+        if (stopped == null) {
+            return "No capture running";
+        }
+        session = null;
+        stopped.writer.interrupt();
+        try {
+            stopped.writer.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        String summary = "Captured " + stopped.ring.getWritten() + " packets to " + stopped.path
+                + ", " + stopped.dropped.get() + " dropped, " + stopped.ring.getWraps() + " wraps";
+        LOG.info("[Siwind] {}", summary);
+        return summary;
+    }
+
+    public boolean isRunning() {
+        return session != null;
+    }
+
+    @Override
+    public void close() {
+        stop();
+    }
+
+    private static final class CapturedPacket {
+        final long timestampNanos;
+        final String ingress;
+        final byte[] payload;
+
+        CapturedPacket(long timestampNanos, String ingress, byte[] payload) {
+            this.timestampNanos = timestampNanos;
+            this.ingress = ingress;
+            this.payload = payload;
+        }
+    }
+
+    private static final class Session {
+        final PcapngCaptureRing ring;
+        final CaptureFilter filter;
+        final BlockingQueue<CapturedPacket> queue;
+        final Path path;
+        final AtomicLong dropped = new AtomicLong();
+        final Thread writer;
+
+        Session(PcapngCaptureRing ring, CaptureFilter filter, int queueSize, Path path) {
+            this.ring = ring;
+            this.filter = filter;
+            this.queue = new ArrayBlockingQueue<>(queueSize);
+            this.path = path;
+            this.writer = new Thread(this::write, "getpacket-capture");
+            this.writer.setDaemon(true);
+        }
+
+        void offer(CapturedPacket packet) {
+            if (!queue.offer(packet)) {
+                dropped.incrementAndGet();
+            }
+        }
+
+        private void write() {
+            try {
+                while (!Thread.currentThread().isInterrupted()) {
+                    CapturedPacket packet = queue.poll(100, TimeUnit.MILLISECONDS);
+                    if (packet != null) {
+                        ring.append(packet.timestampNanos, packet.ingress, packet.payload);
+                    }
+                }
+            } catch (InterruptedException e) {
+                // stopped
+            } catch (RuntimeException e) {
+                LOG.warn("[Siwind] Packet capture writer failed", e);
+            } finally {
+                CapturedPacket packet;
+                while ((packet = queue.poll()) != null) {
+                    ring.append(packet.timestampNanos, packet.ingress, packet.payload);
+                }
+                try {
+                    ring.close();
+                } catch (IOException e) {
+                    LOG.warn("[Siwind] Failed to close capture file", e);
+                }
+            }
+        }
+    }
+}
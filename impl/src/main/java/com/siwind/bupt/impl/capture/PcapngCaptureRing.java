@@ -0,0 +1,226 @@
+/*
+ * Copyright © 2016 siwind, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package com.siwind.bupt.impl.capture;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Fixed size pcapng file used as a ring of captured packets, written through a
+ * memory mapping. Not thread safe, it is owned by a single writer thread.
+ *
+ * <p>Layout: a section header, then {@link #MAX_INTERFACES} interface description
+ * blocks with fixed size names (one per ingress port, slot 0 collects the ports
+ * seen once all slots are taken), then the ring of enhanced packet blocks.
+ *
+ * <p>The ring always holds a sequence of whole blocks: the unused gap between the
+ * newest block and the oldest intact one is covered by a custom block, which pcapng
+ * readers skip. After the ring wrapped, the newest packets come first in the file,
+ * {@code reordercap} restores the time order.
+ */
+public class PcapngCaptureRing implements AutoCloseable {
+
+    public static final int MAX_INTERFACES = 256;
+
+    private static final int SHB_TYPE = 0x0A0D0D0A;
+    private static final int IDB_TYPE = 0x00000001;
+    private static final int EPB_TYPE = 0x00000006;
+    private static final int CUSTOM_TYPE = 0x40000BAD;
+
+    private static final int BYTE_ORDER_MAGIC = 0x1A2B3C4D;
+    private static final short LINKTYPE_ETHERNET = 1;
+
+    private static final short OPT_ENDOFOPT = 0;
+    private static final short OPT_IF_NAME = 2;
+    private static final short OPT_IF_TSRESOL = 9;
+
+    /**
+     * timestamps are in nanoseconds
+     */
+    private static final byte TSRESOL_NANOS = 9;
+
+    private static final int IF_NAME_LENGTH = 32;
+
+    private static final int SHB_LENGTH = 28;
+    private static final int IDB_LENGTH = 16 + (4 + IF_NAME_LENGTH) + 8 + 4 + 4;
+    private static final int EPB_OVERHEAD = 32;
+
+    /**
+     * smallest custom block: type, length, enterprise number, length
+     */
+    private static final int MIN_SKIP_LENGTH = 16;
+
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final int snapLength;
+    private final int ringStart;
+    private final int ringEnd;
+
+    /**
+     * start of the next block written
+     */
+    private int head;
+
+    /**
+     * start of the oldest intact block, [head, tail) is a custom block or empty
+     */
+    private int tail;
+
+    private final Map<String, Integer> interfaces = new HashMap<>();
+
+    private long written = 0;
+    private long wraps = 0;
+
+    /**
+     * @param file file to (re)create
+     * @param size size of the file in bytes
+     * @param snapLength max bytes kept of every packet
+     */
+    public PcapngCaptureRing(Path file, int size, int snapLength) throws IOException {
+        this.ringStart = SHB_LENGTH + MAX_INTERFACES * IDB_LENGTH;
+        this.ringEnd = size & ~3;
+        if (ringEnd - ringStart < EPB_OVERHEAD + MIN_SKIP_LENGTH + 64) {
+            throw new IllegalArgumentException("Capture file size " + size + " is too small");
+        }
+        this.snapLength = Math.min(snapLength, ringEnd - ringStart - EPB_OVERHEAD - MIN_SKIP_LENGTH) & ~3;
+
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, ringEnd);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+        writeSectionHeader();
+        for (int i = 0; i < MAX_INTERFACES; i++) {
+            writeInterface(i, i == 0 ? "other" : "unused");
+        }
+        head = ringStart;
+        tail = ringEnd;
+        writeSkip(head, tail);
+    }
+
+    private void writeSectionHeader() {
+        buffer.position(0);
+        buffer.putInt(SHB_TYPE).putInt(SHB_LENGTH).putInt(BYTE_ORDER_MAGIC)
+                .putShort((short) 1).putShort((short) 0)
+                .putLong(-1L)
+                .putInt(SHB_LENGTH);
+    }
+
+    private void writeInterface(int id, String name) {
+        buffer.position(SHB_LENGTH + id * IDB_LENGTH);
+        buffer.putInt(IDB_TYPE).putInt(IDB_LENGTH)
+                .putShort(LINKTYPE_ETHERNET).putShort((short) 0).putInt(snapLength);
+
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        int nameLength = Math.min(nameBytes.length, IF_NAME_LENGTH);
+        buffer.putShort(OPT_IF_NAME).putShort((short) IF_NAME_LENGTH);
+        buffer.put(nameBytes, 0, nameLength);
+        for (int i = nameLength; i < IF_NAME_LENGTH; i++) {
+            buffer.put((byte) 0);
+        }
+
+        buffer.putShort(OPT_IF_TSRESOL).putShort((short) 1).putInt(TSRESOL_NANOS);
+        buffer.putShort(OPT_ENDOFOPT).putShort((short) 0);
+        buffer.putInt(IDB_LENGTH);
+    }
+
+    private void writeSkip(int from, int to) {
+        int length = to - from;
+        buffer.putInt(from, CUSTOM_TYPE);
+        buffer.putInt(from + 4, length);
+        buffer.putInt(from + 8, 0);
+        buffer.putInt(to - 4, length);
+    }
+
+    /**
+     * @param ingress ingress port, e.g. openflow:1:2
+     * @return interface id of the port
+     */
+    private int interfaceOf(String ingress) {
+        if (ingress == null) {
+            return 0;
+        }
+        Integer id = interfaces.get(ingress);
+        if (id == null) {
+            id = interfaces.size() + 1 < MAX_INTERFACES ? interfaces.size() + 1 : 0;
+            if (id != 0) {
+                writeInterface(id, ingress);
+            }
+            interfaces.put(ingress, id);
+        }
+        return id;
+    }
+
+    /**
+     * Append a packet to the ring, overwriting the oldest packets when full.
+     *
+     * @param timestampNanos wall clock time in nanoseconds since the epoch
+     * @param ingress ingress port of the packet
+     * @param payload frame of the packet
+     */
+    public void append(long timestampNanos, String ingress, byte[] payload) {
+        int interfaceId = interfaceOf(ingress);
+        int capLength = Math.min(payload.length, snapLength);
+        int length = EPB_OVERHEAD + ((capLength + 3) & ~3);
+
+        if (ringEnd - head < length + MIN_SKIP_LENGTH) {
+            // no room before the end of the file, drop what is left there and wrap
+            writeSkip(head, ringEnd);
+            head = ringStart;
+            tail = ringStart;
+            wraps++;
+        }
+        while (tail - head < length && tail < ringEnd) {
+            tail += buffer.getInt(tail + 4);
+        }
+        if (tail - head > length && tail - head - length < MIN_SKIP_LENGTH && tail < ringEnd) {
+            tail += buffer.getInt(tail + 4);
+        }
+
+        buffer.position(head);
+        buffer.putInt(EPB_TYPE).putInt(length).putInt(interfaceId)
+                .putInt((int) (timestampNanos >>> 32)).putInt((int) timestampNanos)
+                .putInt(capLength).putInt(payload.length);
+        buffer.put(payload, 0, capLength);
+        for (int i = capLength; (i & 3) != 0; i++) {
+            buffer.put((byte) 0);
+        }
+        buffer.putInt(length);
+
+        head += length;
+        if (tail > head) {
+            writeSkip(head, tail);
+        }
+        written++;
+    }
+
+    public long getWritten() {
+        return written;
+    }
+
+    public long getWraps() {
+        return wraps;
+    }
+
+    public int getInterfaceCount() {
+        return interfaces.size();
+    }
+
+    @Override
+    public void close() throws IOException {
+        buffer.force();
+        channel.close();
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright © 2016 siwind, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package com.siwind.bupt.impl.export;
+
+/**
+ * Circuit breaker of an export receiver. Opens after a number of consecutive
+ * failures; once open no request is allowed until the open time has passed, or
+ * until {@link #tryHalfOpen()} ends it early, then a single probe request is
+ * allowed whose outcome closes or re-opens the breaker.
+ */
+public class CircuitBreaker {
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final int failureThreshold;
+    private final long openNanos;
+
+    private volatile State state = State.CLOSED;
+    private int failures = 0;
+    private long openUntil = 0;
+    private long opened = 0;
+
+    /**
+     * whether the probe of the half-open breaker was allowed, and not decided yet
+     */
+    private boolean probing = false;
+
+    /**
+     * @param failureThreshold consecutive failures which open the breaker
+     * @param openNanos time the breaker stays open before a probe is allowed
+     */
+    public CircuitBreaker(int failureThreshold, long openNanos) {
+        this.failureThreshold = Math.max(1, failureThreshold);
+        this.openNanos = openNanos;
+    }
+
+    /**
+     * @return whether a request may be sent now
+     */
+    public synchronized boolean allowRequest() {
+        switch (state) {
+            case CLOSED:
+                return true;
+            case OPEN:
+                if (System.nanoTime() - openUntil >= 0) {
+                    state = State.HALF_OPEN;
+                    probing = true;
+                    return true;
+                }
+                return false;
+            default:
+                if (probing) {
+                    // a probe is in flight
+                    return false;
+                }
+                probing = true;
+                return true;
+        }
+    }
+
+    /**
+     * End the open time now, e.g. as the receiver answers a health check: the
+     * next request is the probe, whose outcome decides as usual.
+     *
+     * @return false if the breaker was not open
+     */
+    public synchronized boolean tryHalfOpen() {
+        if (state != State.OPEN) {
+            return false;
+        }
+        state = State.HALF_OPEN;
+        probing = false;
+        return true;
+    }
+
+    public synchronized void recordSuccess() {
+        state = State.CLOSED;
+        failures = 0;
+        probing = false;
+    }
+
+    public synchronized void recordFailure() {
+        probing = false;
+        failures++;
+        if (state == State.HALF_OPEN || failures >= failureThreshold) {
+            if (state != State.OPEN) {
+                opened++;
+            }
+            state = State.OPEN;
+            openUntil = System.nanoTime() + openNanos;
+        }
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    /**
+     * @return number of times the breaker opened
+     */
+    public synchronized long getOpened() {
+        return opened;
+    }
+}
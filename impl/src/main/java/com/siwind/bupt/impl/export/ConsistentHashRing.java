@@ -0,0 +1,101 @@
+/*
+ * Copyright © 2016 siwind, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package com.siwind.bupt.impl.export;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.IntPredicate;
+
+import com.siwind.bupt.impl.flow.FlowTuple;
+
+/**
+ * Immutable consistent hash ring of receivers, each placed on the ring at a number
+ * of virtual node points. A key belongs to the receiver of the first point at or
+ * after its hash; when that receiver is unavailable the walk goes on clockwise, so
+ * only the keys of the failed receiver move.
+ */
+public final class ConsistentHashRing {
+
+    private final long[] points;
+    private final int[] owners;
+    private final int receivers;
+
+    /**
+     * @param names names of the receivers, the owner of a key is its index in this list
+     * @param virtualNodes points per receiver
+     */
+    public ConsistentHashRing(List<String> names, int virtualNodes) {
+        int perReceiver = Math.max(1, virtualNodes);
+        int size = names.size() * perReceiver;
+        long[] unsorted = new long[size];
+        for (int r = 0; r < names.size(); r++) {
+            long seed = (long) names.get(r).hashCode() << 32;
+            for (int v = 0; v < perReceiver; v++) {
+                // the owner rides in the low bits to sort points and owners together
+                unsorted[r * perReceiver + v] = mix(seed | v) & ~0xFFFFL | r;
+            }
+        }
+        Arrays.sort(unsorted);
+        points = new long[size];
+        owners = new int[size];
+        for (int i = 0; i < size; i++) {
+            points[i] = unsorted[i] & ~0xFFFFL;
+            owners[i] = (int) (unsorted[i] & 0xFFFFL);
+        }
+        receivers = names.size();
+    }
+
+    /**
+     * @param hash key hash, see {@link #hash(FlowTuple)}
+     * @param available whether a receiver may take the key
+     * @return index of the receiver owning the key, the primary owner if no receiver
+     *         is available, -1 if the ring is empty
+     */
+    public int lookup(long hash, IntPredicate available) {
+        if (points.length == 0) {
+            return -1;
+        }
+        int start = Arrays.binarySearch(points, hash & ~0xFFFFL);
+        if (start < 0) {
+            start = -start - 1;
+        }
+        int primary = owners[start % points.length];
+        if (receivers == 1 || available.test(primary)) {
+            return primary;
+        }
+        for (int i = 1; i < points.length; i++) {
+            int owner = owners[(start + i) % points.length];
+            if (owner != primary && available.test(owner)) {
+                return owner;
+            }
+        }
+        return primary;
+    }
+
+    /**
+     * @return hash of the 5-tuple of a flow
+     */
+    public static long hash(FlowTuple tuple) {
+        long addresses = (long) tuple.getSrcIp() << 32 | tuple.getDstIp() & 0xFFFFFFFFL;
+        long rest = (long) tuple.getProtocol() << 32 | (long) tuple.getSrcPort() << 16 | tuple.getDstPort();
+        return mix(mix(addresses) ^ rest);
+    }
+
+    /**
+     * MurmurHash3 64 bit finalizer.
+     */
+    private static long mix(long value) {
+        long h = value;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright © 2016 siwind, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package com.siwind.bupt.impl.export;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import com.siwind.bupt.impl.flow.FlowTuple;
+
+/**
+ * A flow record exported to Trident: the flow it describes and the query string
+ * sent for it, e.g. {@code sip=10.0.0.1/32&dip=10.0.0.2/32&...}.
+ */
+public final class ExportRecord {
+
+    /**
+     * encoded size of the flow tuple: IP version, full addresses, protocol and ports
+     */
+    private static final int TUPLE_SIZE = 1 + 16 + 16 + 2 + 4 + 4;
+
+    private final FlowTuple tuple;
+    private final String query;
+    private final long timestampMillis;
+
+    /**
+     * {@link System#nanoTime()} the packet was received at, 0 if not traced
+     */
+    private final long intakeNanos;
+
+    /**
+     * {@link System#nanoTime()} the record was queued at, if traced
+     */
+    private long enqueueNanos = 0;
+
+    public ExportRecord(FlowTuple tuple, String query, long timestampMillis) {
+        this(tuple, query, timestampMillis, 0);
+    }
+
+    /**
+     * @param intakeNanos {@link System#nanoTime()} the packet was received at, 0 not to trace the record
+     */
+    public ExportRecord(FlowTuple tuple, String query, long timestampMillis, long intakeNanos) {
+        this.tuple = tuple;
+        this.query = query;
+        this.timestampMillis = timestampMillis;
+        this.intakeNanos = intakeNanos;
+    }
+
+    public FlowTuple getTuple() {
+        return tuple;
+    }
+
+    public String getQuery() {
+        return query;
+    }
+
+    /**
+     * @return time the packet was received, in milliseconds since the epoch
+     */
+    public long getTimestampMillis() {
+        return timestampMillis;
+    }
+
+    /**
+     * @return whether the latencies of the record are traced
+     */
+    public boolean isTraced() {
+        return intakeNanos != 0;
+    }
+
+    public long getIntakeNanos() {
+        return intakeNanos;
+    }
+
+    long getEnqueueNanos() {
+        return enqueueNanos;
+    }
+
+    void setEnqueueNanos(long enqueueNanos) {
+        this.enqueueNanos = enqueueNanos;
+    }
+
+    /**
+     * @return the record without its timestamp and trace, for the spill journal
+     */
+    byte[] encode() {
+        byte[] queryBytes = query.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer buffer = ByteBuffer.allocate(TUPLE_SIZE + queryBytes.length);
+        buffer.put((byte) (tuple.isIpv6() ? 6 : 4))
+                .putLong(tuple.getSrcIpHi())
+                .putLong(tuple.getSrcIpLo())
+                .putLong(tuple.getDstIpHi())
+                .putLong(tuple.getDstIpLo())
+                .putShort(tuple.getProtocol())
+                .putInt(tuple.getSrcPort())
+                .putInt(tuple.getDstPort())
+                .put(queryBytes);
+        return buffer.array();
+    }
+
+    static ExportRecord decode(byte[] data, long timestampMillis) {
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        boolean ipv6 = buffer.get() == 6;
+        long srcIpHi = buffer.getLong();
+        long srcIpLo = buffer.getLong();
+        long dstIpHi = buffer.getLong();
+        long dstIpLo = buffer.getLong();
+        FlowTuple tuple = ipv6
+                ? new FlowTuple(srcIpHi, srcIpLo, dstIpHi, dstIpLo, buffer.getShort(), buffer.getInt(),
+                        buffer.getInt())
+                : new FlowTuple((int) srcIpLo, (int) dstIpLo, buffer.getShort(), buffer.getInt(), buffer.getInt());
+        return new ExportRecord(tuple, new String(data, TUPLE_SIZE, data.length - TUPLE_SIZE, StandardCharsets.UTF_8),
+                timestampMillis);
+    }
+
+    @Override
+    public String toString() {
+        return query;
+    }
+}
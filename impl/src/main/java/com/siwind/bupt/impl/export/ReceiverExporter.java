@@ -0,0 +1,493 @@
+/*
+ * Copyright © 2016 siwind, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package com.siwind.bupt.impl.export;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
+import org.apache.http.util.EntityUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.siwind.bupt.impl.GetpacketConfig;
+import com.siwind.bupt.impl.trace.FlightEvents;
+import com.siwind.bupt.impl.trace.LatencyTracer;
+import com.siwind.bupt.impl.trace.LatencyTracer.Stage;
+
+/**
+ * Exports flow records to one Trident receiver from a dedicated thread, with its
+ * own queue and connection pool, so the notification thread only queues them.
+ *
+ * <p>Consecutive failed exports open a {@link CircuitBreaker}. While it is open
+ * records are not sent but spilled to a {@link SpillJournal}; once a probe export
+ * succeeds the journal is replayed in order before newer records, which are
+ * appended behind the spilled ones meanwhile. Records are dropped and counted when
+ * the queue is full, or when the receiver is down and spilling is disabled.
+ *
+ * <p>Traced records have the latencies of their stages recorded by the
+ * {@link LatencyTracer} as they go, unless they are spilled.
+ */
+public class ReceiverExporter implements AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ReceiverExporter.class);
+
+    private static final long MEGABYTE = 1024L * 1024L;
+
+    private static final long POLL_MS = 100;
+
+    /**
+     * pause of the sender after an unexpected error, not to spin on it
+     */
+    private static final long ERROR_BACKOFF_MS = 1000;
+
+    /**
+     * live records moved to the journal at once while it is replayed
+     */
+    private static final int DRAIN_BATCH = 256;
+
+    private final GetpacketConfig config;
+    private final CloseableHttpClient httpClient;
+
+    /**
+     * connection pool of the client, null if unknown
+     */
+    private final PoolingHttpClientConnectionManager connectionPool;
+    private final String baseUrl;
+    private final String url;
+    private final Path spillDirectory;
+    private final BlockingQueue<ExportRecord> queue;
+    private final CircuitBreaker breaker;
+    private final Thread sender;
+
+    /**
+     * records the latencies of traced records, null when not tracing
+     */
+    private final LatencyTracer latencyTracer;
+
+    /**
+     * used by the sender thread only once started
+     */
+    private SpillJournal journal = null;
+    private volatile boolean running = false;
+
+    /**
+     * records waiting in the journal, published by the sender thread for the others
+     */
+    private volatile long spillPending = 0;
+
+    private final AtomicLong offered = new AtomicLong();
+    private final AtomicLong exported = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong spilled = new AtomicLong();
+    private final AtomicLong replayed = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+
+    /**
+     * @param baseUrl base URL of the receiver
+     * @param httpClient client used for this receiver only, closed with the exporter
+     * @param connectionPool connection pool of the client, for its statistics, null if unknown
+     * @param spillDirectory directory of the spill journal of this receiver
+     * @param latencyTracer records the stage latencies of traced records, null not to trace them
+     */
+    public ReceiverExporter(String baseUrl, CloseableHttpClient httpClient,
+            PoolingHttpClientConnectionManager connectionPool, GetpacketConfig config, Path spillDirectory,
+            LatencyTracer latencyTracer) {
+        this.config = config;
+        this.connectionPool = connectionPool;
+        this.latencyTracer = latencyTracer;
+        this.httpClient = httpClient;
+        this.baseUrl = baseUrl.endsWith("/") ? baseUrl : baseUrl + "/";
+        this.url = this.baseUrl + "packet?";
+        this.spillDirectory = spillDirectory;
+        this.queue = new ArrayBlockingQueue<>(config.getExportQueueSize());
+        this.breaker = new CircuitBreaker(config.getExportBreakerFailures(),
+                TimeUnit.MILLISECONDS.toNanos(config.getExportBreakerOpenMs()));
+        this.sender = new Thread(this::run, "getpacket-export-" + spillDirectory.getFileName());
+        this.sender.setDaemon(true);
+    }
+
+    /**
+     * Open the spill journal, if enabled, and start exporting.
+     */
+    public void start() {
+        if (config.isSpillEnabled()) {
+            try {
+                journal = new SpillJournal(spillDirectory,
+                        (int) Math.min(Integer.MAX_VALUE, config.getSpillSegmentSizeMb() * MEGABYTE),
+                        config.getSpillMaxSizeMb() * MEGABYTE,
+                        TimeUnit.SECONDS.toMillis(config.getSpillMaxAgeSeconds()));
+                spillPending = journal.getPending();
+            } catch (IOException | IllegalArgumentException e) {
+                LOG.warn("[Siwind] Failed to open spill journal of {}, records are dropped while it is down",
+                        baseUrl, e);
+            }
+        }
+        running = true;
+        sender.start();
+    }
+
+    /**
+     * Queue a record for export, never blocks.
+     *
+     * @return false if the record was dropped
+     */
+    public boolean export(ExportRecord record) {
+        offered.incrementAndGet();
+        boolean traced = latencyTracer != null && record.isTraced();
+        if (traced) {
+            long now = System.nanoTime();
+            record.setEnqueueNanos(now);
+            latencyTracer.record(Stage.ENQUEUE, now - record.getIntakeNanos());
+        }
+        if (!queue.offer(record)) {
+            dropped.incrementAndGet();
+            if (FlightEvents.shouldEmit(FlightEvents.Type.DROP)) {
+                FlightEvents.drop("queue-full", baseUrl);
+            }
+            return false;
+        }
+        return true;
+    }
+
+    private void run() {
+        List<ExportRecord> batch = new ArrayList<>(DRAIN_BATCH);
+        Flush flush = new Flush();
+        while (running) {
+            try {
+                if (journal != null && !journal.isEmpty()) {
+                    // keep the order, live records go behind the spilled ones
+                    queue.drainTo(batch, DRAIN_BATCH);
+                    for (ExportRecord record : batch) {
+                        spill(record);
+                    }
+                    batch.clear();
+                    if (breaker.allowRequest()) {
+                        replay();
+                    } else {
+                        ExportRecord record = queue.poll(POLL_MS, TimeUnit.MILLISECONDS);
+                        if (record != null) {
+                            spill(record);
+                        }
+                    }
+                    continue;
+                }
+
+                ExportRecord record = queue.poll(POLL_MS, TimeUnit.MILLISECONDS);
+                if (record == null) {
+                    flush.end();
+                    continue;
+                }
+                if (latencyTracer != null && record.isTraced()) {
+                    latencyTracer.record(Stage.QUEUE, System.nanoTime() - record.getEnqueueNanos());
+                }
+                HttpGet httpGet;
+                try {
+                    httpGet = newRequest(record);
+                } catch (IllegalArgumentException e) {
+                    LOG.warn("[Siwind] Dropping record with an invalid query {}", record, e);
+                    drop("invalid-query");
+                    continue;
+                }
+                if (breaker.allowRequest()) {
+                    long sent = flush.isActive() ? System.nanoTime() : 0;
+                    if (send(record, httpGet)) {
+                        breaker.recordSuccess();
+                        exported.incrementAndGet();
+                        flush.add(sent, record);
+                        continue;
+                    }
+                    breaker.recordFailure();
+                }
+                flush.end();
+                spill(record);
+            } catch (InterruptedException e) {
+                break;
+            } catch (IOException | RuntimeException e) {
+                LOG.warn("[Siwind] Export failed", e);
+                try {
+                    TimeUnit.MILLISECONDS.sleep(ERROR_BACKOFF_MS);
+                } catch (InterruptedException ie) {
+                    break;
+                }
+            }
+        }
+    }
+
+    private void replay() throws IOException {
+        try {
+            replayHead();
+        } finally {
+            spillPending = journal.getPending();
+        }
+    }
+
+    private void replayHead() throws IOException {
+        byte[] data = journal.peek(System.currentTimeMillis());
+        if (data == null) {
+            // everything left has expired
+            breaker.recordSuccess();
+            return;
+        }
+        ExportRecord record;
+        HttpGet httpGet;
+        try {
+            record = ExportRecord.decode(data, journal.peekTimestamp());
+            httpGet = newRequest(record);
+        } catch (RuntimeException e) {
+            // torn or corrupted by a crash, never sendable: skip it rather than retry it forever
+            LOG.warn("[Siwind] Dropping unreadable spilled record of {}", baseUrl, e);
+            journal.remove();
+            drop("spill-unreadable");
+            return;
+        }
+        if (send(record, httpGet)) {
+            breaker.recordSuccess();
+            journal.remove();
+            replayed.incrementAndGet();
+            exported.incrementAndGet();
+            if (journal.isEmpty()) {
+                LOG.info("[Siwind] Replayed all spilled records to {}, {} in total", baseUrl, replayed.get());
+            }
+        } else {
+            breaker.recordFailure();
+        }
+    }
+
+    private void spill(ExportRecord record) {
+        if (journal == null) {
+            drop("receiver-down");
+            return;
+        }
+        try {
+            if (journal.append(record.getTimestampMillis(), record.encode())) {
+                spilled.incrementAndGet();
+                spillPending = journal.getPending();
+            } else {
+                drop("record-too-large");
+            }
+        } catch (IOException e) {
+            drop("spill-failed");
+            LOG.warn("[Siwind] Failed to spill record {}", record, e);
+        }
+    }
+
+    private void drop(String reason) {
+        dropped.incrementAndGet();
+        if (FlightEvents.shouldEmit(FlightEvents.Type.DROP)) {
+            FlightEvents.drop(reason, baseUrl);
+        }
+    }
+
+    /**
+     * @throws IllegalArgumentException if the query of the record is not a valid URI
+     */
+    private HttpGet newRequest(ExportRecord record) {
+        return new HttpGet(url + record.getQuery());
+    }
+
+    /**
+     * @return whether Trident accepted the record
+     */
+    private boolean send(ExportRecord record, HttpGet httpGet) {
+        boolean traced = latencyTracer != null && record.isTraced();
+        long sent = traced ? System.nanoTime() : 0;
+        try (CloseableHttpResponse response = httpClient.execute(httpGet)) {
+            long answered = traced ? System.nanoTime() : 0;
+            EntityUtils.consume(response.getEntity());
+            int status = response.getStatusLine().getStatusCode();
+            if (status >= 500) {
+                failed.incrementAndGet();
+                LOG.debug("[Siwind] {} answered {} to {}", baseUrl, status, record);
+                return false;
+            }
+            if (traced) {
+                long acknowledged = System.nanoTime();
+                latencyTracer.record(Stage.SEND, answered - sent);
+                latencyTracer.record(Stage.ACK, acknowledged - answered);
+                latencyTracer.record(Stage.TOTAL, acknowledged - record.getIntakeNanos());
+            }
+            return true;
+        } catch (IOException e) {
+            failed.incrementAndGet();
+            LOG.debug("[Siwind] Failed to send {} to {}", record, baseUrl, e);
+            return false;
+        }
+    }
+
+    /**
+     * @return whether records should be routed to this receiver, i.e. its breaker
+     *         is not open: a half-open one needs a record to probe with
+     */
+    public boolean isAvailable() {
+        return breaker.getState() != CircuitBreaker.State.OPEN;
+    }
+
+    /**
+     * Check an unavailable receiver, half-opening its breaker if it answers at
+     * all: the next export is the probe which closes or re-opens it, as
+     * answering the health check does not mean accepting records.
+     */
+    void checkHealth() {
+        if (isAvailable()) {
+            return;
+        }
+        try (CloseableHttpResponse response = httpClient.execute(new HttpGet(baseUrl))) {
+            EntityUtils.consume(response.getEntity());
+            if (response.getStatusLine().getStatusCode() < 500 && breaker.tryHalfOpen()) {
+                LOG.info("[Siwind] Trident receiver {} answers, probing it with the next export", baseUrl);
+            }
+        } catch (IOException e) {
+            LOG.debug("[Siwind] Trident receiver {} still down", baseUrl, e);
+        }
+    }
+
+    public String getUrl() {
+        return baseUrl;
+    }
+
+    public long getOffered() {
+        return offered.get();
+    }
+
+    public long getExported() {
+        return exported.get();
+    }
+
+    /**
+     * @return failed export attempts
+     */
+    public long getFailed() {
+        return failed.get();
+    }
+
+    public long getSpilled() {
+        return spilled.get();
+    }
+
+    public long getReplayed() {
+        return replayed.get();
+    }
+
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    /**
+     * @return fill of the queue in percent
+     */
+    public int getQueueFillPercent() {
+        int depth = queue.size();
+        return depth * 100 / (depth + queue.remainingCapacity());
+    }
+
+    /**
+     * @return leased, idle and awaited connections of the pool, null if unknown
+     */
+    public PoolStats getPoolStats() {
+        return connectionPool == null ? null : connectionPool.getTotalStats();
+    }
+
+    public CircuitBreaker getBreaker() {
+        return breaker;
+    }
+
+    /**
+     * @return records waiting in the spill journal, 0 when spilling is disabled
+     */
+    public long getSpillPending() {
+        return spillPending;
+    }
+
+    /**
+     * Records sent one after the other, reported as one flight recorder event
+     * when the queue runs empty, a record is spilled or the batch is full.
+     * Only counted while the events are enabled; used by the sender thread only.
+     */
+    private final class Flush {
+        private long start = 0;
+        private int count = 0;
+        private long bytes = 0;
+
+        boolean isActive() {
+            return FlightEvents.isEnabled();
+        }
+
+        void add(long sentNanos, ExportRecord record) {
+            if (sentNanos == 0) {
+                return;
+            }
+            if (count == 0) {
+                start = sentNanos;
+            }
+            count++;
+            bytes += record.getQuery().length();
+            if (count >= DRAIN_BATCH) {
+                end();
+            }
+        }
+
+        void end() {
+            if (count == 0) {
+                return;
+            }
+            if (FlightEvents.shouldEmit(FlightEvents.Type.EXPORT_FLUSH)) {
+                FlightEvents.exportFlush(baseUrl, count, bytes, System.nanoTime() - start);
+            }
+            count = 0;
+            bytes = 0;
+        }
+    }
+
+    /**
+     * Stop exporting, spilling what is still queued so it is exported after a restart.
+     * The journal is left alone if the sender thread does not stop in time, as it may
+     * still be using it; what is queued is then lost.
+     */
+    @Override
+    public void close() {
+        running = false;
+        sender.interrupt();
+        try {
+            sender.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (sender.isAlive()) {
+            LOG.warn("[Siwind] Export to {} did not stop in time, {} queued records not spilled", baseUrl,
+                    queue.size());
+        } else {
+            ExportRecord record;
+            while ((record = queue.poll()) != null) {
+                spill(record);
+            }
+            if (journal != null) {
+                journal.close();
+            }
+        }
+        try {
+            httpClient.close();
+        } catch (IOException e) {
+            LOG.warn("[Siwind] Failed to close http client", e);
+        }
+    }
+}
@@ -0,0 +1,346 @@
+/*
+ * Copyright © 2016 siwind, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package com.siwind.bupt.impl.export;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.siwind.bupt.impl.trace.FlightEvents;
+import com.siwind.bupt.impl.util.MappedBuffers;
+
+/**
+ * Append-only journal of records which could not be exported, kept in a directory
+ * of fixed size memory-mapped segment files and read back in append order.
+ *
+ * <p>Each segment starts with a header holding the position of its oldest unread
+ * record, followed by records of {@code length, timestamp, data}. The length is
+ * written last, so a record torn by a crash ends the segment. Segments are deleted
+ * once read; when the journal would grow beyond its disk budget the oldest segment
+ * is dropped; the budget must hold two segments at least, and deleted segments
+ * are unmapped at once so their disk space is freed. Records older than the maximum age are skipped on read. A journal
+ * reopened on the same directory resumes with the unread records.
+ *
+ * <p>Not thread safe, the exporter thread is the only user.
+ */
+public class SpillJournal implements AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SpillJournal.class);
+
+    private static final int MAGIC = 0x47505331;
+    private static final int MAGIC_POSITION = 0;
+    private static final int READ_POSITION = 4;
+    private static final int HEADER_SIZE = 16;
+
+    /**
+     * length and timestamp in front of every record
+     */
+    private static final int RECORD_HEADER_SIZE = 4 + 8;
+
+    private static final String PREFIX = "spill-";
+    private static final String SUFFIX = ".seg";
+
+    private final Path directory;
+    private final int segmentSize;
+    private final int maxSegments;
+    private final long maxAgeMillis;
+
+    private final ArrayDeque<Segment> segments = new ArrayDeque<>();
+    private long nextSegmentId = 0;
+
+    private long pending = 0;
+    private long appended = 0;
+    private long evicted = 0;
+    private long expired = 0;
+
+    /**
+     * @param directory directory of the segment files, created if missing
+     * @param segmentSize size of a segment file in bytes
+     * @param maxBytes disk budget of all segments, two segments at least
+     * @param maxAgeMillis age beyond which records are not read back, 0 for no limit
+     * @throws IllegalArgumentException if a segment or the budget is too small
+     */
+    public SpillJournal(Path directory, int segmentSize, long maxBytes, long maxAgeMillis) throws IOException {
+        if (segmentSize <= HEADER_SIZE + RECORD_HEADER_SIZE) {
+            throw new IllegalArgumentException("Segment size too small: " + segmentSize);
+        }
+        if (maxBytes / segmentSize < 2) {
+            throw new IllegalArgumentException(
+                    "Spill budget of " + maxBytes + " bytes smaller than two segments of " + segmentSize);
+        }
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.maxSegments = (int) Math.min(Integer.MAX_VALUE, maxBytes / segmentSize);
+        this.maxAgeMillis = maxAgeMillis;
+
+        Files.createDirectories(directory);
+        recover();
+    }
+
+    private void recover() throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, PREFIX + "*" + SUFFIX)) {
+            for (Path file : stream) {
+                files.add(file);
+            }
+        }
+        Collections.sort(files);
+
+        for (Path file : files) {
+            String name = file.getFileName().toString();
+            long id;
+            try {
+                id = Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+            } catch (NumberFormatException e) {
+                continue;
+            }
+            nextSegmentId = Math.max(nextSegmentId, id + 1);
+            if (Files.size(file) != segmentSize) {
+                LOG.warn("[Siwind] Ignoring spill segment {} of a different segment size", file);
+                continue;
+            }
+            Segment segment = new Segment(file, false);
+            if (segment.pending == 0) {
+                segment.delete();
+            } else {
+                segments.add(segment);
+                pending += segment.pending;
+            }
+        }
+        if (pending > 0) {
+            LOG.info("[Siwind] Recovered {} spilled records from {}", pending, directory);
+        }
+    }
+
+    /**
+     * Append a record.
+     *
+     * @return false if the record is larger than a segment
+     */
+    public boolean append(long timestampMillis, byte[] data) throws IOException {
+        int size = RECORD_HEADER_SIZE + data.length;
+        if (HEADER_SIZE + size > segmentSize) {
+            return false;
+        }
+        Segment tail = segments.peekLast();
+        if (tail == null || tail.writePosition + size > segmentSize) {
+            tail = roll();
+        }
+        tail.append(timestampMillis, data);
+        pending++;
+        appended++;
+        return true;
+    }
+
+    private Segment roll() throws IOException {
+        while (segments.size() >= maxSegments) {
+            Segment oldest = segments.poll();
+            pending -= oldest.pending;
+            evicted += oldest.pending;
+            LOG.warn("[Siwind] Spill journal full, dropped {} records", oldest.pending);
+            if (FlightEvents.shouldEmit(FlightEvents.Type.CACHE_EVICTION)) {
+                FlightEvents.cacheEviction("spill-journal", oldest.pending);
+            }
+            oldest.delete();
+        }
+        Path file = directory.resolve(String.format("%s%016d%s", PREFIX, nextSegmentId++, SUFFIX));
+        Segment segment = new Segment(file, true);
+        segments.add(segment);
+        return segment;
+    }
+
+    /**
+     * @return whether no record is waiting to be read
+     */
+    public boolean isEmpty() {
+        return pending == 0;
+    }
+
+    /**
+     * @param nowMillis current time, records older than the maximum age are dropped
+     * @return data of the oldest record, null if there is none
+     */
+    public byte[] peek(long nowMillis) throws IOException {
+        Segment head;
+        while ((head = head()) != null) {
+            if (maxAgeMillis > 0 && nowMillis - head.readTimestamp() > maxAgeMillis) {
+                head.advance();
+                pending--;
+                expired++;
+                continue;
+            }
+            return head.readData();
+        }
+        return null;
+    }
+
+    /**
+     * @return timestamp of the record returned by the last {@link #peek}
+     */
+    public long peekTimestamp() throws IOException {
+        Segment head = head();
+        return head == null ? 0 : head.readTimestamp();
+    }
+
+    /**
+     * Remove the oldest record, after it was exported.
+     */
+    public void remove() throws IOException {
+        Segment head = head();
+        if (head != null) {
+            head.advance();
+            pending--;
+        }
+    }
+
+    /**
+     * @return the segment holding the oldest unread record, dropping read segments
+     */
+    private Segment head() throws IOException {
+        Segment head;
+        while ((head = segments.peek()) != null && head.pending == 0) {
+            if (head == segments.peekLast()) {
+                // appends go on in the tail
+                return null;
+            }
+            segments.poll();
+            head.delete();
+        }
+        return head;
+    }
+
+    /**
+     * @return records waiting to be read
+     */
+    public long getPending() {
+        return pending;
+    }
+
+    public long getAppended() {
+        return appended;
+    }
+
+    /**
+     * @return records dropped to keep the journal within its disk budget
+     */
+    public long getEvicted() {
+        return evicted;
+    }
+
+    /**
+     * @return records dropped for being older than the maximum age
+     */
+    public long getExpired() {
+        return expired;
+    }
+
+    /**
+     * @return disk space used by the segments
+     */
+    public long getBytes() {
+        return (long) segments.size() * segmentSize;
+    }
+
+    @Override
+    public void close() {
+        for (Segment segment : segments) {
+            segment.buffer.force();
+            MappedBuffers.unmap(segment.buffer);
+        }
+        segments.clear();
+    }
+
+    /**
+     * A segment file, read and written at absolute offsets; the position of
+     * the buffer only serves the bulk copies of the record data.
+     */
+    private final class Segment {
+        final Path path;
+        final MappedByteBuffer buffer;
+        int readPosition;
+        int writePosition;
+        long pending;
+
+        Segment(Path path, boolean create) throws IOException {
+            this.path = path;
+            try (RandomAccessFile file = new RandomAccessFile(path.toFile(), "rw")) {
+                if (create) {
+                    file.setLength(segmentSize);
+                }
+                buffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+            }
+            if (create) {
+                buffer.putInt(MAGIC_POSITION, MAGIC);
+                buffer.putInt(READ_POSITION, HEADER_SIZE);
+                readPosition = HEADER_SIZE;
+                writePosition = HEADER_SIZE;
+                return;
+            }
+
+            int read = buffer.getInt(MAGIC_POSITION) == MAGIC ? buffer.getInt(READ_POSITION) : segmentSize;
+            int position = HEADER_SIZE;
+            while (position + RECORD_HEADER_SIZE <= segmentSize) {
+                int length = buffer.getInt(position);
+                if (length <= 0 || position + RECORD_HEADER_SIZE + length > segmentSize) {
+                    break;
+                }
+                if (position >= read) {
+                    pending++;
+                }
+                position += RECORD_HEADER_SIZE + length;
+            }
+            readPosition = Math.min(Math.max(read, HEADER_SIZE), position);
+            writePosition = position;
+        }
+
+        void append(long timestampMillis, byte[] data) {
+            buffer.putLong(writePosition + 4, timestampMillis);
+            // records never cross the end of a segment: one bulk copy
+            buffer.position(writePosition + RECORD_HEADER_SIZE);
+            buffer.put(data, 0, data.length);
+            // the length commits the record
+            buffer.putInt(writePosition, data.length);
+            writePosition += RECORD_HEADER_SIZE + data.length;
+            pending++;
+        }
+
+        long readTimestamp() {
+            return buffer.getLong(readPosition + 4);
+        }
+
+        byte[] readData() {
+            byte[] data = new byte[buffer.getInt(readPosition)];
+            buffer.position(readPosition + RECORD_HEADER_SIZE);
+            buffer.get(data, 0, data.length);
+            return data;
+        }
+
+        void advance() {
+            readPosition += RECORD_HEADER_SIZE + buffer.getInt(readPosition);
+            buffer.putInt(READ_POSITION, readPosition);
+            pending--;
+        }
+
+        void delete() throws IOException {
+            // else the mapping keeps the blocks of the deleted file until the buffer is collected
+            MappedBuffers.unmap(buffer);
+            Files.deleteIfExists(path);
+        }
+    }
+}
@@ -0,0 +1,260 @@
+/*
+ * Copyright © 2016 siwind, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package com.siwind.bupt.impl.export;
+
+import java.util.EnumSet;
+import java.util.Locale;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.siwind.bupt.api.DecodedPacket;
+import com.siwind.bupt.api.PacketConsumer;
+import com.siwind.bupt.api.PacketField;
+import com.siwind.bupt.impl.flow.ConnectionTracker;
+import com.siwind.bupt.impl.flow.FlowOffloader;
+import com.siwind.bupt.impl.flow.FlowTuple;
+import com.siwind.bupt.impl.host.HostTracker;
+import com.siwind.bupt.impl.pipeline.PacketDescriptor;
+import com.siwind.bupt.impl.subnet.SubnetTagger;
+import com.siwind.bupt.impl.util.NetUtils;
+
+/**
+ * Packet consumer exporting IPv4 and IPv6 packets to Trident, TCP ones
+ * optionally only on connection events, UDP and ICMP ones if so configured,
+ * and offloading the exported IPv4 flows to the ingress switch. Records are
+ * enriched with the locations of the hosts when they are known, and with the
+ * tags of the subnets of the addresses. Packets in transit between two switches
+ * were already exported at the edge; they are skipped, or exported tagged as
+ * transit if so configured.
+ *
+ * <p>Queries are formatted into a buffer of the calling thread, addresses
+ * included, so a record costs its query string and little else.
+ */
+public class TridentExportConsumer implements PacketConsumer {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TridentExportConsumer.class);
+
+    /**
+     * Upper layer protocols which may be exported.
+     */
+    public enum Protocol {
+        TCP,
+        UDP,
+        /**
+         * ICMP and ICMPv6
+         */
+        ICMP;
+
+        /**
+         * @param spec comma separated protocol names, unknown ones are ignored
+         */
+        public static Set<Protocol> parse(String spec) {
+            Set<Protocol> protocols = EnumSet.noneOf(Protocol.class);
+            for (String token : spec.split(",")) {
+                if (token.trim().isEmpty()) {
+                    continue;
+                }
+                try {
+                    protocols.add(valueOf(token.trim().toUpperCase(Locale.ROOT)));
+                } catch (IllegalArgumentException e) {
+                    LOG.warn("[Siwind] Unknown protocol {} in export-protocols, ignored", token.trim());
+                }
+            }
+            return protocols;
+        }
+    }
+
+    private static final ThreadLocal<StringBuilder> QUERY = ThreadLocal.withInitial(() -> new StringBuilder(256));
+
+    /**
+     * filled by the host lookups, reused like {@link #QUERY}
+     */
+    private static final ThreadLocal<HostTracker.Host> HOST = ThreadLocal.withInitial(HostTracker.Host::new);
+
+    private final TridentExporter exporter;
+
+    /**
+     * decides which packets are exported, null to export all
+     */
+    private final ConnectionTracker connectionTracker;
+
+    /**
+     * offloads exported flows to the ingress switch, null when disabled
+     */
+    private final FlowOffloader flowOffloader;
+
+    /**
+     * locates the hosts of the exported packets, null when disabled
+     */
+    private final HostTracker hostTracker;
+
+    /**
+     * tags the subnets of the addresses, null when disabled
+     */
+    private final SubnetTagger subnetTagger;
+
+    /**
+     * whether packets in transit between two switches are exported too
+     */
+    private final boolean exportTransit;
+
+    private final boolean exportTcp;
+
+    private final boolean exportUdp;
+
+    private final boolean exportIcmp;
+
+    public TridentExportConsumer(TridentExporter exporter, ConnectionTracker connectionTracker,
+            FlowOffloader flowOffloader, HostTracker hostTracker, SubnetTagger subnetTagger) {
+        this(exporter, connectionTracker, flowOffloader, hostTracker, subnetTagger, false, EnumSet.of(Protocol.TCP));
+    }
+
+    public TridentExportConsumer(TridentExporter exporter, ConnectionTracker connectionTracker,
+            FlowOffloader flowOffloader, HostTracker hostTracker, SubnetTagger subnetTagger,
+            boolean exportTransit, Set<Protocol> protocols) {
+        this.exportTransit = exportTransit;
+        this.exportTcp = protocols.contains(Protocol.TCP);
+        this.exportUdp = protocols.contains(Protocol.UDP);
+        this.exportIcmp = protocols.contains(Protocol.ICMP);
+        this.exporter = exporter;
+        this.connectionTracker = connectionTracker;
+        this.flowOffloader = flowOffloader;
+        this.hostTracker = hostTracker;
+        this.subnetTagger = subnetTagger;
+    }
+
+    @Override
+    public String getName() {
+        return "trident";
+    }
+
+    @Override
+    public Set<PacketField> getRequiredFields() {
+        Set<PacketField> fields = connectionTracker != null ? EnumSet.of(PacketField.INGRESS, PacketField.TCP)
+                : EnumSet.of(PacketField.INGRESS, PacketField.PORTS);
+        if (exportIcmp) {
+            fields.add(PacketField.ICMP);
+        }
+        if (hostTracker != null) {
+            fields.add(PacketField.ETHERNET);
+        }
+        return fields;
+    }
+
+    /**
+     * The exporter queues, so this never blocks.
+     */
+    @Override
+    public boolean isInline() {
+        return true;
+    }
+
+    @Override
+    public void onPacket(DecodedPacket packet) {
+        short protocol = packet.getProtocol();
+        boolean tcp = protocol == PacketDescriptor.PROTOCOL_TCP;
+        boolean exported;
+        if (tcp) {
+            exported = exportTcp && packet.hasPorts();
+        } else if (protocol == PacketDescriptor.PROTOCOL_UDP) {
+            exported = exportUdp && packet.hasPorts();
+        } else {
+            exported = exportIcmp && packet.hasIcmp();
+        }
+        if (!exported) {
+            return;
+        }
+        boolean transit = packet.isTransit();
+        if (transit && !exportTransit) {
+            return;
+        }
+        boolean ipv4 = packet.isIpv4();
+
+        String srcTag = null;
+        String dstTag = null;
+        if (subnetTagger != null) {
+            if (ipv4) {
+                srcTag = subnetTagger.getTag(packet.getSrcIp());
+                dstTag = subnetTagger.getTag(packet.getDstIp());
+            } else {
+                srcTag = subnetTagger.getTag(packet.getSrcIpv6Hi(), packet.getSrcIpv6Lo());
+                dstTag = subnetTagger.getTag(packet.getDstIpv6Hi(), packet.getDstIpv6Lo());
+            }
+            if (srcTag == null && dstTag == null && subnetTagger.isTaggedOnly()) {
+                return;
+            }
+        }
+
+        FlowTuple tuple = FlowTuple.of(packet);
+        String event = null;
+        if (connectionTracker != null && tcp) {
+            int tracked = connectionTracker.track(tuple, packet.getTcpFlags(), packet.hasTcpPayload(),
+                    packet.getTimestampMillis());
+            if (!connectionTracker.isExported(tracked)) {
+                return;
+            }
+            event = ConnectionTracker.eventName(tracked);
+        }
+
+        StringBuilder query = QUERY.get();
+        query.setLength(0);
+        appendAddress(query.append("sip="), packet, ipv4, true);
+        appendAddress(query.append("&dip="), packet, ipv4, false);
+        if (packet.hasPorts()) {
+            query.append("&sport=").append(packet.getSrcPort()).append("&dport=").append(packet.getDstPort());
+        }
+        query.append("&proto=").append(tcp ? "tcp" : packet.hasPorts() ? "udp" : ipv4 ? "icmp" : "icmpv6");
+        if (packet.hasIcmp()) {
+            query.append("&itype=").append(packet.getIcmpType()).append("&icode=").append(packet.getIcmpCode());
+        }
+        query.append("&inport=").append(packet.getIngress());
+        if (event != null) {
+            query.append("&event=").append(event);
+        }
+        if (srcTag != null) {
+            query.append("&stag=").append(srcTag);
+        }
+        if (dstTag != null) {
+            query.append("&dtag=").append(dstTag);
+        }
+        if (transit) {
+            query.append("&transit=1");
+        }
+        if (packet.getSamplingRate() > 1) {
+            query.append("&rate=").append(packet.getSamplingRate());
+        }
+        if (hostTracker != null) {
+            HostTracker.Host host = HOST.get();
+            if (hostTracker.lookup(packet.getSrcMac(), host, packet.getTimestampMillis())) {
+                query.append("&sloc=").append(host.getLocation());
+            }
+            if (hostTracker.lookup(packet.getDstMac(), host, packet.getTimestampMillis())) {
+                query.append("&dloc=").append(host.getLocation());
+            }
+        }
+
+        // queued for the exporter thread, spilled to disk while Trident is down
+        long intakeNanos = packet instanceof PacketDescriptor ? ((PacketDescriptor) packet).getIntakeNanos() : 0;
+        if (exporter.export(new ExportRecord(tuple, query.toString(), packet.getTimestampMillis(), intakeNanos))
+                && flowOffloader != null && ipv4 && !transit && packet instanceof PacketDescriptor) {
+            flowOffloader.offload(((PacketDescriptor) packet).getIngressRef(), tuple);
+        }
+    }
+
+    private static void appendAddress(StringBuilder query, DecodedPacket packet, boolean ipv4, boolean source) {
+        if (ipv4) {
+            NetUtils.appendIPv4(query, source ? packet.getSrcIp() : packet.getDstIp()).append("/32");
+        } else if (source) {
+            NetUtils.appendIPv6(query, packet.getSrcIpv6Hi(), packet.getSrcIpv6Lo()).append("/128");
+        } else {
+            NetUtils.appendIPv6(query, packet.getDstIpv6Hi(), packet.getDstIpv6Lo()).append("/128");
+        }
+    }
+}
@@ -0,0 +1,197 @@
+/*
+ * Copyright © 2016 siwind, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package com.siwind.bupt.impl.export;
+
+import java.net.URI;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntPredicate;
+
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.siwind.bupt.impl.GetpacketConfig;
+import com.siwind.bupt.impl.trace.LatencyTracer;
+
+/**
+ * Exports flow records to the configured Trident receivers. Flows are assigned
+ * to receivers by a {@link ConsistentHashRing} on their 5-tuple, so all records of
+ * a flow go to the same receiver. Every receiver has its own
+ * {@link ReceiverExporter}; a receiver whose breaker is open gets no new records,
+ * its slice of the flows moves to the next receivers on the ring until a health
+ * check finds it back.
+ */
+public class TridentExporter implements AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TridentExporter.class);
+
+    private final GetpacketConfig config;
+    private final List<ReceiverExporter> receivers;
+    private final ConsistentHashRing ring;
+    private final IntPredicate available;
+
+    private ScheduledExecutorService healthChecker = null;
+
+    public TridentExporter(GetpacketConfig config) {
+        this(config, null);
+    }
+
+    /**
+     * @param latencyTracer records the stage latencies of traced records, null not to trace them
+     */
+    public TridentExporter(GetpacketConfig config, LatencyTracer latencyTracer) {
+        this.config = config;
+        List<String> urls = parseUrls(config.getTridentUrls());
+        if (urls.isEmpty()) {
+            throw new IllegalArgumentException("No Trident receiver configured");
+        }
+
+        RequestConfig requestConfig = RequestConfig.custom()
+                .setConnectTimeout(config.getExportConnectTimeoutMs())
+                .setConnectionRequestTimeout(config.getExportConnectTimeoutMs())
+                .setSocketTimeout(config.getExportSocketTimeoutMs())
+                .build();
+        List<ReceiverExporter> exporters = new ArrayList<>(urls.size());
+        for (String url : urls) {
+            PoolingHttpClientConnectionManager pool = new PoolingHttpClientConnectionManager();
+            CloseableHttpClient client = HttpClients.custom().setConnectionManager(pool)
+                    .setDefaultRequestConfig(requestConfig).build();
+            exporters.add(new ReceiverExporter(url, client, pool, config, spillDirectory(url), latencyTracer));
+        }
+        this.receivers = Collections.unmodifiableList(exporters);
+        this.ring = new ConsistentHashRing(urls, config.getExportVirtualNodes());
+        this.available = index -> receivers.get(index).isAvailable();
+    }
+
+    private static List<String> parseUrls(String urls) {
+        List<String> result = new ArrayList<>();
+        for (String url : urls.split(",")) {
+            if (!url.trim().isEmpty()) {
+                result.add(url.trim());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return spill journal directory of a receiver, named after its host and port
+     */
+    private Path spillDirectory(String url) {
+        URI uri = URI.create(url);
+        String name = uri.getHost() + "_" + (uri.getPort() < 0 ? 80 : uri.getPort());
+        return Paths.get(config.getSpillDirectory(), name.replaceAll("[^A-Za-z0-9._-]", "_"));
+    }
+
+    public void start() {
+        for (ReceiverExporter receiver : receivers) {
+            receiver.start();
+        }
+        healthChecker = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "getpacket-export-health");
+            t.setDaemon(true);
+            return t;
+        });
+        healthChecker.scheduleWithFixedDelay(this::checkHealth, config.getExportHealthIntervalMs(),
+                config.getExportHealthIntervalMs(), TimeUnit.MILLISECONDS);
+    }
+
+    private void checkHealth() {
+        for (ReceiverExporter receiver : receivers) {
+            try {
+                receiver.checkHealth();
+            } catch (RuntimeException e) {
+                LOG.warn("[Siwind] Health check of {} failed", receiver.getUrl(), e);
+            }
+        }
+    }
+
+    /**
+     * Queue a record for export to the receiver of its flow, never blocks.
+     *
+     * @return false if the record was dropped
+     */
+    public boolean export(ExportRecord record) {
+        int owner = ring.lookup(ConsistentHashRing.hash(record.getTuple()), available);
+        return receivers.get(owner).export(record);
+    }
+
+    public List<ReceiverExporter> getReceivers() {
+        return receivers;
+    }
+
+    public long getOffered() {
+        long sum = 0;
+        for (ReceiverExporter receiver : receivers) {
+            sum += receiver.getOffered();
+        }
+        return sum;
+    }
+
+    public long getExported() {
+        long sum = 0;
+        for (ReceiverExporter receiver : receivers) {
+            sum += receiver.getExported();
+        }
+        return sum;
+    }
+
+    public long getSpilled() {
+        long sum = 0;
+        for (ReceiverExporter receiver : receivers) {
+            sum += receiver.getSpilled();
+        }
+        return sum;
+    }
+
+    public long getReplayed() {
+        long sum = 0;
+        for (ReceiverExporter receiver : receivers) {
+            sum += receiver.getReplayed();
+        }
+        return sum;
+    }
+
+    /**
+     * @return fill in percent of the fullest receiver queue
+     */
+    public int getQueueFillPercent() {
+        int fill = 0;
+        for (ReceiverExporter receiver : receivers) {
+            fill = Math.max(fill, receiver.getQueueFillPercent());
+        }
+        return fill;
+    }
+
+    public long getDropped() {
+        long sum = 0;
+        for (ReceiverExporter receiver : receivers) {
+            sum += receiver.getDropped();
+        }
+        return sum;
+    }
+
+    @Override
+    public void close() {
+        if (healthChecker != null) {
+            healthChecker.shutdownNow();
+        }
+        for (ReceiverExporter receiver : receivers) {
+            receiver.close();
+        }
+    }
+}
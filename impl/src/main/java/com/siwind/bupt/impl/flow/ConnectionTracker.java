@@ -0,0 +1,306 @@
+/*
+ * Copyright © 2016 siwind, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package com.siwind.bupt.impl.flow;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import com.siwind.bupt.impl.GetpacketConfig;
+import com.siwind.bupt.impl.trace.FlightEvents;
+
+/**
+ * Lightweight TCP connection tracking driven by the flags of the packet-ins, used
+ * to export connection events instead of every packet.
+ *
+ * <p>Connections are kept in an open addressing table of primitive arrays, keyed by
+ * the IP version, the full addresses and the ports, with both directions on the
+ * same entry. Every state has its own
+ * timeout; expired entries are reused in place. Probing is limited, when no free
+ * slot is found the entry expiring first is evicted, so memory is fixed by the
+ * configured number of entries.
+ */
+public class ConnectionTracker {
+
+    /**
+     * Which packets are exported.
+     */
+    public enum Mode {
+        /**
+         * every packet, no tracking
+         */
+        ALL,
+        /**
+         * the first packet of a connection
+         */
+        NEW,
+        /**
+         * the first packet and the first FIN or RST of a connection
+         */
+        OPEN_CLOSE
+    }
+
+    public static final int EVENT_NONE = 0;
+    public static final int EVENT_NEW = 1;
+    public static final int EVENT_CLOSE = 2;
+
+    public static final int TCP_FIN = 0x01;
+    public static final int TCP_SYN = 0x02;
+    public static final int TCP_RST = 0x04;
+    public static final int TCP_ACK = 0x10;
+
+    private static final byte STATE_EMPTY = 0;
+    private static final byte STATE_SYN_SENT = 1;
+    private static final byte STATE_ESTABLISHED = 2;
+    private static final byte STATE_CLOSING = 3;
+    private static final byte STATE_CLOSED = 4;
+
+    private static final int MAX_PROBES = 16;
+
+    private final Mode mode;
+    private final long[] timeoutMillis = new long[STATE_CLOSED + 1];
+
+    private final int mask;
+
+    /**
+     * lower address high and low bits, then higher address high and low bits, per slot
+     */
+    private final long[] addresses;
+    private final boolean[] ipv6;
+    private final int[] ports;
+    private final byte[] states;
+    private final long[] expiries;
+
+    private long tracked = 0;
+    private long opened = 0;
+    private long closed = 0;
+    private long evicted = 0;
+    private long suppressed = 0;
+
+    public ConnectionTracker(GetpacketConfig config) {
+        this(Mode.valueOf(config.getExportMode().trim().toUpperCase(Locale.ROOT)), config.getConntrackMaxEntries(),
+                config.getConntrackSynTimeoutSec(), config.getConntrackEstablishedTimeoutSec(),
+                config.getConntrackClosingTimeoutSec(), config.getConntrackClosedTimeoutSec());
+    }
+
+    /**
+     * @param maxEntries connections tracked at most, rounded up to a power of two
+     */
+    public ConnectionTracker(Mode mode, int maxEntries, int synTimeoutSec, int establishedTimeoutSec,
+            int closingTimeoutSec, int closedTimeoutSec) {
+        this.mode = mode;
+        int capacity = Integer.highestOneBit(Math.max(MAX_PROBES, maxEntries) - 1) << 1;
+        this.mask = capacity - 1;
+        this.addresses = new long[capacity * 4];
+        this.ipv6 = new boolean[capacity];
+        this.ports = new int[capacity];
+        this.states = new byte[capacity];
+        this.expiries = new long[capacity];
+        timeoutMillis[STATE_SYN_SENT] = TimeUnit.SECONDS.toMillis(synTimeoutSec);
+        timeoutMillis[STATE_ESTABLISHED] = TimeUnit.SECONDS.toMillis(establishedTimeoutSec);
+        timeoutMillis[STATE_CLOSING] = TimeUnit.SECONDS.toMillis(closingTimeoutSec);
+        timeoutMillis[STATE_CLOSED] = TimeUnit.SECONDS.toMillis(closedTimeoutSec);
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    /**
+     * Track a TCP packet.
+     *
+     * @param tuple 5-tuple of the packet
+     * @param flags TCP flags octet, 0 if the header was truncated before it
+     * @param hasPayload whether the segment carries data
+     * @param nowMillis current time
+     * @return EVENT_NEW for the first packet of a connection, EVENT_CLOSE for its first
+     *         FIN or RST, EVENT_NONE otherwise
+     */
+    public int track(FlowTuple tuple, int flags, boolean hasPayload, long nowMillis) {
+        return track(tuple.isIpv6(), tuple.getSrcIpHi(), tuple.getSrcIpLo(), tuple.getDstIpHi(),
+                tuple.getDstIpLo(), tuple.getSrcPort(), tuple.getDstPort(), flags, hasPayload, nowMillis);
+    }
+
+    /**
+     * Track a TCP packet of IPv4 addresses.
+     *
+     * @see #track(FlowTuple, int, boolean, long)
+     */
+    public int track(int srcIp, int dstIp, int srcPort, int dstPort, int flags, boolean hasPayload,
+            long nowMillis) {
+        return track(false, 0, srcIp & 0xFFFFFFFFL, 0, dstIp & 0xFFFFFFFFL, srcPort, dstPort, flags, hasPayload,
+                nowMillis);
+    }
+
+    private synchronized int track(boolean v6, long srcHi, long srcLo, long dstHi, long dstLo, int srcPort,
+            int dstPort, int flags, boolean hasPayload, long nowMillis) {
+        tracked++;
+        // both directions share an entry
+        long lowHi;
+        long lowLo;
+        long highHi;
+        long highLo;
+        int portKey;
+        int order = srcHi != dstHi ? Long.compareUnsigned(srcHi, dstHi) : Long.compareUnsigned(srcLo, dstLo);
+        if (order < 0 || order == 0 && srcPort <= dstPort) {
+            lowHi = srcHi;
+            lowLo = srcLo;
+            highHi = dstHi;
+            highLo = dstLo;
+            portKey = srcPort << 16 | dstPort;
+        } else {
+            lowHi = dstHi;
+            lowLo = dstLo;
+            highHi = srcHi;
+            highLo = srcLo;
+            portKey = dstPort << 16 | srcPort;
+        }
+
+        int slot = find(v6, lowHi, lowLo, highHi, highLo, portKey, nowMillis);
+        byte state = states[slot];
+        boolean live = state != STATE_EMPTY && matches(slot, v6, lowHi, lowLo, highHi, highLo, portKey)
+                && expiries[slot] - nowMillis > 0;
+
+        int event = EVENT_NONE;
+        byte next;
+        if (!live) {
+            if ((flags & TCP_RST) != 0) {
+                // reset of a connection we do not know
+                return EVENT_NONE;
+            }
+            next = (flags & (TCP_SYN | TCP_ACK)) == TCP_SYN ? STATE_SYN_SENT
+                    : (flags & TCP_FIN) != 0 ? STATE_CLOSING : STATE_ESTABLISHED;
+            event = next == STATE_CLOSING ? EVENT_CLOSE : EVENT_NEW;
+            int base = slot * 4;
+            addresses[base] = lowHi;
+            addresses[base + 1] = lowLo;
+            addresses[base + 2] = highHi;
+            addresses[base + 3] = highLo;
+            ipv6[slot] = v6;
+            ports[slot] = portKey;
+        } else if ((flags & TCP_RST) != 0) {
+            next = STATE_CLOSED;
+            event = state < STATE_CLOSING ? EVENT_CLOSE : EVENT_NONE;
+        } else if ((flags & TCP_FIN) != 0) {
+            next = state < STATE_CLOSING ? STATE_CLOSING : STATE_CLOSED;
+            event = state < STATE_CLOSING ? EVENT_CLOSE : EVENT_NONE;
+        } else if ((flags & (TCP_SYN | TCP_ACK)) == TCP_SYN && state == STATE_CLOSED) {
+            // the tuple is reused by a new connection
+            next = STATE_SYN_SENT;
+            event = EVENT_NEW;
+        } else if (state == STATE_SYN_SENT && ((flags & TCP_ACK) != 0 || hasPayload)) {
+            next = STATE_ESTABLISHED;
+        } else {
+            next = state;
+        }
+
+        states[slot] = next;
+        expiries[slot] = nowMillis + timeoutMillis[next];
+        if (event == EVENT_NEW) {
+            opened++;
+        } else if (event == EVENT_CLOSE) {
+            closed++;
+        }
+        return event;
+    }
+
+    private boolean matches(int slot, boolean v6, long lowHi, long lowLo, long highHi, long highLo, int portKey) {
+        int base = slot * 4;
+        return ports[slot] == portKey && ipv6[slot] == v6 && addresses[base + 1] == lowLo
+                && addresses[base + 3] == highLo && addresses[base] == lowHi && addresses[base + 2] == highHi;
+    }
+
+    /**
+     * @return slot of the key if present, else the slot to insert it into
+     */
+    private int find(boolean v6, long lowHi, long lowLo, long highHi, long highLo, int portKey,
+            long nowMillis) {
+        long key = mix(lowHi ^ mix(lowLo ^ mix(highHi ^ mix(highLo)))) ^ (v6 ? 1 : 0);
+        int start = (int) mix(key ^ (long) portKey * 0x9E3779B97F4A7C15L) & mask;
+        int free = -1;
+        int oldest = start;
+        for (int i = 0; i < MAX_PROBES; i++) {
+            int slot = (start + i) & mask;
+            if (states[slot] == STATE_EMPTY) {
+                return free >= 0 ? free : slot;
+            }
+            if (matches(slot, v6, lowHi, lowLo, highHi, highLo, portKey)) {
+                return slot;
+            }
+            if (free < 0 && expiries[slot] - nowMillis <= 0) {
+                free = slot;
+            }
+            if (expiries[slot] - expiries[oldest] < 0) {
+                oldest = slot;
+            }
+        }
+        if (free >= 0) {
+            return free;
+        }
+        evicted++;
+        if (FlightEvents.shouldEmit(FlightEvents.Type.CACHE_EVICTION)) {
+            FlightEvents.cacheEviction("connection-tracker", 1);
+        }
+        return oldest;
+    }
+
+    private static long mix(long value) {
+        long h = value;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /**
+     * @return whether a packet with the event is exported in the tracker's mode
+     */
+    public synchronized boolean isExported(int event) {
+        boolean exported = event == EVENT_NEW || event == EVENT_CLOSE && mode == Mode.OPEN_CLOSE;
+        if (!exported) {
+            suppressed++;
+        }
+        return exported;
+    }
+
+    /**
+     * @return value of the event parameter of an exported record
+     */
+    public static String eventName(int event) {
+        return event == EVENT_NEW ? "new" : event == EVENT_CLOSE ? "close" : "none";
+    }
+
+    public synchronized long getTracked() {
+        return tracked;
+    }
+
+    public synchronized long getOpened() {
+        return opened;
+    }
+
+    public synchronized long getClosed() {
+        return closed;
+    }
+
+    /**
+     * @return live connections dropped for lack of space
+     */
+    public synchronized long getEvicted() {
+        return evicted;
+    }
+
+    /**
+     * @return packets not exported
+     */
+    public synchronized long getSuppressed() {
+        return suppressed;
+    }
+
+    public int getCapacity() {
+        return mask + 1;
+    }
+}
@@ -0,0 +1,353 @@
+/*
+ * Copyright © 2016 siwind, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package com.siwind.bupt.impl.flow;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.opendaylight.yang.gen.v1.urn.opendaylight.flow.service.rev130819.AddFlowOutput;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.flow.service.rev130819.SalFlowService;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.flow.types.rev131026.flow.Instructions;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.inventory.rev130819.NodeConnectorId;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.inventory.rev130819.NodeConnectorRef;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.inventory.rev130819.node.NodeConnector;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.inventory.rev130819.node.NodeConnectorKey;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.inventory.rev130819.nodes.Node;
+import org.opendaylight.yangtools.yang.binding.InstanceIdentifier;
+import org.opendaylight.yangtools.yang.common.RpcResult;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.siwind.bupt.impl.GetpacketConfig;
+
+/**
+ * Programs a short lived flow for an already exported 5-tuple on its ingress switch,
+ * so that further packets of the flow are switched (or dropped) without coming back
+ * to the controller as packet-ins.
+ *
+ * <p>{@link #offload} only queues the request and is safe to call from the
+ * notification thread. Installs are issued in batches by a single flush thread,
+ * limited per switch by a token bucket and by a budget of flows kept on the switch.
+ */
+public class FlowOffloader implements AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(FlowOffloader.class);
+
+    /**
+     * action of an offloaded flow
+     */
+    public enum Mode {
+        /** hand the packets to the switch pipeline (output NORMAL) */
+        FORWARD,
+        /** drop the packets, for mirrored or copied traffic */
+        SUPPRESS
+    }
+
+    /**
+     * tracked value of a flow which is queued but not installed yet
+     */
+    private static final long PENDING = Long.MAX_VALUE;
+
+    /**
+     * a packet-in of an installed flow within this time is still in flight, not a sign of expiry
+     */
+    private static final long INSTALL_GRACE_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private static final long RPC_TIMEOUT_MS = 5000;
+
+    private final SalFlowService salFlowService;
+    private final short tableId;
+    private final int priority;
+    private final int idleTimeout;
+    private final int hardTimeout;
+    private final Instructions instructions;
+    private final int batchSize;
+    private final long flushIntervalMs;
+    private final int installRate;
+    private final int maxFlowsPerSwitch;
+    private final int maxPending;
+
+    private final Queue<OffloadRequest> incoming = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pendingCount = new AtomicInteger();
+    private final Map<String, SwitchState> switches = new ConcurrentHashMap<>();
+
+    private final AtomicLong offered = new AtomicLong();
+    private final AtomicLong installed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong rejectedBudget = new AtomicLong();
+    private final AtomicLong rejectedQueueFull = new AtomicLong();
+
+    private ScheduledExecutorService executor = null;
+
+    public FlowOffloader(SalFlowService salFlowService, GetpacketConfig config) {
+        this.salFlowService = salFlowService;
+        this.tableId = config.getOffloadTableId();
+        this.priority = config.getOffloadPriority();
+        this.idleTimeout = config.getOffloadIdleTimeout();
+        this.hardTimeout = config.getOffloadHardTimeout();
+        this.batchSize = Math.max(1, config.getOffloadBatchSize());
+        this.flushIntervalMs = Math.max(1, config.getOffloadFlushIntervalMs());
+        this.installRate = Math.max(1, config.getOffloadInstallRate());
+        this.maxFlowsPerSwitch = config.getOffloadMaxFlowsPerSwitch();
+        this.maxPending = config.getOffloadMaxPending();
+
+        Mode mode = Mode.valueOf(config.getOffloadAction().trim().toUpperCase());
+        this.instructions = FlowUtils.createApplyInstructions(
+                mode == Mode.FORWARD ? FlowUtils.OUTPUT_NORMAL : null, 0);
+
+        LOG.info("[Siwind] FlowOffloader mode {} table {} idle {}s hard {}s rate {}/s budget {}",
+                mode, tableId, idleTimeout, hardTimeout, installRate, maxFlowsPerSwitch);
+    }
+
+    /**
+     * Start the flush thread.
+     */
+    public void start() {
+        executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "getpacket-offload");
+            t.setDaemon(true);
+            return t;
+        });
+        executor.scheduleWithFixedDelay(() -> {
+            try {
+                flush();
+            } catch (RuntimeException e) {
+                LOG.warn("[Siwind] Offload flush failed", e);
+            }
+        }, flushIntervalMs, flushIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Queue the install of an offload flow for a flow which was just exported.
+     *
+     * @param ingress port the packet-in came from
+     * @param tuple 5-tuple of the packet
+     * @return true if an install was queued
+     */
+    public boolean offload(NodeConnectorRef ingress, FlowTuple tuple) {
+        NodeConnectorKey portKey = ingress.getValue().firstKeyOf(NodeConnector.class);
+        if (portKey == null) {
+            return false;
+        }
+        NodeConnectorId inPort = portKey.getId();
+        SwitchState state = switches.computeIfAbsent(nodeIdOf(inPort.getValue()), id -> new SwitchState());
+
+        long now = System.nanoTime();
+        Long tracked = state.flows.get(tuple);
+        if (tracked != null) {
+            if (tracked == PENDING || now - (tracked - expiryOffset()) < INSTALL_GRACE_NANOS) {
+                return false;
+            }
+            // the switch punted a flow we installed, so the entry is gone already
+            state.flows.remove(tuple, tracked);
+        }
+
+        if (state.flows.size() >= maxFlowsPerSwitch) {
+            state.expire(now);
+            if (state.flows.size() >= maxFlowsPerSwitch) {
+                rejectedBudget.incrementAndGet();
+                return false;
+            }
+        }
+        if (pendingCount.incrementAndGet() > maxPending) {
+            pendingCount.decrementAndGet();
+            rejectedQueueFull.incrementAndGet();
+            return false;
+        }
+        if (state.flows.putIfAbsent(tuple, PENDING) != null) {
+            pendingCount.decrementAndGet();
+            return false;
+        }
+
+        offered.incrementAndGet();
+        incoming.add(new OffloadRequest(state, ingress.getValue().firstIdentifierOf(Node.class), inPort, tuple));
+        return true;
+    }
+
+    /**
+     * Issue one batch of installs. Runs on the flush thread only.
+     */
+    void flush() {
+        OffloadRequest request;
+        while ((request = incoming.poll()) != null) {
+            request.state.queue.add(request);
+        }
+
+        long now = System.nanoTime();
+        List<OffloadRequest> batch = new ArrayList<>();
+        List<Future<RpcResult<AddFlowOutput>>> results = new ArrayList<>();
+
+        // round robin over switches, one install per switch per pass
+        boolean progress = true;
+        while (progress && batch.size() < batchSize) {
+            progress = false;
+            for (SwitchState state : switches.values()) {
+                if (batch.size() >= batchSize) {
+                    break;
+                }
+                if (state.queue.isEmpty() || !state.tryAcquire(now, installRate)) {
+                    continue;
+                }
+                request = state.queue.poll();
+                pendingCount.decrementAndGet();
+                batch.add(request);
+                results.add(salFlowService.addFlow(FlowUtils.createAddFlowInput(request.nodePath, tableId,
+                        FlowUtils.createOffloadFlowId(request.inPort, request.tuple), priority,
+                        idleTimeout, hardTimeout, FlowUtils.createFlowMatch(request.inPort, request.tuple),
+                        instructions)));
+                progress = true;
+            }
+        }
+
+        for (int i = 0; i < batch.size(); i++) {
+            request = batch.get(i);
+            if (isSuccessful(results.get(i))) {
+                installed.incrementAndGet();
+                request.state.flows.replace(request.tuple, PENDING, System.nanoTime() + expiryOffset());
+            } else {
+                failed.incrementAndGet();
+                request.state.flows.remove(request.tuple, PENDING);
+            }
+        }
+        if (!batch.isEmpty()) {
+            LOG.debug("[Siwind] Offloaded {} flows", batch.size());
+        }
+    }
+
+    private boolean isSuccessful(Future<RpcResult<AddFlowOutput>> future) {
+        try {
+            RpcResult<AddFlowOutput> result = future.get(RPC_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+            if (result != null && result.isSuccessful()) {
+                return true;
+            }
+            LOG.debug("[Siwind] Offload flow rejected: {}", result == null ? null : result.getErrors());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            LOG.debug("[Siwind] Offload flow failed", e);
+        }
+        return false;
+    }
+
+    /**
+     * @return nanoseconds after install the switch is assumed to have dropped the flow
+     */
+    private long expiryOffset() {
+        int timeout = hardTimeout > 0 ? hardTimeout : idleTimeout;
+        return TimeUnit.SECONDS.toNanos(timeout);
+    }
+
+    /**
+     * @param nodeConnectorId e.g. openflow:1:2
+     * @return node id, e.g. openflow:1
+     */
+    private static String nodeIdOf(String nodeConnectorId) {
+        int idx = nodeConnectorId.lastIndexOf(':');
+        return idx > 0 ? nodeConnectorId.substring(0, idx) : nodeConnectorId;
+    }
+
+    public long getOffered() {
+        return offered.get();
+    }
+
+    public long getInstalled() {
+        return installed.get();
+    }
+
+    public long getFailed() {
+        return failed.get();
+    }
+
+    public long getRejectedBudget() {
+        return rejectedBudget.get();
+    }
+
+    public long getRejectedQueueFull() {
+        return rejectedQueueFull.get();
+    }
+
+    public int getPending() {
+        return pendingCount.get();
+    }
+
+    @Override
+    public void close() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Offload bookkeeping of a single switch.
+     */
+    private static final class SwitchState {
+        /**
+         * tracked flows, to PENDING or to the estimated expiry time on the switch
+         */
+        final Map<FlowTuple, Long> flows = new ConcurrentHashMap<>();
+
+        /**
+         * requests waiting for a token, flush thread only
+         */
+        final Queue<OffloadRequest> queue = new ArrayDeque<>();
+
+        double tokens = -1;
+        long lastRefill;
+
+        boolean tryAcquire(long now, int rate) {
+            if (tokens < 0) {
+                tokens = rate;
+            } else {
+                tokens = Math.min(rate, tokens + (now - lastRefill) * rate / 1e9);
+            }
+            lastRefill = now;
+            if (tokens < 1) {
+                return false;
+            }
+            tokens -= 1;
+            return true;
+        }
+
+        void expire(long now) {
+            Iterator<Long> it = flows.values().iterator();
+            while (it.hasNext()) {
+                long expiry = it.next();
+                if (expiry != PENDING && expiry - now < 0) {
+                    it.remove();
+                }
+            }
+        }
+    }
+
+    private static final class OffloadRequest {
+        final SwitchState state;
+        final InstanceIdentifier<Node> nodePath;
+        final NodeConnectorId inPort;
+        final FlowTuple tuple;
+
+        OffloadRequest(SwitchState state, InstanceIdentifier<Node> nodePath, NodeConnectorId inPort,
+                FlowTuple tuple) {
+            this.state = state;
+            this.nodePath = nodePath;
+            this.inPort = inPort;
+            this.tuple = tuple;
+        }
+    }
+}
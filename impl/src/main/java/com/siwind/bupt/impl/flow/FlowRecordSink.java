@@ -0,0 +1,326 @@
+/*
+ * Copyright © 2016 siwind, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package com.siwind.bupt.impl.flow;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.opendaylight.controller.md.sal.binding.api.DataBroker;
+import org.opendaylight.controller.md.sal.binding.api.WriteTransaction;
+import org.opendaylight.controller.md.sal.common.api.data.LogicalDatastoreType;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.getpacket.rev150105.FlowRecords;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.getpacket.rev150105.flow.records.FlowRecord;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.getpacket.rev150105.flow.records.FlowRecordBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.getpacket.rev150105.flow.records.FlowRecordKey;
+import org.opendaylight.yangtools.yang.binding.InstanceIdentifier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.siwind.bupt.api.DecodedPacket;
+import com.siwind.bupt.api.PacketConsumer;
+import com.siwind.bupt.api.PacketField;
+import com.siwind.bupt.impl.GetpacketConfig;
+import com.siwind.bupt.impl.pipeline.PacketDescriptor;
+
+/**
+ * Packet consumer keeping the recent TCP and UDP flows in the flow-records
+ * container of the operational datastore.
+ *
+ * <p>Packets only update the flows in memory and mark them changed; a flow
+ * changed many times before the next write is written once. The changed flows
+ * and the flows idle for longer than the timeout are written in one merge
+ * transaction every interval, or as soon as the batch size of flows has changed.
+ * At most the configured number of transactions is outstanding, a write due
+ * while they are all pending is skipped and its changes go with the next one.
+ */
+public class FlowRecordSink implements PacketConsumer, AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(FlowRecordSink.class);
+
+    private static final InstanceIdentifier<FlowRecords> FLOW_RECORDS_IID = InstanceIdentifier.create(FlowRecords.class);
+
+    private final DataBroker dataBroker;
+    private final long intervalMs;
+    private final int batchSize;
+    private final int maxEntries;
+    private final long idleTimeoutMillis;
+    private final Semaphore outstanding;
+    private final ScheduledExecutorService flusher;
+    private final AtomicBoolean flushRequested = new AtomicBoolean();
+
+    // guarded by this
+    private final Map<FlowTuple, FlowState> flows = new HashMap<>();
+    private final List<FlowState> changed = new ArrayList<>();
+    private List<String> removed = new ArrayList<>();
+
+    private long coalesced = 0;
+    private long skipped = 0;
+
+    private final AtomicLong transactions = new AtomicLong();
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong deferred = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+
+    public FlowRecordSink(DataBroker dataBroker, GetpacketConfig config) {
+        this.dataBroker = dataBroker;
+        this.intervalMs = config.getFlowStoreIntervalMs();
+        this.batchSize = Math.max(1, config.getFlowStoreBatchSize());
+        this.maxEntries = config.getFlowStoreMaxEntries();
+        this.idleTimeoutMillis = TimeUnit.SECONDS.toMillis(config.getFlowStoreIdleTimeoutSec());
+        this.outstanding = new Semaphore(Math.max(1, config.getFlowStoreMaxOutstanding()));
+        this.flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "getpacket-flow-store");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    public void start() {
+        flusher.scheduleWithFixedDelay(() -> flush(true), intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public String getName() {
+        return "flow-store";
+    }
+
+    @Override
+    public Set<PacketField> getRequiredFields() {
+        return EnumSet.of(PacketField.INGRESS, PacketField.PORTS);
+    }
+
+    /**
+     * Only updates the flow in memory.
+     */
+    @Override
+    public boolean isInline() {
+        return true;
+    }
+
+    @Override
+    public void onPacket(DecodedPacket packet) {
+        // counted where it entered the network, not again at every hop
+        if (!packet.hasPorts() || packet.isTransit()) {
+            return;
+        }
+        FlowTuple tuple = FlowTuple.of(packet);
+        boolean full;
+        synchronized (this) {
+            FlowState state = flows.get(tuple);
+            if (state == null) {
+                if (flows.size() >= maxEntries) {
+                    skipped++;
+                    return;
+                }
+                state = new FlowState(packet);
+                flows.put(tuple, state);
+            }
+            state.ingress = packet.getIngress();
+            state.lastSeen = packet.getTimestampMillis();
+            state.packets += packet.getSamplingRate();
+            if (state.changed) {
+                coalesced++;
+                return;
+            }
+            state.changed = true;
+            changed.add(state);
+            full = changed.size() >= batchSize;
+        }
+        if (full && flushRequested.compareAndSet(false, true)) {
+            flusher.execute(() -> flush(false));
+        }
+    }
+
+    /**
+     * Write the changed flows, and remove the idle ones when expiring.
+     */
+    void flush(boolean expire) {
+        flushRequested.set(false);
+        if (!outstanding.tryAcquire()) {
+            deferred.incrementAndGet();
+            return;
+        }
+
+        List<FlowRecord> toWrite;
+        List<String> toRemove;
+        synchronized (this) {
+            if (expire) {
+                expire(System.currentTimeMillis());
+            }
+            if (changed.isEmpty() && removed.isEmpty()) {
+                outstanding.release();
+                return;
+            }
+            toWrite = new ArrayList<>(changed.size());
+            for (FlowState state : changed) {
+                state.changed = false;
+                if (!state.removed) {
+                    toWrite.add(state.toRecord());
+                }
+            }
+            changed.clear();
+            toRemove = removed;
+            removed = new ArrayList<>();
+        }
+
+        // removals first, a flow may have come back since
+        WriteTransaction tx = dataBroker.newWriteOnlyTransaction();
+        for (String id : toRemove) {
+            tx.delete(LogicalDatastoreType.OPERATIONAL, path(id));
+        }
+        for (FlowRecord record : toWrite) {
+            tx.merge(LogicalDatastoreType.OPERATIONAL, path(record.getId()), record, true);
+        }
+
+        final int records = toRemove.size() + toWrite.size();
+        transactions.incrementAndGet();
+        Futures.addCallback(tx.submit(), new FutureCallback<Void>() {
+            @Override
+            public void onSuccess(Void result) {
+                outstanding.release();
+                written.addAndGet(records);
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                outstanding.release();
+                if (failed.getAndIncrement() == 0) {
+                    LOG.warn("[Siwind] Failed to write flow records, further failures are only counted", t);
+                }
+            }
+        }, MoreExecutors.directExecutor());
+    }
+
+    // guarded by this
+    private void expire(long nowMillis) {
+        Iterator<FlowState> it = flows.values().iterator();
+        while (it.hasNext()) {
+            FlowState state = it.next();
+            if (nowMillis - state.lastSeen > idleTimeoutMillis) {
+                it.remove();
+                state.removed = true;
+                removed.add(state.id);
+            }
+        }
+    }
+
+    private static InstanceIdentifier<FlowRecord> path(String id) {
+        return FLOW_RECORDS_IID.child(FlowRecord.class, new FlowRecordKey(id));
+    }
+
+    public synchronized int getFlows() {
+        return flows.size();
+    }
+
+    /**
+     * @return packets whose flow was already waiting to be written
+     */
+    public synchronized long getCoalesced() {
+        return coalesced;
+    }
+
+    /**
+     * @return packets not recorded because the flow table was full
+     */
+    public synchronized long getSkipped() {
+        return skipped;
+    }
+
+    public long getTransactions() {
+        return transactions.get();
+    }
+
+    /**
+     * @return flows written or removed by committed transactions
+     */
+    public long getWritten() {
+        return written.get();
+    }
+
+    /**
+     * @return writes skipped because too many transactions were outstanding
+     */
+    public long getDeferred() {
+        return deferred.get();
+    }
+
+    public long getFailed() {
+        return failed.get();
+    }
+
+    /**
+     * Stop writing and remove the flows from the datastore.
+     */
+    @Override
+    public void close() {
+        flusher.shutdownNow();
+        WriteTransaction tx = dataBroker.newWriteOnlyTransaction();
+        tx.delete(LogicalDatastoreType.OPERATIONAL, FLOW_RECORDS_IID);
+        tx.submit();
+    }
+
+    private static final class FlowState {
+        final String id;
+        final String srcIp;
+        final String dstIp;
+        final short protocol;
+        final int srcPort;
+        final int dstPort;
+        final long firstSeen;
+        String ingress;
+        long lastSeen;
+        long packets = 0;
+        boolean changed = false;
+        boolean removed = false;
+
+        FlowState(DecodedPacket packet) {
+            srcIp = packet.getSrcIpString();
+            dstIp = packet.getDstIpString();
+            protocol = packet.getProtocol();
+            srcPort = packet.getSrcPort();
+            dstPort = packet.getDstPort();
+            firstSeen = packet.getTimestampMillis();
+            // IPv6 addresses in brackets, as in URLs
+            boolean ipv6 = packet.isIpv6();
+            id = (protocol == PacketDescriptor.PROTOCOL_TCP ? "tcp" : "udp") + "-"
+                    + (ipv6 ? "[" + srcIp + "]" : srcIp) + ":" + srcPort + "-"
+                    + (ipv6 ? "[" + dstIp + "]" : dstIp) + ":" + dstPort;
+        }
+
+        FlowRecord toRecord() {
+            return new FlowRecordBuilder()
+                    .setKey(new FlowRecordKey(id))
+                    .setId(id)
+                    .setIngress(ingress)
+                    .setSrcIp(srcIp)
+                    .setDstIp(dstIp)
+                    .setProtocol(protocol)
+                    .setSrcPort(srcPort)
+                    .setDstPort(dstPort)
+                    .setFirstSeen(BigInteger.valueOf(firstSeen))
+                    .setLastSeen(BigInteger.valueOf(lastSeen))
+                    .setPackets(BigInteger.valueOf(packets))
+                    .build();
+        }
+    }
+}
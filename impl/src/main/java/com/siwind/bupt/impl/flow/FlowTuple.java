@@ -0,0 +1,164 @@
+/*
+ * Copyright © 2016 siwind, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package com.siwind.bupt.impl.flow;
+
+import com.siwind.bupt.api.DecodedPacket;
+import com.siwind.bupt.impl.util.NetUtils;
+
+/**
+ * 5-tuple of a flow seen on a packet-in, with the full addresses of IPv6
+ * flows: two flows are equal only if their IP version, addresses, protocol and
+ * ports are. {@link #getSrcIp()} and {@link #getDstIp()} fold IPv6 addresses to
+ * 32 bits, see {@link NetUtils#foldIPv6(long, long)}, for where a hash is
+ * enough.
+ */
+public final class FlowTuple {
+
+    private final boolean ipv6;
+    private final long srcIpHi;
+    private final long srcIpLo;
+    private final long dstIpHi;
+    private final long dstIpLo;
+    private final short protocol;
+    private final int srcPort;
+    private final int dstPort;
+
+    /**
+     * IPv4 tuple.
+     */
+    public FlowTuple(int srcIp, int dstIp, short protocol, int srcPort, int dstPort) {
+        this(false, 0, srcIp & 0xFFFFFFFFL, 0, dstIp & 0xFFFFFFFFL, protocol, srcPort, dstPort);
+    }
+
+    /**
+     * IPv6 tuple, addresses as their high and low 64 bits.
+     */
+    public FlowTuple(long srcIpHi, long srcIpLo, long dstIpHi, long dstIpLo, short protocol, int srcPort,
+            int dstPort) {
+        this(true, srcIpHi, srcIpLo, dstIpHi, dstIpLo, protocol, srcPort, dstPort);
+    }
+
+    private FlowTuple(boolean ipv6, long srcIpHi, long srcIpLo, long dstIpHi, long dstIpLo, short protocol,
+            int srcPort, int dstPort) {
+        this.ipv6 = ipv6;
+        this.srcIpHi = srcIpHi;
+        this.srcIpLo = srcIpLo;
+        this.dstIpHi = dstIpHi;
+        this.dstIpLo = dstIpLo;
+        this.protocol = protocol;
+        this.srcPort = srcPort;
+        this.dstPort = dstPort;
+    }
+
+    /**
+     * @return tuple of an IPv4 or IPv6 packet, ports 0 if it has none
+     */
+    public static FlowTuple of(DecodedPacket packet) {
+        if (packet.isIpv4()) {
+            return new FlowTuple(packet.getSrcIp(), packet.getDstIp(), packet.getProtocol(), packet.getSrcPort(),
+                    packet.getDstPort());
+        }
+        return new FlowTuple(packet.getSrcIpv6Hi(), packet.getSrcIpv6Lo(), packet.getDstIpv6Hi(),
+                packet.getDstIpv6Lo(), packet.getProtocol(), packet.getSrcPort(), packet.getDstPort());
+    }
+
+    public boolean isIpv6() {
+        return ipv6;
+    }
+
+    /**
+     * @return IPv4 source address, or the IPv6 one folded to 32 bits
+     */
+    public int getSrcIp() {
+        return ipv6 ? NetUtils.foldIPv6(srcIpHi, srcIpLo) : (int) srcIpLo;
+    }
+
+    /**
+     * @return IPv4 destination address, or the IPv6 one folded to 32 bits
+     */
+    public int getDstIp() {
+        return ipv6 ? NetUtils.foldIPv6(dstIpHi, dstIpLo) : (int) dstIpLo;
+    }
+
+    /**
+     * @return high 64 bits of the IPv6 source address, 0 for IPv4
+     */
+    public long getSrcIpHi() {
+        return srcIpHi;
+    }
+
+    /**
+     * @return low 64 bits of the IPv6 source address, the IPv4 one unsigned
+     */
+    public long getSrcIpLo() {
+        return srcIpLo;
+    }
+
+    /**
+     * @return high 64 bits of the IPv6 destination address, 0 for IPv4
+     */
+    public long getDstIpHi() {
+        return dstIpHi;
+    }
+
+    /**
+     * @return low 64 bits of the IPv6 destination address, the IPv4 one unsigned
+     */
+    public long getDstIpLo() {
+        return dstIpLo;
+    }
+
+    public short getProtocol() {
+        return protocol;
+    }
+
+    public int getSrcPort() {
+        return srcPort;
+    }
+
+    public int getDstPort() {
+        return dstPort;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = Boolean.hashCode(ipv6);
+        result = 31 * result + Long.hashCode(srcIpHi);
+        result = 31 * result + Long.hashCode(srcIpLo);
+        result = 31 * result + Long.hashCode(dstIpHi);
+        result = 31 * result + Long.hashCode(dstIpLo);
+        result = 31 * result + protocol;
+        result = 31 * result + srcPort;
+        result = 31 * result + dstPort;
+        return result;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof FlowTuple)) {
+            return false;
+        }
+        FlowTuple other = (FlowTuple) obj;
+        return ipv6 == other.ipv6 && srcIpHi == other.srcIpHi && srcIpLo == other.srcIpLo
+                && dstIpHi == other.dstIpHi && dstIpLo == other.dstIpLo && protocol == other.protocol
+                && srcPort == other.srcPort && dstPort == other.dstPort;
+    }
+
+    @Override
+    public String toString() {
+        if (ipv6) {
+            return "[" + NetUtils.toIPv6String(srcIpHi, srcIpLo) + "]:" + srcPort + "-["
+                    + NetUtils.toIPv6String(dstIpHi, dstIpLo) + "]:" + dstPort + "/" + protocol;
+        }
+        return NetUtils.getInetAddress(getSrcIp()).getHostAddress() + ":" + srcPort + "-"
+                + NetUtils.getInetAddress(getDstIp()).getHostAddress() + ":" + dstPort + "/" + protocol;
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright © 2016 siwind, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package com.siwind.bupt.impl.flow;
+
+import java.math.BigInteger;
+import java.util.Collections;
+
+import org.opendaylight.yang.gen.v1.urn.ietf.params.xml.ns.yang.ietf.inet.types.rev130715.Ipv4Prefix;
+import org.opendaylight.yang.gen.v1.urn.ietf.params.xml.ns.yang.ietf.inet.types.rev130715.PortNumber;
+import org.opendaylight.yang.gen.v1.urn.ietf.params.xml.ns.yang.ietf.inet.types.rev130715.Uri;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.action.types.rev131112.action.action.DropActionCaseBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.action.types.rev131112.action.action.OutputActionCaseBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.action.types.rev131112.action.action.drop.action._case.DropActionBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.action.types.rev131112.action.action.output.action._case.OutputActionBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.action.types.rev131112.action.list.Action;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.action.types.rev131112.action.list.ActionBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.flow.inventory.rev130819.FlowCapableNode;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.flow.inventory.rev130819.FlowId;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.flow.inventory.rev130819.FlowRef;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.flow.inventory.rev130819.FlowTableRef;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.flow.inventory.rev130819.tables.Table;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.flow.inventory.rev130819.tables.TableKey;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.flow.inventory.rev130819.tables.table.Flow;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.flow.inventory.rev130819.tables.table.FlowKey;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.flow.service.rev130819.AddFlowInput;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.flow.service.rev130819.AddFlowInputBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.flow.types.rev131026.FlowCookie;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.flow.types.rev131026.flow.Instructions;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.flow.types.rev131026.flow.InstructionsBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.flow.types.rev131026.flow.Match;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.flow.types.rev131026.flow.MatchBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.flow.types.rev131026.instruction.instruction.ApplyActionsCaseBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.flow.types.rev131026.instruction.instruction.apply.actions._case.ApplyActionsBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.flow.types.rev131026.instruction.list.InstructionBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.inventory.rev130819.NodeConnectorId;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.inventory.rev130819.NodeRef;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.inventory.rev130819.nodes.Node;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.l2.types.rev130827.EtherType;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.model.match.types.rev131026.ethernet.match.fields.EthernetTypeBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.model.match.types.rev131026.match.EthernetMatchBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.model.match.types.rev131026.match.IpMatchBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.model.match.types.rev131026.match.layer._3.match.Ipv4MatchBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.model.match.types.rev131026.match.layer._4.match.TcpMatchBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.model.match.types.rev131026.match.layer._4.match.UdpMatchBuilder;
+import org.opendaylight.yangtools.yang.binding.InstanceIdentifier;
+
+import com.siwind.bupt.impl.util.NetUtils;
+
+/**
+ * Helpers building the openflow flows programmed by getpacket.
+ */
+public final class FlowUtils {
+
+    /**
+     * cookie of every flow installed by getpacket, so they can be told apart on the switch
+     */
+    public static final FlowCookie GETPACKET_COOKIE = new FlowCookie(BigInteger.valueOf(0x67657470L));
+
+    public static final String OUTPUT_NORMAL = "NORMAL";
+
+    private static final long ETHERTYPE_IPV4 = 0x0800L;
+
+    private static final short IP_PROTO_TCP = 6;
+
+    private static final short IP_PROTO_UDP = 17;
+
+    private FlowUtils() {
+    }
+
+    /**
+     * @param nodePath node the flow is installed on
+     * @param tableId table of the flow
+     * @param flowId id of the flow
+     * @return reference to the flow in the inventory
+     */
+    public static InstanceIdentifier<Flow> createFlowPath(InstanceIdentifier<Node> nodePath, short tableId,
+            String flowId) {
+        return nodePath.augmentation(FlowCapableNode.class)
+                .child(Table.class, new TableKey(tableId))
+                .child(Flow.class, new FlowKey(new FlowId(flowId)));
+    }
+
+    /**
+     * Build the id of the offload flow for a 5-tuple arriving on a port.
+     */
+    public static String createOffloadFlowId(NodeConnectorId inPort, FlowTuple tuple) {
+        return "getpacket-offload-" + inPort.getValue() + "-" + tuple;
+    }
+
+    /**
+     * Build the match of an IPv4 5-tuple arriving on a port.
+     */
+    public static Match createFlowMatch(NodeConnectorId inPort, FlowTuple tuple) {
+        MatchBuilder matchBuilder = new MatchBuilder()
+                .setInPort(inPort)
+                .setEthernetMatch(new EthernetMatchBuilder()
+                        .setEthernetType(new EthernetTypeBuilder().setType(new EtherType(ETHERTYPE_IPV4)).build())
+                        .build())
+                .setIpMatch(new IpMatchBuilder().setIpProtocol(tuple.getProtocol()).build())
+                .setLayer3Match(new Ipv4MatchBuilder()
+                        .setIpv4Source(new Ipv4Prefix(NetUtils.getInetAddress(tuple.getSrcIp()).getHostAddress() + "/32"))
+                        .setIpv4Destination(
+                                new Ipv4Prefix(NetUtils.getInetAddress(tuple.getDstIp()).getHostAddress() + "/32"))
+                        .build());
+
+        if (tuple.getProtocol() == IP_PROTO_TCP) {
+            matchBuilder.setLayer4Match(new TcpMatchBuilder()
+                    .setTcpSourcePort(new PortNumber(tuple.getSrcPort()))
+                    .setTcpDestinationPort(new PortNumber(tuple.getDstPort()))
+                    .build());
+        } else if (tuple.getProtocol() == IP_PROTO_UDP) {
+            matchBuilder.setLayer4Match(new UdpMatchBuilder()
+                    .setUdpSourcePort(new PortNumber(tuple.getSrcPort()))
+                    .setUdpDestinationPort(new PortNumber(tuple.getDstPort()))
+                    .build());
+        }
+        return matchBuilder.build();
+    }
+
+    /**
+     * @param output port to output to, or null to drop
+     * @param maxLength bytes sent to the controller when output is CONTROLLER
+     * @return instructions applying a single output (or drop) action
+     */
+    public static Instructions createApplyInstructions(String output, int maxLength) {
+        ActionBuilder actionBuilder = new ActionBuilder().setOrder(0);
+        if (output == null) {
+            actionBuilder.setAction(new DropActionCaseBuilder()
+                    .setDropAction(new DropActionBuilder().build()).build());
+        } else {
+            actionBuilder.setAction(new OutputActionCaseBuilder()
+                    .setOutputAction(new OutputActionBuilder()
+                            .setOutputNodeConnector(new Uri(output))
+                            .setMaxLength(maxLength)
+                            .build())
+                    .build());
+        }
+        Action action = actionBuilder.build();
+
+        return new InstructionsBuilder()
+                .setInstruction(Collections.singletonList(new InstructionBuilder()
+                        .setOrder(0)
+                        .setInstruction(new ApplyActionsCaseBuilder()
+                                .setApplyActions(new ApplyActionsBuilder()
+                                        .setAction(Collections.singletonList(action))
+                                        .build())
+                                .build())
+                        .build()))
+                .build();
+    }
+
+    /**
+     * Build the add-flow input programming a flow on a node.
+     */
+    public static AddFlowInput createAddFlowInput(InstanceIdentifier<Node> nodePath, short tableId, String flowId,
+            int priority, int idleTimeout, int hardTimeout, Match match, Instructions instructions) {
+        InstanceIdentifier<Flow> flowPath = createFlowPath(nodePath, tableId, flowId);
+        return new AddFlowInputBuilder()
+                .setNode(new NodeRef(nodePath))
+                .setFlowTable(new FlowTableRef(flowPath.firstIdentifierOf(Table.class)))
+                .setFlowRef(new FlowRef(flowPath))
+                .setTableId(tableId)
+                .setFlowName(flowId)
+                .setPriority(priority)
+                .setIdleTimeout(idleTimeout)
+                .setHardTimeout(hardTimeout)
+                .setCookie(GETPACKET_COOKIE)
+                .setMatch(match)
+                .setInstructions(instructions)
+                .build();
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright © 2016 siwind, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package com.siwind.bupt.impl.flow;
+
+import com.siwind.bupt.impl.GetpacketConfig;
+import com.siwind.bupt.impl.trace.FlightEvents;
+
+/**
+ * Remembers the ports of the first fragment of fragmented IPv4 packets, so that
+ * the later fragments, which carry no TCP or UDP header, are attributed to their
+ * flow. Fragments are keyed by source, destination, protocol and IP ID, and
+ * forgotten after a short timeout.
+ *
+ * <p>Entries are kept in an open addressing table of primitive arrays. Probing
+ * is limited, expired entries are reused in place, and when no slot is free the
+ * entry expiring first is evicted, so memory is fixed by the configured number
+ * of entries. Later fragments coming before the first one are not held back:
+ * they are counted as misses and have no ports.
+ */
+public class FragmentTracker {
+
+    private static final int MAX_PROBES = 8;
+
+    private final long timeoutMillis;
+
+    private final int mask;
+    private final long[] addresses;
+    private final int[] ids;
+    private final int[] ports;
+
+    /**
+     * 0 for slots never used
+     */
+    private final long[] expiries;
+
+    private long recorded = 0;
+    private long hits = 0;
+    private long misses = 0;
+    private long evicted = 0;
+
+    public FragmentTracker(GetpacketConfig config) {
+        this(config.getFragmentMaxEntries(), config.getFragmentTimeoutMs());
+    }
+
+    /**
+     * @param maxEntries fragmented packets tracked at most, rounded up to a power of two
+     */
+    public FragmentTracker(int maxEntries, long timeoutMillis) {
+        this.timeoutMillis = timeoutMillis;
+        int capacity = Integer.highestOneBit(Math.max(MAX_PROBES, maxEntries) - 1) << 1;
+        this.mask = capacity - 1;
+        this.addresses = new long[capacity];
+        this.ids = new int[capacity];
+        this.ports = new int[capacity];
+        this.expiries = new long[capacity];
+    }
+
+    /**
+     * Remember the ports of a first fragment.
+     *
+     * @param id IP identification
+     */
+    public synchronized void record(int srcIp, int dstIp, short protocol, int id, int srcPort, int dstPort,
+            long nowMillis) {
+        long key = (long) srcIp << 32 | dstIp & 0xFFFFFFFFL;
+        int idKey = protocol << 16 | id;
+        int slot = find(key, idKey, nowMillis);
+        addresses[slot] = key;
+        ids[slot] = idKey;
+        ports[slot] = srcPort << 16 | dstPort;
+        expiries[slot] = nowMillis + timeoutMillis;
+        recorded++;
+    }
+
+    /**
+     * Find the ports of a later fragment.
+     *
+     * @return source port in bits 16 to 31 and destination port in bits 0 to 15,
+     *         -1 if the first fragment was not seen
+     */
+    public synchronized long lookup(int srcIp, int dstIp, short protocol, int id, long nowMillis) {
+        long key = (long) srcIp << 32 | dstIp & 0xFFFFFFFFL;
+        int idKey = protocol << 16 | id;
+        int start = start(key, idKey);
+        for (int i = 0; i < MAX_PROBES; i++) {
+            int slot = (start + i) & mask;
+            if (expiries[slot] == 0) {
+                break;
+            }
+            if (addresses[slot] == key && ids[slot] == idKey && expiries[slot] - nowMillis > 0) {
+                hits++;
+                return ports[slot] & 0xFFFFFFFFL;
+            }
+        }
+        misses++;
+        return -1;
+    }
+
+    /**
+     * @return slot of the key if present, else the slot to insert it into
+     */
+    private int find(long key, int idKey, long nowMillis) {
+        int start = start(key, idKey);
+        int free = -1;
+        int oldest = start;
+        for (int i = 0; i < MAX_PROBES; i++) {
+            int slot = (start + i) & mask;
+            if (expiries[slot] == 0) {
+                return free >= 0 ? free : slot;
+            }
+            if (addresses[slot] == key && ids[slot] == idKey) {
+                return slot;
+            }
+            if (free < 0 && expiries[slot] - nowMillis <= 0) {
+                free = slot;
+            }
+            if (expiries[slot] - expiries[oldest] < 0) {
+                oldest = slot;
+            }
+        }
+        if (free >= 0) {
+            return free;
+        }
+        evicted++;
+        if (FlightEvents.shouldEmit(FlightEvents.Type.CACHE_EVICTION)) {
+            FlightEvents.cacheEviction("fragment-tracker", 1);
+        }
+        return oldest;
+    }
+
+    private int start(long key, int idKey) {
+        long h = key ^ (long) idKey * 0x9E3779B97F4A7C15L;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        return (int) h & mask;
+    }
+
+    /**
+     * @return first fragments recorded
+     */
+    public synchronized long getRecorded() {
+        return recorded;
+    }
+
+    /**
+     * @return later fragments attributed to their flow
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * @return later fragments whose first fragment was not seen, or forgotten
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * @return live entries dropped for lack of space
+     */
+    public synchronized long getEvicted() {
+        return evicted;
+    }
+
+    public int getCapacity() {
+        return mask + 1;
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright © 2016 siwind, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package com.siwind.bupt.impl.flow;
+
+import java.util.Collection;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.opendaylight.controller.md.sal.binding.api.DataBroker;
+import org.opendaylight.controller.md.sal.binding.api.DataObjectModification;
+import org.opendaylight.controller.md.sal.binding.api.DataTreeChangeListener;
+import org.opendaylight.controller.md.sal.binding.api.DataTreeIdentifier;
+import org.opendaylight.controller.md.sal.binding.api.DataTreeModification;
+import org.opendaylight.controller.md.sal.common.api.data.LogicalDatastoreType;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.flow.inventory.rev130819.FlowCapableNode;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.flow.service.rev130819.SalFlowService;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.flow.types.rev131026.flow.MatchBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.inventory.rev130819.NodeRef;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.inventory.rev130819.Nodes;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.inventory.rev130819.nodes.Node;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.module.config.rev141015.NodeConfigService;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.module.config.rev141015.SetConfigInputBuilder;
+import org.opendaylight.yangtools.concepts.ListenerRegistration;
+import org.opendaylight.yangtools.yang.binding.InstanceIdentifier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.siwind.bupt.impl.GetpacketConfig;
+import com.siwind.bupt.impl.pipeline.PacketPipeline;
+
+/**
+ * Programs the table-miss (punt) flow getpacket depends on, on every switch that
+ * connects, with a controller output max_len sized to the headers the pipeline
+ * reads: the fields its consumers ask for, the dedup prefix and the snap length
+ * of a capture configured at startup. Switches then send truncated frames
+ * instead of full MTU sized ones, which saves control channel bandwidth, decode
+ * time and heap. When consumers come or go and the size changes, the connected
+ * switches are programmed again.
+ *
+ * <p>The switch level miss_send_len is set to the same value, which covers the
+ * packet-ins not generated by a flow entry (and OpenFlow 1.0 table-miss).
+ */
+public class PuntFlowManager implements DataTreeChangeListener<FlowCapableNode>, AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(PuntFlowManager.class);
+
+    public static final String OUTPUT_CONTROLLER = "CONTROLLER";
+
+    private static final String PUNT_FLOW_ID = "getpacket-punt";
+
+    private static final String FRAG_NORMAL = "FRAGNORMAL";
+
+    private final DataBroker dataBroker;
+    private final SalFlowService salFlowService;
+    private final NodeConfigService nodeConfigService;
+    private final short tableId;
+    private final int priority;
+    private final PacketPipeline pipeline;
+
+    /**
+     * written on the executor only, after the constructor
+     */
+    private volatile int maxLength;
+
+    /**
+     * switches connected, programmed again when the max_len changes
+     */
+    private final Set<InstanceIdentifier<Node>> nodes = ConcurrentHashMap.newKeySet();
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "getpacket-punt");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private ListenerRegistration<PuntFlowManager> registration = null;
+
+    public PuntFlowManager(DataBroker dataBroker, SalFlowService salFlowService,
+            NodeConfigService nodeConfigService, GetpacketConfig config, PacketPipeline pipeline) {
+        this.dataBroker = dataBroker;
+        this.salFlowService = salFlowService;
+        this.nodeConfigService = nodeConfigService;
+        this.tableId = config.getPuntTableId();
+        this.priority = config.getPuntPriority();
+        if (config.getPuntMaxLength() > 0) {
+            this.pipeline = null;
+            this.maxLength = config.getPuntMaxLength();
+        } else {
+            this.pipeline = pipeline;
+            this.maxLength = pipeline.getRequiredBytes();
+            pipeline.setRequiredBytesListener(bytes -> executor.execute(() -> updateMaxLength(bytes)));
+        }
+        LOG.info("[Siwind] PuntFlowManager table {} priority {} max_len {}", tableId, priority, maxLength);
+    }
+
+    /**
+     * @return configured max_len, or the bytes needed by the pipeline when not configured
+     */
+    public int getMaxLength() {
+        return maxLength;
+    }
+
+    private void updateMaxLength(int bytes) {
+        if (bytes == maxLength) {
+            return;
+        }
+        LOG.info("[Siwind] Punt flow max_len changed from {} to {}", maxLength, bytes);
+        maxLength = bytes;
+        for (InstanceIdentifier<Node> nodePath : nodes) {
+            programNode(nodePath);
+        }
+    }
+
+    public void register() {
+        InstanceIdentifier<FlowCapableNode> path = InstanceIdentifier.builder(Nodes.class)
+                .child(Node.class).augmentation(FlowCapableNode.class).build();
+        registration = dataBroker.registerDataTreeChangeListener(
+                new DataTreeIdentifier<>(LogicalDatastoreType.OPERATIONAL, path), this);
+    }
+
+    @Override
+    public void onDataTreeChanged(Collection<DataTreeModification<FlowCapableNode>> changes) {
+        for (DataTreeModification<FlowCapableNode> change : changes) {
+            DataObjectModification<FlowCapableNode> rootNode = change.getRootNode();
+            InstanceIdentifier<Node> nodePath =
+                    change.getRootPath().getRootIdentifier().firstIdentifierOf(Node.class);
+            if (rootNode.getModificationType() == DataObjectModification.ModificationType.WRITE
+                    && rootNode.getDataBefore() == null) {
+                executor.execute(() -> {
+                    nodes.add(nodePath);
+                    programNode(nodePath);
+                });
+            } else if (rootNode.getModificationType() == DataObjectModification.ModificationType.DELETE) {
+                executor.execute(() -> nodes.remove(nodePath));
+            }
+        }
+    }
+
+    private void programNode(InstanceIdentifier<Node> nodePath) {
+        String nodeId = nodePath.firstKeyOf(Node.class).getId().getValue();
+        try {
+            nodeConfigService.setConfig(new SetConfigInputBuilder()
+                    .setNode(new NodeRef(nodePath))
+                    .setFlag(FRAG_NORMAL)
+                    .setMissSearchLength(maxLength)
+                    .build());
+
+            salFlowService.addFlow(FlowUtils.createAddFlowInput(nodePath, tableId, PUNT_FLOW_ID, priority, 0, 0,
+                    new MatchBuilder().build(),
+                    FlowUtils.createApplyInstructions(OUTPUT_CONTROLLER, maxLength)));
+            LOG.info("[Siwind] Punt flow with max_len {} programmed on {}", maxLength, nodeId);
+        } catch (RuntimeException e) {
+            LOG.warn("[Siwind] Failed to program punt flow on {}", nodeId, e);
+        }
+    }
+
+    @Override
+    public void close() {
+        if (registration != null) {
+            registration.close();
+        }
+        if (pipeline != null) {
+            pipeline.setRequiredBytesListener(null);
+        }
+        executor.shutdownNow();
+    }
+}
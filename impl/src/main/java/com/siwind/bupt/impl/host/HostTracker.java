@@ -0,0 +1,460 @@
+/*
+ * Copyright © 2016 siwind, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package com.siwind.bupt.impl.host;
+
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.StampedLock;
+
+import org.opendaylight.yang.gen.v1.urn.opendaylight.inventory.rev130819.NodeConnectorRef;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.inventory.rev130819.node.NodeConnector;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.inventory.rev130819.node.NodeConnectorKey;
+
+import com.siwind.bupt.api.DecodedPacket;
+import com.siwind.bupt.api.PacketConsumer;
+import com.siwind.bupt.api.PacketField;
+import com.siwind.bupt.impl.GetpacketConfig;
+import com.siwind.bupt.impl.pipeline.EtherTypeTable;
+import com.siwind.bupt.impl.topology.InterSwitchPorts;
+
+/**
+ * Learns where hosts are, i.e. the switch port a MAC address was last seen on
+ * and its IP addresses, from the sender of ARP packets and the source of IPv4
+ * and IPv6 packet-ins.
+ *
+ * <p>Hosts are kept in an open addressing table of primitive arrays keyed by
+ * the MAC address, with linear probing and backward shift deletion. Lookups do
+ * not lock: they read optimistically and only retry under the read lock if a
+ * writer got in the way. A host refreshed recently at the same place is not
+ * written again. Hosts not seen for the timeout are no longer found, and are
+ * removed by a sweep of the table when learning. Nothing is learned on ports
+ * linking two switches, where every host behind the other switch shows up.
+ */
+public class HostTracker implements PacketConsumer, EtherTypeTable.Handler {
+
+    private static final long EMPTY = 0;
+
+    /**
+     * group bit of the first octet of a MAC address in the low 48 bits of a long
+     */
+    private static final long MAC_GROUP_BIT = 1L << 40;
+
+    /**
+     * time a host is not written again if seen at the same place
+     */
+    private static final long REFRESH_MS = 1000;
+
+    private static final int ARP_START_POSITION = 14;
+    private static final int ARP_LENGTH = 28;
+    private static final int ARP_HTYPE_ETHERNET = 1;
+    private static final int ARP_PTYPE_IPV4 = 0x0800;
+    private static final int ARP_SHA_POSITION = ARP_START_POSITION + 8;
+    private static final int ARP_SPA_POSITION = ARP_START_POSITION + 14;
+
+    private final int maxEntries;
+    private final long timeoutMillis;
+    private final long sweepIntervalMillis;
+    private final StampedLock lock = new StampedLock();
+
+    /**
+     * ports linking two switches, null if unknown
+     */
+    private final InterSwitchPorts interSwitchPorts;
+
+    private final int mask;
+    private final long[] macs;
+    private final long[] dpids;
+    private final int[] ports;
+    private final int[] ipv4s;
+    private final long[] ipv6His;
+    private final long[] ipv6Los;
+    private final long[] lastSeens;
+
+    // guarded by the write lock
+    private int size = 0;
+    private long lastSweep = 0;
+    private long learned = 0;
+    private long moved = 0;
+    private long expired = 0;
+    private long rejected = 0;
+
+    public HostTracker(GetpacketConfig config, InterSwitchPorts interSwitchPorts) {
+        this(config.getHostMaxEntries(), TimeUnit.SECONDS.toMillis(config.getHostTimeoutSec()), interSwitchPorts);
+    }
+
+    public HostTracker(int maxEntries, long timeoutMillis) {
+        this(maxEntries, timeoutMillis, null);
+    }
+
+    public HostTracker(int maxEntries, long timeoutMillis, InterSwitchPorts interSwitchPorts) {
+        this.interSwitchPorts = interSwitchPorts;
+        this.maxEntries = Math.max(1, maxEntries);
+        this.timeoutMillis = timeoutMillis;
+        this.sweepIntervalMillis = Math.max(REFRESH_MS, timeoutMillis / 4);
+        // at most half full, probe sequences stay short
+        int capacity = Integer.highestOneBit(this.maxEntries) << 2;
+        this.mask = capacity - 1;
+        this.macs = new long[capacity];
+        this.dpids = new long[capacity];
+        this.ports = new int[capacity];
+        this.ipv4s = new int[capacity];
+        this.ipv6His = new long[capacity];
+        this.ipv6Los = new long[capacity];
+        this.lastSeens = new long[capacity];
+    }
+
+    /**
+     * Location and addresses of a host, filled by {@link HostTracker#lookup}.
+     */
+    public static final class Host {
+        private long dpid;
+        private int port;
+        private int ipv4;
+        private long ipv6Hi;
+        private long ipv6Lo;
+        private long lastSeen;
+
+        public long getDpid() {
+            return dpid;
+        }
+
+        public int getPort() {
+            return port;
+        }
+
+        /**
+         * @return IPv4 address, 0 if none was seen
+         */
+        public int getIpv4() {
+            return ipv4;
+        }
+
+        public long getIpv6Hi() {
+            return ipv6Hi;
+        }
+
+        /**
+         * @return low half of the IPv6 address, both halves 0 if none was seen
+         */
+        public long getIpv6Lo() {
+            return ipv6Lo;
+        }
+
+        public long getLastSeen() {
+            return lastSeen;
+        }
+
+        /**
+         * @return node connector id of the port, e.g. openflow:1:2
+         */
+        public String getLocation() {
+            return "openflow:" + Long.toUnsignedString(dpid) + ":" + port;
+        }
+    }
+
+    @Override
+    public String getName() {
+        return "hosts";
+    }
+
+    @Override
+    public Set<PacketField> getRequiredFields() {
+        return EnumSet.of(PacketField.INGRESS, PacketField.ETHERNET, PacketField.IPV4, PacketField.IPV6);
+    }
+
+    @Override
+    public boolean isInline() {
+        return true;
+    }
+
+    @Override
+    public void onPacket(DecodedPacket packet) {
+        if (packet.isTransit()) {
+            return;
+        }
+        if (packet.isIpv4()) {
+            learn(packet.getIngress(), packet.getSrcMac(), packet.getSrcIp(), 0, 0, packet.getTimestampMillis());
+        } else if (packet.isIpv6()) {
+            // the unspecified address of duplicate address detection is not learned
+            learn(packet.getIngress(), packet.getSrcMac(), 0, packet.getSrcIpv6Hi(), packet.getSrcIpv6Lo(),
+                    packet.getTimestampMillis());
+        }
+    }
+
+    /**
+     * Learn the sender of an ARP packet.
+     */
+    @Override
+    public void handle(NodeConnectorRef ingress, byte[] payload) {
+        if (ingress == null || payload.length < ARP_START_POSITION + ARP_LENGTH
+                || readShort(payload, ARP_START_POSITION) != ARP_HTYPE_ETHERNET
+                || readShort(payload, ARP_START_POSITION + 2) != ARP_PTYPE_IPV4) {
+            return;
+        }
+        NodeConnectorKey key = ingress.getValue().firstKeyOf(NodeConnector.class);
+        if (key != null && (interSwitchPorts == null || !interSwitchPorts.contains(key.getId().getValue()))) {
+            long mac = (long) readShort(payload, ARP_SHA_POSITION) << 32
+                    | readInt(payload, ARP_SHA_POSITION + 2) & 0xFFFFFFFFL;
+            learn(key.getId().getValue(), mac, readInt(payload, ARP_SPA_POSITION), 0, 0,
+                    System.currentTimeMillis());
+        }
+    }
+
+    /**
+     * Learn a host seen at a node connector given as openflow:dpid:port, other
+     * node connectors (e.g. LOCAL) are ignored.
+     */
+    private void learn(String ingress, long mac, int ipv4, long ipv6Hi, long ipv6Lo, long nowMillis) {
+        if (ingress == null) {
+            return;
+        }
+        int first = ingress.indexOf(':');
+        int last = ingress.lastIndexOf(':');
+        if (first < 0 || last <= first + 1 || last == ingress.length() - 1 || ingress.length() - last > 11) {
+            return;
+        }
+        long dpid = 0;
+        for (int i = first + 1; i < last; i++) {
+            int digit = ingress.charAt(i) - '0';
+            if (digit < 0 || digit > 9) {
+                return;
+            }
+            dpid = dpid * 10 + digit;
+        }
+        long port = 0;
+        for (int i = last + 1; i < ingress.length(); i++) {
+            int digit = ingress.charAt(i) - '0';
+            if (digit < 0 || digit > 9) {
+                return;
+            }
+            port = port * 10 + digit;
+        }
+        if (port <= Integer.MAX_VALUE) {
+            learn(mac, dpid, (int) port, ipv4, ipv6Hi, ipv6Lo, nowMillis);
+        }
+    }
+
+    private static int readShort(byte[] payload, int position) {
+        return (payload[position] & 0xFF) << 8 | payload[position + 1] & 0xFF;
+    }
+
+    private static int readInt(byte[] payload, int position) {
+        return readShort(payload, position) << 16 | readShort(payload, position + 2);
+    }
+
+    /**
+     * Record that a host was seen.
+     *
+     * @param mac MAC address in the low 48 bits, multicast addresses are ignored
+     * @param ipv4 IPv4 address, 0 to keep the known one
+     * @param ipv6Hi high half of the IPv6 address, both halves 0 to keep the known one
+     */
+    public void learn(long mac, long dpid, int port, int ipv4, long ipv6Hi, long ipv6Lo, long nowMillis) {
+        if (mac == EMPTY || (mac & MAC_GROUP_BIT) != 0) {
+            return;
+        }
+        boolean hasIpv6 = ipv6Hi != 0 || ipv6Lo != 0;
+
+        // nothing new, most packets end here without locking
+        long stamp = lock.tryOptimisticRead();
+        int slot = find(mac);
+        if (slot >= 0 && dpids[slot] == dpid && ports[slot] == port && (ipv4 == 0 || ipv4s[slot] == ipv4)
+                && (!hasIpv6 || ipv6His[slot] == ipv6Hi && ipv6Los[slot] == ipv6Lo)
+                && nowMillis - lastSeens[slot] < REFRESH_MS && lock.validate(stamp)) {
+            return;
+        }
+
+        stamp = lock.writeLock();
+        try {
+            if (nowMillis - lastSweep >= sweepIntervalMillis) {
+                sweep(nowMillis);
+                lastSweep = nowMillis;
+            }
+            slot = find(mac);
+            if (slot < 0) {
+                if (size >= maxEntries) {
+                    rejected++;
+                    return;
+                }
+                slot = -1 - slot;
+                macs[slot] = mac;
+                ipv4s[slot] = 0;
+                ipv6His[slot] = 0;
+                ipv6Los[slot] = 0;
+                size++;
+                learned++;
+            } else if (dpids[slot] != dpid || ports[slot] != port) {
+                moved++;
+            }
+            dpids[slot] = dpid;
+            ports[slot] = port;
+            if (ipv4 != 0) {
+                ipv4s[slot] = ipv4;
+            }
+            if (hasIpv6) {
+                ipv6His[slot] = ipv6Hi;
+                ipv6Los[slot] = ipv6Lo;
+            }
+            lastSeens[slot] = nowMillis;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Look a host up, without locking.
+     *
+     * @param host filled with the host if found
+     * @return whether the host was seen within the timeout
+     */
+    public boolean lookup(long mac, Host host, long nowMillis) {
+        long stamp = lock.tryOptimisticRead();
+        boolean found = read(mac, host);
+        if (!lock.validate(stamp)) {
+            stamp = lock.readLock();
+            try {
+                found = read(mac, host);
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+        return found && nowMillis - host.lastSeen <= timeoutMillis;
+    }
+
+    private boolean read(long mac, Host host) {
+        int slot = find(mac);
+        if (slot < 0) {
+            return false;
+        }
+        host.dpid = dpids[slot];
+        host.port = ports[slot];
+        host.ipv4 = ipv4s[slot];
+        host.ipv6Hi = ipv6His[slot];
+        host.ipv6Lo = ipv6Los[slot];
+        host.lastSeen = lastSeens[slot];
+        return true;
+    }
+
+    /**
+     * Probes at most the whole table, so a read racing a writer terminates.
+     *
+     * @return slot of the MAC address, else -1 - the empty slot ending its probe
+     */
+    private int find(long mac) {
+        int slot = home(mac);
+        for (int i = 0; i <= mask; i++) {
+            long key = macs[slot];
+            if (key == mac) {
+                return slot;
+            }
+            if (key == EMPTY) {
+                return -1 - slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1 - slot;
+    }
+
+    private int home(long mac) {
+        long h = mac * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ h >>> 32) & mask;
+    }
+
+    // guarded by the write lock
+    private void sweep(long nowMillis) {
+        for (int slot = 0; slot <= mask; slot++) {
+            while (macs[slot] != EMPTY && nowMillis - lastSeens[slot] > timeoutMillis) {
+                remove(slot);
+                expired++;
+            }
+        }
+    }
+
+    /**
+     * Remove the entry of a slot, moving back the entries probed past it.
+     */
+    private void remove(int slot) {
+        int hole = slot;
+        int next = slot;
+        while (true) {
+            next = (next + 1) & mask;
+            long key = macs[next];
+            if (key == EMPTY) {
+                break;
+            }
+            // move the entry if the hole is between its home slot and itself
+            if (((next - home(key)) & mask) >= ((next - hole) & mask)) {
+                macs[hole] = key;
+                dpids[hole] = dpids[next];
+                ports[hole] = ports[next];
+                ipv4s[hole] = ipv4s[next];
+                ipv6His[hole] = ipv6His[next];
+                ipv6Los[hole] = ipv6Los[next];
+                lastSeens[hole] = lastSeens[next];
+                hole = next;
+            }
+        }
+        macs[hole] = EMPTY;
+        size--;
+    }
+
+    public int getHosts() {
+        long stamp = lock.readLock();
+        try {
+            return size;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * @return hosts seen for the first time
+     */
+    public long getLearned() {
+        long stamp = lock.readLock();
+        try {
+            return learned;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * @return hosts seen at another port than before
+     */
+    public long getMoved() {
+        long stamp = lock.readLock();
+        try {
+            return moved;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    public long getExpired() {
+        long stamp = lock.readLock();
+        try {
+            return expired;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * @return hosts not learned because the table was full
+     */
+    public long getRejected() {
+        long stamp = lock.readLock();
+        try {
+            return rejected;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+}
@@ -0,0 +1,198 @@
+/*
+ * Copyright © 2016 siwind, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package com.siwind.bupt.impl.pipeline;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.siwind.bupt.impl.GetpacketConfig;
+
+/**
+ * Drops a frame punted again within a short window, typically by the next switch
+ * on its path after a flood or a table miss. Frames are compared by a 64 bit
+ * fingerprint of everything from the ethertype on, up to a prefix of the payload,
+ * leaving out what the hops change: the MAC addresses, the TTL and header
+ * checksum of IPv4, and the hop limit of IPv6.
+ *
+ * <p>Fingerprints go into a pair of fixed size bloom filters: the current one,
+ * and the previous one which is cleared and becomes the current one every
+ * window, so a frame is remembered for one to two windows in constant memory.
+ * The bits are set without synchronization; a lost update only lets a duplicate
+ * through.
+ */
+public class DuplicateFilter {
+
+    private static final int ETHER_TYPE_POSITION = 12;
+
+    /**
+     * word holding the TTL of IPv4 and the hop limit of IPv6
+     */
+    private static final int TTL_WORD_POSITION = ETHER_TYPE_POSITION + 8;
+
+    /**
+     * clears the TTL and the header checksum of IPv4 in the word read at
+     * TTL_WORD_POSITION
+     */
+    private static final long IPV4_TTL_WORD_MASK = 0xFFFF00FF0000FFFFL;
+
+    /**
+     * clears the hop limit of IPv6 in the word read at TTL_WORD_POSITION
+     */
+    private static final long IPV6_HOP_LIMIT_WORD_MASK = 0xFF00FFFFFFFFFFFFL;
+
+    private static final int ETHER_TYPE_IPV4 = 0x0800;
+
+    private static final int ETHER_TYPE_IPV6 = 0x86DD;
+
+    private static final int PROBES = 3;
+
+    private static final long MULTIPLIER = 0x9E3779B97F4A7C15L;
+
+    private final long windowMillis;
+
+    private final int prefixBytes;
+
+    private final int bitMask;
+
+    private volatile long[] current;
+
+    private volatile long[] previous;
+
+    private volatile long rotated = 0;
+
+    private final LongAdder checked = new LongAdder();
+
+    private final LongAdder duplicates = new LongAdder();
+
+    public DuplicateFilter(GetpacketConfig config) {
+        this(config.getDedupWindowMs(), config.getDedupFilterBits(), config.getDedupPrefixBytes());
+    }
+
+    /**
+     * @param filterBits size of each bloom filter, rounded up to a power of two
+     * @param prefixBytes bytes hashed after the ethernet header
+     */
+    public DuplicateFilter(long windowMillis, int filterBits, int prefixBytes) {
+        this.windowMillis = Math.max(1, windowMillis);
+        this.prefixBytes = Math.max(0, prefixBytes);
+        int bits = Math.max(64, Integer.highestOneBit(Math.max(1, filterBits - 1)) << 1);
+        this.bitMask = bits - 1;
+        this.current = new long[bits >>> 6];
+        this.previous = new long[bits >>> 6];
+    }
+
+    /**
+     * Remember the frame.
+     *
+     * @return whether the frame was seen within the window
+     */
+    public boolean isDuplicate(byte[] payload, long nowMillis) {
+        if (nowMillis - rotated >= windowMillis) {
+            rotate(nowMillis);
+        }
+        checked.increment();
+        long hash = fingerprint(payload, prefixBytes);
+        long[] bits = current;
+        if (contains(bits, hash) || contains(previous, hash)) {
+            duplicates.increment();
+            return true;
+        }
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32) | 1;
+        for (int i = 0; i < PROBES; i++) {
+            int bit = h1 + i * h2 & bitMask;
+            bits[bit >>> 6] |= 1L << bit;
+        }
+        return false;
+    }
+
+    private boolean contains(long[] bits, long hash) {
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32) | 1;
+        for (int i = 0; i < PROBES; i++) {
+            int bit = h1 + i * h2 & bitMask;
+            if ((bits[bit >>> 6] & 1L << bit) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private synchronized void rotate(long nowMillis) {
+        if (nowMillis - rotated < windowMillis) {
+            return;
+        }
+        long[] cleared = previous;
+        Arrays.fill(cleared, 0);
+        previous = current;
+        current = cleared;
+        rotated = nowMillis;
+    }
+
+    /**
+     * @return fingerprint of the parts of the frame no hop changes
+     */
+    static long fingerprint(byte[] payload, int prefixBytes) {
+        int end = Math.min(payload.length, ETHER_TYPE_POSITION + 2 + prefixBytes);
+        int etherType = end >= ETHER_TYPE_POSITION + 2
+                ? (payload[ETHER_TYPE_POSITION] & 0xFF) << 8 | payload[ETHER_TYPE_POSITION + 1] & 0xFF : 0;
+        long ttlMask = etherType == ETHER_TYPE_IPV4 ? IPV4_TTL_WORD_MASK
+                : etherType == ETHER_TYPE_IPV6 ? IPV6_HOP_LIMIT_WORD_MASK : -1L;
+        long hash = end * MULTIPLIER;
+        int position = ETHER_TYPE_POSITION;
+        for (; position + 8 <= end; position += 8) {
+            long word = readLong(payload, position);
+            if (position == TTL_WORD_POSITION) {
+                word &= ttlMask;
+            }
+            hash = mix(hash, word);
+        }
+        if (position < end) {
+            long word = 0;
+            for (int i = position; i < end; i++) {
+                word = word << 8 | payload[i] & 0xFF;
+            }
+            if (position == TTL_WORD_POSITION) {
+                word &= ttlMask >>> (8 - (end - position)) * 8;
+            }
+            hash = mix(hash, word);
+        }
+        // murmur3 finalizer
+        hash ^= hash >>> 33;
+        hash *= 0xFF51AFD7ED558CCDL;
+        hash ^= hash >>> 33;
+        hash *= 0xC4CEB9FE1A85EC53L;
+        return hash ^ hash >>> 33;
+    }
+
+    private static long mix(long hash, long word) {
+        return Long.rotateLeft(hash ^ word * MULTIPLIER, 29) * MULTIPLIER;
+    }
+
+    private static long readLong(byte[] payload, int position) {
+        long word = 0;
+        for (int i = position; i < position + 8; i++) {
+            word = word << 8 | payload[i] & 0xFF;
+        }
+        return word;
+    }
+
+    /**
+     * @return frames checked
+     */
+    public long getChecked() {
+        return checked.sum();
+    }
+
+    /**
+     * @return frames dropped as duplicates
+     */
+    public long getDuplicates() {
+        return duplicates.sum();
+    }
+}
@@ -0,0 +1,244 @@
+/*
+ * Copyright © 2016 siwind, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package com.siwind.bupt.impl.pipeline;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.opendaylight.yang.gen.v1.urn.opendaylight.inventory.rev130819.NodeConnectorRef;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.siwind.bupt.impl.GetpacketConfig;
+
+/**
+ * First stage of the pipeline, indexed by the ethertype of the raw payload. Each
+ * known ethertype has an entry counting its packets and deciding what becomes of
+ * them before anything is decoded or allocated: a packet is handed to the
+ * handler of its entry, if any, then dropped if the entry drops, or else decoded
+ * for the consumers. Packets of other ethertypes share the entry "other".
+ *
+ * <p>802.3 frames carry a length instead of an ethertype; those addressed to the
+ * spanning tree LLC SAP are counted as "bpdu", the others as "other".
+ */
+public class EtherTypeTable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(EtherTypeTable.class);
+
+    /**
+     * Lightweight handler of a control protocol, called on the notification
+     * thread before the packet is dropped or decoded.
+     */
+    public interface Handler {
+        void handle(NodeConnectorRef ingress, byte[] payload);
+    }
+
+    public static final int ETHER_TYPE_IPV4 = 0x0800;
+    public static final int ETHER_TYPE_ARP = 0x0806;
+    public static final int ETHER_TYPE_IPV6 = 0x86DD;
+    public static final int ETHER_TYPE_LLDP = 0x88CC;
+
+    /**
+     * pseudo ethertype of spanning tree BPDUs, which are 802.3 frames
+     */
+    public static final int ETHER_TYPE_BPDU = 0x10000;
+
+    /**
+     * smallest ethertype, smaller values are 802.3 lengths
+     */
+    private static final int ETHER_TYPE_MIN = 0x0600;
+
+    private static final int ETHER_TYPE_POSITION = 12;
+
+    private static final int LLC_POSITION = 14;
+
+    private static final int LLC_SAP_STP = 0x42;
+
+    private static final int OTHER = 0;
+
+    private static final String[] NAMES = { "ipv4", "arp", "ipv6", "lldp", "bpdu" };
+
+    private static final int[] ETHER_TYPES = { ETHER_TYPE_IPV4, ETHER_TYPE_ARP, ETHER_TYPE_IPV6, ETHER_TYPE_LLDP,
+        ETHER_TYPE_BPDU };
+
+    /**
+     * entry of every ethertype and of the BPDU pseudo ethertype, 0 for "other"
+     */
+    private final byte[] index = new byte[ETHER_TYPE_BPDU + 1];
+
+    private volatile Entry[] entries;
+
+    public EtherTypeTable(GetpacketConfig config) {
+        List<Entry> list = new ArrayList<>();
+        list.add(new Entry("other", -1, false, null, new LongAdder()));
+        for (int i = 0; i < NAMES.length; i++) {
+            index[ETHER_TYPES[i]] = (byte) list.size();
+            list.add(new Entry(NAMES[i], ETHER_TYPES[i], false, null, new LongAdder()));
+        }
+        entries = list.toArray(new Entry[0]);
+
+        for (String token : config.getDropEtherTypes().split(",")) {
+            if (token.trim().isEmpty()) {
+                continue;
+            }
+            int etherType = parse(token.trim());
+            if (etherType < 0) {
+                LOG.warn("[Siwind] Unknown ethertype {} in drop-ether-types, ignored", token.trim());
+                continue;
+            }
+            Entry entry = entry(etherType);
+            replace(new Entry(entry.name, etherType, true, entry.handler, entry.packets));
+        }
+    }
+
+    private static int parse(String token) {
+        int name = Arrays.asList(NAMES).indexOf(token.toLowerCase(Locale.ROOT));
+        if (name >= 0) {
+            return ETHER_TYPES[name];
+        }
+        try {
+            int etherType = Integer.decode(token);
+            return etherType >= ETHER_TYPE_MIN && etherType <= 0xFFFF ? etherType : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Hand the packets of an ethertype to a handler first.
+     *
+     * @param handler the handler, null to remove it
+     */
+    public synchronized void setHandler(int etherType, Handler handler) {
+        Entry entry = entry(etherType);
+        replace(new Entry(entry.name, etherType, entry.drop, handler, entry.packets));
+    }
+
+    /**
+     * @return entry of the ethertype, added if missing
+     */
+    private synchronized Entry entry(int etherType) {
+        if (index[etherType] != OTHER) {
+            return entries[index[etherType]];
+        }
+        if (entries.length > Byte.MAX_VALUE) {
+            throw new IllegalStateException("Too many ethertypes");
+        }
+        Entry entry = new Entry(String.format("0x%04x", etherType), etherType, false, null, new LongAdder());
+        Entry[] copy = Arrays.copyOf(entries, entries.length + 1);
+        copy[entries.length] = entry;
+        index[etherType] = (byte) entries.length;
+        entries = copy;
+        return entry;
+    }
+
+    private synchronized void replace(Entry entry) {
+        Entry[] copy = entries.clone();
+        copy[index[entry.etherType]] = entry;
+        entries = copy;
+    }
+
+    /**
+     * Count a received packet and hand it to its handler or drop it if its
+     * ethertype says so.
+     *
+     * @return whether the packet goes on to the consumers
+     */
+    public boolean accept(NodeConnectorRef ingress, byte[] payload) {
+        Entry[] current = entries;
+        Entry entry;
+        if (payload.length <= ETHER_TYPE_POSITION + 1) {
+            entry = current[OTHER];
+        } else {
+            int etherType = (payload[ETHER_TYPE_POSITION] & 0xFF) << 8 | payload[ETHER_TYPE_POSITION + 1] & 0xFF;
+            if (etherType < ETHER_TYPE_MIN) {
+                etherType = payload.length > LLC_POSITION + 1 && payload[LLC_POSITION] == LLC_SAP_STP
+                        && payload[LLC_POSITION + 1] == LLC_SAP_STP ? ETHER_TYPE_BPDU : 0;
+            }
+            // the index may already point past an entry being added
+            int i = index[etherType];
+            entry = current[i < current.length ? i : OTHER];
+        }
+        entry.packets.increment();
+        if (entry.handler != null) {
+            entry.handler.handle(ingress, payload);
+        }
+        return !entry.drop;
+    }
+
+    /**
+     * @return statistics of the ethertypes
+     */
+    public List<EtherTypeStats> getStats() {
+        Entry[] current = entries;
+        List<EtherTypeStats> stats = new ArrayList<>(current.length);
+        for (Entry entry : current) {
+            stats.add(new EtherTypeStats(entry.name, entry.etherType,
+                    (entry.handler != null ? "handle, " : "") + (entry.drop ? "drop" : "decode"), entry.packets.sum()));
+        }
+        return stats;
+    }
+
+    /**
+     * Statistics of an ethertype.
+     */
+    public static final class EtherTypeStats {
+        private final String name;
+        private final int etherType;
+        private final String action;
+        private final long packets;
+
+        EtherTypeStats(String name, int etherType, String action, long packets) {
+            this.name = name;
+            this.etherType = etherType;
+            this.action = action;
+            this.packets = packets;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return the ethertype, -1 for "other"
+         */
+        public int getEtherType() {
+            return etherType;
+        }
+
+        /**
+         * @return drop or decode, after handle if there is a handler
+         */
+        public String getAction() {
+            return action;
+        }
+
+        public long getPackets() {
+            return packets;
+        }
+    }
+
+    private static final class Entry {
+        final String name;
+        final int etherType;
+        final boolean drop;
+        final Handler handler;
+        final LongAdder packets;
+
+        Entry(String name, int etherType, boolean drop, Handler handler, LongAdder packets) {
+            this.name = name;
+            this.etherType = etherType;
+            this.drop = drop;
+            this.handler = handler;
+            this.packets = packets;
+        }
+    }
+}
@@ -0,0 +1,819 @@
+/*
+ * Copyright © 2016 siwind, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package com.siwind.bupt.impl.pipeline;
+
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+import org.opendaylight.yang.gen.v1.urn.opendaylight.inventory.rev130819.NodeConnectorRef;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.inventory.rev130819.node.NodeConnector;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.inventory.rev130819.node.NodeConnectorKey;
+
+import com.siwind.bupt.api.DecodedPacket;
+import com.siwind.bupt.api.PacketField;
+import com.siwind.bupt.impl.PacketHandler;
+import com.siwind.bupt.impl.flow.FragmentTracker;
+import com.siwind.bupt.impl.topology.InterSwitchPorts;
+import com.siwind.bupt.impl.util.NetUtils;
+
+/**
+ * The {@link DecodedPacket} of the pipeline. Nothing but the ethertype, found
+ * after one 802.1Q tag if the frame has one, is decoded when it is created: every field group is decoded on its first access, if it is
+ * in the mask of the groups the consumers asked for, and remembered. The string
+ * forms of the addresses are remembered the same way, and so is whether the
+ * ingress is an inter-switch port. Also keeps the ingress reference for
+ * consumers of this bundle.
+ *
+ * <p>The pipeline decodes every group of the mask with {@link #decode()} before
+ * handing the packet to queued consumers, so that groups are only decoded on
+ * first access when every consumer runs on the notification thread. Should
+ * consumers on different threads still decode a group at the same time, they
+ * write the same values, and the {@link #decoded} mask, updated atomically after
+ * the fields, makes them visible; only the fragment tracker is called by a
+ * single one of them.
+ */
+public final class PacketDescriptor implements DecodedPacket {
+
+    private static final int DST_MAC_START_POSITION = 0;
+
+    private static final int SRC_MAC_START_POSITION = 6;
+
+    private static final int ETHER_TYPE_START_POSITION = 12;
+
+    private static final int ETHER_TYPE_END_POSITION = 14;
+
+    private static final int ETHER_TYPE_IPV4 = 0x0800;
+
+    private static final int ETHER_TYPE_IPV6 = 0x86DD;
+
+    private static final int ETHER_TYPE_VLAN = 0x8100;
+
+    /**
+     * length of an 802.1Q tag, inserted before the ethertype
+     */
+    private static final int VLAN_TAG_LENGTH = 4;
+
+    /**
+     * positions relative to the start of the IP header
+     */
+    private static final int IPV4_TOTAL_LENGTH_POSITION = 2;
+
+    private static final int IPV4_ID_POSITION = 4;
+
+    private static final int IPV4_FRAGMENT_POSITION = 6;
+
+    private static final int IPV4_MORE_FRAGMENTS = 0x2000;
+
+    private static final int IPV4_FRAGMENT_OFFSET_MASK = 0x1FFF;
+
+    private static final int IPV4_PROTOCOL_POSITION = 9;
+
+    private static final int IPV4_SRCIP_START_POSITION = 12;
+
+    private static final int IPV4_DSTIP_START_POSITION = 16;
+
+    private static final int IPV4_DSTIP_END_POSITION = IPV4_DSTIP_START_POSITION + 4;
+
+    /**
+     * minimum IPv4 header length in octets (IHL of 5)
+     */
+    private static final int IPV4_MIN_HEADER_LENGTH = 20;
+
+    /**
+     * maximum IPv4 header length in octets (IHL of 15)
+     */
+    private static final int IPV4_MAX_HEADER_LENGTH = 60;
+
+    private static final int IPV6_PAYLOAD_LENGTH_POSITION = 4;
+
+    private static final int IPV6_NEXT_HEADER_POSITION = 6;
+
+    private static final int IPV6_SRCIP_START_POSITION = 8;
+
+    private static final int IPV6_DSTIP_START_POSITION = 24;
+
+    private static final int IPV6_HEADER_LENGTH = 40;
+
+    /**
+     * extension headers, see RFC 8200
+     */
+    private static final int IPV6_HOP_BY_HOP = 0;
+    private static final int IPV6_ROUTING = 43;
+    private static final int IPV6_FRAGMENT = 44;
+    private static final int IPV6_AUTHENTICATION = 51;
+    private static final int IPV6_DESTINATION_OPTIONS = 60;
+
+    /**
+     * every extension header is at least this long
+     */
+    private static final int IPV6_EXTENSION_MIN_LENGTH = 8;
+
+    /**
+     * extension headers walked at most before giving up on the upper layer
+     */
+    private static final int IPV6_MAX_EXTENSION_HEADERS = 8;
+
+    /**
+     * positions relative to the start of the TCP or UDP header
+     */
+    private static final int L4_SRCPORT_POSITION = 0;
+
+    private static final int L4_DSTPORT_POSITION = 2;
+
+    private static final int L4_PORTS_END_POSITION = 4;
+
+    private static final int TCP_DATA_OFFSET_POSITION = 12;
+
+    private static final int TCP_FLAGS_POSITION = 13;
+
+    private static final int TCP_FLAGS_END_POSITION = TCP_FLAGS_POSITION + 1;
+
+    public static final short PROTOCOL_TCP = 6;
+
+    public static final short PROTOCOL_UDP = 17;
+
+    public static final short PROTOCOL_ICMP = 1;
+
+    public static final short PROTOCOL_ICMPV6 = 58;
+
+    private static final int ICMP_CODE_END_POSITION = 2;
+
+    /**
+     * octets of IPv6 extension headers allowed for before the upper layer
+     * header when sizing the packet-in truncation, e.g. hop-by-hop options, a
+     * routing header and a fragment header
+     */
+    private static final int IPV6_EXTENSION_BYTES = 64;
+
+    private static final int INGRESS = bit(PacketField.INGRESS);
+    private static final int ETHERNET = bit(PacketField.ETHERNET);
+    private static final int IPV4 = bit(PacketField.IPV4);
+    private static final int PORTS = bit(PacketField.PORTS);
+    private static final int TCP = bit(PacketField.TCP);
+    private static final int IPV6 = bit(PacketField.IPV6);
+    private static final int ICMP = bit(PacketField.ICMP);
+    private static final int IP = IPV4 | IPV6;
+
+    /**
+     * not a field group: set by the thread which calls the fragment tracker for
+     * the packet, so that concurrent decodes record or look it up, and count it, once
+     */
+    private static final int FRAGMENT = 1 << 31;
+
+    private final long timestampMillis;
+    private final NodeConnectorRef ingressRef;
+    private final byte[] payload;
+    private final int fieldMask;
+    private final int etherType;
+
+    /**
+     * position of the IP header, after the ethertype
+     */
+    private final int l3Start;
+
+    /**
+     * ports linking two switches, null if unknown
+     */
+    private final InterSwitchPorts interSwitchPorts;
+
+    /**
+     * N of the 1 in N sampling the packet was kept by
+     */
+    private final int samplingRate;
+
+    /**
+     * ports of the first fragments, null if not tracked
+     */
+    private final FragmentTracker fragmentTracker;
+
+    /**
+     * {@link System#nanoTime()} the packet was received at, 0 if not traced;
+     * set before the packet is handed to the consumers
+     */
+    private long intakeNanos = 0;
+
+    private static final AtomicIntegerFieldUpdater<PacketDescriptor> DECODED =
+            AtomicIntegerFieldUpdater.newUpdater(PacketDescriptor.class, "decoded");
+
+    /**
+     * field groups decoded so far, set after their fields, see {@link #setDecoded(int)}
+     */
+    private volatile int decoded = 0;
+
+    private String ingress = null;
+    private long dstMac = 0;
+    private long srcMac = 0;
+    private boolean ipv4 = false;
+    private int srcIp = 0;
+    private int dstIp = 0;
+    private boolean ipv6 = false;
+    private long srcIpv6Hi = 0;
+    private long srcIpv6Lo = 0;
+    private long dstIpv6Hi = 0;
+    private long dstIpv6Lo = 0;
+    private short protocol = 0;
+    /**
+     * position of the upper layer header, -1 if unknown
+     */
+    private int l4Start = -1;
+    /**
+     * position after the IP packet according to its header
+     */
+    private int ipEnd = 0;
+    private int ipv4Id = 0;
+    /**
+     * IPv4 fragment offset and more fragments flag, 0 if not fragmented
+     */
+    private int ipv4Fragment = 0;
+    private boolean ports = false;
+    private int srcPort = 0;
+    private int dstPort = 0;
+    private int tcpFlags = 0;
+    private boolean tcpPayload = false;
+    private boolean icmp = false;
+    private int icmpType = 0;
+    private int icmpCode = 0;
+    private String srcIpString = null;
+    private String dstIpString = null;
+
+    /**
+     * 0 until looked up, then TRANSIT or NOT_TRANSIT
+     */
+    private byte transit = 0;
+
+    private static final byte TRANSIT = 1;
+    private static final byte NOT_TRANSIT = 2;
+
+    /**
+     * @param fieldMask field groups which may be decoded, see {@link #toMask(Set)}
+     */
+    public PacketDescriptor(NodeConnectorRef ingressRef, byte[] payload, long timestampMillis, int fieldMask) {
+        this(ingressRef, payload, timestampMillis, fieldMask, null, 1, null);
+    }
+
+    /**
+     * @param fieldMask field groups which may be decoded, see {@link #toMask(Set)}
+     * @param interSwitchPorts ports linking two switches, null if unknown
+     * @param samplingRate N of the 1 in N sampling the packet was kept by
+     * @param fragmentTracker ports of the first IPv4 fragments, null not to track them
+     */
+    public PacketDescriptor(NodeConnectorRef ingressRef, byte[] payload, long timestampMillis, int fieldMask,
+            InterSwitchPorts interSwitchPorts, int samplingRate, FragmentTracker fragmentTracker) {
+        this.interSwitchPorts = interSwitchPorts;
+        this.samplingRate = samplingRate;
+        this.fragmentTracker = fragmentTracker;
+        this.ingressRef = ingressRef;
+        this.payload = payload;
+        this.timestampMillis = timestampMillis;
+        this.fieldMask = fieldMask;
+        this.etherType = etherType(payload);
+        this.l3Start = l3Start(payload);
+    }
+
+    /**
+     * @return ethertype of the frame, the one after the 802.1Q tag if any, -1 if
+     *         the ethernet header is truncated
+     */
+    static int etherType(byte[] payload) {
+        if (payload.length < ETHER_TYPE_END_POSITION) {
+            return -1;
+        }
+        int etherType = readShort(payload, ETHER_TYPE_START_POSITION);
+        if (etherType == ETHER_TYPE_VLAN) {
+            return payload.length < ETHER_TYPE_END_POSITION + VLAN_TAG_LENGTH ? -1
+                    : readShort(payload, ETHER_TYPE_START_POSITION + VLAN_TAG_LENGTH);
+        }
+        return etherType;
+    }
+
+    /**
+     * @return position of the header following the ethernet one, i.e. after the 802.1Q tag if any
+     */
+    private static int l3Start(byte[] payload) {
+        return payload.length >= ETHER_TYPE_END_POSITION
+                && readShort(payload, ETHER_TYPE_START_POSITION) == ETHER_TYPE_VLAN
+                        ? ETHER_TYPE_END_POSITION + VLAN_TAG_LENGTH : ETHER_TYPE_END_POSITION;
+    }
+
+    /**
+     * @return bit mask of the field groups, a group implying another includes it
+     */
+    public static int toMask(Set<PacketField> fields) {
+        int mask = 0;
+        for (PacketField field : fields) {
+            mask |= bit(field);
+        }
+        if ((mask & TCP) != 0) {
+            mask |= PORTS;
+        }
+        if ((mask & (PORTS | ICMP)) != 0) {
+            mask |= IP;
+        }
+        return mask;
+    }
+
+    /**
+     * @param fieldMask field groups, see {@link #toMask(Set)}
+     * @return number of leading payload octets decoding the field groups reads
+     *         at most, i.e. the smallest packet-in truncation (controller
+     *         max_len) which loses none of them, 802.1Q tagged frames included
+     */
+    public static int getHeaderBytes(int fieldMask) {
+        int l4End = 0;
+        if ((fieldMask & TCP) != 0) {
+            l4End = TCP_FLAGS_END_POSITION;
+        } else if ((fieldMask & PORTS) != 0) {
+            l4End = L4_PORTS_END_POSITION;
+        } else if ((fieldMask & ICMP) != 0) {
+            l4End = ICMP_CODE_END_POSITION;
+        }
+        int l2End = ETHER_TYPE_END_POSITION + VLAN_TAG_LENGTH;
+        int bytes = l2End;
+        if ((fieldMask & IPV4) != 0) {
+            bytes = Math.max(bytes, l2End + (l4End > 0 ? IPV4_MAX_HEADER_LENGTH + l4End : IPV4_DSTIP_END_POSITION));
+        }
+        if ((fieldMask & IPV6) != 0) {
+            bytes = Math.max(bytes, l2End + IPV6_HEADER_LENGTH + IPV6_EXTENSION_BYTES + l4End);
+        }
+        return bytes;
+    }
+
+    private static int bit(PacketField field) {
+        return 1 << field.ordinal();
+    }
+
+    /**
+     * Mark field groups decoded: a CAS loop, as a plain {@code |=} of the
+     * volatile could lose the group of another thread.
+     */
+    private void setDecoded(int groups) {
+        int current;
+        do {
+            current = decoded;
+        } while (!DECODED.compareAndSet(this, current, current | groups));
+    }
+
+    /**
+     * Set a flag of the {@link #decoded} mask.
+     *
+     * @return whether this thread set it, false if another one did first
+     */
+    private boolean claim(int flag) {
+        int current;
+        do {
+            current = decoded;
+            if ((current & flag) != 0) {
+                return false;
+            }
+        } while (!DECODED.compareAndSet(this, current, current | flag));
+        return true;
+    }
+
+    /**
+     * Decode every field group of the mask not decoded yet, so that consumers
+     * on other threads only read them.
+     */
+    public void decode() {
+        if ((fieldMask & INGRESS) != 0 && (decoded & INGRESS) == 0) {
+            decodeIngress();
+        }
+        if ((fieldMask & ETHERNET) != 0 && (decoded & ETHERNET) == 0) {
+            decodeEthernet();
+        }
+        if ((fieldMask & IP) != 0 && (decoded & IP) != IP) {
+            decodeIp();
+        }
+        if ((fieldMask & (PORTS | TCP)) != 0 && (decoded & TCP) == 0) {
+            decodeTcp();
+        }
+        if ((fieldMask & ICMP) != 0 && (decoded & ICMP) == 0) {
+            decodeIcmp();
+        }
+    }
+
+    private void decodeIngress() {
+        if ((fieldMask & INGRESS) != 0) {
+            ingress = ingressId();
+        }
+        setDecoded(INGRESS);
+    }
+
+    private String ingressId() {
+        return ingressId(ingressRef);
+    }
+
+    /**
+     * @return node connector id of the port, e.g. openflow:1:2, null if unknown
+     */
+    static String ingressId(NodeConnectorRef ingressRef) {
+        if (ingressRef == null) {
+            return null;
+        }
+        NodeConnectorKey key = ingressRef.getValue().firstKeyOf(NodeConnector.class);
+        return key != null ? key.getId().getValue() : PacketHandler.getIngressStr(ingressRef.getValue().toString());
+    }
+
+    private void decodeEthernet() {
+        if ((fieldMask & ETHERNET) != 0 && etherType >= 0) {
+            dstMac = readMac(DST_MAC_START_POSITION);
+            srcMac = readMac(SRC_MAC_START_POSITION);
+        }
+        setDecoded(ETHERNET);
+    }
+
+    private void decodeIpv4() {
+        // the switch may have truncated the payload anywhere after the ethernet header
+        if ((fieldMask & IPV4) != 0 && etherType == ETHER_TYPE_IPV4
+                && payload.length >= l3Start + IPV4_DSTIP_END_POSITION) {
+            int headerLength = (payload[l3Start] & 0x0F) * 4;
+            if (headerLength >= IPV4_MIN_HEADER_LENGTH) {
+                ipEnd = l3Start + readShort(l3Start + IPV4_TOTAL_LENGTH_POSITION);
+                ipv4Id = readShort(l3Start + IPV4_ID_POSITION);
+                ipv4Fragment = readShort(l3Start + IPV4_FRAGMENT_POSITION)
+                        & (IPV4_MORE_FRAGMENTS | IPV4_FRAGMENT_OFFSET_MASK);
+                // only the first fragment starts with the upper layer header
+                l4Start = (ipv4Fragment & IPV4_FRAGMENT_OFFSET_MASK) == 0 ? l3Start + headerLength : -1;
+                srcIp = readInt(l3Start + IPV4_SRCIP_START_POSITION);
+                dstIp = readInt(l3Start + IPV4_DSTIP_START_POSITION);
+                protocol = (short) (payload[l3Start + IPV4_PROTOCOL_POSITION] & 0xFF);
+                ipv4 = true;
+            }
+        }
+        setDecoded(IPV4);
+    }
+
+    private void decodeIpv6() {
+        if ((fieldMask & IPV6) != 0 && etherType == ETHER_TYPE_IPV6
+                && payload.length >= l3Start + IPV6_HEADER_LENGTH) {
+            srcIpv6Hi = readLong(l3Start + IPV6_SRCIP_START_POSITION);
+            srcIpv6Lo = readLong(l3Start + IPV6_SRCIP_START_POSITION + 8);
+            dstIpv6Hi = readLong(l3Start + IPV6_DSTIP_START_POSITION);
+            dstIpv6Lo = readLong(l3Start + IPV6_DSTIP_START_POSITION + 8);
+            ipEnd = l3Start + IPV6_HEADER_LENGTH + readShort(l3Start + IPV6_PAYLOAD_LENGTH_POSITION);
+
+            // walk the extension headers to the upper layer header
+            int next = payload[l3Start + IPV6_NEXT_HEADER_POSITION] & 0xFF;
+            int position = l3Start + IPV6_HEADER_LENGTH;
+            for (int headers = 0; isIpv6Extension(next); headers++) {
+                if (headers == IPV6_MAX_EXTENSION_HEADERS || payload.length < position + IPV6_EXTENSION_MIN_LENGTH) {
+                    position = -1;
+                    break;
+                }
+                int header = next;
+                next = payload[position] & 0xFF;
+                if (header == IPV6_FRAGMENT) {
+                    // only the first fragment starts with the upper layer header
+                    if ((readShort(position + 2) & 0xFFF8) != 0) {
+                        position = -1;
+                        break;
+                    }
+                    position += IPV6_EXTENSION_MIN_LENGTH;
+                } else if (header == IPV6_AUTHENTICATION) {
+                    position += ((payload[position + 1] & 0xFF) + 2) * 4;
+                } else {
+                    position += ((payload[position + 1] & 0xFF) + 1) * 8;
+                }
+            }
+            protocol = (short) next;
+            l4Start = position;
+            ipv6 = true;
+        }
+        setDecoded(IPV6);
+    }
+
+    private static boolean isIpv6Extension(int header) {
+        return header == IPV6_HOP_BY_HOP || header == IPV6_ROUTING || header == IPV6_FRAGMENT
+                || header == IPV6_AUTHENTICATION || header == IPV6_DESTINATION_OPTIONS;
+    }
+
+    private void decodeIp() {
+        if ((decoded & IPV4) == 0) {
+            decodeIpv4();
+        }
+        if ((decoded & IPV6) == 0) {
+            decodeIpv6();
+        }
+    }
+
+    private void decodePorts() {
+        if ((decoded & IP) != IP) {
+            decodeIp();
+        }
+        if ((fieldMask & PORTS) != 0 && (protocol == PROTOCOL_TCP || protocol == PROTOCOL_UDP) && (ipv4 || ipv6)) {
+            if (l4Start >= 0 && payload.length >= l4Start + L4_PORTS_END_POSITION) {
+                srcPort = readShort(l4Start + L4_SRCPORT_POSITION);
+                dstPort = readShort(l4Start + L4_DSTPORT_POSITION);
+                ports = true;
+                if (ipv4Fragment != 0 && fragmentTracker != null && claim(FRAGMENT)) {
+                    fragmentTracker.record(srcIp, dstIp, protocol, ipv4Id, srcPort, dstPort, timestampMillis);
+                }
+            } else if (ipv4Fragment != 0 && l4Start < 0 && fragmentTracker != null) {
+                if (!claim(FRAGMENT)) {
+                    // another thread looks the ports up, then marks them decoded
+                    while ((decoded & PORTS) == 0) {
+                        Thread.yield();
+                    }
+                    return;
+                }
+                long tracked = fragmentTracker.lookup(srcIp, dstIp, protocol, ipv4Id, timestampMillis);
+                if (tracked >= 0) {
+                    srcPort = (int) (tracked >>> 16);
+                    dstPort = (int) (tracked & 0xFFFF);
+                    ports = true;
+                }
+            }
+        }
+        setDecoded(PORTS);
+    }
+
+    private void decodeTcp() {
+        if ((decoded & PORTS) == 0) {
+            decodePorts();
+        }
+        if ((fieldMask & TCP) != 0 && ports && protocol == PROTOCOL_TCP && l4Start >= 0
+                && payload.length >= l4Start + TCP_FLAGS_END_POSITION) {
+            tcpFlags = payload[l4Start + TCP_FLAGS_POSITION] & 0xFF;
+            int tcpHeaderLength = (payload[l4Start + TCP_DATA_OFFSET_POSITION] & 0xF0) >> 2;
+            tcpPayload = ipEnd - l4Start > tcpHeaderLength;
+        }
+        setDecoded(TCP);
+    }
+
+    private void decodeIcmp() {
+        if ((decoded & IP) != IP) {
+            decodeIp();
+        }
+        if ((fieldMask & ICMP) != 0 && l4Start >= 0
+                && (ipv4 && protocol == PROTOCOL_ICMP || ipv6 && protocol == PROTOCOL_ICMPV6)
+                && payload.length >= l4Start + ICMP_CODE_END_POSITION) {
+            icmpType = payload[l4Start] & 0xFF;
+            icmpCode = payload[l4Start + 1] & 0xFF;
+            icmp = true;
+        }
+        setDecoded(ICMP);
+    }
+
+    private int readShort(int position) {
+        return readShort(payload, position);
+    }
+
+    private static int readShort(byte[] payload, int position) {
+        return (payload[position] & 0xFF) << 8 | payload[position + 1] & 0xFF;
+    }
+
+    private int readInt(int position) {
+        return readShort(position) << 16 | readShort(position + 2);
+    }
+
+    private long readLong(int position) {
+        return (long) readInt(position) << 32 | readInt(position + 4) & 0xFFFFFFFFL;
+    }
+
+    private long readMac(int position) {
+        return (long) readShort(position) << 32 | readInt(position + 2) & 0xFFFFFFFFL;
+    }
+
+    /**
+     * @return reference of the ingress node connector
+     */
+    public NodeConnectorRef getIngressRef() {
+        return ingressRef;
+    }
+
+    @Override
+    public long getTimestampMillis() {
+        return timestampMillis;
+    }
+
+    @Override
+    public String getIngress() {
+        if ((decoded & INGRESS) == 0) {
+            decodeIngress();
+        }
+        return ingress;
+    }
+
+    /**
+     * Looked up whatever the field mask, but not when no inter-switch link is known.
+     */
+    @Override
+    public boolean isTransit() {
+        if (transit == 0) {
+            boolean found = interSwitchPorts != null && !interSwitchPorts.isEmpty()
+                    && interSwitchPorts.contains(ingressId());
+            transit = found ? TRANSIT : NOT_TRANSIT;
+        }
+        return transit == TRANSIT;
+    }
+
+    @Override
+    public int getSamplingRate() {
+        return samplingRate;
+    }
+
+    /**
+     * @return {@link System#nanoTime()} the packet was received at, 0 if its latency is not traced
+     */
+    public long getIntakeNanos() {
+        return intakeNanos;
+    }
+
+    void setIntakeNanos(long intakeNanos) {
+        this.intakeNanos = intakeNanos;
+    }
+
+    @Override
+    public byte[] getPayload() {
+        return payload;
+    }
+
+    @Override
+    public int getEtherType() {
+        return etherType;
+    }
+
+    @Override
+    public long getDstMac() {
+        if ((decoded & ETHERNET) == 0) {
+            decodeEthernet();
+        }
+        return dstMac;
+    }
+
+    @Override
+    public long getSrcMac() {
+        if ((decoded & ETHERNET) == 0) {
+            decodeEthernet();
+        }
+        return srcMac;
+    }
+
+    @Override
+    public boolean isIpv4() {
+        if ((decoded & IPV4) == 0) {
+            decodeIpv4();
+        }
+        return ipv4;
+    }
+
+    @Override
+    public int getSrcIp() {
+        if ((decoded & IPV4) == 0) {
+            decodeIpv4();
+        }
+        return srcIp;
+    }
+
+    @Override
+    public int getDstIp() {
+        if ((decoded & IPV4) == 0) {
+            decodeIpv4();
+        }
+        return dstIp;
+    }
+
+    @Override
+    public boolean isIpv6() {
+        if ((decoded & IPV6) == 0) {
+            decodeIpv6();
+        }
+        return ipv6;
+    }
+
+    @Override
+    public long getSrcIpv6Hi() {
+        if ((decoded & IPV6) == 0) {
+            decodeIpv6();
+        }
+        return srcIpv6Hi;
+    }
+
+    @Override
+    public long getSrcIpv6Lo() {
+        if ((decoded & IPV6) == 0) {
+            decodeIpv6();
+        }
+        return srcIpv6Lo;
+    }
+
+    @Override
+    public long getDstIpv6Hi() {
+        if ((decoded & IPV6) == 0) {
+            decodeIpv6();
+        }
+        return dstIpv6Hi;
+    }
+
+    @Override
+    public long getDstIpv6Lo() {
+        if ((decoded & IPV6) == 0) {
+            decodeIpv6();
+        }
+        return dstIpv6Lo;
+    }
+
+    @Override
+    public String getSrcIpString() {
+        String value = srcIpString;
+        if (value == null) {
+            if (isIpv4()) {
+                value = NetUtils.toIPv4String(srcIp);
+            } else if (isIpv6()) {
+                value = NetUtils.toIPv6String(srcIpv6Hi, srcIpv6Lo);
+            }
+            srcIpString = value;
+        }
+        return value;
+    }
+
+    @Override
+    public String getDstIpString() {
+        String value = dstIpString;
+        if (value == null) {
+            if (isIpv4()) {
+                value = NetUtils.toIPv4String(dstIp);
+            } else if (isIpv6()) {
+                value = NetUtils.toIPv6String(dstIpv6Hi, dstIpv6Lo);
+            }
+            dstIpString = value;
+        }
+        return value;
+    }
+
+    @Override
+    public short getProtocol() {
+        if ((decoded & IP) != IP) {
+            decodeIp();
+        }
+        return protocol;
+    }
+
+    @Override
+    public boolean hasPorts() {
+        if ((decoded & PORTS) == 0) {
+            decodePorts();
+        }
+        return ports;
+    }
+
+    @Override
+    public int getSrcPort() {
+        if ((decoded & PORTS) == 0) {
+            decodePorts();
+        }
+        return srcPort;
+    }
+
+    @Override
+    public int getDstPort() {
+        if ((decoded & PORTS) == 0) {
+            decodePorts();
+        }
+        return dstPort;
+    }
+
+    @Override
+    public int getTcpFlags() {
+        if ((decoded & TCP) == 0) {
+            decodeTcp();
+        }
+        return tcpFlags;
+    }
+
+    @Override
+    public boolean hasTcpPayload() {
+        if ((decoded & TCP) == 0) {
+            decodeTcp();
+        }
+        return tcpPayload;
+    }
+
+    @Override
+    public boolean hasIcmp() {
+        if ((decoded & ICMP) == 0) {
+            decodeIcmp();
+        }
+        return icmp;
+    }
+
+    @Override
+    public int getIcmpType() {
+        if ((decoded & ICMP) == 0) {
+            decodeIcmp();
+        }
+        return icmpType;
+    }
+
+    @Override
+    public int getIcmpCode() {
+        if ((decoded & ICMP) == 0) {
+            decodeIcmp();
+        }
+        return icmpCode;
+    }
+}
@@ -0,0 +1,487 @@
+/*
+ * Copyright © 2016 siwind, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package com.siwind.bupt.impl.pipeline;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntConsumer;
+
+import org.opendaylight.yang.gen.v1.urn.opendaylight.inventory.rev130819.NodeConnectorRef;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.siwind.bupt.api.DecodedPacket;
+import com.siwind.bupt.api.PacketConsumer;
+import com.siwind.bupt.impl.GetpacketConfig;
+import com.siwind.bupt.impl.capture.PacketCapture;
+import com.siwind.bupt.impl.export.TridentExporter;
+import com.siwind.bupt.impl.flow.FragmentTracker;
+import com.siwind.bupt.impl.topology.InterSwitchPorts;
+import com.siwind.bupt.impl.trace.FlightEvents;
+import com.siwind.bupt.impl.trace.LatencyTracer;
+
+/**
+ * Fans every received packet out to the registered {@link PacketConsumer}s in a
+ * {@link PacketDescriptor} shared by all of them. The {@link PacketCapture} is
+ * tapped first, so that it sees every packet-in, whatever the later stages drop. The union of the fields the
+ * consumers need is kept up to date as they come and go; the descriptor decodes
+ * only those, and only when a consumer reads them. Control protocols are
+ * dropped or handled by the {@link EtherTypeTable} before that, packets left out
+ * by the {@link PacketSampler} and frames punted again by the next switch dropped
+ * by the {@link DuplicateFilter}. Packets coming in
+ * on a port linking two switches are marked as transit, so that consumers can
+ * skip what was already seen at the previous hop. 1 in N packets are stamped on
+ * arrival, for the {@link LatencyTracer} to follow them through the exporter;
+ * intake and drops are also reported as {@link FlightEvents} when enabled.
+ *
+ * <p>Inline consumers are called on the notification thread. Every other consumer
+ * has a bounded queue and a thread of its own, so a slow consumer only loses its
+ * own packets. Consumers come and go at runtime: built-in ones are added by the
+ * provider, OSGi services through the blueprint reference listener.
+ */
+public class PacketPipeline implements AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(PacketPipeline.class);
+
+    private final int queueSize;
+
+    private final EtherTypeTable etherTypes;
+
+    /**
+     * keeps 1 in N packets, null when every packet is kept
+     */
+    private final PacketSampler sampler;
+
+    /**
+     * packets between two adjustments of the sampling rate, a power of two
+     */
+    private static final int ADAPT_INTERVAL = 1024;
+
+    /**
+     * drops frames punted again by another switch, null when disabled
+     */
+    private final DuplicateFilter duplicateFilter;
+
+    /**
+     * ports of the first IPv4 fragments for the later ones, null when disabled
+     */
+    private final FragmentTracker fragmentTracker;
+
+    /**
+     * traces the stage latencies of 1 in N packets, null when disabled
+     */
+    private final LatencyTracer latencyTracer;
+
+    /**
+     * ports linking two switches, kept up to date from the topology links
+     */
+    private final InterSwitchPorts interSwitchPorts = new InterSwitchPorts();
+
+    private final List<ConsumerSlot> slots = new CopyOnWriteArrayList<>();
+
+    /**
+     * tapped at intake, null if none
+     */
+    private volatile PacketCapture capture = null;
+
+    /**
+     * queues the records of the inline export consumer, null if none
+     */
+    private volatile TridentExporter exporter = null;
+
+    /**
+     * field groups needed by the current consumers
+     */
+    private volatile int fieldMask = 0;
+
+    /**
+     * whether any current consumer has a queue and thread of its own
+     */
+    private volatile boolean queuedConsumers = false;
+
+    /**
+     * leading payload octets read by the dedup filter and the capture, whatever the consumers
+     */
+    private final int payloadBytes;
+
+    /**
+     * leading payload octets needed by the current consumers and the stages
+     */
+    private volatile int requiredBytes;
+
+    /**
+     * told about changes of {@link #requiredBytes}, null if none
+     */
+    private IntConsumer requiredBytesListener = null;
+
+    private final AtomicLong received = new AtomicLong();
+
+    public PacketPipeline(GetpacketConfig config) {
+        this.queueSize = config.getConsumerQueueSize();
+        this.etherTypes = new EtherTypeTable(config);
+        PacketSampler packetSampler = new PacketSampler(config);
+        this.sampler = packetSampler.isDisabled() ? null : packetSampler;
+        this.fragmentTracker = config.isFragmentTrackerEnabled() ? new FragmentTracker(config) : null;
+        this.duplicateFilter = config.isDedupEnabled() ? new DuplicateFilter(config) : null;
+        this.latencyTracer = config.getLatencyTraceRate() > 0 ? new LatencyTracer(config) : null;
+        this.payloadBytes = Math.max(config.isDedupEnabled() ? config.getDedupPrefixBytes() : 0,
+                config.isCaptureEnabled() ? config.getCaptureSnapLength() : 0);
+        this.requiredBytes = Math.max(PacketDescriptor.getHeaderBytes(0), payloadBytes);
+    }
+
+    /**
+     * Add a consumer; also the bind method of the blueprint reference listener.
+     */
+    public synchronized void addConsumer(PacketConsumer consumer) {
+        if (consumer == null) {
+            return;
+        }
+        for (ConsumerSlot slot : slots) {
+            if (slot.consumer.equals(consumer)) {
+                return;
+            }
+        }
+        ConsumerSlot slot = new ConsumerSlot(consumer, consumer.isInline() ? 0 : queueSize);
+        slots.add(slot);
+        updateFieldMask();
+        LOG.info("[Siwind] Added packet consumer {}, fields {}", consumer.getName(), consumer.getRequiredFields());
+    }
+
+    /**
+     * Remove a consumer; also the unbind method of the blueprint reference listener.
+     */
+    public synchronized void removeConsumer(PacketConsumer consumer) {
+        if (consumer == null) {
+            return;
+        }
+        for (ConsumerSlot slot : slots) {
+            if (slot.consumer.equals(consumer)) {
+                slots.remove(slot);
+                updateFieldMask();
+                slot.close();
+                LOG.info("[Siwind] Removed packet consumer {}", slot.name);
+                return;
+            }
+        }
+    }
+
+    private void updateFieldMask() {
+        int mask = 0;
+        boolean queued = false;
+        for (ConsumerSlot slot : slots) {
+            mask |= slot.fieldMask;
+            queued |= slot.queue != null;
+        }
+        fieldMask = mask;
+        queuedConsumers = queued;
+        int bytes = Math.max(PacketDescriptor.getHeaderBytes(mask), payloadBytes);
+        if (bytes != requiredBytes) {
+            requiredBytes = bytes;
+            if (requiredBytesListener != null) {
+                requiredBytesListener.accept(bytes);
+            }
+        }
+    }
+
+    /**
+     * @return number of leading payload octets the current consumers, the
+     *         dedup filter and a capture configured at startup read, i.e. the
+     *         smallest packet-in truncation which loses nothing they need
+     */
+    public int getRequiredBytes() {
+        return requiredBytes;
+    }
+
+    /**
+     * @param listener told about every change of {@link #getRequiredBytes()} as
+     *        consumers come and go, null for none
+     */
+    public synchronized void setRequiredBytesListener(IntConsumer listener) {
+        this.requiredBytesListener = listener;
+    }
+
+    /**
+     * @param capture capture tapped at intake, before the ethertype, sampling and
+     *        dedup stages, null for none
+     */
+    public void setCapture(PacketCapture capture) {
+        this.capture = capture;
+    }
+
+    /**
+     * @param exporter exporter whose queues the sampling adapts to along with
+     *        the consumer queues, as the export consumer is inline, null for none
+     */
+    public void setExporter(TridentExporter exporter) {
+        this.exporter = exporter;
+    }
+
+    /**
+     * Decode a received packet and hand it to all consumers.
+     */
+    public void dispatch(NodeConnectorRef ingress, byte[] payload) {
+        long intakeNanos = latencyTracer != null && latencyTracer.shouldTrace() ? System.nanoTime() : 0;
+        long count = received.incrementAndGet();
+        if (FlightEvents.shouldEmit(FlightEvents.Type.PACKET_INTAKE)) {
+            FlightEvents.packetIntake(PacketDescriptor.ingressId(ingress), PacketDescriptor.etherType(payload),
+                    payload.length);
+        }
+        PacketCapture tap = capture;
+        if (tap != null && tap.isRunning()) {
+            tap.capture(PacketDescriptor.ingressId(ingress), payload);
+        }
+        if (!etherTypes.accept(ingress, payload)) {
+            if (FlightEvents.shouldEmit(FlightEvents.Type.DROP)) {
+                FlightEvents.drop("ethertype", "pipeline");
+            }
+            return;
+        }
+        if (slots.isEmpty()) {
+            return;
+        }
+        int samplingRate = 1;
+        if (sampler != null) {
+            if ((count & ADAPT_INTERVAL - 1) == 0) {
+                sampler.adapt(getQueueFillPercent());
+            }
+            samplingRate = sampler.sample(ingress);
+            if (samplingRate == 0) {
+                return;
+            }
+        }
+        long now = System.currentTimeMillis();
+        if (duplicateFilter != null && duplicateFilter.isDuplicate(payload, now)) {
+            if (FlightEvents.shouldEmit(FlightEvents.Type.DROP)) {
+                FlightEvents.drop("duplicate", "pipeline");
+            }
+            return;
+        }
+        PacketDescriptor packet = new PacketDescriptor(ingress, payload, now, fieldMask, interSwitchPorts,
+                samplingRate, fragmentTracker);
+        packet.setIntakeNanos(intakeNanos);
+        if (intakeNanos != 0) {
+            // traced packets are decoded here whatever the consumers, to time it
+            long start = System.nanoTime();
+            packet.decode();
+            latencyTracer.record(LatencyTracer.Stage.DECODE, System.nanoTime() - start);
+        } else if (queuedConsumers) {
+            // decoded once here rather than by consumers racing on other threads
+            packet.decode();
+        }
+        for (ConsumerSlot slot : slots) {
+            slot.offer(packet);
+        }
+    }
+
+    /**
+     * @return the ethertype stage, handing control protocols to their handlers
+     */
+    public EtherTypeTable getEtherTypes() {
+        return etherTypes;
+    }
+
+    /**
+     * @return the ports linking two switches, updated by the link listener
+     */
+    public InterSwitchPorts getInterSwitchPorts() {
+        return interSwitchPorts;
+    }
+
+    public long getReceived() {
+        return received.get();
+    }
+
+    /**
+     * @return fill in percent of the fullest consumer or exporter queue
+     */
+    private int getQueueFillPercent() {
+        int fill = 0;
+        for (ConsumerSlot slot : slots) {
+            if (slot.queue != null) {
+                fill = Math.max(fill, slot.queue.size() * 100 / queueSize);
+            }
+        }
+        TridentExporter downstream = exporter;
+        if (downstream != null) {
+            fill = Math.max(fill, downstream.getQueueFillPercent());
+        }
+        return fill;
+    }
+
+    /**
+     * @return ports of the first IPv4 fragments, null when not tracked
+     */
+    public FragmentTracker getFragmentTracker() {
+        return fragmentTracker;
+    }
+
+    /**
+     * @return the stage latencies of traced packets, null when not traced
+     */
+    public LatencyTracer getLatencyTracer() {
+        return latencyTracer;
+    }
+
+    /**
+     * @return the sampling stage, null when every packet is kept
+     */
+    public PacketSampler getSampler() {
+        return sampler;
+    }
+
+    /**
+     * @return frames dropped as duplicates
+     */
+    public long getDuplicates() {
+        return duplicateFilter == null ? 0 : duplicateFilter.getDuplicates();
+    }
+
+    /**
+     * @return statistics of the consumers
+     */
+    public List<ConsumerStats> getConsumerStats() {
+        List<ConsumerStats> stats = new ArrayList<>(slots.size());
+        for (ConsumerSlot slot : slots) {
+            stats.add(new ConsumerStats(slot.name, slot.queue == null ? -1 : slot.queue.size(),
+                    slot.delivered.get(), slot.dropped.get(), slot.failed.get()));
+        }
+        return stats;
+    }
+
+    @Override
+    public synchronized void close() {
+        for (ConsumerSlot slot : slots) {
+            slot.close();
+        }
+        slots.clear();
+        fieldMask = 0;
+        queuedConsumers = false;
+    }
+
+    /**
+     * Statistics of a consumer.
+     */
+    public static final class ConsumerStats {
+        private final String name;
+        private final int queueDepth;
+        private final long delivered;
+        private final long dropped;
+        private final long failed;
+
+        ConsumerStats(String name, int queueDepth, long delivered, long dropped, long failed) {
+            this.name = name;
+            this.queueDepth = queueDepth;
+            this.delivered = delivered;
+            this.dropped = dropped;
+            this.failed = failed;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return packets waiting for the consumer, -1 for inline consumers
+         */
+        public int getQueueDepth() {
+            return queueDepth;
+        }
+
+        public long getDelivered() {
+            return delivered;
+        }
+
+        /**
+         * @return packets dropped because the consumer's queue was full
+         */
+        public long getDropped() {
+            return dropped;
+        }
+
+        /**
+         * @return packets the consumer threw on
+         */
+        public long getFailed() {
+            return failed;
+        }
+    }
+
+    private static final class ConsumerSlot {
+        final PacketConsumer consumer;
+        final String name;
+        final int fieldMask;
+        final BlockingQueue<DecodedPacket> queue;
+        final Thread thread;
+        final AtomicLong delivered = new AtomicLong();
+        final AtomicLong dropped = new AtomicLong();
+        final AtomicLong failed = new AtomicLong();
+        volatile boolean running = true;
+
+        ConsumerSlot(PacketConsumer consumer, int queueSize) {
+            this.consumer = consumer;
+            this.name = consumer.getName();
+            this.fieldMask = PacketDescriptor.toMask(consumer.getRequiredFields());
+            if (queueSize > 0) {
+                queue = new ArrayBlockingQueue<>(queueSize);
+                thread = new Thread(this::run, "getpacket-consumer-" + name);
+                thread.setDaemon(true);
+                thread.start();
+            } else {
+                queue = null;
+                thread = null;
+            }
+        }
+
+        void offer(DecodedPacket packet) {
+            if (queue == null) {
+                deliver(packet);
+            } else if (!queue.offer(packet)) {
+                dropped.incrementAndGet();
+                if (FlightEvents.shouldEmit(FlightEvents.Type.DROP)) {
+                    FlightEvents.drop("queue-full", name);
+                }
+            }
+        }
+
+        private void deliver(DecodedPacket packet) {
+            try {
+                consumer.onPacket(packet);
+                delivered.incrementAndGet();
+            } catch (RuntimeException e) {
+                if (failed.getAndIncrement() == 0) {
+                    LOG.warn("[Siwind] Packet consumer {} failed, further failures are only counted", name, e);
+                }
+            }
+        }
+
+        private void run() {
+            try {
+                while (running) {
+                    DecodedPacket packet = queue.poll(100, TimeUnit.MILLISECONDS);
+                    if (packet != null) {
+                        deliver(packet);
+                    }
+                }
+            } catch (InterruptedException e) {
+                // closed
+            }
+        }
+
+        void close() {
+            running = false;
+            if (thread != null) {
+                thread.interrupt();
+            }
+        }
+    }
+}
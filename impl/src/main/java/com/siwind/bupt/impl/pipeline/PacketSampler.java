@@ -0,0 +1,225 @@
+/*
+ * Copyright © 2016 siwind, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package com.siwind.bupt.impl.pipeline;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.opendaylight.yang.gen.v1.urn.opendaylight.inventory.rev130819.NodeConnectorRef;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.inventory.rev130819.node.NodeConnector;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.inventory.rev130819.node.NodeConnectorKey;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.siwind.bupt.impl.GetpacketConfig;
+
+/**
+ * Keeps 1 in N packets of each ingress, sFlow style, every Nth one or each with
+ * probability 1/N, so that counts scaled by N stay unbiased. N is global or
+ * configured per ingress. When adaptive, N is multiplied by a factor doubled
+ * while the queues of the consumers or of the exporter fill up and halved while
+ * they drain.
+ *
+ * <p>Without per ingress rates, deciding costs a volatile read and a counter
+ * decrement; the counters are updated without synchronization, so concurrent
+ * packets may only make the sampling slightly less regular.
+ */
+public class PacketSampler {
+
+    private static final Logger LOG = LoggerFactory.getLogger(PacketSampler.class);
+
+    public enum Mode {
+        /**
+         * every Nth packet
+         */
+        DETERMINISTIC,
+        /**
+         * each packet with probability 1/N
+         */
+        RANDOM
+    }
+
+    /**
+     * queue fill in percent above which the factor doubles
+     */
+    static final int HIGH_WATERMARK = 50;
+
+    /**
+     * queue fill in percent below which the factor halves
+     */
+    static final int LOW_WATERMARK = 10;
+
+    private final Mode mode;
+
+    private final int maxRate;
+
+    private final Counter global;
+
+    /**
+     * counters of the ingresses having a rate of their own
+     */
+    private final Map<String, Counter> ingresses;
+
+    /**
+     * multiplies the configured rates, changed by {@link #adapt(int)}
+     */
+    private volatile int factor = 1;
+
+    private final LongAdder sampled = new LongAdder();
+
+    private static final class Counter {
+        final int rate;
+        volatile int effectiveRate;
+        int skip;
+
+        Counter(int rate) {
+            this.rate = rate;
+            this.effectiveRate = rate;
+            this.skip = rate;
+        }
+    }
+
+    public PacketSampler(GetpacketConfig config) {
+        this(config.getSamplingRate(), parseMode(config.getSamplingMode()), parseRates(config.getSamplingIngressRates()),
+                config.getSamplingMaxRate());
+    }
+
+    /**
+     * @param rate N of ingresses without a rate of their own, 1 to keep every packet
+     * @param ingressRates N by node connector id, e.g. openflow:1:2
+     * @param maxRate largest N the adaptive factor may lead to
+     */
+    public PacketSampler(int rate, Mode mode, Map<String, Integer> ingressRates, int maxRate) {
+        this.mode = mode;
+        this.global = new Counter(Math.max(1, rate));
+        this.maxRate = Math.max(1, maxRate);
+        Map<String, Counter> counters = new HashMap<>();
+        for (Map.Entry<String, Integer> entry : ingressRates.entrySet()) {
+            counters.put(entry.getKey(), new Counter(Math.max(1, entry.getValue())));
+        }
+        this.ingresses = counters.isEmpty() ? Collections.<String, Counter>emptyMap() : counters;
+    }
+
+    private static Mode parseMode(String mode) {
+        try {
+            return Mode.valueOf(mode.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            LOG.warn("[Siwind] Unknown sampling mode {}, sampling deterministically", mode);
+            return Mode.DETERMINISTIC;
+        }
+    }
+
+    /**
+     * @param spec comma separated node connector id=N, e.g. openflow:1:2=100
+     */
+    static Map<String, Integer> parseRates(String spec) {
+        Map<String, Integer> rates = new HashMap<>();
+        for (String token : spec.split(",")) {
+            if (token.trim().isEmpty()) {
+                continue;
+            }
+            int equals = token.lastIndexOf('=');
+            try {
+                if (equals <= 0) {
+                    throw new NumberFormatException();
+                }
+                rates.put(token.substring(0, equals).trim(), Integer.parseInt(token.substring(equals + 1).trim()));
+            } catch (NumberFormatException e) {
+                LOG.warn("[Siwind] Invalid sampling rate {} in sampling-ingress-rates, ignored", token.trim());
+            }
+        }
+        return rates;
+    }
+
+    /**
+     * @return whether every packet is kept, whatever the load
+     */
+    public boolean isDisabled() {
+        return global.rate == 1 && ingresses.isEmpty() && maxRate == 1;
+    }
+
+    /**
+     * Decide whether to keep a packet.
+     *
+     * @return N the packet stands for, 0 to skip it
+     */
+    public int sample(NodeConnectorRef ingress) {
+        Counter counter = global;
+        if (!ingresses.isEmpty() && ingress != null) {
+            NodeConnectorKey key = ingress.getValue().firstKeyOf(NodeConnector.class);
+            Counter own = key != null ? ingresses.get(key.getId().getValue()) : null;
+            if (own != null) {
+                counter = own;
+            }
+        }
+        int rate = counter.effectiveRate;
+        if (rate > 1) {
+            if (mode == Mode.RANDOM) {
+                if (ThreadLocalRandom.current().nextInt(rate) != 0) {
+                    return 0;
+                }
+            } else if (--counter.skip > 0) {
+                return 0;
+            } else {
+                counter.skip = rate;
+            }
+        }
+        sampled.increment();
+        return rate;
+    }
+
+    /**
+     * Adjust the factor to the fullest consumer queue.
+     *
+     * @param queueFillPercent fill of the fullest queue
+     */
+    public void adapt(int queueFillPercent) {
+        int current = factor;
+        int next = current;
+        if (queueFillPercent > HIGH_WATERMARK && current < maxRate) {
+            next = current << 1;
+        } else if (queueFillPercent < LOW_WATERMARK && current > 1) {
+            next = current >> 1;
+        }
+        if (next == current) {
+            return;
+        }
+        factor = next;
+        update(global, next);
+        for (Counter counter : ingresses.values()) {
+            update(counter, next);
+        }
+        LOG.info("[Siwind] Sampling factor {}, queue fill {}%", next, queueFillPercent);
+    }
+
+    private void update(Counter counter, int factor) {
+        counter.effectiveRate = (int) Math.min(Math.max(counter.rate, maxRate), (long) counter.rate * factor);
+    }
+
+    /**
+     * @return current N of ingresses without a rate of their own
+     */
+    public int getRate() {
+        return global.effectiveRate;
+    }
+
+    public int getFactor() {
+        return factor;
+    }
+
+    /**
+     * @return packets kept
+     */
+    public long getSampled() {
+        return sampled.sum();
+    }
+}
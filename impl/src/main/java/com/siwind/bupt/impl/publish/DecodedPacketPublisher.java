@@ -0,0 +1,209 @@
+/*
+ * Copyright © 2016 siwind, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package com.siwind.bupt.impl.publish;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.opendaylight.controller.md.sal.binding.api.NotificationPublishService;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.getpacket.rev150105.DecodedPackets;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.getpacket.rev150105.DecodedPacketsBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.getpacket.rev150105.decoded.packets.Packet;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.getpacket.rev150105.decoded.packets.PacketBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.siwind.bupt.api.DecodedPacket;
+import com.siwind.bupt.api.PacketConsumer;
+import com.siwind.bupt.api.PacketField;
+import com.siwind.bupt.impl.GetpacketConfig;
+
+/**
+ * Packet consumer republishing the received packets, decoded, in batches of
+ * decoded-packets notifications, so other applications need not decode the raw
+ * packet-ins again.
+ *
+ * <p>Packets are queued and published from a dedicated thread. A notification
+ * is published when it is full or when its first packet has waited the batch
+ * interval. While the notification queue of the broker is full the thread waits
+ * for room up to the offer timeout, then drops the notification; packets arriving
+ * meanwhile fill the bounded queue and are dropped when it is full, so the
+ * notification thread never blocks.
+ */
+public class DecodedPacketPublisher implements PacketConsumer, AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(DecodedPacketPublisher.class);
+
+    private static final long POLL_MS = 100;
+
+    private final NotificationPublishService publishService;
+    private final int batchSize;
+    private final long batchIntervalNanos;
+    private final int offerTimeoutMs;
+    private final BlockingQueue<DecodedPacket> queue;
+    private final Thread publisher;
+
+    private volatile boolean running = false;
+
+    private final AtomicLong published = new AtomicLong();
+    private final AtomicLong notifications = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+
+    public DecodedPacketPublisher(NotificationPublishService publishService, GetpacketConfig config) {
+        this.publishService = publishService;
+        this.batchSize = Math.max(1, config.getPublishBatchSize());
+        this.batchIntervalNanos = TimeUnit.MILLISECONDS.toNanos(config.getPublishBatchIntervalMs());
+        this.offerTimeoutMs = config.getPublishOfferTimeoutMs();
+        this.queue = new ArrayBlockingQueue<>(config.getPublishQueueSize());
+        this.publisher = new Thread(this::run, "getpacket-publish");
+        this.publisher.setDaemon(true);
+    }
+
+    public void start() {
+        running = true;
+        publisher.start();
+    }
+
+    @Override
+    public String getName() {
+        return "publish";
+    }
+
+    @Override
+    public Set<PacketField> getRequiredFields() {
+        return EnumSet.of(PacketField.INGRESS, PacketField.PORTS);
+    }
+
+    /**
+     * Only queues the packet, it is decoded on the publisher thread.
+     */
+    @Override
+    public boolean isInline() {
+        return true;
+    }
+
+    @Override
+    public void onPacket(DecodedPacket packet) {
+        if (!queue.offer(packet)) {
+            dropped.incrementAndGet();
+        }
+    }
+
+    private void run() {
+        List<DecodedPacket> batch = new ArrayList<>(batchSize);
+        while (running) {
+            try {
+                DecodedPacket first = queue.poll(POLL_MS, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                long deadline = System.nanoTime() + batchIntervalNanos;
+                while (batch.size() < batchSize) {
+                    if (queue.drainTo(batch, batchSize - batch.size()) > 0) {
+                        continue;
+                    }
+                    long wait = deadline - System.nanoTime();
+                    DecodedPacket next = wait > 0 ? queue.poll(wait, TimeUnit.NANOSECONDS) : null;
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+                publish(batch);
+            } catch (InterruptedException e) {
+                break;
+            } catch (RuntimeException e) {
+                LOG.warn("[Siwind] Failed to publish {} decoded packets", batch.size(), e);
+            }
+            batch.clear();
+        }
+    }
+
+    private void publish(List<DecodedPacket> batch) throws InterruptedException {
+        List<Packet> packets = new ArrayList<>(batch.size());
+        for (DecodedPacket packet : batch) {
+            packets.add(toRecord(packet));
+        }
+        DecodedPackets notification = new DecodedPacketsBuilder().setPacket(packets).build();
+
+        ListenableFuture<?> result = publishService.offerNotification(notification, offerTimeoutMs,
+                TimeUnit.MILLISECONDS);
+        if (result == NotificationPublishService.REJECTED) {
+            if (rejected.getAndAdd(batch.size()) == 0) {
+                LOG.warn("[Siwind] Notification queue full, dropping decoded packets, further drops are only counted");
+            }
+            return;
+        }
+        notifications.incrementAndGet();
+        published.addAndGet(batch.size());
+    }
+
+    private static Packet toRecord(DecodedPacket packet) {
+        PacketBuilder builder = new PacketBuilder()
+                .setIngress(packet.getIngress())
+                .setTimestamp(BigInteger.valueOf(packet.getTimestampMillis()));
+        if (packet.getEtherType() >= 0) {
+            builder.setEtherType(packet.getEtherType());
+        }
+        if (packet.isIpv4() || packet.isIpv6()) {
+            builder.setSrcIp(packet.getSrcIpString())
+                    .setDstIp(packet.getDstIpString())
+                    .setProtocol(packet.getProtocol());
+        }
+        if (packet.hasPorts()) {
+            builder.setSrcPort(packet.getSrcPort())
+                    .setDstPort(packet.getDstPort());
+        }
+        return builder.build();
+    }
+
+    /**
+     * @return packets published
+     */
+    public long getPublished() {
+        return published.get();
+    }
+
+    public long getNotifications() {
+        return notifications.get();
+    }
+
+    /**
+     * @return packets dropped because the notification queue stayed full
+     */
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    /**
+     * @return packets dropped because the publisher could not keep up
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        publisher.interrupt();
+    }
+}
@@ -0,0 +1,485 @@
+/*
+ * Copyright © 2016 siwind, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package com.siwind.bupt.impl.stats;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.pool.PoolStats;
+
+import com.siwind.bupt.impl.GetpacketConfig;
+import com.siwind.bupt.impl.export.ReceiverExporter;
+import com.siwind.bupt.impl.export.TridentExporter;
+import com.siwind.bupt.impl.pipeline.PacketPipeline;
+import com.siwind.bupt.impl.trace.LatencyTracer;
+
+/**
+ * Reads the counters of the pipeline, its consumers and the Trident receivers
+ * every interval into an immutable {@link Snapshot}, with the rates since the
+ * previous one. Management reads the snapshot, never the live components, so
+ * running a command under load costs the packet path nothing.
+ *
+ * <p>Counters are reported since the last {@link #reset()}, which only moves
+ * their baseline; the components themselves are never written to. A reset also
+ * restarts the latency percentiles and the top talkers.
+ */
+public class StatsCollector implements AutoCloseable {
+
+    private static final int DELIVERED = 0;
+    private static final int CONSUMER_DROPPED = 1;
+    private static final int CONSUMER_FAILED = 2;
+
+    private static final int OFFERED = 0;
+    private static final int EXPORTED = 1;
+    private static final int EXPORT_FAILED = 2;
+    private static final int SPILLED = 3;
+    private static final int REPLAYED = 4;
+    private static final int EXPORT_DROPPED = 5;
+
+    private final PacketPipeline pipeline;
+    private final long intervalMs;
+    private final ScheduledExecutorService collector;
+
+    /**
+     * heaviest talkers of every datapath, null when disabled
+     */
+    private final TopTalkers topTalkers;
+
+    private volatile TridentExporter exporter = null;
+
+    // guarded by this
+    private Counters previous = null;
+    private Counters baseline = Counters.EMPTY;
+
+    private volatile Snapshot snapshot = null;
+
+    public StatsCollector(GetpacketConfig config, PacketPipeline pipeline) {
+        this.pipeline = pipeline;
+        this.intervalMs = config.getStatsIntervalMs();
+        this.topTalkers = config.isTopTalkersEnabled() ? new TopTalkers(config) : null;
+        this.collector = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "getpacket-stats");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Method called when the blueprint container is created.
+     */
+    public void init() {
+        if (topTalkers != null) {
+            pipeline.addConsumer(topTalkers);
+        }
+        collector.scheduleWithFixedDelay(this::collect, 0, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @param exporter the running exporter, null once closed
+     */
+    public void setExporter(TridentExporter exporter) {
+        this.exporter = exporter;
+    }
+
+    synchronized void collect() {
+        Counters current = Counters.read(pipeline, exporter, System.currentTimeMillis());
+        snapshot = new Snapshot(current, previous, baseline, exporter);
+        previous = current;
+    }
+
+    /**
+     * @return the statistics as of the last interval
+     */
+    public Snapshot getSnapshot() {
+        Snapshot current = snapshot;
+        if (current == null) {
+            collect();
+            current = snapshot;
+        }
+        return current;
+    }
+
+    /**
+     * @return heaviest talkers by datapath, empty when not counted
+     */
+    public Map<String, List<TopTalkers.Talker>> getTopTalkers() {
+        return topTalkers == null ? Collections.emptyMap() : topTalkers.getSnapshot();
+    }
+
+    /**
+     * Restart the counters, latency percentiles and top talkers from zero.
+     */
+    public synchronized void reset() {
+        baseline = Counters.read(pipeline, exporter, System.currentTimeMillis());
+        LatencyTracer tracer = pipeline.getLatencyTracer();
+        if (tracer != null) {
+            tracer.reset();
+        }
+        if (topTalkers != null) {
+            topTalkers.reset();
+        }
+        collect();
+    }
+
+    /**
+     * Method called when the blueprint container is destroyed.
+     */
+    @Override
+    public void close() {
+        collector.shutdownNow();
+        if (topTalkers != null) {
+            pipeline.removeConsumer(topTalkers);
+        }
+    }
+
+    private static long since(long value, long base) {
+        return Math.max(0, value - base);
+    }
+
+    /**
+     * @return per second rate of a counter between two readings, 0 without an earlier one
+     */
+    private static long rate(long value, long earlier, long elapsedMillis) {
+        return elapsedMillis <= 0 || value < earlier ? 0 : (value - earlier) * 1000 / elapsedMillis;
+    }
+
+    /**
+     * Raw counters at some point in time.
+     */
+    private static final class Counters {
+
+        static final Counters EMPTY = new Counters(0, 0, 0, Collections.emptyMap(), Collections.emptyMap());
+
+        final long timeMillis;
+        final long received;
+        final long duplicates;
+        final Map<String, long[]> consumers;
+        final Map<String, long[]> receivers;
+
+        Counters(long timeMillis, long received, long duplicates, Map<String, long[]> consumers,
+                Map<String, long[]> receivers) {
+            this.timeMillis = timeMillis;
+            this.received = received;
+            this.duplicates = duplicates;
+            this.consumers = consumers;
+            this.receivers = receivers;
+        }
+
+        static Counters read(PacketPipeline pipeline, TridentExporter exporter, long nowMillis) {
+            Map<String, long[]> consumers = new HashMap<>();
+            for (PacketPipeline.ConsumerStats stats : pipeline.getConsumerStats()) {
+                consumers.put(stats.getName(),
+                        new long[] { stats.getDelivered(), stats.getDropped(), stats.getFailed() });
+            }
+            Map<String, long[]> receivers = new HashMap<>();
+            if (exporter != null) {
+                for (ReceiverExporter receiver : exporter.getReceivers()) {
+                    receivers.put(receiver.getUrl(), new long[] { receiver.getOffered(), receiver.getExported(),
+                        receiver.getFailed(), receiver.getSpilled(), receiver.getReplayed(),
+                        receiver.getDropped() });
+                }
+            }
+            return new Counters(nowMillis, pipeline.getReceived(), pipeline.getDuplicates(), consumers,
+                    receivers);
+        }
+
+        long[] consumer(String name, int size) {
+            long[] values = consumers.get(name);
+            return values != null ? values : new long[size];
+        }
+
+        long[] receiver(String url, int size) {
+            long[] values = receivers.get(url);
+            return values != null ? values : new long[size];
+        }
+    }
+
+    /**
+     * Statistics at the end of an interval, counters since the last reset and
+     * rates per second over the interval.
+     */
+    public static final class Snapshot {
+        private final long timestampMillis;
+        private final long received;
+        private final long receivedRate;
+        private final long duplicates;
+        private final List<ConsumerSnapshot> consumers;
+        private final List<ReceiverSnapshot> receivers;
+
+        Snapshot(Counters current, Counters previous, Counters baseline, TridentExporter exporter) {
+            long elapsed = previous == null ? 0 : current.timeMillis - previous.timeMillis;
+            Counters earlier = previous == null ? current : previous;
+            this.timestampMillis = current.timeMillis;
+            this.received = since(current.received, baseline.received);
+            this.receivedRate = rate(current.received, earlier.received, elapsed);
+            this.duplicates = since(current.duplicates, baseline.duplicates);
+
+            List<ConsumerSnapshot> consumerList = new ArrayList<>(current.consumers.size());
+            for (Map.Entry<String, long[]> entry : current.consumers.entrySet()) {
+                long[] now = entry.getValue();
+                long[] before = earlier.consumer(entry.getKey(), now.length);
+                long[] base = baseline.consumer(entry.getKey(), now.length);
+                consumerList.add(new ConsumerSnapshot(entry.getKey(), since(now[DELIVERED], base[DELIVERED]),
+                        rate(now[DELIVERED], before[DELIVERED], elapsed),
+                        since(now[CONSUMER_DROPPED], base[CONSUMER_DROPPED]),
+                        since(now[CONSUMER_FAILED], base[CONSUMER_FAILED])));
+            }
+            consumerList.sort((a, b) -> a.name.compareTo(b.name));
+            this.consumers = Collections.unmodifiableList(consumerList);
+
+            List<ReceiverSnapshot> receiverList = new ArrayList<>();
+            if (exporter != null) {
+                for (ReceiverExporter receiver : exporter.getReceivers()) {
+                    long[] now = current.receiver(receiver.getUrl(), EXPORT_DROPPED + 1);
+                    long[] before = earlier.receiver(receiver.getUrl(), now.length);
+                    long[] base = baseline.receiver(receiver.getUrl(), now.length);
+                    long[] counters = new long[now.length];
+                    for (int i = 0; i < now.length; i++) {
+                        counters[i] = since(now[i], base[i]);
+                    }
+                    receiverList.add(new ReceiverSnapshot(receiver, counters,
+                            rate(now[EXPORTED], before[EXPORTED], elapsed)));
+                }
+            }
+            this.receivers = Collections.unmodifiableList(receiverList);
+        }
+
+        /**
+         * @return time the counters were read at, in milliseconds since the epoch
+         */
+        public long getTimestampMillis() {
+            return timestampMillis;
+        }
+
+        public long getReceived() {
+            return received;
+        }
+
+        /**
+         * @return packet-ins per second
+         */
+        public long getReceivedRate() {
+            return receivedRate;
+        }
+
+        public long getDuplicates() {
+            return duplicates;
+        }
+
+        public List<ConsumerSnapshot> getConsumers() {
+            return consumers;
+        }
+
+        public List<ReceiverSnapshot> getReceivers() {
+            return receivers;
+        }
+
+        /**
+         * @return records exported by all receivers
+         */
+        public long getExported() {
+            long exported = 0;
+            for (ReceiverSnapshot receiver : receivers) {
+                exported += receiver.exported;
+            }
+            return exported;
+        }
+
+        /**
+         * @return records per second exported by all receivers
+         */
+        public long getExportRate() {
+            long rate = 0;
+            for (ReceiverSnapshot receiver : receivers) {
+                rate += receiver.exportRate;
+            }
+            return rate;
+        }
+
+        /**
+         * @return records dropped by all receivers
+         */
+        public long getExportDropped() {
+            long dropped = 0;
+            for (ReceiverSnapshot receiver : receivers) {
+                dropped += receiver.dropped;
+            }
+            return dropped;
+        }
+    }
+
+    /**
+     * Statistics of a packet consumer.
+     */
+    public static final class ConsumerSnapshot {
+        private final String name;
+        private final long delivered;
+        private final long deliveredRate;
+        private final long dropped;
+        private final long failed;
+
+        ConsumerSnapshot(String name, long delivered, long deliveredRate, long dropped, long failed) {
+            this.name = name;
+            this.delivered = delivered;
+            this.deliveredRate = deliveredRate;
+            this.dropped = dropped;
+            this.failed = failed;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getDelivered() {
+            return delivered;
+        }
+
+        /**
+         * @return packets per second delivered
+         */
+        public long getDeliveredRate() {
+            return deliveredRate;
+        }
+
+        /**
+         * @return packets dropped because the consumer's queue was full
+         */
+        public long getDropped() {
+            return dropped;
+        }
+
+        public long getFailed() {
+            return failed;
+        }
+    }
+
+    /**
+     * Health, queue and connection pool of a Trident receiver.
+     */
+    public static final class ReceiverSnapshot {
+        private final String url;
+        private final String state;
+        private final int queueDepth;
+        private final long offered;
+        private final long exported;
+        private final long exportRate;
+        private final long failed;
+        private final long spilled;
+        private final long replayed;
+        private final long dropped;
+        private final long spillPending;
+        private final int poolLeased;
+        private final int poolAvailable;
+        private final int poolPending;
+        private final int poolMax;
+
+        ReceiverSnapshot(ReceiverExporter receiver, long[] counters, long exportRate) {
+            this.url = receiver.getUrl();
+            this.state = receiver.getBreaker().getState().name().toLowerCase(Locale.ROOT).replace('_', '-');
+            this.queueDepth = receiver.getQueueDepth();
+            this.offered = counters[OFFERED];
+            this.exported = counters[EXPORTED];
+            this.exportRate = exportRate;
+            this.failed = counters[EXPORT_FAILED];
+            this.spilled = counters[SPILLED];
+            this.replayed = counters[REPLAYED];
+            this.dropped = counters[EXPORT_DROPPED];
+            this.spillPending = receiver.getSpillPending();
+            PoolStats pool = receiver.getPoolStats();
+            this.poolLeased = pool == null ? 0 : pool.getLeased();
+            this.poolAvailable = pool == null ? 0 : pool.getAvailable();
+            this.poolPending = pool == null ? 0 : pool.getPending();
+            this.poolMax = pool == null ? 0 : pool.getMax();
+        }
+
+        public String getUrl() {
+            return url;
+        }
+
+        /**
+         * @return state of the circuit breaker: closed, open or half-open
+         */
+        public String getState() {
+            return state;
+        }
+
+        public int getQueueDepth() {
+            return queueDepth;
+        }
+
+        public long getOffered() {
+            return offered;
+        }
+
+        public long getExported() {
+            return exported;
+        }
+
+        /**
+         * @return records per second exported
+         */
+        public long getExportRate() {
+            return exportRate;
+        }
+
+        public long getFailed() {
+            return failed;
+        }
+
+        public long getSpilled() {
+            return spilled;
+        }
+
+        public long getReplayed() {
+            return replayed;
+        }
+
+        public long getDropped() {
+            return dropped;
+        }
+
+        /**
+         * @return records waiting in the spill journal
+         */
+        public long getSpillPending() {
+            return spillPending;
+        }
+
+        /**
+         * @return connections in use
+         */
+        public int getPoolLeased() {
+            return poolLeased;
+        }
+
+        /**
+         * @return idle connections kept alive
+         */
+        public int getPoolAvailable() {
+            return poolAvailable;
+        }
+
+        /**
+         * @return requests waiting for a connection
+         */
+        public int getPoolPending() {
+            return poolPending;
+        }
+
+        public int getPoolMax() {
+            return poolMax;
+        }
+    }
+}
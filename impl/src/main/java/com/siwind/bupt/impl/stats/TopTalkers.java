@@ -0,0 +1,281 @@
+/*
+ * Copyright © 2016 siwind, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package com.siwind.bupt.impl.stats;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import com.siwind.bupt.api.DecodedPacket;
+import com.siwind.bupt.api.PacketConsumer;
+import com.siwind.bupt.api.PacketField;
+import com.siwind.bupt.impl.GetpacketConfig;
+import com.siwind.bupt.impl.util.NetUtils;
+
+/**
+ * Packet consumer finding the source addresses sending the most packet-ins of
+ * every datapath, with the Space-Saving algorithm: each datapath keeps a fixed
+ * number of counters, and an address without one takes over the smallest,
+ * inheriting its count as an overestimate. Any address sending more than
+ * 1/capacity of the packets of a datapath is guaranteed to be kept.
+ *
+ * <p>The counters are only touched by the consumer thread. Every interval it
+ * publishes an immutable snapshot, which is what readers get, so reading never
+ * waits on packets; the snapshot is not renewed while no packet comes in.
+ */
+public class TopTalkers implements PacketConsumer {
+
+    private final int capacity;
+    private final long intervalMs;
+
+    // consumer thread only
+    private final Map<String, Counters> byIngress = new HashMap<>();
+    private final Map<String, Counters> byDatapath = new TreeMap<>();
+    private final Address probe = new Address(0, 0);
+    private long lastPublished = 0;
+
+    private volatile boolean resetRequested = false;
+
+    private volatile Map<String, List<Talker>> snapshot = Collections.emptyMap();
+
+    public TopTalkers(GetpacketConfig config) {
+        this(config.getTopTalkersCapacity(), config.getStatsIntervalMs());
+    }
+
+    /**
+     * @param capacity addresses counted per datapath
+     * @param intervalMs milliseconds between two snapshots
+     */
+    public TopTalkers(int capacity, long intervalMs) {
+        this.capacity = Math.max(1, capacity);
+        this.intervalMs = intervalMs;
+    }
+
+    @Override
+    public String getName() {
+        return "top-talkers";
+    }
+
+    @Override
+    public Set<PacketField> getRequiredFields() {
+        return EnumSet.of(PacketField.INGRESS, PacketField.IPV4, PacketField.IPV6);
+    }
+
+    /**
+     * Queued, so the hash lookups run on a thread of their own.
+     */
+    @Override
+    public boolean isInline() {
+        return false;
+    }
+
+    @Override
+    public void onPacket(DecodedPacket packet) {
+        if (resetRequested) {
+            resetRequested = false;
+            byIngress.clear();
+            byDatapath.clear();
+        }
+        String ingress = packet.getIngress();
+        if (ingress != null && (packet.isIpv4() || packet.isIpv6())) {
+            Counters counters = byIngress.get(ingress);
+            if (counters == null) {
+                String datapath = datapathOf(ingress);
+                counters = byDatapath.computeIfAbsent(datapath, d -> new Counters(capacity));
+                byIngress.put(ingress, counters);
+            }
+            if (packet.isIpv4()) {
+                // IPv4-mapped, printed in dotted form
+                probe.set(0, 0xFFFF00000000L | packet.getSrcIp() & 0xFFFFFFFFL);
+            } else {
+                probe.set(packet.getSrcIpv6Hi(), packet.getSrcIpv6Lo());
+            }
+            int rate = packet.getSamplingRate();
+            counters.add(probe, rate, (long) packet.getPayload().length * rate);
+        }
+
+        long now = packet.getTimestampMillis();
+        if (now - lastPublished >= intervalMs) {
+            lastPublished = now;
+            publish();
+        }
+    }
+
+    /**
+     * @return datapath of a node connector, e.g. openflow:1 for openflow:1:2
+     */
+    static String datapathOf(String ingress) {
+        int end = ingress.lastIndexOf(':');
+        return end > 0 ? ingress.substring(0, end) : ingress;
+    }
+
+    private void publish() {
+        Map<String, List<Talker>> published = new TreeMap<>();
+        for (Map.Entry<String, Counters> entry : byDatapath.entrySet()) {
+            published.put(entry.getKey(), entry.getValue().top());
+        }
+        snapshot = Collections.unmodifiableMap(published);
+    }
+
+    /**
+     * @return heaviest talkers by datapath, as of the last snapshot
+     */
+    public Map<String, List<Talker>> getSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * Forget all talkers, from the next packet on.
+     */
+    public void reset() {
+        resetRequested = true;
+        snapshot = Collections.emptyMap();
+    }
+
+    /**
+     * A heavy talker of a datapath.
+     */
+    public static final class Talker {
+        private final String address;
+        private final long packets;
+        private final long bytes;
+        private final long error;
+
+        Talker(String address, long packets, long bytes, long error) {
+            this.address = address;
+            this.packets = packets;
+            this.bytes = bytes;
+            this.error = error;
+        }
+
+        public String getAddress() {
+            return address;
+        }
+
+        /**
+         * @return packet-ins counted, at most {@link #getError()} too many
+         */
+        public long getPackets() {
+            return packets;
+        }
+
+        /**
+         * @return bytes of the packet-ins counted, overestimated like the packets
+         */
+        public long getBytes() {
+            return bytes;
+        }
+
+        /**
+         * @return packets inherited from the address counted before
+         */
+        public long getError() {
+            return error;
+        }
+    }
+
+    /**
+     * IPv6 address, or IPv4-mapped one.
+     */
+    private static final class Address {
+        long hi;
+        long lo;
+
+        Address(long hi, long lo) {
+            set(hi, lo);
+        }
+
+        void set(long hi, long lo) {
+            this.hi = hi;
+            this.lo = lo;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Address)) {
+                return false;
+            }
+            Address other = (Address) o;
+            return hi == other.hi && lo == other.lo;
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(hi * 31 + lo);
+        }
+
+        @Override
+        public String toString() {
+            if (hi == 0 && lo >>> 32 == 0xFFFF) {
+                return NetUtils.toIPv4String((int) lo);
+            }
+            return NetUtils.toIPv6String(hi, lo);
+        }
+    }
+
+    private static final class Counter {
+        Address address;
+        long packets;
+        long bytes;
+        long error;
+    }
+
+    /**
+     * The Space-Saving counters of a datapath.
+     */
+    private static final class Counters {
+        private final int capacity;
+        private final Map<Address, Counter> counters = new HashMap<>();
+
+        Counters(int capacity) {
+            this.capacity = capacity;
+        }
+
+        void add(Address probe, long packets, long bytes) {
+            Counter counter = counters.get(probe);
+            if (counter == null) {
+                if (counters.size() < capacity) {
+                    counter = new Counter();
+                } else {
+                    counter = smallest();
+                    counters.remove(counter.address);
+                    counter.error = counter.packets;
+                }
+                counter.address = new Address(probe.hi, probe.lo);
+                counters.put(counter.address, counter);
+            }
+            counter.packets += packets;
+            counter.bytes += bytes;
+        }
+
+        private Counter smallest() {
+            Counter smallest = null;
+            for (Counter counter : counters.values()) {
+                if (smallest == null || counter.packets < smallest.packets) {
+                    smallest = counter;
+                }
+            }
+            return smallest;
+        }
+
+        List<Talker> top() {
+            List<Counter> sorted = new ArrayList<>(counters.values());
+            sorted.sort((a, b) -> Long.compare(b.packets, a.packets));
+            List<Talker> talkers = new ArrayList<>(sorted.size());
+            for (Counter counter : sorted) {
+                talkers.add(new Talker(counter.address.toString(), counter.packets, counter.bytes, counter.error));
+            }
+            return Collections.unmodifiableList(talkers);
+        }
+    }
+}
@@ -0,0 +1,225 @@
+/*
+ * Copyright © 2016 siwind, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package com.siwind.bupt.impl.subnet;
+
+import java.util.Arrays;
+
+/**
+ * Immutable longest prefix match table of IPv4 and IPv6 prefixes to int values.
+ *
+ * <p>A path compressed binary trie over 128 bit keys held as two longs, IPv4
+ * addresses being mapped to ::ffff:0:0/96. Only nodes with a value or two
+ * children are kept, each with its whole prefix, in primitive arrays. A lookup
+ * follows at most one node per prefix bit and does not allocate. Tables are
+ * built by a {@link Builder} and replaced as a whole.
+ */
+public final class PrefixTrie {
+
+    /**
+     * value of addresses matching no prefix
+     */
+    public static final int NONE = -1;
+
+    private static final long IPV4_MAPPED = 0xFFFF00000000L;
+
+    private static final int IPV4_MAPPED_LENGTH = 96;
+
+    public static final PrefixTrie EMPTY = new Builder().build();
+
+    private final long[] keyHi;
+    private final long[] keyLo;
+    private final int[] lengths;
+    private final int[] values;
+    private final int[] child0;
+    private final int[] child1;
+    private final int prefixes;
+
+    private PrefixTrie(long[] keyHi, long[] keyLo, int[] lengths, int[] values, int[] child0, int[] child1,
+            int prefixes) {
+        this.keyHi = keyHi;
+        this.keyLo = keyLo;
+        this.lengths = lengths;
+        this.values = values;
+        this.child0 = child0;
+        this.child1 = child1;
+        this.prefixes = prefixes;
+    }
+
+    /**
+     * @return value of the longest prefix containing the IPv4 address, else NONE
+     */
+    public int lookup(int ipv4) {
+        return lookup(0, IPV4_MAPPED | ipv4 & 0xFFFFFFFFL);
+    }
+
+    /**
+     * @return value of the longest prefix containing the IPv6 address, else NONE
+     */
+    public int lookup(long hi, long lo) {
+        int best = NONE;
+        int node = 0;
+        while (node >= 0) {
+            int length = lengths[node];
+            if (!matches(node, hi, lo, length)) {
+                break;
+            }
+            if (values[node] != NONE) {
+                best = values[node];
+            }
+            if (length == 128) {
+                break;
+            }
+            node = bit(hi, lo, length) == 0 ? child0[node] : child1[node];
+        }
+        return best;
+    }
+
+    private boolean matches(int node, long hi, long lo, int length) {
+        if (length <= 64) {
+            return length == 0 || ((hi ^ keyHi[node]) & -1L << 64 - length) == 0;
+        }
+        return hi == keyHi[node] && ((lo ^ keyLo[node]) & -1L << 128 - length) == 0;
+    }
+
+    private static int bit(long hi, long lo, int index) {
+        return (int) (index < 64 ? hi >>> 63 - index : lo >>> 127 - index) & 1;
+    }
+
+    /**
+     * @return number of prefixes
+     */
+    public int size() {
+        return prefixes;
+    }
+
+    /**
+     * Collects prefixes and builds a trie of them.
+     */
+    public static final class Builder {
+
+        private static final class Node {
+            final Node[] children = new Node[2];
+            int value = NONE;
+        }
+
+        private final Node root = new Node();
+        private int prefixes = 0;
+
+        /**
+         * Add an IPv4 prefix, replacing the value of the same prefix.
+         */
+        public Builder add(int ipv4, int length, int value) {
+            if (length < 0 || length > 32) {
+                throw new IllegalArgumentException("Invalid IPv4 prefix length " + length);
+            }
+            return add(0, IPV4_MAPPED | ipv4 & 0xFFFFFFFFL, IPV4_MAPPED_LENGTH + length, value);
+        }
+
+        /**
+         * Add an IPv6 prefix, replacing the value of the same prefix.
+         */
+        public Builder add(long hi, long lo, int length, int value) {
+            if (length < 0 || length > 128) {
+                throw new IllegalArgumentException("Invalid IPv6 prefix length " + length);
+            }
+            if (value < 0) {
+                throw new IllegalArgumentException("Negative value " + value);
+            }
+            Node node = root;
+            for (int i = 0; i < length; i++) {
+                int b = bit(hi, lo, i);
+                if (node.children[b] == null) {
+                    node.children[b] = new Node();
+                }
+                node = node.children[b];
+            }
+            if (node.value == NONE) {
+                prefixes++;
+            }
+            node.value = value;
+            return this;
+        }
+
+        public PrefixTrie build() {
+            NodeArrays arrays = new NodeArrays();
+            emit(root, 0, 0, 0, arrays);
+            int n = arrays.size;
+            return new PrefixTrie(Arrays.copyOf(arrays.keyHi, n), Arrays.copyOf(arrays.keyLo, n),
+                    Arrays.copyOf(arrays.lengths, n), Arrays.copyOf(arrays.values, n),
+                    Arrays.copyOf(arrays.child0, n), Arrays.copyOf(arrays.child1, n), prefixes);
+        }
+
+        /**
+         * Emit a node and the nodes below it, skipping the nodes without a value
+         * which have a single child.
+         *
+         * @return index of the emitted node
+         */
+        private static int emit(Node node, long hi, long lo, int length, NodeArrays arrays) {
+            int index = arrays.add(hi, lo, length, node.value);
+            for (int b = 0; b < 2; b++) {
+                Node child = node.children[b];
+                if (child == null) {
+                    continue;
+                }
+                long childHi = length < 64 ? hi | (long) b << 63 - length : hi;
+                long childLo = length < 64 ? lo : lo | (long) b << 127 - length;
+                int childLength = length + 1;
+                while (child.value == NONE && (child.children[0] == null) != (child.children[1] == null)) {
+                    int next = child.children[0] != null ? 0 : 1;
+                    if (childLength < 64) {
+                        childHi |= (long) next << 63 - childLength;
+                    } else {
+                        childLo |= (long) next << 127 - childLength;
+                    }
+                    child = child.children[next];
+                    childLength++;
+                }
+                int childIndex = emit(child, childHi, childLo, childLength, arrays);
+                if (b == 0) {
+                    arrays.child0[index] = childIndex;
+                } else {
+                    arrays.child1[index] = childIndex;
+                }
+            }
+            return index;
+        }
+    }
+
+    /**
+     * Growable node arrays used while building.
+     */
+    private static final class NodeArrays {
+        long[] keyHi = new long[16];
+        long[] keyLo = new long[16];
+        int[] lengths = new int[16];
+        int[] values = new int[16];
+        int[] child0 = new int[16];
+        int[] child1 = new int[16];
+        int size = 0;
+
+        int add(long hi, long lo, int length, int value) {
+            if (size == lengths.length) {
+                int capacity = size * 2;
+                keyHi = Arrays.copyOf(keyHi, capacity);
+                keyLo = Arrays.copyOf(keyLo, capacity);
+                lengths = Arrays.copyOf(lengths, capacity);
+                values = Arrays.copyOf(values, capacity);
+                child0 = Arrays.copyOf(child0, capacity);
+                child1 = Arrays.copyOf(child1, capacity);
+            }
+            keyHi[size] = hi;
+            keyLo[size] = lo;
+            lengths[size] = length;
+            values[size] = value;
+            child0[size] = -1;
+            child1[size] = -1;
+            return size++;
+        }
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright © 2016 siwind, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package com.siwind.bupt.impl.subnet;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.siwind.bupt.impl.GetpacketConfig;
+import com.siwind.bupt.impl.util.NetUtils;
+
+/**
+ * Tags addresses with the tenant, site and segment of the longest configured
+ * prefix containing them. The tags are given as prefix=tenant:site:segment
+ * entries, e.g. {@code 10.1.0.0/16=1:2:3, 2001:db8::/32=1:4:0}.
+ *
+ * <p>Lookups go to a {@link PrefixTrie} and return a tag string formatted once
+ * when the tags are set, so they do not allocate. Setting the tags builds a new
+ * trie and swaps it in at once; lookups in progress finish on the old one.
+ */
+public class SubnetTagger {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SubnetTagger.class);
+
+    private final boolean taggedOnly;
+
+    private volatile Tags tags = new Tags(PrefixTrie.EMPTY, new String[0], "");
+
+    public SubnetTagger(GetpacketConfig config) {
+        this.taggedOnly = config.isExportTaggedOnly();
+        try {
+            update(config.getSubnetTags());
+        } catch (IllegalArgumentException e) {
+            LOG.warn("[Siwind] Invalid subnet-tags, no subnet is tagged: {}", e.getMessage());
+        }
+    }
+
+    private static final class Tags {
+        final PrefixTrie trie;
+        final String[] values;
+        final String spec;
+
+        Tags(PrefixTrie trie, String[] values, String spec) {
+            this.trie = trie;
+            this.values = values;
+            this.spec = spec;
+        }
+    }
+
+    /**
+     * Replace the tags.
+     *
+     * @param spec comma separated prefix=tenant:site:segment entries, empty for none
+     * @return number of prefixes
+     * @throws IllegalArgumentException if an entry is invalid
+     */
+    public int update(String spec) {
+        PrefixTrie.Builder builder = new PrefixTrie.Builder();
+        List<String> values = new ArrayList<>();
+        for (String entry : spec == null ? new String[0] : spec.split(",")) {
+            entry = entry.trim();
+            if (entry.isEmpty()) {
+                continue;
+            }
+            int eq = entry.indexOf('=');
+            int slash = entry.indexOf('/');
+            if (eq < 0 || slash < 0 || slash > eq) {
+                throw new IllegalArgumentException("Invalid subnet tag " + entry);
+            }
+            String tag = parseTag(entry.substring(eq + 1).trim(), entry);
+            String address = entry.substring(0, slash).trim();
+            int length;
+            try {
+                length = Integer.parseInt(entry.substring(slash + 1, eq).trim());
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid prefix length in " + entry, e);
+            }
+
+            int value = values.indexOf(tag);
+            if (value < 0) {
+                value = values.size();
+                values.add(tag);
+            }
+            if (NetUtils.isIPv4AddressValid(address)) {
+                builder.add(NetUtils.byteArray4ToInt(NetUtils.parseInetAddress(address).getAddress()), length, value);
+            } else if (address.indexOf(':') >= 0 && NetUtils.isIPv6AddressValid(address)) {
+                byte[] bytes = NetUtils.parseInetAddress(address).getAddress();
+                builder.add(toLong(bytes, 0), toLong(bytes, 8), length, value);
+            } else {
+                throw new IllegalArgumentException("Invalid address in " + entry);
+            }
+        }
+        PrefixTrie trie = builder.build();
+        tags = new Tags(trie, values.toArray(new String[0]), spec == null ? "" : spec.trim());
+        LOG.info("[Siwind] Tagging {} subnets", trie.size());
+        return trie.size();
+    }
+
+    private static String parseTag(String tag, String entry) {
+        String[] ids = tag.split(":");
+        if (ids.length != 3) {
+            throw new IllegalArgumentException("Expected tenant:site:segment in " + entry);
+        }
+        StringBuilder normalized = new StringBuilder();
+        for (String id : ids) {
+            try {
+                int value = Integer.parseInt(id.trim());
+                if (value < 0) {
+                    throw new IllegalArgumentException("Negative id in " + entry);
+                }
+                normalized.append(normalized.length() == 0 ? "" : ":").append(value);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid id in " + entry, e);
+            }
+        }
+        return normalized.toString();
+    }
+
+    private static long toLong(byte[] bytes, int offset) {
+        long value = 0;
+        for (int i = offset; i < offset + 8; i++) {
+            value = value << 8 | bytes[i] & 0xFF;
+        }
+        return value;
+    }
+
+    /**
+     * @return tenant:site:segment of the IPv4 address, null if not tagged
+     */
+    public String getTag(int ipv4) {
+        Tags current = tags;
+        int value = current.trie.lookup(ipv4);
+        return value == PrefixTrie.NONE ? null : current.values[value];
+    }
+
+    /**
+     * @return tenant:site:segment of the IPv6 address, null if not tagged
+     */
+    public String getTag(long hi, long lo) {
+        Tags current = tags;
+        int value = current.trie.lookup(hi, lo);
+        return value == PrefixTrie.NONE ? null : current.values[value];
+    }
+
+    /**
+     * @return whether only packets with a tagged address are exported
+     */
+    public boolean isTaggedOnly() {
+        return taggedOnly;
+    }
+
+    /**
+     * @return the tags as last set
+     */
+    public String getSpec() {
+        return tags.spec;
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright © 2016 siwind, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package com.siwind.bupt.impl.tools;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import com.siwind.bupt.impl.GetpacketConfig;
+import com.siwind.bupt.impl.PacketHandler;
+import com.siwind.bupt.impl.export.TridentExportConsumer;
+import com.siwind.bupt.impl.export.TridentExporter;
+import com.siwind.bupt.impl.pipeline.PacketPipeline;
+
+/**
+ * A {@link PacketHandler} wired to a pipeline exporting to a
+ * {@link StubTridentReceiver}, without a controller: what the replay and the
+ * traffic generator push packets into, and the state of a benchmark fixture,
+ * created in its setup and closed in its teardown.
+ */
+public class BenchmarkHarness implements AutoCloseable {
+
+    private final StubTridentReceiver receiver;
+    private final TridentExporter exporter;
+    private final PacketPipeline pipeline;
+    private final PacketHandler handler;
+
+    /**
+     * @param config configuration of the pipeline and the exporter; its Trident
+     *        URLs are replaced by the stub's and spilling is disabled
+     * @param tridentPort port of the stub receiver, 0 for any free port
+     */
+    public BenchmarkHarness(GetpacketConfig config, int tridentPort) throws IOException {
+        receiver = new StubTridentReceiver(tridentPort);
+        config.setTridentUrls(receiver.getUrl());
+        config.setSpillEnabled(false);
+        exporter = new TridentExporter(config);
+        pipeline = new PacketPipeline(config);
+        exporter.start();
+        pipeline.addConsumer(new TridentExportConsumer(exporter, null, null, null, null, config.isExportTransit(),
+                TridentExportConsumer.Protocol.parse(config.getExportProtocols())));
+        pipeline.setExporter(exporter);
+        handler = new PacketHandler(pipeline, null);
+    }
+
+    public PacketHandler getHandler() {
+        return handler;
+    }
+
+    public PacketPipeline getPipeline() {
+        return pipeline;
+    }
+
+    public TridentExporter getExporter() {
+        return exporter;
+    }
+
+    public StubTridentReceiver getReceiver() {
+        return receiver;
+    }
+
+    /**
+     * Wait for the exporter to send or drop everything offered so far.
+     *
+     * @param timeoutNanos longest wait
+     * @return whether the exporter is drained
+     */
+    public boolean drain(long timeoutNanos) {
+        long deadline = System.nanoTime() + timeoutNanos;
+        while (exporter.getExported() + exporter.getDropped() < exporter.getOffered()) {
+            if (System.nanoTime() - deadline >= 0) {
+                return false;
+            }
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(10));
+        }
+        return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        pipeline.close();
+        exporter.close();
+        receiver.close();
+    }
+}
@@ -0,0 +1,272 @@
+/*
+ * Copyright © 2016 siwind, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package com.siwind.bupt.impl.tools;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.regex.Pattern;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.opendaylight.yang.gen.v1.urn.opendaylight.inventory.rev130819.NodeConnectorId;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.inventory.rev130819.NodeConnectorRef;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.inventory.rev130819.NodeId;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.inventory.rev130819.Nodes;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.inventory.rev130819.node.NodeConnector;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.inventory.rev130819.node.NodeConnectorKey;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.inventory.rev130819.nodes.Node;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.inventory.rev130819.nodes.NodeKey;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.packet.service.rev130709.PacketProcessingListener;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.packet.service.rev130709.PacketReceived;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.packet.service.rev130709.PacketReceivedBuilder;
+import org.opendaylight.yangtools.yang.binding.InstanceIdentifier;
+
+import com.siwind.bupt.impl.GetpacketConfig;
+import com.siwind.bupt.impl.PacketHandler;
+
+/**
+ * Replays the frames of a pcap/pcapng file as {@link PacketReceived} notifications
+ * into a {@link PacketProcessingListener}, at the recorded speed, a multiple of it,
+ * or as fast as possible, and reports throughput, per packet latency percentiles
+ * and the allocation rate of the replaying thread.
+ *
+ * <p>Ingress ports are taken from the pcapng interface names written by the packet
+ * capture ({@code openflow:1:2}); other interfaces get synthetic
+ * {@code openflow:1:<interface id + 1>} ports.
+ *
+ * <p>Run standalone with
+ * {@code PacketReplay <file> [--speed recorded|<n>x|max] [--loops <n>]}: the
+ * packets are handled by the {@link PacketHandler} of a
+ * {@link BenchmarkHarness}, exporting to a {@link StubTridentReceiver} on the
+ * Trident port. The latencies measure the packet handler up to queueing the
+ * export.
+ */
+public class PacketReplay {
+
+    private static final Pattern OPENFLOW_PORT = Pattern.compile("openflow:[0-9]+:[0-9]+");
+
+    private static final long SPIN_THRESHOLD_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
+    private static final int TRIDENT_PORT = 12321;
+
+    private static final long DRAIN_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(30);
+
+    private final List<PacketReceived> packets;
+    private final long[] offsetsNanos;
+
+    /**
+     * @param records frames to replay, replayed in time order whatever their
+     *        order in the file, e.g. in a capture ring which wrapped
+     */
+    public PacketReplay(List<PcapReader.PcapRecord> records) {
+        List<PcapReader.PcapRecord> sorted = new ArrayList<>(records);
+        sorted.sort(Comparator.comparingLong(PcapReader.PcapRecord::getTimestampNanos));
+        packets = new ArrayList<>(sorted.size());
+        offsetsNanos = new long[sorted.size()];
+        long first = sorted.isEmpty() ? 0 : sorted.get(0).getTimestampNanos();
+        for (int i = 0; i < sorted.size(); i++) {
+            PcapReader.PcapRecord record = sorted.get(i);
+            packets.add(new PacketReceivedBuilder()
+                    .setPayload(record.getData())
+                    .setIngress(ingressOf(record))
+                    .build());
+            offsetsNanos[i] = Math.max(0, record.getTimestampNanos() - first);
+        }
+    }
+
+    private static NodeConnectorRef ingressOf(PcapReader.PcapRecord record) {
+        String name = record.getInterfaceName();
+        String port = name != null && OPENFLOW_PORT.matcher(name).matches()
+                ? name : "openflow:1:" + (record.getInterfaceId() + 1);
+        return createIngress(port);
+    }
+
+    /**
+     * @param port node connector id, e.g. openflow:1:2
+     * @return reference to the node connector in the inventory
+     */
+    public static NodeConnectorRef createIngress(String port) {
+        String node = port.substring(0, port.lastIndexOf(':'));
+        return new NodeConnectorRef(InstanceIdentifier.builder(Nodes.class)
+                .child(Node.class, new NodeKey(new NodeId(node)))
+                .child(NodeConnector.class, new NodeConnectorKey(new NodeConnectorId(port)))
+                .build());
+    }
+
+    public int size() {
+        return packets.size();
+    }
+
+    /**
+     * Replay the packets.
+     *
+     * @param target listener the packets are delivered to, on the calling thread
+     * @param speed multiple of the recorded speed, 0 or less to replay as fast as possible
+     * @param loops number of times the packets are replayed
+     * @return measured results
+     * @throws IllegalArgumentException if the latencies of all the packets do not fit in an array
+     */
+    public Result replay(PacketProcessingListener target, double speed, int loops) {
+        long[] latencies;
+        try {
+            latencies = new long[Math.multiplyExact(packets.size(), loops)];
+        } catch (ArithmeticException e) {
+            throw new IllegalArgumentException("Too many packets to replay: " + packets.size() + " times " + loops,
+                    e);
+        }
+        long loopLength = offsetsNanos.length == 0 ? 0 : offsetsNanos[offsetsNanos.length - 1];
+        long allocatedBefore = getAllocatedBytes();
+        long start = System.nanoTime();
+
+        int n = 0;
+        for (int loop = 0; loop < loops; loop++) {
+            for (int i = 0; i < packets.size(); i++) {
+                if (speed > 0) {
+                    long due = start + (long) ((loop * loopLength + offsetsNanos[i]) / speed);
+                    waitUntil(due);
+                }
+                long before = System.nanoTime();
+                target.onPacketReceived(packets.get(i));
+                latencies[n++] = System.nanoTime() - before;
+            }
+        }
+
+        long elapsed = System.nanoTime() - start;
+        long allocated = getAllocatedBytes() - allocatedBefore;
+        Arrays.sort(latencies);
+        return new Result(n, elapsed, latencies, allocatedBefore < 0 ? -1 : allocated);
+    }
+
+    static void waitUntil(long due) {
+        long remaining;
+        while ((remaining = due - System.nanoTime()) > 0) {
+            if (remaining > SPIN_THRESHOLD_NANOS) {
+                LockSupport.parkNanos(remaining - SPIN_THRESHOLD_NANOS);
+            }
+        }
+    }
+
+    /**
+     * @return bytes allocated so far by the current thread, -1 if the JVM does not tell
+     */
+    static long getAllocatedBytes() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            return (Long) server.invoke(new ObjectName(ManagementFactory.THREAD_MXBEAN_NAME),
+                    "getThreadAllocatedBytes", new Object[] { Thread.currentThread().getId() },
+                    new String[] { long.class.getName() });
+        } catch (JMException | RuntimeException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Measured results of a replay.
+     */
+    public static final class Result {
+        private final int packets;
+        private final long elapsedNanos;
+        private final long[] sortedLatencies;
+        private final long allocatedBytes;
+
+        Result(int packets, long elapsedNanos, long[] sortedLatencies, long allocatedBytes) {
+            this.packets = packets;
+            this.elapsedNanos = elapsedNanos;
+            this.sortedLatencies = sortedLatencies;
+            this.allocatedBytes = allocatedBytes;
+        }
+
+        public int getPackets() {
+            return packets;
+        }
+
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+
+        public double getPacketsPerSecond() {
+            return elapsedNanos == 0 ? 0 : packets * 1e9 / elapsedNanos;
+        }
+
+        /**
+         * @param percentile e.g. 99.9
+         * @return handling latency in nanoseconds at the percentile
+         */
+        public long getLatency(double percentile) {
+            if (sortedLatencies.length == 0) {
+                return 0;
+            }
+            int idx = (int) Math.ceil(percentile / 100 * sortedLatencies.length) - 1;
+            return sortedLatencies[Math.min(sortedLatencies.length - 1, Math.max(0, idx))];
+        }
+
+        /**
+         * @return bytes allocated by the replaying thread, -1 if unknown
+         */
+        public long getAllocatedBytes() {
+            return allocatedBytes;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append(String.format("packets     %d in %.3f s, %.0f packets/s%n",
+                    packets, elapsedNanos / 1e9, getPacketsPerSecond()));
+            sb.append(String.format("latency us  p50 %.1f  p90 %.1f  p99 %.1f  p99.9 %.1f  max %.1f%n",
+                    getLatency(50) / 1e3, getLatency(90) / 1e3, getLatency(99) / 1e3,
+                    getLatency(99.9) / 1e3, getLatency(100) / 1e3));
+            if (allocatedBytes >= 0 && packets > 0) {
+                sb.append(String.format("allocation  %d bytes/packet, %.1f MB/s%n", allocatedBytes / packets,
+                        allocatedBytes / 1048576.0 / (elapsedNanos / 1e9)));
+            }
+            return sb.toString();
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("usage: PacketReplay <file> [--speed recorded|<n>x|max] [--loops <n>]");
+            System.exit(1);
+        }
+        double speed = 1;
+        int loops = 1;
+        for (int i = 1; i + 1 < args.length; i += 2) {
+            if ("--speed".equals(args[i])) {
+                String value = args[i + 1];
+                speed = "max".equals(value) ? 0 : "recorded".equals(value) ? 1
+                        : Double.parseDouble(value.endsWith("x") ? value.substring(0, value.length() - 1) : value);
+            } else if ("--loops".equals(args[i])) {
+                loops = Integer.parseInt(args[i + 1]);
+            } else {
+                System.err.println("unknown option " + args[i]);
+                System.exit(1);
+            }
+        }
+
+        PacketReplay replay = new PacketReplay(PcapReader.read(Paths.get(args[0])));
+        System.out.println("replaying " + replay.size() + " packets from " + args[0]);
+
+        try (BenchmarkHarness harness = new BenchmarkHarness(new GetpacketConfig(), TRIDENT_PORT)) {
+            Result result = replay.replay(harness.getHandler(), speed, loops);
+            System.out.print(result);
+
+            harness.drain(DRAIN_TIMEOUT_NANOS);
+            System.out.println("exported    " + harness.getReceiver().getRequests() + " records, "
+                    + harness.getExporter().getDropped() + " dropped");
+        }
+    }
+}
@@ -0,0 +1,297 @@
+/*
+ * Copyright © 2016 siwind, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package com.siwind.bupt.impl.tools;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads the ethernet frames of a pcap or pcapng file, e.g. one written by the
+ * packet capture, into memory. The file is read block by block, so its size is
+ * not limited to what can be mapped at once.
+ */
+public final class PcapReader {
+
+    private static final int PCAP_MAGIC_MICROS = 0xA1B2C3D4;
+    private static final int PCAP_MAGIC_NANOS = 0xA1B23C4D;
+
+    private static final int SHB_TYPE = 0x0A0D0D0A;
+    private static final int IDB_TYPE = 0x00000001;
+    private static final int SPB_TYPE = 0x00000003;
+    private static final int EPB_TYPE = 0x00000006;
+    private static final int BYTE_ORDER_MAGIC = 0x1A2B3C4D;
+
+    private static final int OPT_IF_NAME = 2;
+    private static final int OPT_IF_TSRESOL = 9;
+
+    private static final int LINKTYPE_ETHERNET = 1;
+
+    private static final long NANOS_PER_SECOND = 1000000000L;
+
+    private static final int PCAP_HEADER_LENGTH = 24;
+
+    /**
+     * initial size of the pcapng block buffer, grown for larger blocks
+     */
+    private static final int BLOCK_BUFFER_SIZE = 65536;
+
+    private PcapReader() {
+    }
+
+    /**
+     * A frame read from a capture file.
+     */
+    public static final class PcapRecord {
+        private final long timestampNanos;
+        private final int interfaceId;
+        private final String interfaceName;
+        private final byte[] data;
+        private final int originalLength;
+
+        PcapRecord(long timestampNanos, int interfaceId, String interfaceName, byte[] data, int originalLength) {
+            this.timestampNanos = timestampNanos;
+            this.interfaceId = interfaceId;
+            this.interfaceName = interfaceName;
+            this.data = data;
+            this.originalLength = originalLength;
+        }
+
+        /**
+         * @return capture time in nanoseconds since the epoch
+         */
+        public long getTimestampNanos() {
+            return timestampNanos;
+        }
+
+        public int getInterfaceId() {
+            return interfaceId;
+        }
+
+        /**
+         * @return name of the capture interface, null if unknown
+         */
+        public String getInterfaceName() {
+            return interfaceName;
+        }
+
+        public byte[] getData() {
+            return data;
+        }
+
+        public int getOriginalLength() {
+            return originalLength;
+        }
+    }
+
+    /**
+     * @param file pcap or pcapng file
+     * @return ethernet frames of the file, in file order
+     * @throws IOException if the file can not be read or has an unknown format
+     */
+    public static List<PcapRecord> read(Path file) throws IOException {
+        // read block by block rather than mapped, a mapping is limited to 2 GB
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(PCAP_HEADER_LENGTH);
+            if (!read(channel, 0, header, 4)) {
+                throw new IOException("Not a capture file: " + file);
+            }
+            int magic = header.order(ByteOrder.BIG_ENDIAN).getInt(0);
+            if (magic == SHB_TYPE) {
+                return readPcapng(channel);
+            }
+            return readPcap(channel, header, file);
+        }
+    }
+
+    /**
+     * Read length bytes at a position of the file into the start of the buffer.
+     *
+     * @return false if the file ends before
+     */
+    private static boolean read(FileChannel channel, long position, ByteBuffer buffer, int length)
+            throws IOException {
+        buffer.clear();
+        buffer.limit(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static List<PcapRecord> readPcap(FileChannel channel, ByteBuffer header, Path file) throws IOException {
+        if (!read(channel, 0, header, PCAP_HEADER_LENGTH)) {
+            throw new IOException("Not a pcap or pcapng file: " + file);
+        }
+        int magic = header.getInt(0);
+        if (magic != PCAP_MAGIC_MICROS && magic != PCAP_MAGIC_NANOS) {
+            header.order(ByteOrder.LITTLE_ENDIAN);
+            magic = header.getInt(0);
+            if (magic != PCAP_MAGIC_MICROS && magic != PCAP_MAGIC_NANOS) {
+                throw new IOException("Not a pcap or pcapng file: " + file);
+            }
+        }
+        long fractionScale = magic == PCAP_MAGIC_NANOS ? 1 : 1000;
+        if (header.getInt(20) != LINKTYPE_ETHERNET) {
+            throw new IOException("Not an ethernet capture: " + file);
+        }
+
+        List<PcapRecord> records = new ArrayList<>();
+        ByteBuffer recordHeader = ByteBuffer.allocate(16).order(header.order());
+        long position = PCAP_HEADER_LENGTH;
+        while (read(channel, position, recordHeader, 16)) {
+            long seconds = recordHeader.getInt(0) & 0xFFFFFFFFL;
+            long fraction = recordHeader.getInt(4) & 0xFFFFFFFFL;
+            int capLength = recordHeader.getInt(8);
+            int origLength = recordHeader.getInt(12);
+            if (capLength < 0) {
+                break;
+            }
+            byte[] data = new byte[capLength];
+            if (!read(channel, position + 16, ByteBuffer.wrap(data), capLength)) {
+                break; // truncated file
+            }
+            records.add(new PcapRecord(seconds * NANOS_PER_SECOND + fraction * fractionScale, 0, null,
+                    data, origLength));
+            position += 16 + capLength;
+        }
+        return records;
+    }
+
+    private static List<PcapRecord> readPcapng(FileChannel channel) throws IOException {
+        List<PcapRecord> records = new ArrayList<>();
+        List<Interface> interfaces = new ArrayList<>();
+
+        ByteBuffer buffer = ByteBuffer.allocate(BLOCK_BUFFER_SIZE);
+        long position = 0;
+        while (read(channel, position, buffer, 12)) {
+            int type = buffer.getInt(0);
+            if (type == SHB_TYPE) {
+                // byte order is set by every section header
+                buffer.order(ByteOrder.BIG_ENDIAN);
+                if (buffer.getInt(8) != BYTE_ORDER_MAGIC) {
+                    buffer.order(ByteOrder.LITTLE_ENDIAN);
+                }
+                interfaces.clear();
+            }
+            int length = buffer.getInt(4);
+            if (length < 12 || position + length > channel.size()) {
+                break; // truncated file
+            }
+
+            if (type == SHB_TYPE || type == IDB_TYPE || type == EPB_TYPE || type == SPB_TYPE) {
+                if (length > buffer.capacity()) {
+                    buffer = ByteBuffer.allocate(length).order(buffer.order());
+                }
+                if (!read(channel, position, buffer, length)) {
+                    break;
+                }
+            }
+            if (type == IDB_TYPE) {
+                Interface iface = readInterface(buffer, 0, length);
+                iface.id = interfaces.size();
+                interfaces.add(iface);
+            } else if (type == EPB_TYPE) {
+                Interface iface = interfaceOf(interfaces, buffer.getInt(8));
+                long timestamp = (buffer.getInt(12) & 0xFFFFFFFFL) << 32 | buffer.getInt(16) & 0xFFFFFFFFL;
+                int capLength = buffer.getInt(20);
+                if (iface.linkType == LINKTYPE_ETHERNET && capLength >= 0 && 28 + capLength <= length) {
+                    records.add(new PcapRecord(iface.toNanos(timestamp), iface.id, iface.name,
+                            copy(buffer, 28, capLength), buffer.getInt(24)));
+                }
+            } else if (type == SPB_TYPE) {
+                Interface iface = interfaceOf(interfaces, 0);
+                int origLength = buffer.getInt(8);
+                int capLength = Math.min(origLength, length - 16);
+                if (iface.linkType == LINKTYPE_ETHERNET && capLength >= 0) {
+                    records.add(new PcapRecord(0, iface.id, iface.name, copy(buffer, 12, capLength), origLength));
+                }
+            }
+            // other blocks, e.g. the skip blocks of the capture ring, are not read at all
+            position += length;
+        }
+        return records;
+    }
+
+    private static Interface interfaceOf(List<Interface> interfaces, int id) throws IOException {
+        if (id < 0 || id >= interfaces.size()) {
+            throw new IOException("Packet of undefined interface " + id);
+        }
+        return interfaces.get(id);
+    }
+
+    private static Interface readInterface(ByteBuffer buffer, int offset, int length) {
+        Interface iface = new Interface();
+        iface.linkType = buffer.getShort(offset + 8) & 0xFFFF;
+
+        int option = offset + 16;
+        int end = offset + length - 4;
+        while (option + 4 <= end) {
+            int code = buffer.getShort(option) & 0xFFFF;
+            int optionLength = buffer.getShort(option + 2) & 0xFFFF;
+            if (code == 0 || option + 4 + optionLength > end) {
+                break;
+            }
+            if (code == OPT_IF_NAME) {
+                byte[] name = copy(buffer, option + 4, optionLength);
+                int nameLength = 0;
+                while (nameLength < name.length && name[nameLength] != 0) {
+                    nameLength++;
+                }
+                iface.name = new String(name, 0, nameLength, StandardCharsets.UTF_8);
+            } else if (code == OPT_IF_TSRESOL && optionLength >= 1) {
+                iface.tsresol = buffer.get(option + 4);
+            }
+            option += 4 + ((optionLength + 3) & ~3);
+        }
+        return iface;
+    }
+
+    private static byte[] copy(ByteBuffer buffer, int offset, int length) {
+        byte[] data = new byte[length];
+        ByteBuffer source = buffer.duplicate();
+        source.position(offset);
+        source.get(data);
+        return data;
+    }
+
+    private static final class Interface {
+        int id;
+        int linkType;
+        String name;
+        /**
+         * if_tsresol, microseconds by default
+         */
+        byte tsresol = 6;
+
+        long toNanos(long timestamp) {
+            if ((tsresol & 0x80) != 0) {
+                int shift = tsresol & 0x7F;
+                long seconds = timestamp >>> shift;
+                long fraction = timestamp & ((1L << shift) - 1);
+                return seconds * NANOS_PER_SECOND + (fraction * NANOS_PER_SECOND >>> shift);
+            }
+            long nanos = timestamp;
+            for (int i = tsresol; i < 9; i++) {
+                nanos *= 10;
+            }
+            for (int i = 9; i < tsresol; i++) {
+                nanos /= 10;
+            }
+            return nanos;
+        }
+    }
+}
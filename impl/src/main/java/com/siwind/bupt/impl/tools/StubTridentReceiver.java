@@ -0,0 +1,200 @@
+/*
+ * Copyright © 2016 siwind, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package com.siwind.bupt.impl.tools;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Minimal local HTTP server standing in for Trident in replay, benchmark and
+ * integration runs. Answers every request with an empty 200 and counts them;
+ * connections are kept alive like Trident does.
+ */
+public class StubTridentReceiver implements AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(StubTridentReceiver.class);
+
+    private static final byte[] RESPONSE =
+            "HTTP/1.1 200 OK\r\nContent-Length: 0\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+
+    private static final int MAX_LINE_LENGTH = 8192;
+
+    /**
+     * Notified of every request, on the connection thread.
+     */
+    public interface RequestListener {
+        /**
+         * @param requestTarget target of the request, e.g. /packet?sip=...
+         * @param receivedNanos System.nanoTime() when the request was read
+         */
+        void onRequest(String requestTarget, long receivedNanos);
+    }
+
+    private final ServerSocket serverSocket;
+    private final ExecutorService executor = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "getpacket-stub-trident");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong connections = new AtomicLong();
+    private volatile long responseDelayNanos = 0;
+    private volatile RequestListener listener = null;
+
+    /**
+     * @param port local port to listen on, 0 for any free port
+     */
+    public StubTridentReceiver(int port) throws IOException {
+        serverSocket = new ServerSocket();
+        serverSocket.setReuseAddress(true);
+        serverSocket.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+        executor.execute(this::accept);
+        LOG.info("[Siwind] Stub Trident receiver listening on {}", serverSocket.getLocalSocketAddress());
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    public String getUrl() {
+        return "http://127.0.0.1:" + getPort() + "/";
+    }
+
+    public long getRequests() {
+        return requests.get();
+    }
+
+    public long getConnections() {
+        return connections.get();
+    }
+
+    public void setListener(RequestListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Delay every response, to emulate a slow receiver.
+     */
+    public void setResponseDelayNanos(long responseDelayNanos) {
+        this.responseDelayNanos = responseDelayNanos;
+    }
+
+    private void accept() {
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket socket = serverSocket.accept();
+                connections.incrementAndGet();
+                executor.execute(() -> serve(socket));
+            } catch (IOException e) {
+                if (!serverSocket.isClosed()) {
+                    LOG.warn("[Siwind] Stub Trident receiver accept failed", e);
+                }
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        try (Socket s = socket) {
+            s.setTcpNoDelay(true);
+            InputStream in = new BufferedInputStream(s.getInputStream());
+            OutputStream out = s.getOutputStream();
+            StringBuilder line = new StringBuilder();
+
+            while (true) {
+                String requestLine = readLine(in, line);
+                if (requestLine == null) {
+                    return;
+                }
+                if (requestLine.isEmpty()) {
+                    continue;
+                }
+                long received = System.nanoTime();
+
+                int contentLength = 0;
+                boolean close = false;
+                String header;
+                while ((header = readLine(in, line)) != null && !header.isEmpty()) {
+                    String lower = header.toLowerCase(Locale.ROOT);
+                    if (lower.startsWith("content-length:")) {
+                        contentLength = Integer.parseInt(lower.substring(15).trim());
+                    } else if (lower.startsWith("connection:") && lower.contains("close")) {
+                        close = true;
+                    }
+                }
+                for (int i = 0; i < contentLength; i++) {
+                    if (in.read() < 0) {
+                        return;
+                    }
+                }
+
+                requests.incrementAndGet();
+                RequestListener current = listener;
+                if (current != null) {
+                    int start = requestLine.indexOf(' ');
+                    int end = requestLine.lastIndexOf(' ');
+                    current.onRequest(end > start ? requestLine.substring(start + 1, end) : requestLine, received);
+                }
+                long delay = responseDelayNanos;
+                if (delay > 0) {
+                    Thread.sleep(delay / 1000000, (int) (delay % 1000000));
+                }
+                out.write(RESPONSE);
+                out.flush();
+                if (close) {
+                    return;
+                }
+            }
+        } catch (SocketException e) {
+            // client went away
+        } catch (IOException | NumberFormatException e) {
+            LOG.debug("[Siwind] Stub Trident receiver connection failed", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static String readLine(InputStream in, StringBuilder line) throws IOException {
+        line.setLength(0);
+        int c;
+        while ((c = in.read()) >= 0) {
+            if (c == '\n') {
+                int length = line.length();
+                if (length > 0 && line.charAt(length - 1) == '\r') {
+                    line.setLength(length - 1);
+                }
+                return line.toString();
+            }
+            if (line.length() < MAX_LINE_LENGTH) {
+                line.append((char) c);
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,641 @@
+/*
+ * Copyright © 2016 siwind, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package com.siwind.bupt.impl.tools;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.opendaylight.yang.gen.v1.urn.opendaylight.inventory.rev130819.NodeConnectorRef;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.packet.service.rev130709.PacketProcessingListener;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.packet.service.rev130709.PacketReceived;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.packet.service.rev130709.PacketReceivedBuilder;
+
+import com.siwind.bupt.impl.GetpacketConfig;
+import com.siwind.bupt.impl.trace.LatencyHistogram;
+
+/**
+ * Generates synthetic {@link PacketReceived} notifications to size the packet
+ * path without switches. A pool of frames is built up front from a
+ * {@link Profile}: flows drawn with a Zipf distribution, a protocol mix, IPv6
+ * and 802.1Q tagged shares and a frame size distribution, with the ingress
+ * rotating over the ports of several datapaths. Emitting then only hands out
+ * the prebuilt notifications, so the generator itself does not allocate.
+ *
+ * <p>Three ways to use it:
+ * <ul>
+ * <li>a benchmark fixture: build the generator and a {@link BenchmarkHarness}
+ * in the setup, and pass {@link #next()} to its handler in the measured method</li>
+ * <li>{@link #run} at a target rate or as fast as possible, which the
+ * generate-traffic RPC behind {@code getpacket:generate} does with the live
+ * packet handler</li>
+ * <li>standalone with {@code TrafficGenerator [--flows <n>] [--skew <s>]
+ * [--mix tcp=80,udp=15,icmp=5] [--ipv6 <percent>] [--vlan <percent>]
+ * [--sizes 64=50,576=20,1500=30] [--switches <n>] [--ports <n>]
+ * [--rate <pps>|max] [--seconds <n>]}, exporting to a
+ * {@link StubTridentReceiver} on the Trident port</li>
+ * </ul>
+ *
+ * <p>Frames are identical from one pass over the pool to the next, so the
+ * duplicate filter must be disabled or its window shorter than a pass.
+ */
+public class TrafficGenerator {
+
+    private static final int TRIDENT_PORT = 12321;
+
+    private static final long DRAIN_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(30);
+
+    private static final int ETHERTYPE_IPV4 = 0x0800;
+    private static final int ETHERTYPE_IPV6 = 0x86DD;
+    private static final int ETHERTYPE_ARP = 0x0806;
+    private static final int ETHERTYPE_VLAN = 0x8100;
+
+    private static final int TCP_FIN = 0x01;
+    private static final int TCP_SYN = 0x02;
+    private static final int TCP_PSH = 0x08;
+    private static final int TCP_ACK = 0x10;
+
+    /**
+     * shortest frame on the wire, without the FCS
+     */
+    private static final int MIN_FRAME = 60;
+
+    private static final int[] TCP_SERVICES = { 80, 443, 22, 8080, 3306 };
+    private static final int[] UDP_SERVICES = { 53, 123, 161, 514, 5000 };
+
+    /**
+     * Protocols of the mix.
+     */
+    enum Protocol {
+        TCP, UDP, ICMP, ARP
+    }
+
+    /**
+     * What the frames of the pool look like.
+     */
+    public static final class Profile {
+        private int flows = 1024;
+        private double skew = 1;
+        private String mix = "tcp=80,udp=15,icmp=5";
+        private int ipv6Percent = 0;
+        private int vlanPercent = 0;
+        private String sizes = "64=50,576=20,1500=30";
+        private int switches = 1;
+        private int ports = 4;
+        private int poolSize = 65536;
+        private long seed = 1;
+
+        public int getFlows() {
+            return flows;
+        }
+
+        public void setFlows(int flows) {
+            this.flows = flows;
+        }
+
+        /**
+         * @return Zipf exponent of the packets per flow, 0 for uniform
+         */
+        public double getSkew() {
+            return skew;
+        }
+
+        public void setSkew(double skew) {
+            this.skew = skew;
+        }
+
+        /**
+         * @return protocol weights, e.g. tcp=80,udp=15,icmp=5; arp too
+         */
+        public String getMix() {
+            return mix;
+        }
+
+        public void setMix(String mix) {
+            this.mix = mix;
+        }
+
+        public int getIpv6Percent() {
+            return ipv6Percent;
+        }
+
+        public void setIpv6Percent(int ipv6Percent) {
+            this.ipv6Percent = ipv6Percent;
+        }
+
+        public int getVlanPercent() {
+            return vlanPercent;
+        }
+
+        public void setVlanPercent(int vlanPercent) {
+            this.vlanPercent = vlanPercent;
+        }
+
+        /**
+         * @return frame size weights, e.g. 64=50,576=20,1500=30
+         */
+        public String getSizes() {
+            return sizes;
+        }
+
+        public void setSizes(String sizes) {
+            this.sizes = sizes;
+        }
+
+        public int getSwitches() {
+            return switches;
+        }
+
+        public void setSwitches(int switches) {
+            this.switches = switches;
+        }
+
+        /**
+         * @return ingress ports per datapath
+         */
+        public int getPorts() {
+            return ports;
+        }
+
+        public void setPorts(int ports) {
+            this.ports = ports;
+        }
+
+        /**
+         * @return frames built up front and handed out in turn
+         */
+        public int getPoolSize() {
+            return poolSize;
+        }
+
+        public void setPoolSize(int poolSize) {
+            this.poolSize = poolSize;
+        }
+
+        /**
+         * @return seed of the random draws, the same profile gives the same pool
+         */
+        public long getSeed() {
+            return seed;
+        }
+
+        public void setSeed(long seed) {
+            this.seed = seed;
+        }
+    }
+
+    /**
+     * A flow the frames belong to.
+     */
+    private static final class Flow {
+        int id;
+        Protocol protocol;
+        boolean ipv6;
+        int vlan;
+        int server;
+        int srcPort;
+        int dstPort;
+        NodeConnectorRef ingress;
+    }
+
+    private final PacketReceived[] pool;
+    private int cursor = 0;
+
+    /**
+     * Build the pool of frames.
+     *
+     * @throws IllegalArgumentException if the profile is invalid
+     */
+    public TrafficGenerator(Profile profile) {
+        if (profile.getFlows() < 1 || profile.getPoolSize() < 1 || profile.getSwitches() < 1
+                || profile.getPorts() < 1 || profile.getSkew() < 0) {
+            throw new IllegalArgumentException(
+                    "Flows, pool size, switches and ports must be positive, and the skew not negative");
+        }
+        if (profile.getIpv6Percent() < 0 || profile.getIpv6Percent() > 100
+                || profile.getVlanPercent() < 0 || profile.getVlanPercent() > 100) {
+            throw new IllegalArgumentException("Percentages must be 0 to 100");
+        }
+        Map<String, Integer> mix = parseWeights(profile.getMix());
+        Protocol[] protocols = new Protocol[mix.size()];
+        int[] protocolWeights = new int[mix.size()];
+        int i = 0;
+        for (Map.Entry<String, Integer> entry : mix.entrySet()) {
+            try {
+                protocols[i] = Protocol.valueOf(entry.getKey().toUpperCase());
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Unknown protocol " + entry.getKey() + " in the mix", e);
+            }
+            protocolWeights[i++] = entry.getValue();
+        }
+        Map<String, Integer> sizes = parseWeights(profile.getSizes());
+        int[] frameSizes = new int[sizes.size()];
+        int[] sizeWeights = new int[sizes.size()];
+        i = 0;
+        for (Map.Entry<String, Integer> entry : sizes.entrySet()) {
+            try {
+                frameSizes[i] = Integer.parseInt(entry.getKey());
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid frame size " + entry.getKey(), e);
+            }
+            sizeWeights[i++] = entry.getValue();
+        }
+
+        NodeConnectorRef[] ingresses = new NodeConnectorRef[profile.getSwitches() * profile.getPorts()];
+        for (int port = 0; port < ingresses.length; port++) {
+            ingresses[port] = PacketReplay.createIngress(
+                    "openflow:" + (port % profile.getSwitches() + 1) + ":" + (port / profile.getSwitches() + 1));
+        }
+
+        Random random = new Random(profile.getSeed());
+        int servers = Math.max(1, profile.getFlows() / 8);
+        Flow[] flows = new Flow[profile.getFlows()];
+        for (int f = 0; f < flows.length; f++) {
+            Flow flow = new Flow();
+            flow.id = f;
+            flow.protocol = protocols[pick(protocolWeights, random)];
+            flow.ipv6 = flow.protocol != Protocol.ARP && random.nextInt(100) < profile.getIpv6Percent();
+            flow.vlan = random.nextInt(100) < profile.getVlanPercent() ? 1 + f % 4094 : 0;
+            flow.server = random.nextInt(servers);
+            flow.srcPort = 1024 + random.nextInt(64512);
+            flow.dstPort = flow.protocol == Protocol.UDP ? UDP_SERVICES[random.nextInt(UDP_SERVICES.length)]
+                    : TCP_SERVICES[random.nextInt(TCP_SERVICES.length)];
+            // neighbouring flows come in on neighbouring ports, then datapaths
+            flow.ingress = ingresses[f % ingresses.length];
+            flows[f] = flow;
+        }
+
+        double[] cumulative = zipf(flows.length, profile.getSkew());
+        pool = new PacketReceived[profile.getPoolSize()];
+        for (int p = 0; p < pool.length; p++) {
+            int f = Arrays.binarySearch(cumulative, random.nextDouble() * cumulative[cumulative.length - 1]);
+            Flow flow = flows[Math.min(flows.length - 1, f < 0 ? -f - 1 : f)];
+            int size = frameSizes[pick(sizeWeights, random)];
+            pool[p] = new PacketReceivedBuilder()
+                    .setIngress(flow.ingress)
+                    .setPayload(frame(flow, size, p, random))
+                    .build();
+        }
+    }
+
+    /**
+     * @param spec comma separated key=weight pairs
+     * @return weights by key, in order
+     * @throws IllegalArgumentException if the spec is invalid
+     */
+    static Map<String, Integer> parseWeights(String spec) {
+        Map<String, Integer> weights = new LinkedHashMap<>();
+        int total = 0;
+        for (String pair : spec.trim().split("\\s*,\\s*")) {
+            int idx = pair.indexOf('=');
+            if (idx <= 0 || idx == pair.length() - 1) {
+                throw new IllegalArgumentException("Invalid weight " + pair + ", use key=weight");
+            }
+            int weight;
+            try {
+                weight = Integer.parseInt(pair.substring(idx + 1));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid weight " + pair, e);
+            }
+            if (weight < 0) {
+                throw new IllegalArgumentException("Negative weight " + pair);
+            }
+            weights.put(pair.substring(0, idx).trim(), weight);
+            total += weight;
+        }
+        if (total == 0) {
+            throw new IllegalArgumentException("No positive weight in " + spec);
+        }
+        return weights;
+    }
+
+    private static int pick(int[] weights, Random random) {
+        int total = 0;
+        for (int weight : weights) {
+            total += weight;
+        }
+        int draw = random.nextInt(total);
+        for (int i = 0; i < weights.length; i++) {
+            draw -= weights[i];
+            if (draw < 0) {
+                return i;
+            }
+        }
+        return weights.length - 1;
+    }
+
+    /**
+     * @return cumulative weights of the flows, the first one the heaviest
+     */
+    private static double[] zipf(int flows, double skew) {
+        double[] cumulative = new double[flows];
+        double sum = 0;
+        for (int rank = 0; rank < flows; rank++) {
+            sum += 1 / Math.pow(rank + 1, skew);
+            cumulative[rank] = sum;
+        }
+        return cumulative;
+    }
+
+    /**
+     * Build a frame of the flow. Header checksums are left at zero, nothing on
+     * the packet path checks them.
+     *
+     * @param size frame length, raised to the headers and the minimum frame
+     * @param sequence number of the frame in the pool
+     */
+    private static byte[] frame(Flow flow, int size, int sequence, Random random) {
+        int l2 = flow.vlan != 0 ? 18 : 14;
+        int l3 = flow.protocol == Protocol.ARP ? 28 : flow.ipv6 ? 40 : 20;
+        int l4 = flow.protocol == Protocol.TCP ? 20 : flow.protocol == Protocol.ARP ? 0 : 8;
+        byte[] frame = new byte[Math.max(Math.max(size, MIN_FRAME), l2 + l3 + l4)];
+
+        // the client sends, to the server or to everyone for ARP
+        long clientMac = 0x020000000000L | flow.id;
+        long serverMac = 0x020100000000L | flow.server;
+        putMac(frame, 0, flow.protocol == Protocol.ARP ? 0xFFFFFFFFFFFFL : serverMac);
+        putMac(frame, 6, clientMac);
+        int etherType = flow.protocol == Protocol.ARP ? ETHERTYPE_ARP : flow.ipv6 ? ETHERTYPE_IPV6 : ETHERTYPE_IPV4;
+        if (flow.vlan != 0) {
+            putShort(frame, 12, ETHERTYPE_VLAN);
+            putShort(frame, 14, flow.vlan);
+        }
+        putShort(frame, l2 - 2, etherType);
+
+        // clients in 10.0.0.0/9 and 2001:db8::/64, servers in 10.128.0.0/9 and 2001:db8:1::/64
+        int clientIp = 0x0A000000 | flow.id & 0x7FFFFF;
+        int serverIp = 0x0A800000 | flow.server & 0x7FFFFF;
+        if (flow.protocol == Protocol.ARP) {
+            putShort(frame, l2, 1);
+            putShort(frame, l2 + 2, ETHERTYPE_IPV4);
+            frame[l2 + 4] = 6;
+            frame[l2 + 5] = 4;
+            putShort(frame, l2 + 6, 1);
+            putMac(frame, l2 + 8, clientMac);
+            putInt(frame, l2 + 14, clientIp);
+            putInt(frame, l2 + 24, serverIp);
+            return frame;
+        }
+
+        int protocol = flow.protocol == Protocol.TCP ? 6 : flow.protocol == Protocol.UDP ? 17
+                : flow.ipv6 ? 58 : 1;
+        if (flow.ipv6) {
+            frame[l2] = 0x60;
+            putShort(frame, l2 + 4, frame.length - l2 - l3);
+            frame[l2 + 6] = (byte) protocol;
+            frame[l2 + 7] = 64;
+            putInt(frame, l2 + 8, 0x20010DB8);
+            putInt(frame, l2 + 20, flow.id);
+            putInt(frame, l2 + 24, 0x20010DB8);
+            putShort(frame, l2 + 28, 1);
+            putInt(frame, l2 + 36, flow.server);
+        } else {
+            frame[l2] = 0x45;
+            putShort(frame, l2 + 2, frame.length - l2);
+            putShort(frame, l2 + 4, sequence);
+            putShort(frame, l2 + 6, 0x4000);
+            frame[l2 + 8] = 64;
+            frame[l2 + 9] = (byte) protocol;
+            putInt(frame, l2 + 12, clientIp);
+            putInt(frame, l2 + 16, serverIp);
+        }
+
+        int start = l2 + l3;
+        switch (flow.protocol) {
+            case TCP:
+                putShort(frame, start, flow.srcPort);
+                putShort(frame, start + 2, flow.dstPort);
+                putInt(frame, start + 4, sequence * 1460);
+                putInt(frame, start + 8, 1);
+                frame[start + 12] = 5 << 4;
+                int draw = random.nextInt(64);
+                frame[start + 13] = (byte) (draw == 0 ? TCP_SYN : draw == 1 ? TCP_FIN | TCP_ACK
+                        : frame.length > start + l4 ? TCP_PSH | TCP_ACK : TCP_ACK);
+                putShort(frame, start + 14, 65535);
+                break;
+            case UDP:
+                putShort(frame, start, flow.srcPort);
+                putShort(frame, start + 2, flow.dstPort);
+                putShort(frame, start + 4, frame.length - start);
+                break;
+            default:
+                // echo request
+                frame[start] = (byte) (flow.ipv6 ? 128 : 8);
+                putShort(frame, start + 4, flow.id);
+                putShort(frame, start + 6, sequence);
+                break;
+        }
+        return frame;
+    }
+
+    private static void putShort(byte[] data, int offset, int value) {
+        data[offset] = (byte) (value >> 8);
+        data[offset + 1] = (byte) value;
+    }
+
+    private static void putInt(byte[] data, int offset, int value) {
+        putShort(data, offset, value >>> 16);
+        putShort(data, offset + 2, value);
+    }
+
+    private static void putMac(byte[] data, int offset, long mac) {
+        putShort(data, offset, (int) (mac >>> 32));
+        putInt(data, offset + 2, (int) mac);
+    }
+
+    public int size() {
+        return pool.length;
+    }
+
+    /**
+     * @return the next frame of the pool, from the owning thread only
+     */
+    public PacketReceived next() {
+        PacketReceived packet = pool[cursor];
+        if (++cursor == pool.length) {
+            cursor = 0;
+        }
+        return packet;
+    }
+
+    /**
+     * Push frames into a listener on the calling thread, until the duration is
+     * over or the thread is interrupted.
+     *
+     * <p>At a target rate the frames are sent on a fixed schedule whatever the
+     * listener does, and the latency of a frame runs from the time it was due:
+     * a stall shows up in the latencies of every frame held up behind it
+     * rather than as a mere drop in throughput.
+     *
+     * @param target listener the frames are delivered to
+     * @param rate frames per second, 0 or less for as fast as possible
+     * @param durationNanos length of the run
+     * @return measured results
+     */
+    public Result run(PacketProcessingListener target, long rate, long durationNanos) {
+        LatencyHistogram latencies = new LatencyHistogram();
+        double intervalNanos = rate > 0 ? 1e9 / rate : 0;
+        long allocatedBefore = PacketReplay.getAllocatedBytes();
+        long start = System.nanoTime();
+        long end = start + durationNanos;
+
+        long n = 0;
+        long now = start;
+        while (now - end < 0 && !Thread.currentThread().isInterrupted()) {
+            long due;
+            if (rate > 0) {
+                due = start + (long) (n * intervalNanos);
+                PacketReplay.waitUntil(due);
+            } else {
+                due = System.nanoTime();
+            }
+            target.onPacketReceived(next());
+            now = System.nanoTime();
+            latencies.record(now - due);
+            n++;
+        }
+
+        long elapsed = now - start;
+        long allocated = PacketReplay.getAllocatedBytes() - allocatedBefore;
+        return new Result(n, rate, elapsed, latencies.snapshot(), allocatedBefore < 0 ? -1 : allocated);
+    }
+
+    /**
+     * Measured results of a run.
+     */
+    public static final class Result {
+        private final long packets;
+        private final long targetRate;
+        private final long elapsedNanos;
+        private final LatencyHistogram.Snapshot latencies;
+        private final long allocatedBytes;
+
+        Result(long packets, long targetRate, long elapsedNanos, LatencyHistogram.Snapshot latencies,
+                long allocatedBytes) {
+            this.packets = packets;
+            this.targetRate = targetRate;
+            this.elapsedNanos = elapsedNanos;
+            this.latencies = latencies;
+            this.allocatedBytes = allocatedBytes;
+        }
+
+        public long getPackets() {
+            return packets;
+        }
+
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+
+        public double getPacketsPerSecond() {
+            return elapsedNanos == 0 ? 0 : packets * 1e9 / elapsedNanos;
+        }
+
+        /**
+         * @param percentile e.g. 99.9
+         * @return latency in nanoseconds at the percentile, to within about 3%
+         */
+        public long getLatency(double percentile) {
+            return latencies.getValueAtPercentile(percentile);
+        }
+
+        /**
+         * @return bytes allocated by the generating thread, -1 if unknown
+         */
+        public long getAllocatedBytes() {
+            return allocatedBytes;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append(String.format("packets     %d in %.3f s, %.0f packets/s", packets, elapsedNanos / 1e9,
+                    getPacketsPerSecond()));
+            sb.append(targetRate > 0 ? String.format(" (target %d)%n", targetRate) : String.format(" (max)%n"));
+            sb.append(String.format("latency us  p50 %.1f  p90 %.1f  p99 %.1f  p99.9 %.1f  max %.1f%n",
+                    getLatency(50) / 1e3, getLatency(90) / 1e3, getLatency(99) / 1e3,
+                    getLatency(99.9) / 1e3, latencies.getMax() / 1e3));
+            if (allocatedBytes >= 0 && packets > 0) {
+                sb.append(String.format("allocation  %d bytes/packet, %.1f MB/s%n", allocatedBytes / packets,
+                        allocatedBytes / 1048576.0 / (elapsedNanos / 1e9)));
+            }
+            return sb.toString();
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        Profile profile = new Profile();
+        long rate = 0;
+        long seconds = 10;
+        try {
+            for (int i = 0; i < args.length; i += 2) {
+                if (i + 1 >= args.length) {
+                    throw new IllegalArgumentException("missing value of " + args[i]);
+                }
+                String value = args[i + 1];
+                switch (args[i]) {
+                    case "--flows":
+                        profile.setFlows(Integer.parseInt(value));
+                        break;
+                    case "--skew":
+                        profile.setSkew(Double.parseDouble(value));
+                        break;
+                    case "--mix":
+                        profile.setMix(value);
+                        break;
+                    case "--ipv6":
+                        profile.setIpv6Percent(Integer.parseInt(value));
+                        break;
+                    case "--vlan":
+                        profile.setVlanPercent(Integer.parseInt(value));
+                        break;
+                    case "--sizes":
+                        profile.setSizes(value);
+                        break;
+                    case "--switches":
+                        profile.setSwitches(Integer.parseInt(value));
+                        break;
+                    case "--ports":
+                        profile.setPorts(Integer.parseInt(value));
+                        break;
+                    case "--rate":
+                        rate = "max".equals(value) ? 0 : Long.parseLong(value);
+                        break;
+                    case "--seconds":
+                        seconds = Long.parseLong(value);
+                        break;
+                    default:
+                        throw new IllegalArgumentException("unknown option " + args[i]);
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println("usage: TrafficGenerator [--flows <n>] [--skew <s>] [--mix tcp=80,udp=15,icmp=5]"
+                    + " [--ipv6 <percent>] [--vlan <percent>] [--sizes 64=50,576=20,1500=30]"
+                    + " [--switches <n>] [--ports <n>] [--rate <pps>|max] [--seconds <n>]");
+            System.exit(1);
+        }
+
+        TrafficGenerator generator = new TrafficGenerator(profile);
+        System.out.println("generating from " + generator.size() + " frames of " + profile.getFlows() + " flows");
+
+        GetpacketConfig config = new GetpacketConfig();
+        config.setExportProtocols("tcp,udp,icmp");
+        try (BenchmarkHarness harness = new BenchmarkHarness(config, TRIDENT_PORT)) {
+            Result result = generator.run(harness.getHandler(), rate, TimeUnit.SECONDS.toNanos(seconds));
+            System.out.print(result);
+
+            harness.drain(DRAIN_TIMEOUT_NANOS);
+            System.out.println("exported    " + harness.getReceiver().getRequests() + " records, "
+                    + harness.getExporter().getDropped() + " dropped");
+        }
+    }
+}
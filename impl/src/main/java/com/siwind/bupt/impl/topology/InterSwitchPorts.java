@@ -0,0 +1,173 @@
+/*
+ * Copyright © 2016 siwind, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package com.siwind.bupt.impl.topology;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The switch ports at either end of a link between two switches, as given by
+ * the topology. Packets coming in on them are in transit: they were already
+ * seen by the switch at the other end.
+ *
+ * <p>Links change rarely, so every change rebuilds an immutable open addressing
+ * table of (datapath id, port) pairs in primitive arrays, which is swapped in
+ * at once. Lookups read it without locking or allocating.
+ */
+public class InterSwitchPorts {
+
+    private static final int EMPTY = -1;
+
+    private static final Table EMPTY_TABLE = new Table(new long[1], new int[] { EMPTY }, 0);
+
+    // guarded by this
+    private final Map<String, String[]> links = new HashMap<>();
+
+    private volatile Table table = EMPTY_TABLE;
+
+    private static final class Table {
+        final long[] dpids;
+        final int[] ports;
+        final int size;
+
+        Table(long[] dpids, int[] ports, int size) {
+            this.dpids = dpids;
+            this.ports = ports;
+            this.size = size;
+        }
+    }
+
+    /**
+     * Add or update a link between two switches.
+     *
+     * @param srcTp termination point at the source, e.g. openflow:1:2
+     * @param dstTp termination point at the destination
+     */
+    public synchronized void addLink(String linkId, String srcTp, String dstTp) {
+        links.put(linkId, new String[] { srcTp, dstTp });
+        rebuild();
+    }
+
+    public synchronized void removeLink(String linkId) {
+        if (links.remove(linkId) != null) {
+            rebuild();
+        }
+    }
+
+    private void rebuild() {
+        Set<String> tps = new HashSet<>();
+        for (String[] ends : links.values()) {
+            for (String tp : ends) {
+                if (tp != null) {
+                    tps.add(tp);
+                }
+            }
+        }
+        int capacity = Integer.highestOneBit(Math.max(1, tps.size())) << 2;
+        long[] dpids = new long[capacity];
+        int[] ports = new int[capacity];
+        Arrays.fill(ports, EMPTY);
+        int size = 0;
+        for (String tp : tps) {
+            int colon = tp.lastIndexOf(':');
+            long dpid = parseDpid(tp, colon);
+            int port = parsePort(tp, colon);
+            if (port == EMPTY) {
+                continue;
+            }
+            int slot = slot(dpid, port, capacity - 1);
+            while (ports[slot] != EMPTY) {
+                slot = (slot + 1) & capacity - 1;
+            }
+            dpids[slot] = dpid;
+            ports[slot] = port;
+            size++;
+        }
+        table = new Table(dpids, ports, size);
+    }
+
+    /**
+     * @return whether the port links two switches
+     */
+    public boolean contains(long dpid, int port) {
+        Table current = table;
+        if (current.size == 0) {
+            return false;
+        }
+        int mask = current.ports.length - 1;
+        int slot = slot(dpid, port, mask);
+        while (current.ports[slot] != EMPTY) {
+            if (current.ports[slot] == port && current.dpids[slot] == dpid) {
+                return true;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return false;
+    }
+
+    /**
+     * @param nodeConnectorId node connector id, e.g. openflow:1:2
+     * @return whether the port links two switches
+     */
+    public boolean contains(String nodeConnectorId) {
+        if (table.size == 0 || nodeConnectorId == null) {
+            return false;
+        }
+        int colon = nodeConnectorId.lastIndexOf(':');
+        int port = parsePort(nodeConnectorId, colon);
+        return port != EMPTY && contains(parseDpid(nodeConnectorId, colon), port);
+    }
+
+    public boolean isEmpty() {
+        return table.size == 0;
+    }
+
+    /**
+     * @return number of inter-switch ports
+     */
+    public int size() {
+        return table.size;
+    }
+
+    private static int slot(long dpid, int port, int mask) {
+        long h = (dpid ^ (long) port << 40) * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ h >>> 32) & mask;
+    }
+
+    /**
+     * @return datapath id of an openflow:dpid:port id, garbage if it is something else
+     */
+    private static long parseDpid(String id, int colon) {
+        long dpid = 0;
+        for (int i = id.indexOf(':') + 1; i < colon; i++) {
+            dpid = dpid * 10 + id.charAt(i) - '0';
+        }
+        return dpid;
+    }
+
+    /**
+     * @return port number of an openflow:dpid:port id, EMPTY if it is something else
+     */
+    private static int parsePort(String id, int colon) {
+        if (colon <= id.indexOf(':') || colon == id.length() - 1 || id.length() - colon > 11) {
+            return EMPTY;
+        }
+        long port = 0;
+        for (int i = colon + 1; i < id.length(); i++) {
+            int digit = id.charAt(i) - '0';
+            if (digit < 0 || digit > 9) {
+                return EMPTY;
+            }
+            port = port * 10 + digit;
+        }
+        return port <= Integer.MAX_VALUE ? (int) port : EMPTY;
+    }
+}
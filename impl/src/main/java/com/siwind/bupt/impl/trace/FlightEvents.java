@@ -0,0 +1,327 @@
+/*
+ * Copyright © 2016 siwind, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package com.siwind.bupt.impl.trace;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.siwind.bupt.impl.GetpacketConfig;
+
+/**
+ * Custom JDK Flight Recorder events of the pipeline, in the Getpacket category,
+ * so that packet activity can be lined up with GC pauses, safepoints and lock
+ * contention in a recording.
+ *
+ * <p>The events are defined at runtime through {@code jdk.jfr.EventFactory}, as
+ * the bundle is built for Java 8; on a JVM without JFR they are simply not
+ * available. They are registered unless disabled in the configuration, but are
+ * disabled by default: a recording enables them by name in its settings, e.g.
+ * {@code com.siwind.getpacket.PacketDrop#enabled=true}.
+ * Each type is throttled to a maximum number of events per second, the rest are
+ * not emitted. Call sites check {@link #shouldEmit(Type)} before building the
+ * values of an event, so that nothing is computed when no recording wants it:
+ *
+ * <pre>
+ * if (FlightEvents.shouldEmit(FlightEvents.Type.DROP)) {
+ *     FlightEvents.drop("duplicate", "pipeline");
+ * }
+ * </pre>
+ */
+public final class FlightEvents {
+
+    private static final Logger LOG = LoggerFactory.getLogger(FlightEvents.class);
+
+    private static final String NAME_PREFIX = "com.siwind.getpacket.";
+
+    private static final String CATEGORY = "Getpacket";
+
+    /**
+     * Event types, with their fields in the order of the emit methods.
+     */
+    public enum Type {
+        PACKET_INTAKE("PacketIntake", "Packet Intake", "A packet-in received by the pipeline",
+                new Field("ingress", String.class, "Ingress"),
+                new Field("etherType", int.class, "Ether Type"),
+                new Field("size", int.class, "Size", "DataAmount", "BYTES")),
+        EXPORT_FLUSH("ExportFlush", "Export Flush", "Records sent to a Trident receiver without a break",
+                new Field("receiver", String.class, "Receiver"),
+                new Field("count", int.class, "Records"),
+                new Field("bytes", long.class, "Query Bytes", "DataAmount", "BYTES"),
+                new Field("elapsed", long.class, "Elapsed", "Timespan", "NANOSECONDS")),
+        DROP("PacketDrop", "Packet Drop", "A packet or record dropped",
+                new Field("reason", String.class, "Reason"),
+                new Field("component", String.class, "Component")),
+        TOPOLOGY_UPDATE("TopologyUpdate", "Topology Update", "A link change applied to the inter-switch ports",
+                new Field("link", String.class, "Link"),
+                new Field("added", boolean.class, "Added"),
+                new Field("interSwitchPorts", int.class, "Inter-Switch Ports")),
+        CACHE_EVICTION("CacheEviction", "Cache Eviction", "Live entries evicted from a full table",
+                new Field("cache", String.class, "Cache"),
+                new Field("count", long.class, "Entries"));
+
+        private final String name;
+        private final String label;
+        private final String description;
+        private final List<Field> fields;
+
+        Type(String name, String label, String description, Field... fields) {
+            this.name = NAME_PREFIX + name;
+            this.label = label;
+            this.description = description;
+            this.fields = Arrays.asList(fields);
+        }
+
+        /**
+         * @return the name of the event in recordings
+         */
+        public String getEventName() {
+            return name;
+        }
+    }
+
+    /**
+     * registered event types, null when disabled
+     */
+    private static volatile Recorder recorder = null;
+
+    private FlightEvents() {
+    }
+
+    /**
+     * Register the event types if enabled in the configuration and JFR is available.
+     */
+    public static synchronized void start(GetpacketConfig config) {
+        if (!config.isJfrEnabled() || recorder != null) {
+            return;
+        }
+        try {
+            recorder = new Recorder(config.getJfrMaxEventsPerSecond());
+            LOG.info("[Siwind] Registered flight recorder events, at most {} per second of each type",
+                    config.getJfrMaxEventsPerSecond());
+        } catch (ReflectiveOperationException | LinkageError e) {
+            LOG.info("[Siwind] JDK Flight Recorder not available, no events are emitted", e);
+        }
+    }
+
+    /**
+     * Unregister the event types.
+     */
+    public static synchronized void stop() {
+        if (recorder != null) {
+            recorder.unregister();
+            recorder = null;
+        }
+    }
+
+    /**
+     * @return whether the events are registered, whether or not a recording is running
+     */
+    public static boolean isEnabled() {
+        return recorder != null;
+    }
+
+    /**
+     * @return whether an event of the type should be emitted now: it is
+     *     registered, enabled in a running recording and within its throttle,
+     *     whose share it then takes
+     */
+    public static boolean shouldEmit(Type type) {
+        Recorder current = recorder;
+        return current != null && current.shouldEmit(type);
+    }
+
+    public static void packetIntake(String ingress, int etherType, int size) {
+        emit(Type.PACKET_INTAKE, ingress, etherType, size);
+    }
+
+    /**
+     * @param durationNanos time from the first record sent to the answer to the last one
+     */
+    public static void exportFlush(String receiver, int count, long bytes, long durationNanos) {
+        emit(Type.EXPORT_FLUSH, receiver, count, bytes, durationNanos);
+    }
+
+    /**
+     * @param component pipeline stage, consumer or receiver which dropped
+     */
+    public static void drop(String reason, String component) {
+        emit(Type.DROP, reason, component);
+    }
+
+    public static void topologyUpdate(String link, boolean added, int interSwitchPorts) {
+        emit(Type.TOPOLOGY_UPDATE, link, added, interSwitchPorts);
+    }
+
+    public static void cacheEviction(String cache, long count) {
+        emit(Type.CACHE_EVICTION, cache, count);
+    }
+
+    private static void emit(Type type, Object... values) {
+        Recorder current = recorder;
+        if (current != null) {
+            current.emit(type, values);
+        }
+    }
+
+    private static final class Field {
+        final String name;
+        final Class<?> type;
+        final String label;
+        final String unitAnnotation;
+        final String unit;
+
+        Field(String name, Class<?> type, String label) {
+            this(name, type, label, null, null);
+        }
+
+        Field(String name, Class<?> type, String label, String unitAnnotation, String unit) {
+            this.name = name;
+            this.type = type;
+            this.label = label;
+            this.unitAnnotation = unitAnnotation;
+            this.unit = unit;
+        }
+    }
+
+    /**
+     * The event factories of all types and the handles to use them, with the
+     * throttle state of every type. The throttle is not synchronized: a few
+     * events more or less in a second are fine.
+     */
+    private static final class Recorder {
+
+        private static final long SECOND_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+        private static final Type[] TYPES = Type.values();
+
+        private final int maxPerSecond;
+        private final Object[] factories = new Object[TYPES.length];
+        private final Object[] eventTypes = new Object[TYPES.length];
+        private final long[] windowStarts = new long[TYPES.length];
+        private final int[] emitted = new int[TYPES.length];
+        private final MethodHandle newEvent;
+        private final MethodHandle set;
+        private final MethodHandle commit;
+        private final MethodHandle isTypeEnabled;
+        private final Method unregister;
+        private final AtomicLong failed = new AtomicLong();
+
+        Recorder(int maxPerSecond) throws ReflectiveOperationException {
+            this.maxPerSecond = maxPerSecond;
+            Arrays.fill(windowStarts, System.nanoTime() - SECOND_NANOS);
+            Class<?> factoryClass = jfrClass("EventFactory");
+            Class<?> eventClass = jfrClass("Event");
+            Class<?> eventTypeClass = jfrClass("EventType");
+            Constructor<?> element = jfrClass("AnnotationElement").getConstructor(Class.class, Object.class);
+            Constructor<?> descriptor = jfrClass("ValueDescriptor").getConstructor(Class.class,
+                    String.class, List.class);
+            Method create = factoryClass.getMethod("create", List.class, List.class);
+            Method getEventType = factoryClass.getMethod("getEventType");
+            unregister = factoryClass.getMethod("unregister");
+
+            MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+            newEvent = lookup.findVirtual(factoryClass, "newEvent", MethodType.methodType(eventClass))
+                    .asType(MethodType.methodType(Object.class, Object.class));
+            set = lookup.findVirtual(eventClass, "set", MethodType.methodType(void.class, int.class, Object.class))
+                    .asType(MethodType.methodType(void.class, Object.class, int.class, Object.class));
+            commit = lookup.findVirtual(eventClass, "commit", MethodType.methodType(void.class))
+                    .asType(MethodType.methodType(void.class, Object.class));
+            isTypeEnabled = lookup.findVirtual(eventTypeClass, "isEnabled", MethodType.methodType(boolean.class))
+                    .asType(MethodType.methodType(boolean.class, Object.class));
+
+            for (Type type : TYPES) {
+                List<Object> annotations = new ArrayList<>();
+                annotations.add(element.newInstance(jfrClass("Name"), type.name));
+                annotations.add(element.newInstance(jfrClass("Label"), type.label));
+                annotations.add(element.newInstance(jfrClass("Description"), type.description));
+                annotations.add(element.newInstance(jfrClass("Category"), new String[] { CATEGORY }));
+                // only recorded when a recording enables them
+                annotations.add(element.newInstance(jfrClass("Enabled"), false));
+                // the call site is always the same, not worth the cost
+                annotations.add(element.newInstance(jfrClass("StackTrace"), false));
+                List<Object> fields = new ArrayList<>(type.fields.size());
+                for (Field field : type.fields) {
+                    List<Object> fieldAnnotations = new ArrayList<>(2);
+                    fieldAnnotations.add(element.newInstance(jfrClass("Label"), field.label));
+                    if (field.unitAnnotation != null) {
+                        fieldAnnotations.add(element.newInstance(jfrClass(field.unitAnnotation), field.unit));
+                    }
+                    fields.add(descriptor.newInstance(field.type, field.name, fieldAnnotations));
+                }
+                int i = type.ordinal();
+                factories[i] = create.invoke(null, annotations, fields);
+                eventTypes[i] = getEventType.invoke(factories[i]);
+            }
+        }
+
+        /**
+         * Through the system class loader: under Karaf the bundle class loader
+         * neither imports jdk.jfr nor delegates it to the boot class path.
+         */
+        static Class<?> jfrClass(String name) throws ClassNotFoundException {
+            return Class.forName("jdk.jfr." + name, true, ClassLoader.getSystemClassLoader());
+        }
+
+        boolean shouldEmit(Type type) {
+            int i = type.ordinal();
+            try {
+                if (!(boolean) isTypeEnabled.invokeExact(eventTypes[i])) {
+                    return false;
+                }
+            } catch (Throwable t) {
+                failed(t);
+                return false;
+            }
+            long now = System.nanoTime();
+            if (now - windowStarts[i] >= SECOND_NANOS) {
+                windowStarts[i] = now;
+                emitted[i] = 0;
+            }
+            return emitted[i]++ < maxPerSecond;
+        }
+
+        void emit(Type type, Object... values) {
+            try {
+                Object event = (Object) newEvent.invokeExact(factories[type.ordinal()]);
+                for (int i = 0; i < values.length; i++) {
+                    set.invokeExact(event, i, values[i]);
+                }
+                commit.invokeExact(event);
+            } catch (Throwable t) {
+                failed(t);
+            }
+        }
+
+        private void failed(Throwable t) {
+            if (failed.getAndIncrement() == 0) {
+                LOG.warn("[Siwind] Failed to emit a flight recorder event, further failures are only counted", t);
+            }
+        }
+
+        void unregister() {
+            for (Object factory : factories) {
+                try {
+                    unregister.invoke(factory);
+                } catch (ReflectiveOperationException e) {
+                    LOG.debug("[Siwind] Failed to unregister flight recorder event", e);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright © 2016 siwind, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package com.siwind.bupt.impl.trace;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of latencies in nanoseconds with log-linear buckets, as in
+ * HdrHistogram: values below 32 have a bucket each, every power of two above is
+ * split into 32 linear buckets, so a value is known to within about 3%.
+ *
+ * <p>A histogram has a single writer, which records without locking or
+ * read-modify-write instructions; any thread may read it at any time. Histograms
+ * of several writers are merged by adding their {@link Snapshot}s.
+ */
+public final class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 5;
+
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    /**
+     * buckets up to the largest long
+     */
+    static final int BUCKETS = SUB_BUCKETS + (63 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+    /**
+     * Record a latency, from the owning thread only.
+     *
+     * @param nanos latency, negative ones are recorded as 0
+     */
+    public void record(long nanos) {
+        int index = index(Math.max(0, nanos));
+        // single writer: an ordered store is enough, readers may see it a bit later
+        counts.lazySet(index, counts.get(index) + 1);
+    }
+
+    /**
+     * @return the counts recorded so far
+     */
+    public Snapshot snapshot() {
+        long[] copy = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            copy[i] = counts.get(i);
+        }
+        return new Snapshot(copy);
+    }
+
+    static int index(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int shift = exponent - SUB_BUCKET_BITS;
+        int mantissa = (int) (value >>> shift) & (SUB_BUCKETS - 1);
+        return SUB_BUCKETS + shift * SUB_BUCKETS + mantissa;
+    }
+
+    /**
+     * @return the largest value of the bucket
+     */
+    static long highestValue(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int shift = (index - SUB_BUCKETS) / SUB_BUCKETS;
+        long lowest = (long) (SUB_BUCKETS + (index & (SUB_BUCKETS - 1))) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+
+    /**
+     * Counts of one or more histograms at some point in time.
+     */
+    public static final class Snapshot {
+
+        private final long[] counts;
+        private final long total;
+
+        Snapshot(long[] counts) {
+            this.counts = counts;
+            long sum = 0;
+            for (long count : counts) {
+                sum += count;
+            }
+            this.total = sum;
+        }
+
+        /**
+         * @return an empty snapshot, to merge others into
+         */
+        public static Snapshot empty() {
+            return new Snapshot(new long[BUCKETS]);
+        }
+
+        /**
+         * @return the sum of both snapshots
+         */
+        public Snapshot plus(Snapshot other) {
+            long[] sum = counts.clone();
+            for (int i = 0; i < BUCKETS; i++) {
+                sum[i] += other.counts[i];
+            }
+            return new Snapshot(sum);
+        }
+
+        /**
+         * @return what was recorded since the earlier snapshot
+         */
+        public Snapshot minus(Snapshot earlier) {
+            long[] difference = counts.clone();
+            for (int i = 0; i < BUCKETS; i++) {
+                difference[i] = Math.max(0, difference[i] - earlier.counts[i]);
+            }
+            return new Snapshot(difference);
+        }
+
+        public long getCount() {
+            return total;
+        }
+
+        /**
+         * @param percentile between 0 and 100
+         * @return the value below which the percentile of latencies lie, 0 when empty
+         */
+        public long getValueAtPercentile(double percentile) {
+            if (total == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(Math.min(100.0, percentile) / 100.0 * total));
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return highestValue(i);
+                }
+            }
+            return getMax();
+        }
+
+        /**
+         * @return the largest latency, to within the bucket precision, 0 when empty
+         */
+        public long getMax() {
+            for (int i = BUCKETS - 1; i >= 0; i--) {
+                if (counts[i] != 0) {
+                    return highestValue(i);
+                }
+            }
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright © 2016 siwind, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package com.siwind.bupt.impl.trace;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.opendaylight.controller.md.sal.binding.api.DataBroker;
+import org.opendaylight.controller.md.sal.binding.api.WriteTransaction;
+import org.opendaylight.controller.md.sal.common.api.data.LogicalDatastoreType;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.getpacket.rev150105.Latency;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.getpacket.rev150105.LatencyBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.getpacket.rev150105.latency.Stage;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.getpacket.rev150105.latency.StageBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.getpacket.rev150105.latency.StageKey;
+import org.opendaylight.yangtools.yang.binding.InstanceIdentifier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.siwind.bupt.impl.GetpacketConfig;
+
+/**
+ * Writes the latency percentiles of a {@link LatencyTracer} to the latency
+ * container of the operational datastore every interval, when new packets were
+ * traced since the last write.
+ */
+public class LatencyPublisher implements AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(LatencyPublisher.class);
+
+    private static final InstanceIdentifier<Latency> LATENCY_IID = InstanceIdentifier.create(Latency.class);
+
+    private final DataBroker dataBroker;
+    private final LatencyTracer tracer;
+    private final long intervalMs;
+    private final ScheduledExecutorService writer;
+
+    /**
+     * traced packets at the last write, only used by the writer thread
+     */
+    private long lastCount = -1;
+
+    private final AtomicLong failed = new AtomicLong();
+
+    public LatencyPublisher(DataBroker dataBroker, LatencyTracer tracer, GetpacketConfig config) {
+        this.dataBroker = dataBroker;
+        this.tracer = tracer;
+        this.intervalMs = config.getLatencyPublishIntervalMs();
+        this.writer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "getpacket-latency");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    public void start() {
+        writer.scheduleWithFixedDelay(this::publish, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    void publish() {
+        Map<LatencyTracer.Stage, LatencyHistogram.Snapshot> snapshots = tracer.getSnapshots();
+        long count = snapshots.get(LatencyTracer.Stage.DECODE).getCount();
+        if (count == lastCount) {
+            return;
+        }
+        lastCount = count;
+
+        List<Stage> stages = new ArrayList<>(snapshots.size());
+        for (Map.Entry<LatencyTracer.Stage, LatencyHistogram.Snapshot> entry : snapshots.entrySet()) {
+            stages.add(toStage(entry.getKey(), entry.getValue()));
+        }
+        WriteTransaction tx = dataBroker.newWriteOnlyTransaction();
+        tx.put(LogicalDatastoreType.OPERATIONAL, LATENCY_IID, new LatencyBuilder().setStage(stages).build());
+        Futures.addCallback(tx.submit(), new FutureCallback<Void>() {
+            @Override
+            public void onSuccess(Void result) {
+                // nothing to do
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                if (failed.getAndIncrement() == 0) {
+                    LOG.warn("[Siwind] Failed to write latencies, further failures are only counted", t);
+                }
+            }
+        }, MoreExecutors.directExecutor());
+    }
+
+    static Stage toStage(LatencyTracer.Stage stage, LatencyHistogram.Snapshot snapshot) {
+        String name = stage.name().toLowerCase(Locale.ROOT);
+        return new StageBuilder()
+                .setKey(new StageKey(name))
+                .setName(name)
+                .setCount(BigInteger.valueOf(snapshot.getCount()))
+                .setP50(BigInteger.valueOf(snapshot.getValueAtPercentile(50)))
+                .setP99(BigInteger.valueOf(snapshot.getValueAtPercentile(99)))
+                .setP999(BigInteger.valueOf(snapshot.getValueAtPercentile(99.9)))
+                .setMax(BigInteger.valueOf(snapshot.getMax()))
+                .build();
+    }
+
+    public long getFailed() {
+        return failed.get();
+    }
+
+    /**
+     * Stop writing and remove the latencies from the datastore.
+     */
+    @Override
+    public void close() {
+        writer.shutdownNow();
+        WriteTransaction tx = dataBroker.newWriteOnlyTransaction();
+        tx.delete(LogicalDatastoreType.OPERATIONAL, LATENCY_IID);
+        tx.submit();
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright © 2016 siwind, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package com.siwind.bupt.impl.trace;
+
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import com.siwind.bupt.impl.GetpacketConfig;
+
+/**
+ * Latencies of the stages a packet goes through, from the packet-in to the
+ * answer of Trident, for 1 in N packets.
+ *
+ * <p>A traced packet is stamped with {@link System#nanoTime()} when received,
+ * and each stage records its latency where it ends, into a histogram of the
+ * recording thread. Untraced packets cost a countdown, traced ones a few clock
+ * reads and histogram increments, none of them contended. Snapshots merge the
+ * histograms of all threads.
+ */
+public class LatencyTracer {
+
+    /**
+     * Stages of an exported packet, from {@link #ENQUEUE} on each ending where the
+     * next one starts.
+     */
+    public enum Stage {
+        /**
+         * decoding the field groups of the packet, part of {@link #ENQUEUE}
+         */
+        DECODE,
+        /**
+         * from the packet-in to the export record queued
+         */
+        ENQUEUE,
+        /**
+         * waiting in the queue of the receiver
+         */
+        QUEUE,
+        /**
+         * from the request sent to the response status
+         */
+        SEND,
+        /**
+         * reading the rest of the response
+         */
+        ACK,
+        /**
+         * from the packet-in to the response read
+         */
+        TOTAL
+    }
+
+    private static final Stage[] STAGES = Stage.values();
+
+    private final int rate;
+
+    /**
+     * packets left before the next traced one, racy: a packet more or less is fine
+     */
+    private int countdown;
+
+    /**
+     * histograms of every thread which recorded, indexed by stage
+     */
+    private final List<LatencyHistogram[]> histograms = new CopyOnWriteArrayList<>();
+
+    private final ThreadLocal<LatencyHistogram[]> local = ThreadLocal.withInitial(this::register);
+
+    /**
+     * what was recorded before the last reset
+     */
+    private volatile Map<Stage, LatencyHistogram.Snapshot> baseline = emptySnapshots();
+
+    public LatencyTracer(GetpacketConfig config) {
+        this(config.getLatencyTraceRate());
+    }
+
+    /**
+     * @param rate trace 1 in rate packets, at least 1
+     */
+    public LatencyTracer(int rate) {
+        if (rate < 1) {
+            throw new IllegalArgumentException("Trace rate must be positive: " + rate);
+        }
+        this.rate = rate;
+        this.countdown = rate;
+    }
+
+    /**
+     * @return whether the packet being received should be traced
+     */
+    public boolean shouldTrace() {
+        if (--countdown > 0) {
+            return false;
+        }
+        countdown = rate;
+        return true;
+    }
+
+    /**
+     * Record the latency of a stage of a traced packet.
+     */
+    public void record(Stage stage, long nanos) {
+        local.get()[stage.ordinal()].record(nanos);
+    }
+
+    private LatencyHistogram[] register() {
+        LatencyHistogram[] stages = new LatencyHistogram[STAGES.length];
+        for (int i = 0; i < stages.length; i++) {
+            stages[i] = new LatencyHistogram();
+        }
+        histograms.add(stages);
+        return stages;
+    }
+
+    /**
+     * @return latencies of the stage recorded by all threads since the last reset
+     */
+    public LatencyHistogram.Snapshot getSnapshot(Stage stage) {
+        return merge(stage).minus(baseline.get(stage));
+    }
+
+    /**
+     * @return latencies of every stage since the last reset
+     */
+    public Map<Stage, LatencyHistogram.Snapshot> getSnapshots() {
+        Map<Stage, LatencyHistogram.Snapshot> snapshots = new EnumMap<>(Stage.class);
+        for (Stage stage : STAGES) {
+            snapshots.put(stage, getSnapshot(stage));
+        }
+        return snapshots;
+    }
+
+    /**
+     * Forget the latencies recorded so far. The writers are left alone, the
+     * current counts only become the baseline of later snapshots.
+     */
+    public synchronized void reset() {
+        Map<Stage, LatencyHistogram.Snapshot> current = new EnumMap<>(Stage.class);
+        for (Stage stage : STAGES) {
+            current.put(stage, merge(stage));
+        }
+        baseline = current;
+    }
+
+    public int getRate() {
+        return rate;
+    }
+
+    private LatencyHistogram.Snapshot merge(Stage stage) {
+        LatencyHistogram.Snapshot merged = LatencyHistogram.Snapshot.empty();
+        for (LatencyHistogram[] stages : histograms) {
+            merged = merged.plus(stages[stage.ordinal()].snapshot());
+        }
+        return merged;
+    }
+
+    private static Map<Stage, LatencyHistogram.Snapshot> emptySnapshots() {
+        Map<Stage, LatencyHistogram.Snapshot> snapshots = new EnumMap<>(Stage.class);
+        for (Stage stage : STAGES) {
+            snapshots.put(stage, LatencyHistogram.Snapshot.empty());
+        }
+        return snapshots;
+    }
+}
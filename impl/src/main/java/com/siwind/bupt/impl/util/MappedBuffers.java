@@ -0,0 +1,90 @@
+/*
+ * Copyright © 2016 siwind, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package com.siwind.bupt.impl.util;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Unmaps memory-mapped files explicitly. A mapping otherwise lives until its
+ * buffer is garbage collected, and keeps the disk blocks of a deleted file
+ * allocated meanwhile.
+ *
+ * <p>There is no public API for it: {@code sun.misc.Unsafe.invokeCleaner} is
+ * used from Java 9 on, the buffer's {@code sun.misc.Cleaner} on Java 8. Both
+ * are looked up through the system class loader, as under Karaf the bundle
+ * class loader does not see them.
+ */
+public final class MappedBuffers {
+
+    private static final Logger LOG = LoggerFactory.getLogger(MappedBuffers.class);
+
+    /**
+     * unmaps a buffer, null if neither way is available
+     */
+    private static final Unmapper UNMAPPER = lookup();
+
+    private MappedBuffers() {
+    }
+
+    @FunctionalInterface
+    private interface Unmapper {
+        void unmap(ByteBuffer buffer) throws ReflectiveOperationException;
+    }
+
+    private static Unmapper lookup() {
+        ClassLoader loader = ClassLoader.getSystemClassLoader();
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe", true, loader);
+            Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            Object unsafe = theUnsafe.get(null);
+            return buffer -> invokeCleaner.invoke(unsafe, buffer);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            // Java 8
+        }
+        try {
+            Method cleaner = Class.forName("sun.nio.ch.DirectBuffer", true, loader).getMethod("cleaner");
+            Method clean = Class.forName("sun.misc.Cleaner", true, loader).getMethod("clean");
+            return buffer -> {
+                Object bufferCleaner = cleaner.invoke(buffer);
+                if (bufferCleaner != null) {
+                    clean.invoke(bufferCleaner);
+                }
+            };
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            LOG.warn("[Siwind] Cannot unmap files, deleted spill segments keep their space until garbage collected",
+                    e);
+            return null;
+        }
+    }
+
+    /**
+     * Unmap a buffer, which must not be used anymore.
+     *
+     * @return whether the buffer was unmapped
+     */
+    public static boolean unmap(MappedByteBuffer buffer) {
+        if (UNMAPPER == null) {
+            return false;
+        }
+        try {
+            UNMAPPER.unmap(buffer);
+            return true;
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            LOG.debug("[Siwind] Failed to unmap buffer", e);
+            return false;
+        }
+    }
+}
@@ -131,6 +131,125 @@ public final class NetUtils {
         return ip;
     }
 
+    /**
+     * Formats an IPv4 address passed as integer value in dotted decimal
+     * notation, without going through InetAddress.
+     *
+     * @param address
+     *            the IP address in integer form
+     * @return the IP address in dotted decimal form
+     */
+    public static String toIPv4String(int address) {
+        return appendIPv4(new StringBuilder(15), address).toString();
+    }
+
+    /**
+     * Appends an IPv4 address passed as integer value in dotted decimal
+     * notation, so that a reused buffer formats it without allocating.
+     *
+     * @param buffer
+     *            the buffer to append to
+     * @param address
+     *            the IP address in integer form
+     * @return the buffer
+     */
+    public static StringBuilder appendIPv4(StringBuilder buffer, int address) {
+        return buffer.append(address >>> 24).append('.').append(address >> 16 & 0xff).append('.')
+                .append(address >> 8 & 0xff).append('.').append(address & 0xff);
+    }
+
+    /**
+     * Formats an IPv6 address passed as two longs in the compact text form of
+     * RFC 5952, without going through InetAddress.
+     *
+     * @param hi
+     *            the high 64 bits of the address
+     * @param lo
+     *            the low 64 bits of the address
+     * @return the IP address in compact text form, e.g. 2001:db8::1
+     */
+    public static String toIPv6String(long hi, long lo) {
+        return appendIPv6(new StringBuilder(39), hi, lo).toString();
+    }
+
+    /**
+     * Appends an IPv6 address passed as two longs in the compact text form of
+     * RFC 5952: lowercase hexadecimal groups without leading zeros, the first
+     * longest run of two or more zero groups replaced by ::, and IPv4-mapped
+     * addresses ending in dotted decimal. A reused buffer formats it without
+     * allocating.
+     *
+     * @param buffer
+     *            the buffer to append to
+     * @param hi
+     *            the high 64 bits of the address
+     * @param lo
+     *            the low 64 bits of the address
+     * @return the buffer
+     */
+    public static StringBuilder appendIPv6(StringBuilder buffer, long hi, long lo) {
+        if (hi == 0 && lo >>> 32 == 0xffffL) {
+            return appendIPv4(buffer.append("::ffff:"), (int) lo);
+        }
+        // longest run of zero groups
+        int runStart = -1;
+        int runLength = 0;
+        for (int i = 0; i < 8;) {
+            if (ipv6Group(hi, lo, i) != 0) {
+                i++;
+                continue;
+            }
+            int start = i;
+            while (i < 8 && ipv6Group(hi, lo, i) == 0) {
+                i++;
+            }
+            if (i - start > runLength) {
+                runStart = start;
+                runLength = i - start;
+            }
+        }
+        if (runLength < 2) {
+            runStart = -1;
+            runLength = 0;
+        }
+        for (int i = 0; i < 8; i++) {
+            if (i == runStart) {
+                buffer.append("::");
+                i += runLength - 1;
+                continue;
+            }
+            if (i > 0 && i != runStart + runLength) {
+                buffer.append(':');
+            }
+            int group = ipv6Group(hi, lo, i);
+            for (int shift = 12; shift >= 0; shift -= 4) {
+                if (group >>> shift != 0 || shift == 0) {
+                    buffer.append(Character.forDigit(group >>> shift & 0xf, 16));
+                }
+            }
+        }
+        return buffer;
+    }
+
+    private static int ipv6Group(long hi, long lo, int group) {
+        return (int) ((group < 4 ? hi : lo) >>> (48 - (group & 3) * 16)) & 0xffff;
+    }
+
+    /**
+     * Folds an IPv6 address to 32 bits, e.g. to hash it where IPv4 addresses
+     * are expected. Different addresses may fold to the same value.
+     *
+     * @param hi
+     *            the high 64 bits of the address
+     * @param lo
+     *            the low 64 bits of the address
+     * @return the folded address
+     */
+    public static int foldIPv6(long hi, long lo) {
+        long folded = (hi * 0x9E3779B97F4A7C15L) ^ lo;
+        return (int) (folded ^ folded >>> 32);
+    }
+
     /**
      * Return the InetAddress Network Mask given the length of the prefix bit
      * mask. The prefix bit mask indicates the contiguous leading bits that are
@@ -0,0 +1,78 @@
+/*
+ * Copyright © 2016 siwind, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package com.siwind.bupt.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.getpacket.rev150105.GenerateTrafficInput;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.getpacket.rev150105.GenerateTrafficInputBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.getpacket.rev150105.GenerateTrafficOutput;
+import org.opendaylight.yangtools.yang.common.RpcResult;
+
+public class GetpacketServiceImplTest {
+
+    private GetpacketConfig config;
+    private GetpacketServiceImpl service;
+
+    @Before
+    public void setUp() {
+        config = new GetpacketConfig();
+        config.setTrafficGeneratorEnabled(true);
+        config.setTridentUrls("http://192.0.2.1:1/");
+        service = new GetpacketServiceImpl(null, null, null, config);
+    }
+
+    @After
+    public void tearDown() {
+        service.close();
+    }
+
+    private static GenerateTrafficInput input(long durationSec) {
+        return new GenerateTrafficInputBuilder().setDuration(durationSec).setRate(1000L).setFlows(10L).build();
+    }
+
+    @Test
+    public void testGenerateTrafficOffCallerThread() throws Exception {
+        long start = System.nanoTime();
+        Future<RpcResult<GenerateTrafficOutput>> future = service.generateTraffic(input(1));
+        assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(500));
+        assertFalse(future.isDone());
+
+        // one run at a time
+        RpcResult<GenerateTrafficOutput> second = service.generateTraffic(input(1)).get();
+        assertFalse(second.isSuccessful());
+
+        RpcResult<GenerateTrafficOutput> result = future.get(10, TimeUnit.SECONDS);
+        assertTrue(result.isSuccessful());
+        String output = result.getResult().getResult();
+        assertTrue(output, output.startsWith("packets "));
+        assertTrue(output, output.contains("exported    "));
+        // the live configuration is left as it was
+        assertEquals("http://192.0.2.1:1/", config.getTridentUrls());
+        assertTrue(config.isSpillEnabled());
+        assertTrue(service.generateTraffic(input(1)).get(10, TimeUnit.SECONDS).isSuccessful());
+    }
+
+    @Test
+    public void testCloseStopsRun() throws Exception {
+        Future<RpcResult<GenerateTrafficOutput>> future = service.generateTraffic(input(600));
+        Thread.sleep(100);
+        service.close();
+        assertTrue(future.get(5, TimeUnit.SECONDS).isSuccessful());
+
+        assertFalse(service.generateTraffic(input(1)).get().isSuccessful());
+    }
+}
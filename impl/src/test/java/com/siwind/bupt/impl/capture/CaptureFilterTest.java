@@ -0,0 +1,118 @@
+/*
+ * Copyright © 2016 siwind, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package com.siwind.bupt.impl.capture;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+public class CaptureFilterTest {
+
+    /**
+     * Ethernet/IPv4/TCP from 10.0.0.1:40000 to 10.0.0.2:80, with ihl words of IPv4 header.
+     */
+    private static byte[] tcp(int ihl) {
+        int l4Start = 14 + ihl * 4;
+        byte[] frame = new byte[l4Start + 20];
+        frame[12] = 0x08;
+        frame[14] = (byte) (0x40 | ihl);
+        frame[23] = 6;
+        frame[26] = 10;
+        frame[29] = 1;
+        frame[30] = 10;
+        frame[33] = 2;
+        frame[l4Start] = (byte) (40000 >> 8);
+        frame[l4Start + 1] = (byte) 40000;
+        frame[l4Start + 3] = 80;
+        return frame;
+    }
+
+    private static byte[] arp() {
+        byte[] frame = new byte[60];
+        frame[12] = 0x08;
+        frame[13] = 0x06;
+        return frame;
+    }
+
+    @Test
+    public void testEmpty() {
+        assertSame(CaptureFilter.ALL, CaptureFilter.compile(null));
+        assertSame(CaptureFilter.ALL, CaptureFilter.compile(" "));
+        assertTrue(CaptureFilter.ALL.matches(null, new byte[0]));
+        assertTrue(CaptureFilter.ALL.matches("openflow:1:1", arp()));
+    }
+
+    @Test
+    public void testInvalid() {
+        String[] invalid = { "port", "port=", "=80", "bogus=1", "port=http", "ethertype=ip",
+            "host=10.0.0.256", "host=10.0.0.0/24", "host=2001:db8::1", "host=localhost" };
+        for (String expression : invalid) {
+            try {
+                CaptureFilter.compile(expression);
+                fail(expression);
+            } catch (IllegalArgumentException e) {
+                // expected, NumberFormatException included
+            }
+        }
+    }
+
+    @Test
+    public void testIngress() {
+        CaptureFilter filter = CaptureFilter.compile("ingress=openflow:1:2");
+        assertTrue(filter.matches("openflow:1:2", arp()));
+        assertFalse(filter.matches("openflow:1:20", arp()));
+        assertFalse(filter.matches(null, arp()));
+    }
+
+    @Test
+    public void testEtherType() {
+        CaptureFilter filter = CaptureFilter.compile("ethertype=0x0806");
+        assertTrue(filter.matches(null, arp()));
+        assertFalse(filter.matches(null, tcp(5)));
+        assertFalse(filter.matches(null, new byte[13]));
+        assertTrue(CaptureFilter.compile("ethertype=2048").matches(null, tcp(5)));
+    }
+
+    @Test
+    public void testIpv4Terms() {
+        assertTrue(CaptureFilter.compile("proto=6").matches(null, tcp(5)));
+        assertFalse(CaptureFilter.compile("proto=17").matches(null, tcp(5)));
+        assertFalse(CaptureFilter.compile("proto=6").matches(null, arp()));
+
+        assertTrue(CaptureFilter.compile("host=10.0.0.1").matches(null, tcp(5)));
+        assertTrue(CaptureFilter.compile("host=10.0.0.2").matches(null, tcp(5)));
+        assertFalse(CaptureFilter.compile("host=10.0.0.3").matches(null, tcp(5)));
+
+        assertTrue(CaptureFilter.compile("port=80").matches(null, tcp(5)));
+        assertTrue(CaptureFilter.compile("port=40000").matches(null, tcp(5)));
+        assertFalse(CaptureFilter.compile("port=443").matches(null, tcp(5)));
+    }
+
+    @Test
+    public void testPortAfterOptions() {
+        CaptureFilter filter = CaptureFilter.compile("port=80");
+        assertTrue(filter.matches(null, tcp(15)));
+
+        // truncated before the ports
+        byte[] truncated = new byte[14 + 60 + 2];
+        System.arraycopy(tcp(15), 0, truncated, 0, truncated.length);
+        assertFalse(filter.matches(null, truncated));
+        assertFalse(CaptureFilter.compile("proto=6").matches(null, new byte[30]));
+    }
+
+    @Test
+    public void testAllTermsMustMatch() {
+        CaptureFilter filter = CaptureFilter.compile("  ingress=openflow:1:1   proto=6 host=10.0.0.2 port=80 ");
+        assertTrue(filter.matches("openflow:1:1", tcp(5)));
+        assertFalse(filter.matches("openflow:1:2", tcp(5)));
+        assertFalse(CaptureFilter.compile("proto=6 port=443").matches(null, tcp(5)));
+    }
+}
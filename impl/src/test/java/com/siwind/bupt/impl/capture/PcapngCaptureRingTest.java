@@ -0,0 +1,178 @@
+/*
+ * Copyright © 2016 siwind, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package com.siwind.bupt.impl.capture;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.siwind.bupt.impl.tools.PcapReader;
+
+public class PcapngCaptureRingTest {
+
+    private static final long BASE_NANOS = 1500000000123456789L;
+
+    /**
+     * section header and the interface description blocks
+     */
+    private static final int RING_START = 28 + PcapngCaptureRing.MAX_INTERFACES * 68;
+
+    private static final int EPB_TYPE = 0x00000006;
+    private static final int CUSTOM_TYPE = 0x40000BAD;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static byte[] frame(int i, int length) {
+        byte[] frame = new byte[length];
+        frame[0] = (byte) i;
+        frame[1] = (byte) (i >> 8);
+        frame[length - 1] = (byte) 0xEE;
+        return frame;
+    }
+
+    /**
+     * Walk the blocks of the ring, checking that they are whole and cover it.
+     *
+     * @return the type of every block of the ring, in file order
+     */
+    private static List<Integer> walkRing(Path file, int size) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file)).order(ByteOrder.LITTLE_ENDIAN);
+        assertEquals(size & ~3, buffer.limit());
+        List<Integer> types = new ArrayList<>();
+        int offset = RING_START;
+        while (offset < buffer.limit()) {
+            int type = buffer.getInt(offset);
+            int length = buffer.getInt(offset + 4);
+            assertTrue("block at " + offset, type == EPB_TYPE || type == CUSTOM_TYPE);
+            assertTrue("block at " + offset, length >= 16 && (length & 3) == 0);
+            assertEquals("trailing length at " + offset, length, buffer.getInt(offset + length - 4));
+            types.add(type);
+            offset += length;
+        }
+        assertEquals(buffer.limit(), offset);
+        return types;
+    }
+
+    @Test
+    public void testAppend() throws IOException {
+        Path file = folder.newFile("capture.pcapng").toPath();
+        int size = RING_START + 4096;
+        try (PcapngCaptureRing ring = new PcapngCaptureRing(file, size, 64)) {
+            ring.append(BASE_NANOS, "openflow:1:1", frame(0, 60));
+            ring.append(BASE_NANOS + 1, "openflow:1:2", frame(1, 100));
+            ring.append(BASE_NANOS + 2, null, frame(2, 61));
+            ring.append(BASE_NANOS + 3, "openflow:1:1", frame(3, 60));
+            assertEquals(4, ring.getWritten());
+            assertEquals(0, ring.getWraps());
+            assertEquals(2, ring.getInterfaceCount());
+        }
+
+        // four packets, then the unused rest of the ring
+        List<Integer> types = walkRing(file, size);
+        assertEquals(5, types.size());
+        assertEquals(CUSTOM_TYPE, (int) types.get(4));
+
+        List<PcapReader.PcapRecord> records = PcapReader.read(file);
+        assertEquals(4, records.size());
+        assertEquals("openflow:1:1", records.get(0).getInterfaceName());
+        assertEquals("openflow:1:2", records.get(1).getInterfaceName());
+        assertEquals("other", records.get(2).getInterfaceName());
+        assertEquals(records.get(0).getInterfaceId(), records.get(3).getInterfaceId());
+        assertEquals(BASE_NANOS + 3, records.get(3).getTimestampNanos());
+
+        // cut to the snap length
+        assertEquals(64, records.get(1).getData().length);
+        assertEquals(100, records.get(1).getOriginalLength());
+        assertArrayEquals(frame(2, 61), records.get(2).getData());
+    }
+
+    @Test
+    public void testWrapAround() throws IOException {
+        Path file = folder.newFile("wrapped.pcapng").toPath();
+        int size = RING_START + 4096;
+        int count = 500;
+        try (PcapngCaptureRing ring = new PcapngCaptureRing(file, size, 65535)) {
+            for (int i = 0; i < count; i++) {
+                ring.append(BASE_NANOS + i, "openflow:1:1", frame(i, 100));
+            }
+            assertEquals(count, ring.getWritten());
+            assertTrue(ring.getWraps() > 10);
+        }
+        walkRing(file, size);
+
+        // the newest packets, all of them since the oldest one kept
+        List<PcapReader.PcapRecord> records = PcapReader.read(file);
+        long oldest = Long.MAX_VALUE;
+        long newest = 0;
+        for (PcapReader.PcapRecord record : records) {
+            oldest = Math.min(oldest, record.getTimestampNanos());
+            newest = Math.max(newest, record.getTimestampNanos());
+            int i = (int) (record.getTimestampNanos() - BASE_NANOS);
+            assertArrayEquals(frame(i, 100), record.getData());
+        }
+        assertEquals(BASE_NANOS + count - 1, newest);
+        assertEquals(records.size(), newest - oldest + 1);
+        // 132 bytes per block, a part of a block lost at most to the skip blocks
+        assertTrue(records.size() >= 4096 / 132 - 2);
+    }
+
+    @Test
+    public void testSkipBlocksWithVaryingSizes() throws IOException {
+        Path file = folder.newFile("varying.pcapng").toPath();
+        int size = RING_START + 2048 + 2;
+        Random random = new Random(42);
+        try (PcapngCaptureRing ring = new PcapngCaptureRing(file, size, 1500)) {
+            for (int i = 0; i < 300; i++) {
+                ring.append(BASE_NANOS + i, "openflow:1:" + (i % 5), frame(i, 2 + random.nextInt(400)));
+                // a whole number of blocks after every append, whatever the gap left
+                walkRing(file, size);
+            }
+            assertTrue(ring.getWraps() > 0);
+        }
+        List<PcapReader.PcapRecord> records = PcapReader.read(file);
+        assertTrue(records.size() > 0);
+        for (PcapReader.PcapRecord record : records) {
+            assertEquals((byte) 0xEE, record.getData()[record.getData().length - 1]);
+        }
+    }
+
+    @Test
+    public void testSnapLengthCappedToRing() throws IOException {
+        Path file = folder.newFile("small.pcapng").toPath();
+        int size = RING_START + 512;
+        try (PcapngCaptureRing ring = new PcapngCaptureRing(file, size, 65535)) {
+            for (int i = 0; i < 10; i++) {
+                ring.append(BASE_NANOS + i, "openflow:1:1", frame(i, 9000));
+            }
+        }
+        walkRing(file, size);
+        List<PcapReader.PcapRecord> records = PcapReader.read(file);
+        assertEquals(1, records.size());
+        assertEquals(9000, records.get(0).getOriginalLength());
+        assertTrue(records.get(0).getData().length < 512);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testTooSmall() throws IOException {
+        new PcapngCaptureRing(folder.newFile("tiny.pcapng").toPath(), RING_START + 64, 65535);
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright © 2016 siwind, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package com.siwind.bupt.impl.export;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.siwind.bupt.impl.flow.FlowTuple;
+
+public class ConsistentHashRingTest {
+
+    private static final List<String> RECEIVERS = Arrays.asList(
+            "http://10.0.0.1:12321/", "http://10.0.0.2:12321/", "http://10.0.0.3:12321/",
+            "http://10.0.0.4:12321/");
+
+    private static final int FLOWS = 100000;
+
+    private static long flowHash(int i) {
+        return ConsistentHashRing.hash(new FlowTuple(0x0A000000 | i, 0x0A800001, (short) 6, 1024 + i % 50000, 80));
+    }
+
+    @Test
+    public void testBalanced() {
+        ConsistentHashRing ring = new ConsistentHashRing(RECEIVERS, 128);
+        int[] counts = new int[RECEIVERS.size()];
+        for (int i = 0; i < FLOWS; i++) {
+            counts[ring.lookup(flowHash(i), r -> true)]++;
+        }
+        for (int count : counts) {
+            assertTrue(Arrays.toString(counts), Math.abs(count - FLOWS / RECEIVERS.size()) < FLOWS / 10);
+        }
+    }
+
+    @Test
+    public void testFailureMovesOnlyItsSlice() {
+        ConsistentHashRing ring = new ConsistentHashRing(RECEIVERS, 128);
+        int failed = 2;
+        for (int i = 0; i < FLOWS; i++) {
+            long hash = flowHash(i);
+            int owner = ring.lookup(hash, r -> true);
+            int failover = ring.lookup(hash, r -> r != failed);
+            if (owner == failed) {
+                assertNotEquals(failed, failover);
+            } else {
+                assertEquals(owner, failover);
+            }
+        }
+    }
+
+    @Test
+    public void testNoneAvailableKeepsPrimary() {
+        ConsistentHashRing ring = new ConsistentHashRing(RECEIVERS, 16);
+        long hash = flowHash(7);
+        assertEquals(ring.lookup(hash, r -> true), ring.lookup(hash, r -> false));
+    }
+}
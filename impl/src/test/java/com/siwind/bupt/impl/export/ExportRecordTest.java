@@ -0,0 +1,37 @@
+/*
+ * Copyright © 2016 siwind, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package com.siwind.bupt.impl.export;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import com.siwind.bupt.impl.flow.FlowTuple;
+
+public class ExportRecordTest {
+
+    private static ExportRecord roundTrip(FlowTuple tuple) {
+        ExportRecord record = new ExportRecord(tuple, "sip=a&dip=b", 1000);
+        ExportRecord decoded = ExportRecord.decode(record.encode(), 2000);
+        assertEquals("sip=a&dip=b", decoded.getQuery());
+        assertEquals(2000, decoded.getTimestampMillis());
+        return decoded;
+    }
+
+    @Test
+    public void testRoundTrip() {
+        FlowTuple ipv4 = new FlowTuple(0xC0A80001, 0x0A000002, (short) 17, 53, 65535);
+        assertEquals(ipv4, roundTrip(ipv4).getTuple());
+
+        // full addresses, not their fold
+        FlowTuple ipv6 = new FlowTuple(0x20010DB800000000L, 1L, 0xFE80000000000000L, -1L, (short) 6, 40000, 443);
+        FlowTuple decoded = roundTrip(ipv6).getTuple();
+        assertEquals(ipv6, decoded);
+        assertEquals(-1L, decoded.getDstIpLo());
+    }
+}
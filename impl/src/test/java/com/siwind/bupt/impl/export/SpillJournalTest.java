@@ -0,0 +1,125 @@
+/*
+ * Copyright © 2016 siwind, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package com.siwind.bupt.impl.export;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class SpillJournalTest {
+
+    private static final int SEGMENT_SIZE = 4096;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static byte[] record(int i) {
+        return ("record-" + i).getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static int segmentFiles(Path directory) {
+        File[] files = directory.toFile().listFiles();
+        return files == null ? 0 : files.length;
+    }
+
+    @Test
+    public void testReadInOrderAcrossSegments() throws IOException {
+        Path directory = folder.newFolder().toPath();
+        try (SpillJournal journal = new SpillJournal(directory, SEGMENT_SIZE, 1 << 20, 0)) {
+            for (int i = 0; i < 1000; i++) {
+                assertTrue(journal.append(i, record(i)));
+            }
+            assertTrue(segmentFiles(directory) > 1);
+            for (int i = 0; i < 1000; i++) {
+                assertArrayEquals(record(i), journal.peek(0));
+                assertEquals(i, journal.peekTimestamp());
+                journal.remove();
+            }
+            assertTrue(journal.isEmpty());
+            assertNull(journal.peek(0));
+            // read segments are deleted, the tail is kept for appends
+            assertEquals(1, segmentFiles(directory));
+        }
+    }
+
+    @Test
+    public void testRecoverUnreadRecords() throws IOException {
+        Path directory = folder.newFolder().toPath();
+        try (SpillJournal journal = new SpillJournal(directory, SEGMENT_SIZE, 1 << 20, 0)) {
+            for (int i = 0; i < 500; i++) {
+                journal.append(i, record(i));
+            }
+            for (int i = 0; i < 200; i++) {
+                journal.peek(0);
+                journal.remove();
+            }
+        }
+
+        try (SpillJournal journal = new SpillJournal(directory, SEGMENT_SIZE, 1 << 20, 0)) {
+            assertEquals(300, journal.getPending());
+            journal.append(500, record(500));
+            for (int i = 200; i <= 500; i++) {
+                assertArrayEquals(record(i), journal.peek(0));
+                journal.remove();
+            }
+            assertTrue(journal.isEmpty());
+        }
+    }
+
+    @Test
+    public void testDiskBudgetDropsOldestSegment() throws IOException {
+        Path directory = folder.newFolder().toPath();
+        try (SpillJournal journal = new SpillJournal(directory, SEGMENT_SIZE, 4 * SEGMENT_SIZE, 0)) {
+            for (int i = 0; i < 10000; i++) {
+                journal.append(i, record(i));
+            }
+            assertEquals(4, segmentFiles(directory));
+            assertEquals(4L * SEGMENT_SIZE, journal.getBytes());
+            assertTrue(journal.getEvicted() > 0);
+            assertEquals(10000, journal.getPending() + journal.getEvicted());
+
+            // the newest records survive, still in order
+            long previous = -1;
+            while (journal.peek(0) != null) {
+                assertTrue(journal.peekTimestamp() > previous);
+                previous = journal.peekTimestamp();
+                journal.remove();
+            }
+            assertEquals(9999, previous);
+        }
+    }
+
+    @Test
+    public void testExpiredRecordsAreSkipped() throws IOException {
+        Path directory = folder.newFolder().toPath();
+        try (SpillJournal journal = new SpillJournal(directory, SEGMENT_SIZE, 1 << 20, 1000)) {
+            for (int i = 0; i < 100; i++) {
+                journal.append(i * 100, record(i));
+            }
+            // at 5000 everything before 4000 is too old
+            assertArrayEquals(record(40), journal.peek(5000));
+            assertEquals(40, journal.getExpired());
+            assertEquals(60, journal.getPending());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBudgetSmallerThanTwoSegments() throws IOException {
+        new SpillJournal(folder.newFolder().toPath(), SEGMENT_SIZE, 2 * SEGMENT_SIZE - 1, 0);
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright © 2016 siwind, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package com.siwind.bupt.impl.export;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import org.apache.http.impl.client.HttpClients;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.siwind.bupt.impl.GetpacketConfig;
+import com.siwind.bupt.impl.flow.FlowTuple;
+import com.siwind.bupt.impl.tools.StubTridentReceiver;
+
+public class TridentExporterTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private static ExportRecord record(int i) {
+        return new ExportRecord(new FlowTuple(0x0A000001, 0x0A000002, (short) 6, 40000, i),
+                "seq=" + i, System.currentTimeMillis());
+    }
+
+    private static void await(long timeoutMs, BooleanSupplier condition)
+            throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        while (!condition.getAsBoolean() && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+    }
+
+    @Test
+    public void testSpillDuringOutageAndReplayInOrder() throws Exception {
+        int port = freePort();
+        GetpacketConfig config = new GetpacketConfig();
+        config.setTridentUrls("http://127.0.0.1:" + port + "/");
+        config.setExportBreakerFailures(2);
+        config.setExportBreakerOpenMs(100);
+        config.setSpillDirectory(folder.newFolder().getPath());
+        config.setSpillSegmentSizeMb(1);
+
+        try (TridentExporter exporter = new TridentExporter(config)) {
+            exporter.start();
+            // Trident is down: records are spilled, the caller never blocks
+            for (int i = 0; i < 500; i++) {
+                assertTrue(exporter.export(record(i)));
+            }
+            await(5000, () -> exporter.getSpilled() == 500);
+            assertEquals(500, exporter.getSpilled());
+            assertEquals(CircuitBreaker.State.OPEN, exporter.getReceivers().get(0).getBreaker().getState());
+
+            List<String> received = new CopyOnWriteArrayList<>();
+            try (StubTridentReceiver receiver = new StubTridentReceiver(port)) {
+                receiver.setListener((target, nanos) -> received.add(target));
+                for (int i = 500; i < 600; i++) {
+                    exporter.export(record(i));
+                }
+                await(10000, () -> received.size() == 600);
+
+                assertEquals(600, received.size());
+                for (int i = 0; i < 600; i++) {
+                    assertEquals("/packet?seq=" + i, received.get(i));
+                }
+                assertEquals(600, exporter.getExported());
+                assertEquals(0, exporter.getDropped());
+                assertEquals(CircuitBreaker.State.CLOSED, exporter.getReceivers().get(0).getBreaker().getState());
+            }
+        }
+    }
+
+    @Test
+    public void testFailoverToNextReceiver() throws Exception {
+        int downPort = freePort();
+        List<String> received = new CopyOnWriteArrayList<>();
+        try (StubTridentReceiver up = new StubTridentReceiver(0)) {
+            up.setListener((target, nanos) -> received.add(target));
+            GetpacketConfig config = new GetpacketConfig();
+            config.setTridentUrls(up.getUrl() + ", http://127.0.0.1:" + downPort + "/");
+            config.setExportBreakerFailures(1);
+            config.setExportBreakerOpenMs(60000);
+            config.setSpillDirectory(folder.newFolder().getPath());
+            config.setSpillSegmentSizeMb(1);
+
+            try (TridentExporter exporter = new TridentExporter(config)) {
+                exporter.start();
+                ReceiverExporter live = exporter.getReceivers().get(0);
+                ReceiverExporter down = exporter.getReceivers().get(1);
+                for (int i = 0; i < 200; i++) {
+                    exporter.export(record(i));
+                }
+                await(5000, () -> !down.isAvailable() && live.getExported() == live.getOffered());
+                assertEquals(CircuitBreaker.State.OPEN, down.getBreaker().getState());
+
+                // the flows of the failed receiver now go to the live one
+                received.clear();
+                for (int i = 0; i < 200; i++) {
+                    exporter.export(record(i));
+                }
+                await(5000, () -> received.size() == 200);
+                assertEquals(200, received.size());
+            }
+        }
+    }
+
+    @Test
+    public void testUnreadableSpilledRecordsAreDropped() throws Exception {
+        GetpacketConfig config = new GetpacketConfig();
+        config.setSpillSegmentSizeMb(1);
+        Path directory = folder.newFolder().toPath();
+        try (SpillJournal journal = new SpillJournal(directory, 1 << 20, 4 << 20, 0)) {
+            // shorter than a tuple, as left by a torn segment
+            journal.append(System.currentTimeMillis(), "torn".getBytes(StandardCharsets.US_ASCII));
+            // not a valid URI
+            journal.append(System.currentTimeMillis(), new ExportRecord(
+                    new FlowTuple(0x0A000001, 0x0A000002, (short) 6, 40000, 0), "seq=0 |{}", 0).encode());
+            journal.append(System.currentTimeMillis(), record(1).encode());
+        }
+
+        List<String> received = new CopyOnWriteArrayList<>();
+        try (StubTridentReceiver receiver = new StubTridentReceiver(0)) {
+            receiver.setListener((target, nanos) -> received.add(target));
+            ReceiverExporter exporter = new ReceiverExporter(receiver.getUrl(), HttpClients.createDefault(), null,
+                    config, directory, null);
+            try {
+                exporter.start();
+                exporter.export(record(2));
+                await(5000, () -> received.size() == 2);
+                assertEquals(2, received.size());
+                assertEquals("/packet?seq=1", received.get(0));
+                assertEquals("/packet?seq=2", received.get(1));
+                assertEquals(2, exporter.getDropped());
+            } finally {
+                exporter.close();
+            }
+        }
+    }
+}
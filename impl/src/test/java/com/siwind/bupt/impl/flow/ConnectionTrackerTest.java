@@ -0,0 +1,134 @@
+/*
+ * Copyright © 2016 siwind, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package com.siwind.bupt.impl.flow;
+
+import static com.siwind.bupt.impl.flow.ConnectionTracker.EVENT_CLOSE;
+import static com.siwind.bupt.impl.flow.ConnectionTracker.EVENT_NEW;
+import static com.siwind.bupt.impl.flow.ConnectionTracker.EVENT_NONE;
+import static com.siwind.bupt.impl.flow.ConnectionTracker.TCP_ACK;
+import static com.siwind.bupt.impl.flow.ConnectionTracker.TCP_FIN;
+import static com.siwind.bupt.impl.flow.ConnectionTracker.TCP_RST;
+import static com.siwind.bupt.impl.flow.ConnectionTracker.TCP_SYN;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class ConnectionTrackerTest {
+
+    private static final int CLIENT = 0x0A000001;
+    private static final int SERVER = 0x0A000002;
+
+    private static ConnectionTracker tracker(ConnectionTracker.Mode mode, int maxEntries) {
+        return new ConnectionTracker(mode, maxEntries, 30, 300, 30, 10);
+    }
+
+    private static int fromClient(ConnectionTracker tracker, int port, int flags, long now) {
+        return tracker.track(CLIENT, SERVER, port, 80, flags, false, now);
+    }
+
+    private static int fromServer(ConnectionTracker tracker, int port, int flags, long now) {
+        return tracker.track(SERVER, CLIENT, 80, port, flags, false, now);
+    }
+
+    @Test
+    public void testConnectionLifecycle() {
+        ConnectionTracker tracker = tracker(ConnectionTracker.Mode.OPEN_CLOSE, 1024);
+        assertEquals(EVENT_NEW, fromClient(tracker, 40000, TCP_SYN, 0));
+        assertEquals(EVENT_NONE, fromServer(tracker, 40000, TCP_SYN | TCP_ACK, 1));
+        assertEquals(EVENT_NONE, fromClient(tracker, 40000, TCP_ACK, 2));
+        assertEquals(EVENT_NONE, tracker.track(CLIENT, SERVER, 40000, 80, TCP_ACK, true, 3));
+        assertEquals(EVENT_CLOSE, fromClient(tracker, 40000, TCP_FIN | TCP_ACK, 4));
+        assertEquals(EVENT_NONE, fromServer(tracker, 40000, TCP_FIN | TCP_ACK, 5));
+        assertEquals(EVENT_NONE, fromClient(tracker, 40000, TCP_ACK, 6));
+        // the tuple is reused by a new connection
+        assertEquals(EVENT_NEW, fromClient(tracker, 40000, TCP_SYN, 7));
+        assertEquals(2, tracker.getOpened());
+        assertEquals(1, tracker.getClosed());
+    }
+
+    @Test
+    public void testMidStreamAndReset() {
+        ConnectionTracker tracker = tracker(ConnectionTracker.Mode.OPEN_CLOSE, 1024);
+        // first seen with data: a connection opened before we started
+        assertEquals(EVENT_NEW, tracker.track(CLIENT, SERVER, 40001, 80, TCP_ACK, true, 0));
+        assertEquals(EVENT_CLOSE, fromServer(tracker, 40001, TCP_RST, 1));
+        assertEquals(EVENT_NONE, fromClient(tracker, 40001, TCP_RST, 2));
+        // resets of unknown connections are ignored
+        assertEquals(EVENT_NONE, fromClient(tracker, 40002, TCP_RST, 3));
+    }
+
+    @Test
+    public void testIpv6FoldCollisions() {
+        // different addresses folding to the same 32 bits, see NetUtils.foldIPv6
+        long multiplier = 0x9E3779B97F4A7C15L;
+        FlowTuple first = new FlowTuple(0L, 0x10L, 0L, 0x20L, (short) 6, 40000, 80);
+        FlowTuple second = new FlowTuple(1L, 0x10L ^ multiplier, 1L, 0x20L ^ multiplier, (short) 6, 40000, 80);
+        FlowTuple ipv4 = new FlowTuple(0x10, 0x20, (short) 6, 40000, 80);
+        assertEquals(first.getSrcIp(), second.getSrcIp());
+        assertEquals(first.getDstIp(), second.getDstIp());
+        assertEquals(first.getSrcIp(), ipv4.getSrcIp());
+        assertFalse(first.equals(second));
+        assertFalse(first.equals(ipv4));
+        assertTrue(first.equals(new FlowTuple(0L, 0x10L, 0L, 0x20L, (short) 6, 40000, 80)));
+
+        ConnectionTracker tracker = tracker(ConnectionTracker.Mode.OPEN_CLOSE, 1024);
+        assertEquals(EVENT_NEW, tracker.track(first, TCP_SYN, false, 0));
+        assertEquals(EVENT_NEW, tracker.track(second, TCP_SYN, false, 1));
+        assertEquals(EVENT_NEW, tracker.track(ipv4, TCP_SYN, false, 2));
+        assertEquals(EVENT_CLOSE, tracker.track(second, TCP_RST, false, 3));
+        assertEquals(EVENT_NONE, tracker.track(first, TCP_ACK, true, 4));
+        // the reverse direction of an IPv6 connection
+        assertEquals(EVENT_CLOSE, tracker.track(new FlowTuple(0L, 0x20L, 0L, 0x10L, (short) 6, 80, 40000),
+                TCP_FIN | TCP_ACK, false, 5));
+        assertEquals(3, tracker.getOpened());
+    }
+
+    @Test
+    public void testTimeouts() {
+        ConnectionTracker tracker = tracker(ConnectionTracker.Mode.NEW, 1024);
+        assertEquals(EVENT_NEW, fromClient(tracker, 40000, TCP_ACK, 0));
+        assertEquals(EVENT_NONE, fromClient(tracker, 40000, TCP_ACK, 299000));
+        // idle for longer than the established timeout
+        assertEquals(EVENT_NEW, fromClient(tracker, 40000, TCP_ACK, 299000 + 300001));
+    }
+
+    @Test
+    public void testModes() {
+        ConnectionTracker newOnly = tracker(ConnectionTracker.Mode.NEW, 16);
+        assertTrue(newOnly.isExported(EVENT_NEW));
+        assertFalse(newOnly.isExported(EVENT_CLOSE));
+        assertFalse(newOnly.isExported(EVENT_NONE));
+
+        ConnectionTracker openClose = tracker(ConnectionTracker.Mode.OPEN_CLOSE, 16);
+        assertTrue(openClose.isExported(EVENT_NEW));
+        assertTrue(openClose.isExported(EVENT_CLOSE));
+        assertFalse(openClose.isExported(EVENT_NONE));
+        assertEquals(1, openClose.getSuppressed());
+    }
+
+    @Test
+    public void testBoundedMemory() {
+        ConnectionTracker tracker = tracker(ConnectionTracker.Mode.NEW, 1024);
+        assertEquals(1024, tracker.getCapacity());
+        for (int port = 0; port < 10000; port++) {
+            assertEquals(EVENT_NEW, fromClient(tracker, port, TCP_SYN, port));
+        }
+        assertTrue(tracker.getEvicted() >= 10000 - 1024);
+
+        // recent connections are still known
+        int known = 0;
+        for (int port = 9900; port < 10000; port++) {
+            if (fromClient(tracker, port, TCP_ACK, 10000) == EVENT_NONE) {
+                known++;
+            }
+        }
+        assertTrue("known " + known, known > 90);
+    }
+}
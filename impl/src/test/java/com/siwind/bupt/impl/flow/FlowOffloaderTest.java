@@ -0,0 +1,170 @@
+/*
+ * Copyright © 2016 siwind, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package com.siwind.bupt.impl.flow;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.flow.service.rev130819.AddFlowInput;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.flow.service.rev130819.SalFlowService;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.inventory.rev130819.NodeConnectorId;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.inventory.rev130819.NodeConnectorRef;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.inventory.rev130819.NodeId;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.inventory.rev130819.Nodes;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.inventory.rev130819.node.NodeConnector;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.inventory.rev130819.node.NodeConnectorKey;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.inventory.rev130819.nodes.Node;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.inventory.rev130819.nodes.NodeKey;
+import org.opendaylight.yangtools.yang.binding.InstanceIdentifier;
+import org.opendaylight.yangtools.yang.common.RpcResult;
+
+import com.google.common.util.concurrent.Futures;
+import com.siwind.bupt.impl.GetpacketConfig;
+
+public class FlowOffloaderTest {
+
+    private static final int FLOWS = 20;
+
+    private static final int PACKETS_PER_FLOW = 50;
+
+    private SalFlowService salFlowService;
+
+    /**
+     * flow names installed on the simulated switch
+     */
+    private final Set<String> switchTable = new HashSet<>();
+
+    private GetpacketConfig config;
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void setUp() {
+        final RpcResult<Object> success = mock(RpcResult.class);
+        when(success.isSuccessful()).thenReturn(true);
+
+        salFlowService = mock(SalFlowService.class);
+        when(salFlowService.addFlow(any(AddFlowInput.class))).thenAnswer(new Answer<Object>() {
+            @Override
+            public Object answer(InvocationOnMock invocation) {
+                AddFlowInput input = (AddFlowInput) invocation.getArguments()[0];
+                switchTable.add(input.getFlowName());
+                return Futures.immediateFuture(success);
+            }
+        });
+
+        config = new GetpacketConfig();
+        config.setOffloadEnabled(true);
+        config.setOffloadInstallRate(1000);
+    }
+
+    private static NodeConnectorRef ingress(int dpid, int port) {
+        String nodeId = "openflow:" + dpid;
+        return new NodeConnectorRef(InstanceIdentifier.builder(Nodes.class)
+                .child(Node.class, new NodeKey(new NodeId(nodeId)))
+                .child(NodeConnector.class, new NodeConnectorKey(new NodeConnectorId(nodeId + ":" + port)))
+                .build());
+    }
+
+    private static FlowTuple tuple(int i) {
+        return new FlowTuple(0x0a000001, 0x0a000100 + i, (short) 6, 40000 + i, 80);
+    }
+
+    @Test
+    public void testPacketInLoadDrops() {
+        FlowOffloader offloader = new FlowOffloader(salFlowService, config);
+        NodeConnectorRef ingress = ingress(1, 1);
+        NodeConnectorId inPort = new NodeConnectorId("openflow:1:1");
+
+        int packetIns = 0;
+        for (int p = 0; p < PACKETS_PER_FLOW; p++) {
+            for (int i = 0; i < FLOWS; i++) {
+                FlowTuple tuple = tuple(i);
+                if (switchTable.contains(FlowUtils.createOffloadFlowId(inPort, tuple))) {
+                    continue; // switched in hardware
+                }
+                packetIns++;
+                offloader.offload(ingress, tuple);
+            }
+            offloader.flush();
+        }
+
+        verify(salFlowService, times(FLOWS)).addFlow(any(AddFlowInput.class));
+        assertEquals(FLOWS, packetIns);
+        assertEquals(FLOWS, offloader.getInstalled());
+        assertEquals(0, offloader.getPending());
+    }
+
+    @Test
+    public void testPendingFlowQueuedOnce() {
+        FlowOffloader offloader = new FlowOffloader(salFlowService, config);
+        NodeConnectorRef ingress = ingress(1, 1);
+
+        assertTrue(offloader.offload(ingress, tuple(0)));
+        assertFalse(offloader.offload(ingress, tuple(0)));
+        offloader.flush();
+
+        verify(salFlowService, times(1)).addFlow(any(AddFlowInput.class));
+    }
+
+    @Test
+    public void testInstallRateLimitedPerSwitch() {
+        config.setOffloadInstallRate(2);
+        FlowOffloader offloader = new FlowOffloader(salFlowService, config);
+
+        for (int i = 0; i < 10; i++) {
+            offloader.offload(ingress(1, 1), tuple(i));
+            offloader.offload(ingress(2, 1), tuple(i));
+        }
+        offloader.flush();
+
+        verify(salFlowService, times(4)).addFlow(any(AddFlowInput.class));
+        assertEquals(16, offloader.getPending());
+    }
+
+    @Test
+    public void testTableBudget() {
+        config.setOffloadMaxFlowsPerSwitch(3);
+        FlowOffloader offloader = new FlowOffloader(salFlowService, config);
+
+        for (int i = 0; i < 10; i++) {
+            offloader.offload(ingress(1, 1), tuple(i));
+        }
+        offloader.flush();
+
+        verify(salFlowService, times(3)).addFlow(any(AddFlowInput.class));
+        assertEquals(7, offloader.getRejectedBudget());
+    }
+
+    @Test
+    public void testBatchSize() {
+        config.setOffloadBatchSize(5);
+        FlowOffloader offloader = new FlowOffloader(salFlowService, config);
+
+        for (int i = 0; i < 10; i++) {
+            offloader.offload(ingress(1, 1), tuple(i));
+        }
+        offloader.flush();
+        verify(salFlowService, times(5)).addFlow(any(AddFlowInput.class));
+
+        offloader.flush();
+        verify(salFlowService, times(10)).addFlow(any(AddFlowInput.class));
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright © 2016 siwind, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package com.siwind.bupt.impl.flow;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.math.BigInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.opendaylight.controller.md.sal.binding.api.DataBroker;
+import org.opendaylight.controller.md.sal.binding.api.WriteTransaction;
+import org.opendaylight.controller.md.sal.common.api.data.LogicalDatastoreType;
+import org.opendaylight.controller.md.sal.common.api.data.TransactionCommitFailedException;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.getpacket.rev150105.flow.records.FlowRecord;
+import org.opendaylight.yangtools.yang.binding.InstanceIdentifier;
+
+import com.google.common.util.concurrent.CheckedFuture;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.SettableFuture;
+import com.siwind.bupt.impl.GetpacketConfig;
+import com.siwind.bupt.impl.pipeline.PacketDescriptor;
+import com.siwind.bupt.impl.tools.PacketReplay;
+
+public class FlowRecordSinkTest {
+
+    private DataBroker dataBroker;
+    private WriteTransaction tx;
+    private GetpacketConfig config;
+
+    @Before
+    public void setUp() {
+        dataBroker = mock(DataBroker.class);
+        tx = mock(WriteTransaction.class);
+        when(dataBroker.newWriteOnlyTransaction()).thenReturn(tx);
+        when(tx.submit()).thenReturn(Futures.immediateCheckedFuture(null));
+        config = new GetpacketConfig();
+    }
+
+    /**
+     * Ethernet/IPv4/UDP from 10.0.0.1 to 10.0.0.2:53.
+     */
+    private static PacketDescriptor packet(int srcPort, long timestamp) {
+        byte[] frame = new byte[42];
+        frame[12] = 0x08;
+        frame[14] = 0x45;
+        frame[23] = 17;
+        frame[26] = 10;
+        frame[29] = 1;
+        frame[30] = 10;
+        frame[33] = 2;
+        frame[34] = (byte) (srcPort >> 8);
+        frame[35] = (byte) srcPort;
+        frame[37] = 53;
+        return new PacketDescriptor(PacketReplay.createIngress("openflow:1:1"), frame, timestamp, -1);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testCoalescing() {
+        FlowRecordSink sink = new FlowRecordSink(dataBroker, config);
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < 5; i++) {
+            sink.onPacket(packet(1000, now + i));
+        }
+        sink.onPacket(packet(2000, now));
+        sink.flush(true);
+
+        ArgumentCaptor<FlowRecord> records = ArgumentCaptor.forClass(FlowRecord.class);
+        verify(dataBroker, times(1)).newWriteOnlyTransaction();
+        verify(tx, times(2)).merge(eq(LogicalDatastoreType.OPERATIONAL), any(InstanceIdentifier.class),
+                records.capture(), eq(true));
+        FlowRecord first = records.getAllValues().get(0);
+        assertEquals("udp-10.0.0.1:1000-10.0.0.2:53", first.getId());
+        assertEquals(BigInteger.valueOf(5), first.getPackets());
+        assertEquals(BigInteger.valueOf(now + 4), first.getLastSeen());
+        assertEquals(4, sink.getCoalesced());
+        assertEquals(2, sink.getWritten());
+
+        // nothing changed, nothing written
+        sink.flush(true);
+        verify(dataBroker, times(1)).newWriteOnlyTransaction();
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testIdleFlowsAreRemoved() {
+        config.setFlowStoreIdleTimeoutSec(1);
+        FlowRecordSink sink = new FlowRecordSink(dataBroker, config);
+        long now = System.currentTimeMillis();
+        sink.onPacket(packet(1000, now - 5000));
+        sink.onPacket(packet(2000, now));
+        sink.flush(true);
+
+        verify(tx, times(1)).delete(eq(LogicalDatastoreType.OPERATIONAL), any(InstanceIdentifier.class));
+        verify(tx, times(1)).merge(eq(LogicalDatastoreType.OPERATIONAL), any(InstanceIdentifier.class),
+                any(FlowRecord.class), eq(true));
+        assertEquals(1, sink.getFlows());
+    }
+
+    @Test
+    public void testOutstandingCommitsAreCapped() {
+        SettableFuture<Void> commit = SettableFuture.create();
+        CheckedFuture<Void, TransactionCommitFailedException> pending = Futures.makeChecked(commit,
+            e -> new TransactionCommitFailedException("failed", e));
+        when(tx.submit()).thenReturn(pending);
+        config.setFlowStoreMaxOutstanding(1);
+        FlowRecordSink sink = new FlowRecordSink(dataBroker, config);
+        long now = System.currentTimeMillis();
+
+        sink.onPacket(packet(1000, now));
+        sink.flush(false);
+        sink.onPacket(packet(2000, now));
+        sink.onPacket(packet(3000, now));
+        sink.flush(false);
+        assertEquals(1, sink.getTransactions());
+        assertEquals(1, sink.getDeferred());
+
+        commit.set(null);
+        sink.flush(false);
+        assertEquals(2, sink.getTransactions());
+        assertEquals(3, sink.getWritten());
+    }
+}
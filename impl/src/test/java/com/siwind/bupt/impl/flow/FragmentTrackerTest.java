@@ -0,0 +1,138 @@
+/*
+ * Copyright © 2016 siwind, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package com.siwind.bupt.impl.flow;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.siwind.bupt.impl.pipeline.PacketDescriptor;
+
+public class FragmentTrackerTest {
+
+    private static final short UDP = PacketDescriptor.PROTOCOL_UDP;
+
+    /**
+     * Ethernet/IPv4 fragment of UDP from 10.0.0.1 to 10.0.0.2 with IP ID 0x1234,
+     * the first one carrying ports 5000 and 53.
+     */
+    private static byte[] fragment(int offset, boolean more) {
+        byte[] frame = new byte[60];
+        frame[12] = 0x08;
+        frame[14] = 0x45;
+        frame[17] = 46;
+        frame[18] = 0x12;
+        frame[19] = 0x34;
+        frame[20] = (byte) ((more ? 0x20 : 0) | offset >> 8);
+        frame[21] = (byte) offset;
+        frame[23] = (byte) UDP;
+        frame[26] = 10;
+        frame[29] = 1;
+        frame[30] = 10;
+        frame[33] = 2;
+        // garbage where a port would be in a later fragment
+        Arrays.fill(frame, 34, 60, (byte) 0x77);
+        if (offset == 0) {
+            frame[34] = (byte) (5000 >> 8);
+            frame[35] = (byte) 5000;
+            frame[36] = 0;
+            frame[37] = 53;
+        }
+        return frame;
+    }
+
+    @Test
+    public void testAttribution() {
+        FragmentTracker tracker = new FragmentTracker(64, 2000);
+        PacketDescriptor later = new PacketDescriptor(null, fragment(185, false), 1000, -1, null, 1, tracker);
+        // before the first fragment
+        assertFalse(later.hasPorts());
+
+        PacketDescriptor first = new PacketDescriptor(null, fragment(0, true), 1000, -1, null, 1, tracker);
+        assertTrue(first.hasPorts());
+        assertEquals(5000, first.getSrcPort());
+        later = new PacketDescriptor(null, fragment(185, false), 1001, -1, null, 1, tracker);
+        assertTrue(later.hasPorts());
+        assertEquals(5000, later.getSrcPort());
+        assertEquals(53, later.getDstPort());
+
+        // not tracked: no garbage ports either
+        later = new PacketDescriptor(null, fragment(185, false), 1001, -1);
+        assertTrue(later.isIpv4());
+        assertFalse(later.hasPorts());
+
+        // forgotten after the timeout
+        later = new PacketDescriptor(null, fragment(370, false), 3001, -1, null, 1, tracker);
+        assertFalse(later.hasPorts());
+        assertEquals(1, tracker.getRecorded());
+        assertEquals(1, tracker.getHits());
+        assertEquals(2, tracker.getMisses());
+    }
+
+    @Test
+    public void testCountedOncePerPacket() throws Exception {
+        FragmentTracker tracker = new FragmentTracker(64, 2000);
+        new PacketDescriptor(null, fragment(0, true), 1000, -1, null, 1, tracker).decode();
+        int packets = 200;
+        int threads = 4;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            for (int i = 0; i < packets; i++) {
+                PacketDescriptor later = new PacketDescriptor(null, fragment(185, false), 1001, -1, null, 1, tracker);
+                CyclicBarrier barrier = new CyclicBarrier(threads);
+                List<Future<Integer>> ports = new ArrayList<>();
+                for (int t = 0; t < threads; t++) {
+                    ports.add(executor.submit(() -> {
+                        barrier.await();
+                        return later.getDstPort();
+                    }));
+                }
+                for (Future<Integer> port : ports) {
+                    assertEquals(53, (int) port.get(5, TimeUnit.SECONDS));
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(1, tracker.getRecorded());
+        assertEquals(packets, tracker.getHits());
+        assertEquals(0, tracker.getMisses());
+    }
+
+    @Test
+    public void testBoundedMemory() {
+        FragmentTracker tracker = new FragmentTracker(100, 2000);
+        assertEquals(128, tracker.getCapacity());
+        for (int id = 0; id < 1000; id++) {
+            tracker.record(1, 2, UDP, id, id, 53, 1000 + id);
+        }
+        assertTrue(tracker.getEvicted() > 0);
+        // recent entries survive, the oldest are evicted first
+        assertEquals(999L << 16 | 53, tracker.lookup(1, 2, UDP, 999, 2000));
+        assertEquals(-1, tracker.lookup(1, 2, UDP, 0, 2000));
+        assertEquals(-1, tracker.lookup(1, 2, PacketDescriptor.PROTOCOL_TCP, 999, 2000));
+
+        // expired entries are reused without evicting
+        long evicted = tracker.getEvicted();
+        for (int id = 0; id < 64; id++) {
+            tracker.record(3, 4, UDP, id, 1, 2, 10000);
+        }
+        assertEquals(evicted, tracker.getEvicted());
+    }
+}
@@ -0,0 +1,210 @@
+/*
+ * Copyright © 2016 siwind, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package com.siwind.bupt.impl.flow;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.after;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.opendaylight.controller.md.sal.binding.api.DataBroker;
+import org.opendaylight.controller.md.sal.binding.api.DataObjectModification;
+import org.opendaylight.controller.md.sal.binding.api.DataTreeIdentifier;
+import org.opendaylight.controller.md.sal.binding.api.DataTreeModification;
+import org.opendaylight.controller.md.sal.common.api.data.LogicalDatastoreType;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.flow.inventory.rev130819.FlowCapableNode;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.flow.service.rev130819.AddFlowInput;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.flow.service.rev130819.SalFlowService;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.inventory.rev130819.NodeId;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.inventory.rev130819.Nodes;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.inventory.rev130819.nodes.Node;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.inventory.rev130819.nodes.NodeKey;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.module.config.rev141015.NodeConfigService;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.module.config.rev141015.SetConfigInput;
+import org.opendaylight.yangtools.yang.binding.InstanceIdentifier;
+
+import com.siwind.bupt.api.DecodedPacket;
+import com.siwind.bupt.api.PacketConsumer;
+import com.siwind.bupt.api.PacketField;
+import com.siwind.bupt.impl.GetpacketConfig;
+import com.siwind.bupt.impl.pipeline.PacketPipeline;
+
+public class PuntFlowManagerTest {
+
+    /**
+     * ethernet header only, 802.1Q tag included
+     */
+    private static final int ETHERNET_BYTES = 18;
+
+    /**
+     * up to the IPv4 destination address
+     */
+    private static final int IPV4_BYTES = 38;
+
+    /**
+     * up to the TCP flags after 40 octets of IPv6 header and 64 of extension headers
+     */
+    private static final int TCP_BYTES = 136;
+
+    private GetpacketConfig config;
+    private SalFlowService salFlowService;
+    private NodeConfigService nodeConfigService;
+    private PacketPipeline pipeline;
+    private PuntFlowManager manager;
+
+    @Before
+    public void setUp() {
+        config = new GetpacketConfig();
+        config.setPuntEnabled(true);
+        salFlowService = mock(SalFlowService.class);
+        nodeConfigService = mock(NodeConfigService.class);
+    }
+
+    @After
+    public void tearDown() {
+        if (manager != null) {
+            manager.close();
+        }
+        if (pipeline != null) {
+            pipeline.close();
+        }
+    }
+
+    private void start() {
+        pipeline = new PacketPipeline(config);
+        manager = new PuntFlowManager(mock(DataBroker.class), salFlowService, nodeConfigService, config, pipeline);
+    }
+
+    private static PacketConsumer consumer(String name, Set<PacketField> fields) {
+        return new PacketConsumer() {
+            @Override
+            public String getName() {
+                return name;
+            }
+
+            @Override
+            public Set<PacketField> getRequiredFields() {
+                return fields;
+            }
+
+            @Override
+            public boolean isInline() {
+                return true;
+            }
+
+            @Override
+            public void onPacket(DecodedPacket packet) {
+            }
+        };
+    }
+
+    @SuppressWarnings("unchecked")
+    private void nodeChanged(String nodeId, DataObjectModification.ModificationType type) {
+        InstanceIdentifier<FlowCapableNode> path = InstanceIdentifier.builder(Nodes.class)
+                .child(Node.class, new NodeKey(new NodeId(nodeId))).augmentation(FlowCapableNode.class).build();
+        DataObjectModification<FlowCapableNode> rootNode = mock(DataObjectModification.class);
+        when(rootNode.getModificationType()).thenReturn(type);
+        DataTreeModification<FlowCapableNode> change = mock(DataTreeModification.class);
+        when(change.getRootNode()).thenReturn(rootNode);
+        when(change.getRootPath()).thenReturn(new DataTreeIdentifier<>(LogicalDatastoreType.OPERATIONAL, path));
+        manager.onDataTreeChanged(Collections.singletonList(change));
+    }
+
+    /**
+     * @return every switch configuration sent so far
+     */
+    private List<SetConfigInput> verifyConfigs(int times) {
+        ArgumentCaptor<SetConfigInput> captor = ArgumentCaptor.forClass(SetConfigInput.class);
+        verify(nodeConfigService, timeout(1000).times(times)).setConfig(captor.capture());
+        return captor.getAllValues();
+    }
+
+    @Test
+    public void testMaxLengthFollowsConsumers() {
+        start();
+        assertEquals(ETHERNET_BYTES, manager.getMaxLength());
+
+        nodeChanged("openflow:1", DataObjectModification.ModificationType.WRITE);
+        assertEquals(ETHERNET_BYTES, (int) verifyConfigs(1).get(0).getMissSearchLength());
+
+        pipeline.addConsumer(consumer("ipv4", EnumSet.of(PacketField.INGRESS, PacketField.IPV4)));
+        assertEquals(IPV4_BYTES, (int) verifyConfigs(2).get(1).getMissSearchLength());
+
+        PacketConsumer tcp = consumer("tcp", EnumSet.of(PacketField.TCP));
+        pipeline.addConsumer(tcp);
+        assertEquals(TCP_BYTES, (int) verifyConfigs(3).get(2).getMissSearchLength());
+        verify(salFlowService, timeout(1000).times(3)).addFlow(any(AddFlowInput.class));
+
+        pipeline.removeConsumer(tcp);
+        assertEquals(IPV4_BYTES, (int) verifyConfigs(4).get(3).getMissSearchLength());
+        assertEquals(IPV4_BYTES, manager.getMaxLength());
+    }
+
+    @Test
+    public void testConsumerWithSameSize() {
+        start();
+        nodeChanged("openflow:1", DataObjectModification.ModificationType.WRITE);
+        pipeline.addConsumer(consumer("ingress", EnumSet.of(PacketField.INGRESS, PacketField.ETHERNET)));
+
+        verify(nodeConfigService, after(200).times(1)).setConfig(any(SetConfigInput.class));
+    }
+
+    @Test
+    public void testDisconnectedNodeNotReprogrammed() {
+        start();
+        nodeChanged("openflow:1", DataObjectModification.ModificationType.WRITE);
+        nodeChanged("openflow:2", DataObjectModification.ModificationType.WRITE);
+        nodeChanged("openflow:1", DataObjectModification.ModificationType.DELETE);
+        verifyConfigs(2);
+
+        pipeline.addConsumer(consumer("tcp", EnumSet.of(PacketField.TCP)));
+        List<SetConfigInput> configs = verifyConfigs(3);
+        assertEquals(TCP_BYTES, (int) configs.get(2).getMissSearchLength());
+        verify(nodeConfigService, after(200).times(3)).setConfig(any(SetConfigInput.class));
+    }
+
+    @Test
+    public void testDedupAndCaptureBytes() {
+        config.setDedupEnabled(true);
+        start();
+        assertEquals(config.getDedupPrefixBytes(), manager.getMaxLength());
+        pipeline.addConsumer(consumer("tcp", EnumSet.of(PacketField.TCP)));
+        verify(nodeConfigService, after(200).never()).setConfig(any(SetConfigInput.class));
+        assertEquals(TCP_BYTES, pipeline.getRequiredBytes());
+        manager.close();
+        pipeline.close();
+
+        config.setCaptureEnabled(true);
+        config.setCaptureSnapLength(1500);
+        start();
+        assertEquals(1500, manager.getMaxLength());
+    }
+
+    @Test
+    public void testConfiguredMaxLength() {
+        config.setPuntMaxLength(256);
+        start();
+        nodeChanged("openflow:1", DataObjectModification.ModificationType.WRITE);
+        pipeline.addConsumer(consumer("tcp", EnumSet.of(PacketField.TCP)));
+
+        verify(nodeConfigService, after(200).times(1)).setConfig(any(SetConfigInput.class));
+        assertEquals(256, manager.getMaxLength());
+    }
+}
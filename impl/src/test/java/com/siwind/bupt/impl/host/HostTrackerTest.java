@@ -0,0 +1,97 @@
+/*
+ * Copyright © 2016 siwind, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package com.siwind.bupt.impl.host;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import com.siwind.bupt.impl.tools.PacketReplay;
+
+public class HostTrackerTest {
+
+    private static final long MAC = 0x0000AABBCCDDEEFFL & ~(1L << 40);
+
+    @Test
+    public void testLearnAndMove() {
+        HostTracker tracker = new HostTracker(16, 60000);
+        HostTracker.Host host = new HostTracker.Host();
+        assertFalse(tracker.lookup(MAC, host, 0));
+
+        tracker.learn(MAC, 1, 2, 0x0A000001, 0, 0, 1000);
+        assertTrue(tracker.lookup(MAC, host, 1000));
+        assertEquals("openflow:1:2", host.getLocation());
+        assertEquals(0x0A000001, host.getIpv4());
+
+        // a packet without address keeps the known one
+        tracker.learn(MAC, 3, 4, 0, 0, 0, 2000);
+        assertTrue(tracker.lookup(MAC, host, 2000));
+        assertEquals("openflow:3:4", host.getLocation());
+        assertEquals(0x0A000001, host.getIpv4());
+        assertEquals(1, tracker.getLearned());
+        assertEquals(1, tracker.getMoved());
+
+        // multicast sources are not hosts
+        tracker.learn(MAC | 1L << 40, 1, 2, 0, 0, 0, 2000);
+        assertEquals(1, tracker.getHosts());
+
+        assertFalse(tracker.lookup(MAC, host, 70000));
+    }
+
+    @Test
+    public void testAgingKeepsProbeChains() {
+        HostTracker tracker = new HostTracker(64, 2000);
+        for (long mac = 1; mac <= 64; mac++) {
+            tracker.learn(mac << 8, 1, (int) mac, 0, 0, 0, mac % 2 == 0 ? 0 : 5000);
+        }
+        assertEquals(64, tracker.getHosts());
+
+        // the sweep removes the even hosts, the odd ones must still be found
+        tracker.learn(1000 << 8, 1, 1, 0, 0, 0, 6500);
+        assertEquals(32, tracker.getExpired());
+        assertEquals(33, tracker.getHosts());
+        HostTracker.Host host = new HostTracker.Host();
+        for (long mac = 1; mac <= 64; mac += 2) {
+            assertTrue(tracker.lookup(mac << 8, host, 6500));
+            assertEquals(mac, host.getPort());
+        }
+
+        // full
+        HostTracker small = new HostTracker(2, 1000);
+        small.learn(1 << 8, 1, 1, 0, 0, 0, 0);
+        small.learn(2 << 8, 1, 1, 0, 0, 0, 0);
+        small.learn(3 << 8, 1, 1, 0, 0, 0, 0);
+        assertEquals(1, small.getRejected());
+    }
+
+    @Test
+    public void testLearnFromArp() {
+        byte[] arp = new byte[42];
+        arp[12] = 0x08;
+        arp[13] = 0x06;
+        arp[15] = 1;
+        arp[16] = 0x08;
+        arp[18] = 6;
+        arp[19] = 4;
+        arp[21] = 1;
+        for (int i = 0; i < 6; i++) {
+            arp[22 + i] = (byte) (MAC >> (40 - 8 * i));
+        }
+        arp[28] = 10;
+        arp[31] = 7;
+
+        HostTracker tracker = new HostTracker(16, 60000);
+        tracker.handle(PacketReplay.createIngress("openflow:5:6"), arp);
+        HostTracker.Host host = new HostTracker.Host();
+        assertTrue(tracker.lookup(MAC, host, System.currentTimeMillis()));
+        assertEquals("openflow:5:6", host.getLocation());
+        assertEquals(0x0A000007, host.getIpv4());
+    }
+}
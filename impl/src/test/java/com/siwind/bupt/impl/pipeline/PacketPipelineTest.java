@@ -0,0 +1,501 @@
+/*
+ * Copyright © 2016 siwind, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package com.siwind.bupt.impl.pipeline;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.siwind.bupt.api.DecodedPacket;
+import com.siwind.bupt.api.PacketConsumer;
+import com.siwind.bupt.api.PacketField;
+import com.siwind.bupt.impl.GetpacketConfig;
+import com.siwind.bupt.impl.capture.PacketCapture;
+import com.siwind.bupt.impl.export.ExportRecord;
+import com.siwind.bupt.impl.export.TridentExporter;
+import com.siwind.bupt.impl.flow.FlowTuple;
+import com.siwind.bupt.impl.tools.PcapReader;
+import com.siwind.bupt.impl.tools.PacketReplay;
+import com.siwind.bupt.impl.trace.LatencyTracer;
+import com.siwind.bupt.impl.util.NetUtils;
+
+public class PacketPipelineTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Ethernet/IPv4/TCP SYN from 10.0.0.1:40000 to 10.0.0.2:80.
+     */
+    private static byte[] tcpSyn() {
+        byte[] frame = new byte[54];
+        frame[0] = 0x02;
+        frame[5] = 0x01;
+        frame[6] = 0x02;
+        frame[11] = 0x02;
+        frame[12] = 0x08;
+        frame[14] = 0x45;
+        frame[17] = 40;
+        frame[23] = 6;
+        frame[26] = 10;
+        frame[29] = 1;
+        frame[30] = 10;
+        frame[33] = 2;
+        frame[34] = (byte) (40000 >> 8);
+        frame[35] = (byte) 40000;
+        frame[37] = 80;
+        frame[46] = 0x50;
+        frame[47] = 0x02;
+        return frame;
+    }
+
+    /**
+     * Ethernet/IPv6 from 2001:db8::1 to 2001:db8:0:1::2, the first header being
+     * nextHeader, followed by the given headers.
+     */
+    private static byte[] ipv6(int nextHeader, byte[]... headers) {
+        int length = 54;
+        for (byte[] header : headers) {
+            length += header.length;
+        }
+        byte[] frame = new byte[length];
+        frame[12] = (byte) 0x86;
+        frame[13] = (byte) 0xDD;
+        frame[14] = 0x60;
+        frame[18] = (byte) (length - 54 >> 8);
+        frame[19] = (byte) (length - 54);
+        frame[20] = (byte) nextHeader;
+        frame[21] = 64;
+        frame[22] = 0x20;
+        frame[23] = 0x01;
+        frame[24] = 0x0D;
+        frame[25] = (byte) 0xB8;
+        frame[37] = 1;
+        System.arraycopy(frame, 22, frame, 38, 16);
+        frame[45] = 1;
+        frame[53] = 2;
+        int position = 54;
+        for (byte[] header : headers) {
+            System.arraycopy(header, 0, frame, position, header.length);
+            position += header.length;
+        }
+        return frame;
+    }
+
+    private static class Recorder implements PacketConsumer {
+        final String name;
+        final Set<PacketField> fields;
+        final boolean inline;
+        final List<DecodedPacket> packets = new CopyOnWriteArrayList<>();
+
+        Recorder(String name, Set<PacketField> fields, boolean inline) {
+            this.name = name;
+            this.fields = fields;
+            this.inline = inline;
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public Set<PacketField> getRequiredFields() {
+            return fields;
+        }
+
+        @Override
+        public boolean isInline() {
+            return inline;
+        }
+
+        @Override
+        public void onPacket(DecodedPacket packet) {
+            packets.add(packet);
+        }
+    }
+
+    @Test
+    public void testDecodeOnlyRequiredFields() {
+        PacketPipeline pipeline = new PacketPipeline(new GetpacketConfig());
+        Recorder ipOnly = new Recorder("ip", EnumSet.of(PacketField.IPV4), true);
+        pipeline.addConsumer(ipOnly);
+        pipeline.dispatch(PacketReplay.createIngress("openflow:1:2"), tcpSyn());
+
+        DecodedPacket packet = ipOnly.packets.get(0);
+        assertTrue(packet.isIpv4());
+        assertEquals(0x0A000001, packet.getSrcIp());
+        assertEquals(0x0A000002, packet.getDstIp());
+        assertEquals(6, packet.getProtocol());
+        assertFalse(packet.hasPorts());
+        assertEquals(0, packet.getSrcMac());
+
+        Recorder all = new Recorder("all", EnumSet.of(PacketField.INGRESS, PacketField.ETHERNET, PacketField.TCP),
+                true);
+        pipeline.addConsumer(all);
+        pipeline.dispatch(PacketReplay.createIngress("openflow:1:2"), tcpSyn());
+
+        // one descriptor, decoded for the union of the fields
+        packet = all.packets.get(0);
+        assertSame(packet, ipOnly.packets.get(1));
+        assertEquals("openflow:1:2", packet.getIngress());
+        assertEquals(0x020000000001L, packet.getDstMac());
+        assertEquals(0x020000000002L, packet.getSrcMac());
+        assertTrue(packet.hasPorts());
+        assertEquals(40000, packet.getSrcPort());
+        assertEquals(80, packet.getDstPort());
+        assertEquals(0x02, packet.getTcpFlags());
+        assertFalse(packet.hasTcpPayload());
+        pipeline.close();
+    }
+
+    private static byte[] frame(int etherType) {
+        byte[] frame = new byte[60];
+        frame[12] = (byte) (etherType >> 8);
+        frame[13] = (byte) etherType;
+        return frame;
+    }
+
+    private static long packets(PacketPipeline pipeline, String name) {
+        for (EtherTypeTable.EtherTypeStats stats : pipeline.getEtherTypes().getStats()) {
+            if (stats.getName().equals(name)) {
+                return stats.getPackets();
+            }
+        }
+        return -1;
+    }
+
+    @Test
+    public void testTracedPacketsDecodeTimed() {
+        GetpacketConfig config = new GetpacketConfig();
+        config.setLatencyTraceRate(2);
+        PacketPipeline pipeline = new PacketPipeline(config);
+        Recorder recorder = new Recorder("ip", EnumSet.of(PacketField.IPV4), true);
+        pipeline.addConsumer(recorder);
+        for (int i = 0; i < 4; i++) {
+            pipeline.dispatch(PacketReplay.createIngress("openflow:1:2"), tcpSyn());
+        }
+        LatencyTracer tracer = pipeline.getLatencyTracer();
+        assertEquals(2, tracer.getSnapshot(LatencyTracer.Stage.DECODE).getCount());
+        // recorded by the exporter
+        assertEquals(0, tracer.getSnapshot(LatencyTracer.Stage.ENQUEUE).getCount());
+        pipeline.close();
+    }
+
+    @Test
+    public void testControlProtocols() {
+        GetpacketConfig config = new GetpacketConfig();
+        config.setDropEtherTypes("lldp, bpdu, 0x8809, bogus");
+        PacketPipeline pipeline = new PacketPipeline(config);
+        Recorder all = new Recorder("all", EnumSet.noneOf(PacketField.class), true);
+        pipeline.addConsumer(all);
+        List<byte[]> arps = new CopyOnWriteArrayList<>();
+        pipeline.getEtherTypes().setHandler(EtherTypeTable.ETHER_TYPE_ARP, (ingress, payload) -> arps.add(payload));
+
+        byte[] bpdu = frame(38);
+        bpdu[14] = 0x42;
+        bpdu[15] = 0x42;
+        pipeline.dispatch(null, frame(EtherTypeTable.ETHER_TYPE_LLDP));
+        pipeline.dispatch(null, frame(EtherTypeTable.ETHER_TYPE_LLDP));
+        pipeline.dispatch(null, bpdu);
+        pipeline.dispatch(null, frame(0x8809));
+        pipeline.dispatch(null, frame(EtherTypeTable.ETHER_TYPE_ARP));
+        pipeline.dispatch(null, tcpSyn());
+        pipeline.dispatch(null, frame(0x88B5));
+
+        // handled, then decoded as arp is not dropped
+        assertEquals(3, all.packets.size());
+        assertEquals(1, arps.size());
+        assertEquals(2, packets(pipeline, "lldp"));
+        assertEquals(1, packets(pipeline, "bpdu"));
+        assertEquals(1, packets(pipeline, "0x8809"));
+        assertEquals(1, packets(pipeline, "arp"));
+        assertEquals(1, packets(pipeline, "ipv4"));
+        assertEquals(1, packets(pipeline, "other"));
+        assertEquals(7, pipeline.getReceived());
+        pipeline.close();
+    }
+
+    @Test
+    public void testLazyDecoding() {
+        int mask = PacketDescriptor.toMask(EnumSet.of(PacketField.PORTS));
+        PacketDescriptor packet = new PacketDescriptor(null, tcpSyn(), 0, mask);
+        assertEquals(80, packet.getDstPort());
+        assertEquals("10.0.0.1", packet.getSrcIpString());
+        assertSame(packet.getSrcIpString(), packet.getSrcIpString());
+        assertEquals("10.0.0.2", packet.getDstIpString());
+        // not asked for
+        assertEquals(0, packet.getTcpFlags());
+        assertEquals(0, packet.getDstMac());
+
+        byte[] truncated = new byte[30];
+        System.arraycopy(tcpSyn(), 0, truncated, 0, truncated.length);
+        packet = new PacketDescriptor(null, truncated, 0, mask);
+        assertEquals(0x0800, packet.getEtherType());
+        assertFalse(packet.hasPorts());
+        assertFalse(packet.isIpv4());
+        assertEquals(null, packet.getSrcIpString());
+    }
+
+    /**
+     * The frame with an 802.1Q tag of VLAN id inserted before the ethertype.
+     */
+    private static byte[] tagged(byte[] frame, int vlan) {
+        byte[] tagged = new byte[frame.length + 4];
+        System.arraycopy(frame, 0, tagged, 0, 12);
+        tagged[12] = (byte) 0x81;
+        tagged[14] = (byte) (vlan >> 8);
+        tagged[15] = (byte) vlan;
+        System.arraycopy(frame, 12, tagged, 16, frame.length - 12);
+        return tagged;
+    }
+
+    @Test
+    public void testVlanTagged() {
+        PacketDescriptor packet = new PacketDescriptor(null, tagged(tcpSyn(), 100), 0, -1);
+        assertEquals(0x0800, packet.getEtherType());
+        assertEquals(0x020000000001L, packet.getDstMac());
+        assertEquals("10.0.0.1", packet.getSrcIpString());
+        assertEquals(40000, packet.getSrcPort());
+        assertEquals(80, packet.getDstPort());
+        assertEquals(0x02, packet.getTcpFlags());
+        assertFalse(packet.hasTcpPayload());
+
+        byte[] udp = { 0x13, (byte) 0x88, 0, 53, 0, 8, 0, 0 };
+        packet = new PacketDescriptor(null, tagged(ipv6(PacketDescriptor.PROTOCOL_UDP, udp), 4094), 0, -1);
+        assertTrue(packet.isIpv6());
+        assertEquals("2001:db8:0:1::2", packet.getDstIpString());
+        assertEquals(53, packet.getDstPort());
+
+        // truncated in the tag
+        packet = new PacketDescriptor(null, Arrays.copyOf(tagged(tcpSyn(), 100), 16), 0, -1);
+        assertEquals(-1, packet.getEtherType());
+        assertFalse(packet.isIpv4());
+
+        int mask = PacketDescriptor.toMask(EnumSet.of(PacketField.TCP));
+        assertTrue(PacketDescriptor.getHeaderBytes(mask) >= tagged(tcpSyn(), 100).length);
+    }
+
+    @Test
+    public void testIpv6() {
+        byte[] tcp = new byte[20];
+        tcp[1] = 80;
+        tcp[2] = (byte) (443 >> 8);
+        tcp[3] = (byte) 443;
+        tcp[12] = 0x50;
+        tcp[13] = 0x18;
+        byte[] data = new byte[10];
+        // hop-by-hop options, 8 octets, then destination options, 16 octets
+        byte[] hopByHop = { 60, 0, 0, 0, 0, 0, 0, 0 };
+        byte[] destination = new byte[16];
+        destination[0] = PacketDescriptor.PROTOCOL_TCP;
+        destination[1] = 1;
+        PacketDescriptor packet = new PacketDescriptor(null, ipv6(0, hopByHop, destination, tcp, data), 0, -1);
+        assertFalse(packet.isIpv4());
+        assertTrue(packet.isIpv6());
+        assertEquals(0x20010DB800000000L, packet.getSrcIpv6Hi());
+        assertEquals(1, packet.getSrcIpv6Lo());
+        assertEquals("2001:db8::1", packet.getSrcIpString());
+        assertEquals("2001:db8:0:1::2", packet.getDstIpString());
+        assertEquals(PacketDescriptor.PROTOCOL_TCP, packet.getProtocol());
+        assertTrue(packet.hasPorts());
+        assertEquals(80, packet.getSrcPort());
+        assertEquals(443, packet.getDstPort());
+        assertEquals(0x18, packet.getTcpFlags());
+        assertTrue(packet.hasTcpPayload());
+        assertFalse(packet.hasIcmp());
+
+        // ICMPv6 echo request in the first fragment, then a later fragment
+        byte[] fragment = { 58, 0, 0, 1, 0, 0, 0, 7 };
+        byte[] echo = { (byte) 128, 0, 0, 0 };
+        packet = new PacketDescriptor(null, ipv6(44, fragment, echo), 0, -1);
+        assertTrue(packet.hasIcmp());
+        assertEquals(128, packet.getIcmpType());
+        assertEquals(PacketDescriptor.PROTOCOL_ICMPV6, packet.getProtocol());
+        fragment[2] = 1;
+        packet = new PacketDescriptor(null, ipv6(44, fragment, echo), 0, -1);
+        assertEquals(PacketDescriptor.PROTOCOL_ICMPV6, packet.getProtocol());
+        assertFalse(packet.hasIcmp());
+
+        // UDP, but only the fields asked for
+        byte[] udp = { 0x13, (byte) 0x88, 0, 53, 0, 8, 0, 0 };
+        int mask = PacketDescriptor.toMask(EnumSet.of(PacketField.PORTS));
+        packet = new PacketDescriptor(null, ipv6(PacketDescriptor.PROTOCOL_UDP, udp), 0, mask);
+        assertTrue(packet.isIpv6());
+        assertEquals(5000, packet.getSrcPort());
+        assertEquals(53, packet.getDstPort());
+        assertEquals(0, packet.getIcmpType());
+
+        // truncated in the extension headers
+        byte[] truncated = ipv6(0, hopByHop, destination, tcp);
+        packet = new PacketDescriptor(null, Arrays.copyOf(truncated, 66), 0, -1);
+        assertTrue(packet.isIpv6());
+        assertEquals(60, packet.getProtocol());
+        assertFalse(packet.hasPorts());
+        packet = new PacketDescriptor(null, Arrays.copyOf(truncated, 50), 0, -1);
+        assertFalse(packet.isIpv6());
+        assertEquals(null, packet.getSrcIpString());
+
+        // ICMP
+        byte[] ping = tcpSyn();
+        ping[23] = PacketDescriptor.PROTOCOL_ICMP;
+        ping[34] = 8;
+        packet = new PacketDescriptor(null, ping, 0, -1);
+        assertTrue(packet.hasIcmp());
+        assertEquals(8, packet.getIcmpType());
+        assertFalse(packet.hasPorts());
+    }
+
+    @Test
+    public void testIpv6Text() {
+        assertEquals("::", NetUtils.toIPv6String(0, 0));
+        assertEquals("::1", NetUtils.toIPv6String(0, 1));
+        assertEquals("1::", NetUtils.toIPv6String(0x0001000000000000L, 0));
+        assertEquals("2001:db8::1:0:0:1", NetUtils.toIPv6String(0x20010DB800000000L, 0x0001000000000001L));
+        assertEquals("2001:db8:0:1:1:1:1:1", NetUtils.toIPv6String(0x20010DB800000001L, 0x0001000100010001L));
+        assertEquals("fe80::abcd:ef01:2:3", NetUtils.toIPv6String(0xFE80000000000000L, 0xABCDEF0100020003L));
+        assertEquals("::ffff:192.0.2.1", NetUtils.toIPv6String(0, 0x0000FFFFC0000201L));
+        StringBuilder buffer = new StringBuilder("sip=");
+        assertSame(buffer, NetUtils.appendIPv6(buffer, 0x20010DB800000000L, 1));
+        assertEquals("sip=2001:db8::1", buffer.toString());
+    }
+
+    @Test
+    public void testSlowConsumerIsIsolated() throws InterruptedException {
+        GetpacketConfig config = new GetpacketConfig();
+        config.setConsumerQueueSize(10);
+        PacketPipeline pipeline = new PacketPipeline(config);
+
+        CountDownLatch release = new CountDownLatch(1);
+        Recorder slow = new Recorder("slow", EnumSet.noneOf(PacketField.class), false) {
+            @Override
+            public void onPacket(DecodedPacket packet) {
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                super.onPacket(packet);
+            }
+        };
+        Recorder fast = new Recorder("fast", EnumSet.noneOf(PacketField.class), true);
+        pipeline.addConsumer(slow);
+        pipeline.addConsumer(fast);
+
+        for (int i = 0; i < 100; i++) {
+            pipeline.dispatch(PacketReplay.createIngress("openflow:1:1"), tcpSyn());
+        }
+        assertEquals(100, fast.packets.size());
+        PacketPipeline.ConsumerStats stats = pipeline.getConsumerStats().get(0);
+        assertEquals("slow", stats.getName());
+        assertTrue(stats.getDropped() >= 100 - 10 - 1);
+
+        release.countDown();
+        pipeline.removeConsumer(slow);
+        assertEquals(1, pipeline.getConsumerStats().size());
+        pipeline.close();
+    }
+
+    @Test
+    public void testQueuedConsumersDecodeOnce() throws InterruptedException {
+        GetpacketConfig config = new GetpacketConfig();
+        config.setFragmentTrackerEnabled(true);
+        PacketPipeline pipeline = new PacketPipeline(config);
+        List<Recorder> consumers = new CopyOnWriteArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            Recorder consumer = new Recorder("queued-" + i, EnumSet.of(PacketField.TCP), false);
+            consumers.add(consumer);
+            pipeline.addConsumer(consumer);
+        }
+
+        // first fragment, the ports recorded for the later ones
+        byte[] fragment = tcpSyn();
+        fragment[20] = 0x20;
+        pipeline.dispatch(PacketReplay.createIngress("openflow:1:1"), fragment);
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        for (Recorder consumer : consumers) {
+            while (consumer.packets.isEmpty() && System.nanoTime() < deadline) {
+                Thread.sleep(1);
+            }
+            DecodedPacket packet = consumer.packets.get(0);
+            assertEquals(80, packet.getDstPort());
+            assertEquals(0x02, packet.getTcpFlags());
+        }
+        assertEquals(1, pipeline.getFragmentTracker().getRecorded());
+        pipeline.close();
+    }
+
+    @Test
+    public void testCaptureBeforeDrops() throws IOException {
+        GetpacketConfig config = new GetpacketConfig();
+        config.setDedupEnabled(true);
+        PacketPipeline pipeline = new PacketPipeline(config);
+        pipeline.addConsumer(new Recorder("all", EnumSet.noneOf(PacketField.class), true));
+        PacketCapture capture = new PacketCapture(config);
+        pipeline.setCapture(capture);
+        Path file = folder.getRoot().toPath().resolve("capture.pcapng");
+        capture.start(file.toString(), 1, "");
+
+        // dropped by the default ethertypes, then a duplicate
+        pipeline.dispatch(PacketReplay.createIngress("openflow:1:1"), frame(EtherTypeTable.ETHER_TYPE_LLDP));
+        pipeline.dispatch(PacketReplay.createIngress("openflow:1:1"), frame(EtherTypeTable.ETHER_TYPE_ARP));
+        pipeline.dispatch(PacketReplay.createIngress("openflow:1:1"), tcpSyn());
+        pipeline.dispatch(PacketReplay.createIngress("openflow:2:1"), tcpSyn());
+        capture.stop();
+
+        List<PcapReader.PcapRecord> records = PcapReader.read(file);
+        assertEquals(4, records.size());
+        assertEquals(EtherTypeTable.ETHER_TYPE_LLDP, PacketDescriptor.etherType(records.get(0).getData()));
+        assertEquals(EtherTypeTable.ETHER_TYPE_ARP, PacketDescriptor.etherType(records.get(1).getData()));
+        assertEquals("openflow:2:1", records.get(3).getInterfaceName());
+        assertEquals(1, pipeline.getDuplicates());
+        pipeline.close();
+    }
+
+    @Test
+    public void testSamplingAdaptsToExporterQueue() {
+        GetpacketConfig config = new GetpacketConfig();
+        config.setSamplingMaxRate(64);
+        config.setExportQueueSize(16);
+        config.setSpillEnabled(false);
+        config.setTridentUrls("http://127.0.0.1:1/");
+        PacketPipeline pipeline = new PacketPipeline(config);
+        pipeline.addConsumer(new Recorder("inline", EnumSet.noneOf(PacketField.class), true));
+        try (TridentExporter exporter = new TridentExporter(config)) {
+            pipeline.setExporter(exporter);
+            // not started, nothing drains the queue
+            for (int i = 0; i < 16; i++) {
+                exporter.export(new ExportRecord(new FlowTuple(0x0A000001, 0x0A000002, (short) 6, 40000, i),
+                        "seq=" + i, 0));
+            }
+            assertEquals(100, exporter.getQueueFillPercent());
+
+            for (int i = 0; i < 1024; i++) {
+                pipeline.dispatch(PacketReplay.createIngress("openflow:1:1"), tcpSyn());
+            }
+            assertEquals(2, pipeline.getSampler().getFactor());
+        }
+        pipeline.close();
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright © 2016 siwind, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package com.siwind.bupt.impl.pipeline;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.Map;
+
+import org.junit.Test;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.inventory.rev130819.NodeConnectorRef;
+
+import com.siwind.bupt.impl.GetpacketConfig;
+import com.siwind.bupt.impl.tools.PacketReplay;
+
+public class PacketSamplerTest {
+
+    private static long kept(PacketSampler sampler, NodeConnectorRef ingress, int packets) {
+        long scaled = 0;
+        for (int i = 0; i < packets; i++) {
+            scaled += sampler.sample(ingress);
+        }
+        return scaled;
+    }
+
+    @Test
+    public void testDeterministic() {
+        Map<String, Integer> rates = PacketSampler.parseRates("openflow:1:2=100, openflow:1:3 = 1,bad,x=y");
+        assertEquals(2, rates.size());
+        PacketSampler sampler = new PacketSampler(10, PacketSampler.Mode.DETERMINISTIC, rates, 1);
+        NodeConnectorRef busy = PacketReplay.createIngress("openflow:1:2");
+        NodeConnectorRef other = PacketReplay.createIngress("openflow:2:1");
+
+        // scaled counts are exact every N packets
+        assertEquals(10000, kept(sampler, busy, 10000));
+        assertEquals(10000, kept(sampler, other, 10000));
+        assertEquals(10, kept(sampler, PacketReplay.createIngress("openflow:1:3"), 10));
+        assertEquals(10000 / 100 + 10000 / 10 + 10, sampler.getSampled());
+        for (int i = 0; i < 9; i++) {
+            assertEquals(0, sampler.sample(null));
+        }
+        assertEquals(10, sampler.sample(null));
+    }
+
+    @Test
+    public void testRandom() {
+        PacketSampler sampler = new PacketSampler(16, PacketSampler.Mode.RANDOM,
+                Collections.<String, Integer>emptyMap(), 1);
+        long scaled = kept(sampler, null, 160000);
+        assertTrue(String.valueOf(scaled), Math.abs(scaled - 160000) < 16000);
+    }
+
+    @Test
+    public void testAdaptive() {
+        PacketSampler sampler = new PacketSampler(1, PacketSampler.Mode.DETERMINISTIC,
+                Collections.singletonMap("openflow:1:2", 4), 8);
+        assertFalse(sampler.isDisabled());
+        assertEquals(1, sampler.sample(null));
+
+        sampler.adapt(90);
+        sampler.adapt(90);
+        assertEquals(4, sampler.getRate());
+        assertEquals(4000, kept(sampler, null, 4000));
+        sampler.adapt(90);
+        sampler.adapt(90);
+        // capped, but never below the configured rate
+        assertEquals(8, sampler.getRate());
+        assertEquals(8, sampler.getFactor());
+        assertEquals(8000, kept(sampler, PacketReplay.createIngress("openflow:1:2"), 8000));
+        sampler.adapt(30);
+        assertEquals(8, sampler.getFactor());
+        sampler.adapt(5);
+        sampler.adapt(5);
+        sampler.adapt(5);
+        sampler.adapt(5);
+        assertEquals(1, sampler.getRate());
+        assertEquals(1, sampler.getFactor());
+
+        GetpacketConfig config = new GetpacketConfig();
+        assertTrue(new PacketSampler(config).isDisabled());
+        config.setSamplingMaxRate(64);
+        assertFalse(new PacketSampler(config).isDisabled());
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright © 2016 siwind, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package com.siwind.bupt.impl.publish;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.math.BigInteger;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.opendaylight.controller.md.sal.binding.api.NotificationPublishService;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.getpacket.rev150105.DecodedPackets;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.getpacket.rev150105.decoded.packets.Packet;
+import org.opendaylight.yangtools.yang.binding.Notification;
+
+import com.google.common.util.concurrent.Futures;
+import com.siwind.bupt.impl.GetpacketConfig;
+import com.siwind.bupt.impl.pipeline.PacketDescriptor;
+import com.siwind.bupt.impl.tools.PacketReplay;
+
+public class DecodedPacketPublisherTest {
+
+    /**
+     * Ethernet/IPv4/UDP from 10.0.0.1:5000 to 10.0.0.2:53.
+     */
+    private static byte[] udp() {
+        byte[] frame = new byte[42];
+        frame[12] = 0x08;
+        frame[14] = 0x45;
+        frame[23] = 17;
+        frame[26] = 10;
+        frame[29] = 1;
+        frame[30] = 10;
+        frame[33] = 2;
+        frame[34] = (byte) (5000 >> 8);
+        frame[35] = (byte) 5000;
+        frame[37] = 53;
+        return frame;
+    }
+
+    private static PacketDescriptor packet(long timestamp) {
+        return new PacketDescriptor(PacketReplay.createIngress("openflow:1:3"), udp(), timestamp, -1);
+    }
+
+    private static void awaitPublished(DecodedPacketPublisher publisher, long count) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (publisher.getPublished() + publisher.getRejected() < count && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+    }
+
+    @Test
+    public void testBatching() throws InterruptedException {
+        List<DecodedPackets> published = new CopyOnWriteArrayList<>();
+        NotificationPublishService service = mock(NotificationPublishService.class);
+        when(service.offerNotification(any(Notification.class), anyInt(), any(TimeUnit.class))).then(invocation -> {
+            published.add((DecodedPackets) invocation.getArguments()[0]);
+            return Futures.immediateFuture(null);
+        });
+
+        GetpacketConfig config = new GetpacketConfig();
+        config.setPublishBatchSize(4);
+        config.setPublishBatchIntervalMs(50);
+        DecodedPacketPublisher publisher = new DecodedPacketPublisher(service, config);
+        for (int i = 0; i < 10; i++) {
+            publisher.onPacket(packet(i));
+        }
+        publisher.start();
+        awaitPublished(publisher, 10);
+        publisher.close();
+
+        assertEquals(10, publisher.getPublished());
+        assertEquals(3, published.size());
+        assertEquals(4, published.get(0).getPacket().size());
+        assertEquals(2, published.get(2).getPacket().size());
+
+        Packet record = published.get(0).getPacket().get(1);
+        assertEquals("openflow:1:3", record.getIngress());
+        assertEquals(BigInteger.ONE, record.getTimestamp());
+        assertEquals("10.0.0.1", record.getSrcIp());
+        assertEquals("10.0.0.2", record.getDstIp());
+        assertEquals(Short.valueOf((short) 17), record.getProtocol());
+        assertEquals(Integer.valueOf(5000), record.getSrcPort());
+        assertEquals(Integer.valueOf(53), record.getDstPort());
+    }
+
+    @Test
+    public void testBackpressure() throws InterruptedException {
+        NotificationPublishService service = mock(NotificationPublishService.class);
+        when(service.offerNotification(any(Notification.class), anyInt(), any(TimeUnit.class)))
+                .then(invocation -> NotificationPublishService.REJECTED);
+
+        GetpacketConfig config = new GetpacketConfig();
+        config.setPublishBatchSize(8);
+        config.setPublishQueueSize(16);
+        DecodedPacketPublisher publisher = new DecodedPacketPublisher(service, config);
+        for (int i = 0; i < 20; i++) {
+            publisher.onPacket(packet(i));
+        }
+        assertEquals(4, publisher.getDropped());
+
+        publisher.start();
+        awaitPublished(publisher, 16);
+        publisher.close();
+        assertEquals(0, publisher.getPublished());
+        assertEquals(16, publisher.getRejected());
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright © 2016 siwind, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package com.siwind.bupt.impl.stats;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.siwind.bupt.impl.pipeline.PacketDescriptor;
+import com.siwind.bupt.impl.tools.PacketReplay;
+
+public class TopTalkersTest {
+
+    /**
+     * Ethernet/IPv4/UDP from 10.0.0.{host}.
+     */
+    private static byte[] udp(int host) {
+        byte[] frame = new byte[42];
+        frame[12] = 0x08;
+        frame[14] = 0x45;
+        frame[23] = 17;
+        frame[26] = 10;
+        frame[29] = (byte) host;
+        frame[30] = 10;
+        frame[33] = (byte) 200;
+        return frame;
+    }
+
+    private static PacketDescriptor packet(String ingress, int host, long timestamp) {
+        return new PacketDescriptor(PacketReplay.createIngress(ingress), udp(host), timestamp, -1);
+    }
+
+    @Test
+    public void testDatapathOf() {
+        assertEquals("openflow:1", TopTalkers.datapathOf("openflow:1:2"));
+        assertEquals("openflow:12", TopTalkers.datapathOf("openflow:12:LOCAL"));
+    }
+
+    @Test
+    public void testHeavyHittersKept() {
+        TopTalkers talkers = new TopTalkers(4, 1000);
+        long now = 1000;
+        for (int i = 0; i < 1000; i++) {
+            // two heavy hitters among 100 light ones
+            talkers.onPacket(packet("openflow:1:1", 1, now));
+            talkers.onPacket(packet("openflow:1:2", 2, now));
+            if (i % 2 == 0) {
+                talkers.onPacket(packet("openflow:1:1", 1, now));
+            }
+            talkers.onPacket(packet("openflow:1:3", 100 + i % 100, now));
+        }
+        // published on the first packet, with a single talker
+        assertEquals(1, talkers.getSnapshot().get("openflow:1").size());
+
+        talkers.onPacket(packet("openflow:2:1", 1, now + 1000));
+        Map<String, List<TopTalkers.Talker>> snapshot = talkers.getSnapshot();
+        assertEquals(2, snapshot.size());
+        List<TopTalkers.Talker> top = snapshot.get("openflow:1");
+        assertEquals(4, top.size());
+        assertEquals("10.0.0.1", top.get(0).getAddress());
+        assertEquals("10.0.0.2", top.get(1).getAddress());
+        // overestimated by at most the error
+        assertTrue(top.get(0).getPackets() - top.get(0).getError() <= 1500);
+        assertTrue(top.get(0).getPackets() >= 1500);
+        assertEquals(top.get(0).getPackets() * 42, top.get(0).getBytes());
+        assertEquals(1, snapshot.get("openflow:2").size());
+    }
+
+    @Test
+    public void testReset() {
+        TopTalkers talkers = new TopTalkers(4, 0);
+        talkers.onPacket(packet("openflow:1:1", 1, 1000));
+        assertEquals(1, talkers.getSnapshot().size());
+
+        talkers.reset();
+        assertTrue(talkers.getSnapshot().isEmpty());
+        talkers.onPacket(packet("openflow:2:1", 1, 1001));
+        assertEquals(1, talkers.getSnapshot().size());
+        assertEquals(1, talkers.getSnapshot().get("openflow:2").get(0).getPackets());
+    }
+}
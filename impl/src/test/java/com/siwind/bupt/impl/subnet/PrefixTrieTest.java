@@ -0,0 +1,105 @@
+/*
+ * Copyright © 2016 siwind, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package com.siwind.bupt.impl.subnet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.siwind.bupt.impl.GetpacketConfig;
+
+public class PrefixTrieTest {
+
+    private static int ip(int a, int b, int c, int d) {
+        return a << 24 | b << 16 | c << 8 | d;
+    }
+
+    @Test
+    public void testLongestMatch() {
+        PrefixTrie trie = new PrefixTrie.Builder()
+                .add(ip(10, 0, 0, 0), 8, 1)
+                .add(ip(10, 1, 0, 0), 16, 2)
+                .add(ip(10, 1, 2, 3), 32, 3)
+                .add(ip(192, 168, 0, 0), 16, 4)
+                .add(0x20010DB800000000L, 0, 32, 5)
+                .add(0x20010DB800010000L, 0, 48, 6)
+                .build();
+        assertEquals(6, trie.size());
+        assertEquals(1, trie.lookup(ip(10, 2, 0, 1)));
+        assertEquals(2, trie.lookup(ip(10, 1, 9, 9)));
+        assertEquals(3, trie.lookup(ip(10, 1, 2, 3)));
+        assertEquals(2, trie.lookup(ip(10, 1, 2, 4)));
+        assertEquals(4, trie.lookup(ip(192, 168, 255, 255)));
+        assertEquals(PrefixTrie.NONE, trie.lookup(ip(192, 169, 0, 0)));
+        assertEquals(PrefixTrie.NONE, trie.lookup(ip(11, 0, 0, 0)));
+        assertEquals(5, trie.lookup(0x20010DB8FFFF0000L, 1));
+        assertEquals(6, trie.lookup(0x20010DB800010001L, 1));
+        assertEquals(PrefixTrie.NONE, trie.lookup(0x20010DB900000000L, 0));
+        // an IPv4 prefix does not match IPv6 addresses
+        assertEquals(PrefixTrie.NONE, trie.lookup(0, ip(10, 1, 2, 3)));
+
+        PrefixTrie all = new PrefixTrie.Builder().add(0, 0, 7).build();
+        assertEquals(7, all.lookup(ip(1, 2, 3, 4)));
+        assertEquals(PrefixTrie.NONE, PrefixTrie.EMPTY.lookup(ip(1, 2, 3, 4)));
+    }
+
+    @Test
+    public void testAgainstLinearScan() {
+        Random random = new Random(42);
+        int[] prefixes = new int[500];
+        int[] lengths = new int[prefixes.length];
+        PrefixTrie.Builder builder = new PrefixTrie.Builder();
+        for (int i = 0; i < prefixes.length; i++) {
+            lengths[i] = 8 + random.nextInt(25);
+            prefixes[i] = (0x0A000000 | random.nextInt(1 << 20) << 4) & -1 << 32 - lengths[i];
+            builder.add(prefixes[i], lengths[i], i);
+        }
+        PrefixTrie trie = builder.build();
+
+        for (int n = 0; n < 100000; n++) {
+            int address = 0x0A000000 | random.nextInt(1 << 24);
+            int expected = PrefixTrie.NONE;
+            int expectedLength = -1;
+            for (int i = 0; i < prefixes.length; i++) {
+                if ((address & -1 << 32 - lengths[i]) == prefixes[i] && lengths[i] >= expectedLength) {
+                    // a later duplicate replaces the value
+                    expected = i;
+                    expectedLength = lengths[i];
+                }
+            }
+            assertEquals(expected, trie.lookup(address));
+        }
+    }
+
+    @Test
+    public void testTagger() {
+        GetpacketConfig config = new GetpacketConfig();
+        config.setSubnetTags("10.0.0.0/8=1:2:3, 10.1.0.0/16=1:2:4, 2001:db8::/32=5:0:0");
+        SubnetTagger tagger = new SubnetTagger(config);
+        assertEquals("1:2:3", tagger.getTag(ip(10, 9, 0, 1)));
+        assertEquals("1:2:4", tagger.getTag(ip(10, 1, 0, 1)));
+        assertEquals("5:0:0", tagger.getTag(0x20010DB800000000L, 1));
+        assertNull(tagger.getTag(ip(11, 0, 0, 1)));
+
+        assertEquals(1, tagger.update("11.0.0.0/8=9:9:9"));
+        assertNull(tagger.getTag(ip(10, 9, 0, 1)));
+        assertEquals("9:9:9", tagger.getTag(ip(11, 0, 0, 1)));
+
+        try {
+            tagger.update("11.0.0.0/8=9:9");
+        } catch (IllegalArgumentException e) {
+            // the previous tags stay
+            assertEquals("9:9:9", tagger.getTag(ip(11, 0, 0, 1)));
+            return;
+        }
+        throw new AssertionError("invalid tags accepted");
+    }
+}
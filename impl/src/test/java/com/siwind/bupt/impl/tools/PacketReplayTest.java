@@ -0,0 +1,69 @@
+/*
+ * Copyright © 2016 siwind, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package com.siwind.bupt.impl.tools;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.packet.service.rev130709.PacketReceived;
+
+import com.siwind.bupt.impl.capture.PcapngCaptureRing;
+
+public class PacketReplayTest {
+
+    private static final long BASE_NANOS = 1500000000000000000L;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testWrappedRingInTimeOrder() throws IOException {
+        Path file = folder.newFile("wrapped.pcapng").toPath();
+        try (PcapngCaptureRing ring = new PcapngCaptureRing(file, 64 * 1024, 65535)) {
+            for (int i = 0; i < 2000; i++) {
+                byte[] frame = new byte[100];
+                frame[0] = (byte) (i >> 8);
+                frame[1] = (byte) i;
+                ring.append(BASE_NANOS + i * 1000L, "openflow:1:1", frame);
+            }
+        }
+        List<PcapReader.PcapRecord> records = PcapReader.read(file);
+        // the newest packets come first in the file after a wrap
+        assertTrue(records.get(0).getTimestampNanos() > records.get(records.size() - 1).getTimestampNanos());
+
+        PacketReplay replay = new PacketReplay(records);
+        List<Integer> replayed = new ArrayList<>();
+        PacketReplay.Result result = replay.replay((PacketReceived packet) -> replayed.add(
+                (packet.getPayload()[0] & 0xFF) << 8 | packet.getPayload()[1] & 0xFF), 1, 1);
+
+        assertEquals(records.size(), result.getPackets());
+        for (int i = 1; i < replayed.size(); i++) {
+            assertEquals(replayed.get(i - 1) + 1, (int) replayed.get(i));
+        }
+        assertEquals(1999, (int) replayed.get(replayed.size() - 1));
+        // at the recorded speed, a microsecond apart
+        assertTrue(result.getElapsedNanos() >= (replayed.size() - 1) * 1000L);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testTooManyLoops() {
+        List<PcapReader.PcapRecord> records = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            records.add(new PcapReader.PcapRecord(BASE_NANOS + i, 0, "openflow:1:1", new byte[60], 60));
+        }
+        new PacketReplay(records).replay(packet -> { }, 0, Integer.MAX_VALUE);
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright © 2016 siwind, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package com.siwind.bupt.impl.tools;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.siwind.bupt.impl.capture.PcapngCaptureRing;
+
+public class PcapReaderTest {
+
+    private static final long BASE_NANOS = 1500000000123456789L;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static byte[] frame(int i, int length) {
+        byte[] frame = new byte[length];
+        frame[0] = (byte) i;
+        frame[length - 1] = (byte) (i >> 8);
+        return frame;
+    }
+
+    @Test
+    public void testReadCaptureRing() throws IOException {
+        Path file = folder.newFile("capture.pcapng").toPath();
+        try (PcapngCaptureRing ring = new PcapngCaptureRing(file, 1 << 20, 65535)) {
+            for (int i = 0; i < 100; i++) {
+                ring.append(BASE_NANOS + i, "openflow:1:" + (1 + i % 3), frame(i, 60 + i));
+            }
+        }
+
+        List<PcapReader.PcapRecord> records = PcapReader.read(file);
+        assertEquals(100, records.size());
+        for (int i = 0; i < 100; i++) {
+            PcapReader.PcapRecord record = records.get(i);
+            assertEquals(BASE_NANOS + i, record.getTimestampNanos());
+            assertEquals("openflow:1:" + (1 + i % 3), record.getInterfaceName());
+            assertArrayEquals(frame(i, 60 + i), record.getData());
+        }
+    }
+
+    @Test
+    public void testReadWrappedCaptureRing() throws IOException {
+        Path file = folder.newFile("wrapped.pcapng").toPath();
+        int count = 2000;
+        try (PcapngCaptureRing ring = new PcapngCaptureRing(file, 64 * 1024, 65535)) {
+            for (int i = 0; i < count; i++) {
+                ring.append(BASE_NANOS + i, "openflow:1:1", frame(i, 100));
+            }
+        }
+
+        List<PcapReader.PcapRecord> records = PcapReader.read(file);
+        long newest = 0;
+        for (PcapReader.PcapRecord record : records) {
+            newest = Math.max(newest, record.getTimestampNanos());
+            assertEquals(100, record.getData().length);
+        }
+        assertEquals(BASE_NANOS + count - 1, newest);
+    }
+
+    @Test
+    public void testReadOver2GB() throws IOException {
+        Path file = folder.newFile("large.pcapng").toPath();
+        // a skip block of almost 2 GB left sparse, then a packet past the 2 GB mark
+        int skipLength = Integer.MAX_VALUE & ~3;
+        ByteBuffer headers = ByteBuffer.allocate(28 + 20 + 12).order(ByteOrder.LITTLE_ENDIAN);
+        headers.putInt(0x0A0D0D0A).putInt(28).putInt(0x1A2B3C4D).putShort((short) 1).putShort((short) 0)
+                .putLong(-1L).putInt(28);
+        headers.putInt(1).putInt(20).putShort((short) 1).putShort((short) 0).putInt(65535).putInt(20);
+        headers.putInt(0x40000BAD).putInt(skipLength).putInt(0);
+        ByteBuffer packet = ByteBuffer.allocate(36).order(ByteOrder.LITTLE_ENDIAN);
+        packet.putInt(6).putInt(36).putInt(0).putInt(0).putInt(1000).putInt(4).putInt(4)
+                .put(new byte[] { 1, 2, 3, 4 }).putInt(36);
+        ByteBuffer trailer = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putInt(0, skipLength);
+        long packetStart = 48L + skipLength;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            headers.flip();
+            channel.write(headers, 0);
+            channel.write(trailer, packetStart - 4);
+            packet.flip();
+            channel.write(packet, packetStart);
+        }
+
+        List<PcapReader.PcapRecord> records = PcapReader.read(file);
+        assertEquals(1, records.size());
+        assertArrayEquals(new byte[] { 1, 2, 3, 4 }, records.get(0).getData());
+        // microseconds, no if_tsresol
+        assertEquals(1000000, records.get(0).getTimestampNanos());
+    }
+
+    @Test
+    public void testTruncatedPcap() throws IOException {
+        Path file = folder.newFile("truncated.pcap").toPath();
+        ByteBuffer buffer = ByteBuffer.allocate(24 + 16 + 60 + 16 + 10).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(0xA1B2C3D4).putShort((short) 2).putShort((short) 4).putInt(0).putInt(0).putInt(65535)
+                .putInt(1);
+        buffer.putInt(1).putInt(5).putInt(60).putInt(60).put(frame(1, 60));
+        // claims more than is left
+        buffer.putInt(2).putInt(0).putInt(60).putInt(60).put(new byte[10]);
+        buffer.flip();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.write(buffer);
+        }
+
+        List<PcapReader.PcapRecord> records = PcapReader.read(file);
+        assertEquals(1, records.size());
+        assertEquals(1000005000L, records.get(0).getTimestampNanos());
+        assertArrayEquals(frame(1, 60), records.get(0).getData());
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright © 2016 siwind, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package com.siwind.bupt.impl.tools;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.packet.service.rev130709.PacketReceived;
+
+import com.siwind.bupt.impl.pipeline.PacketDescriptor;
+
+public class TrafficGeneratorTest {
+
+    private static TrafficGenerator.Profile profile() {
+        TrafficGenerator.Profile profile = new TrafficGenerator.Profile();
+        profile.setFlows(1000);
+        profile.setPoolSize(10000);
+        profile.setMix("tcp=60,udp=30,icmp=10");
+        profile.setIpv6Percent(20);
+        profile.setSwitches(2);
+        profile.setPorts(3);
+        return profile;
+    }
+
+    private static PacketDescriptor decode(PacketReceived packet) {
+        return new PacketDescriptor(packet.getIngress(), packet.getPayload(), 0, -1);
+    }
+
+    @Test
+    public void testPool() {
+        TrafficGenerator generator = new TrafficGenerator(profile());
+        assertEquals(10000, generator.size());
+
+        Map<Short, Integer> protocols = new HashMap<>();
+        Set<String> ingresses = new HashSet<>();
+        int ipv6 = 0;
+        for (int i = 0; i < generator.size(); i++) {
+            PacketDescriptor packet = decode(generator.next());
+            assertTrue(packet.isIpv4() || packet.isIpv6());
+            assertTrue(packet.getPayload().length >= 64);
+            if (packet.getProtocol() == 6 || packet.getProtocol() == 17) {
+                assertTrue(packet.hasPorts());
+            } else {
+                assertTrue(packet.hasIcmp());
+            }
+            short protocol = packet.getProtocol() == 58 ? 1 : packet.getProtocol();
+            protocols.merge(protocol, 1, Integer::sum);
+            ingresses.add(packet.getIngress());
+            if (packet.isIpv6()) {
+                ipv6++;
+            }
+        }
+        // per flow draws, skewed by the flow sizes: loose bounds
+        assertTrue(protocols.get((short) 6) > 4000);
+        assertTrue(protocols.get((short) 17) > 1500);
+        assertTrue(protocols.get((short) 1) > 300);
+        assertTrue(ipv6 > 500 && ipv6 < 4000);
+        assertEquals(6, ingresses.size());
+        assertTrue(ingresses.contains("openflow:2:3"));
+    }
+
+    @Test
+    public void testSameProfileSamePool() {
+        TrafficGenerator first = new TrafficGenerator(profile());
+        TrafficGenerator second = new TrafficGenerator(profile());
+        for (int i = 0; i < 100; i++) {
+            assertArrayEquals(first.next().getPayload(), second.next().getPayload());
+        }
+    }
+
+    @Test
+    public void testVlanAndArp() {
+        TrafficGenerator.Profile profile = profile();
+        profile.setMix("arp=1");
+        profile.setVlanPercent(100);
+        profile.setSizes("1=1");
+        TrafficGenerator generator = new TrafficGenerator(profile);
+        PacketReceived packet = generator.next();
+        byte[] frame = packet.getPayload();
+        assertEquals(60, frame.length);
+        assertEquals(0x8100, (frame[12] & 0xFF) << 8 | frame[13] & 0xFF);
+        assertEquals(0x0806, (frame[16] & 0xFF) << 8 | frame[17] & 0xFF);
+        assertEquals(0x0806, decode(packet).getEtherType());
+
+        profile.setMix("udp=1");
+        profile.setIpv6Percent(0);
+        PacketDescriptor udp = decode(new TrafficGenerator(profile).next());
+        assertTrue(udp.isIpv4());
+        assertEquals(PacketDescriptor.PROTOCOL_UDP, udp.getProtocol());
+        assertTrue(udp.hasPorts());
+    }
+
+    @Test
+    public void testNextWraps() {
+        TrafficGenerator.Profile profile = profile();
+        profile.setPoolSize(3);
+        TrafficGenerator generator = new TrafficGenerator(profile);
+        PacketReceived first = generator.next();
+        generator.next();
+        generator.next();
+        assertSame(first, generator.next());
+    }
+
+    @Test
+    public void testRunAtRate() {
+        TrafficGenerator generator = new TrafficGenerator(profile());
+        AtomicLong received = new AtomicLong();
+        TrafficGenerator.Result result = generator.run(packet -> received.incrementAndGet(), 10000,
+                TimeUnit.MILLISECONDS.toNanos(200));
+        assertEquals(received.get(), result.getPackets());
+        // 2000 on schedule, whatever the machine's hiccups
+        assertTrue(result.getPackets() >= 1900 && result.getPackets() <= 2100);
+        assertTrue(result.getLatency(50) <= result.getLatency(100));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownProtocol() {
+        TrafficGenerator.Profile profile = profile();
+        profile.setMix("tcp=50,sctp=50");
+        new TrafficGenerator(profile);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidWeights() {
+        TrafficGenerator.parseWeights("64=0,1500=0");
+    }
+}
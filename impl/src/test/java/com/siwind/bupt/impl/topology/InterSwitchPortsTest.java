@@ -0,0 +1,83 @@
+/*
+ * Copyright © 2016 siwind, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package com.siwind.bupt.impl.topology;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import com.siwind.bupt.impl.pipeline.PacketDescriptor;
+import com.siwind.bupt.impl.tools.PacketReplay;
+
+public class InterSwitchPortsTest {
+
+    @Test
+    public void testLinks() {
+        InterSwitchPorts ports = new InterSwitchPorts();
+        assertTrue(ports.isEmpty());
+        assertFalse(ports.contains("openflow:1:1"));
+
+        ports.addLink("openflow:1:1", "openflow:1:1", "openflow:2:3");
+        ports.addLink("openflow:2:3", "openflow:2:3", "openflow:1:1");
+        // datapath ids are unsigned 64 bit, reserved port numbers are not switch ports
+        ports.addLink("openflow:2:4", "openflow:2:4", "openflow:18446744073709551615:4");
+        ports.addLink("openflow:2:5", "openflow:2:5", "openflow:3:4294967294");
+        assertEquals(5, ports.size());
+        assertTrue(ports.contains("openflow:1:1"));
+        assertTrue(ports.contains(2, 3));
+        assertTrue(ports.contains(-1L, 4));
+        assertFalse(ports.contains("openflow:3:4294967294"));
+        assertFalse(ports.contains("openflow:1:2"));
+        assertFalse(ports.contains("openflow:1:LOCAL"));
+        assertFalse(ports.contains("openflow:1:"));
+        assertFalse(ports.contains((String) null));
+
+        // one direction of a link going away leaves the other
+        ports.removeLink("openflow:1:1");
+        assertTrue(ports.contains("openflow:1:1"));
+        ports.removeLink("openflow:2:3");
+        assertFalse(ports.contains("openflow:1:1"));
+        assertFalse(ports.contains("openflow:2:3"));
+        assertTrue(ports.contains("openflow:2:4"));
+        ports.removeLink("unknown");
+        assertEquals(3, ports.size());
+    }
+
+    @Test
+    public void testManyPorts() {
+        InterSwitchPorts ports = new InterSwitchPorts();
+        for (int i = 1; i <= 1000; i++) {
+            ports.addLink("link" + i, "openflow:" + i + ":1", "openflow:" + (i + 1) + ":2");
+        }
+        assertEquals(2000, ports.size());
+        for (int i = 1; i <= 1000; i++) {
+            assertTrue(ports.contains(i, 1));
+            assertTrue(ports.contains(i + 1, 2));
+            assertFalse(ports.contains(i, 3));
+        }
+    }
+
+    @Test
+    public void testTransitPackets() {
+        InterSwitchPorts ports = new InterSwitchPorts();
+        byte[] frame = new byte[64];
+        PacketDescriptor edge = new PacketDescriptor(PacketReplay.createIngress("openflow:1:1"), frame, 0, 0,
+                ports, 1, null);
+        ports.addLink("openflow:1:2", "openflow:1:2", "openflow:2:1");
+        PacketDescriptor transit = new PacketDescriptor(PacketReplay.createIngress("openflow:1:2"), frame, 0, 0,
+                ports, 1, null);
+        assertFalse(edge.isTransit());
+        assertTrue(transit.isTransit());
+        // remembered
+        ports.removeLink("openflow:1:2");
+        assertTrue(transit.isTransit());
+        assertFalse(new PacketDescriptor(null, frame, 0, 0, ports, 1, null).isTransit());
+    }
+}
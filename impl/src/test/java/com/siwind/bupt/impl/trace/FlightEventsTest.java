@@ -0,0 +1,197 @@
+/*
+ * Copyright © 2016 siwind, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package com.siwind.bupt.impl.trace;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.io.ByteStreams;
+
+import com.siwind.bupt.impl.GetpacketConfig;
+
+/**
+ * Records the events through reflection, as the tests are built for Java 8 too;
+ * skipped on a JVM without JFR.
+ */
+public class FlightEventsTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @After
+    public void tearDown() {
+        FlightEvents.stop();
+    }
+
+    private static GetpacketConfig config(boolean enabled, int maxPerSecond) {
+        GetpacketConfig config = new GetpacketConfig();
+        config.setJfrEnabled(enabled);
+        config.setJfrMaxEventsPerSecond(maxPerSecond);
+        return config;
+    }
+
+    @Test
+    public void testDisabled() {
+        FlightEvents.start(config(false, 1000));
+        assertFalse(FlightEvents.isEnabled());
+        assertFalse(FlightEvents.shouldEmit(FlightEvents.Type.DROP));
+        // no-op
+        FlightEvents.drop("duplicate", "pipeline");
+    }
+
+    @Test
+    public void testRecorded() throws Exception {
+        Assume.assumeTrue(isJfrAvailable());
+        FlightEvents.start(config(true, 1000));
+        assertTrue(FlightEvents.isEnabled());
+        // registered but not recorded
+        assertFalse(FlightEvents.shouldEmit(FlightEvents.Type.DROP));
+
+        Object recording = startRecording(FlightEvents.Type.DROP, FlightEvents.Type.EXPORT_FLUSH);
+        assertTrue(FlightEvents.shouldEmit(FlightEvents.Type.DROP));
+        FlightEvents.drop("duplicate", "pipeline");
+        assertTrue(FlightEvents.shouldEmit(FlightEvents.Type.EXPORT_FLUSH));
+        FlightEvents.exportFlush("http://127.0.0.1:8080/", 3, 300, 1000000);
+        assertFalse(FlightEvents.shouldEmit(FlightEvents.Type.PACKET_INTAKE));
+
+        List<String> events = stopRecording(recording, "reason", "receiver");
+        assertEquals(2, events.size());
+        assertTrue(events.contains(FlightEvents.Type.DROP.getEventName() + " duplicate"));
+        assertTrue(events.contains(FlightEvents.Type.EXPORT_FLUSH.getEventName() + " http://127.0.0.1:8080/"));
+    }
+
+    @Test
+    public void testThrottle() throws Exception {
+        Assume.assumeTrue(isJfrAvailable());
+        FlightEvents.start(config(true, 5));
+        Object recording = startRecording(FlightEvents.Type.CACHE_EVICTION);
+        int allowed = 0;
+        for (int i = 0; i < 100; i++) {
+            if (FlightEvents.shouldEmit(FlightEvents.Type.CACHE_EVICTION)) {
+                FlightEvents.cacheEviction("connection-tracker", 1);
+                allowed++;
+            }
+        }
+        // unless the second just turned
+        assertTrue(allowed >= 5 && allowed <= 10);
+        assertEquals(allowed, stopRecording(recording, "cache").size());
+    }
+
+    @Test
+    public void testBundleClassLoader() throws Exception {
+        Assume.assumeTrue(isJfrAvailable());
+        ClassLoader bundleLoader = new BundleLikeClassLoader(getClass().getClassLoader());
+        Class<?> configClass = bundleLoader.loadClass(GetpacketConfig.class.getName());
+        Class<?> eventsClass = bundleLoader.loadClass(FlightEvents.class.getName());
+        Object config = configClass.getConstructor().newInstance();
+        eventsClass.getMethod("start", configClass).invoke(null, config);
+        try {
+            assertTrue((boolean) eventsClass.getMethod("isEnabled").invoke(null));
+        } finally {
+            eventsClass.getMethod("stop").invoke(null);
+        }
+    }
+
+    /**
+     * Loads the getpacket classes itself and, like a Karaf bundle class loader
+     * without an import of the package, cannot see jdk.jfr.
+     */
+    private static final class BundleLikeClassLoader extends ClassLoader {
+
+        BundleLikeClassLoader(ClassLoader parent) {
+            super(parent);
+        }
+
+        @Override
+        protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+            if (name.startsWith("jdk.jfr.")) {
+                throw new ClassNotFoundException(name);
+            }
+            if (!name.startsWith("com.siwind.")) {
+                return super.loadClass(name, resolve);
+            }
+            synchronized (getClassLoadingLock(name)) {
+                Class<?> loaded = findLoadedClass(name);
+                if (loaded == null) {
+                    try (InputStream in = getParent().getResourceAsStream(name.replace('.', '/') + ".class")) {
+                        if (in == null) {
+                            throw new ClassNotFoundException(name);
+                        }
+                        byte[] bytes = ByteStreams.toByteArray(in);
+                        loaded = defineClass(name, bytes, 0, bytes.length);
+                    } catch (IOException e) {
+                        throw new ClassNotFoundException(name, e);
+                    }
+                }
+                return loaded;
+            }
+        }
+    }
+
+    private static boolean isJfrAvailable() {
+        try {
+            Class.forName("jdk.jfr.EventFactory");
+            return true;
+        } catch (ClassNotFoundException e) {
+            return false;
+        }
+    }
+
+    private static Object startRecording(FlightEvents.Type... types) throws ReflectiveOperationException {
+        Class<?> recordingClass = Class.forName("jdk.jfr.Recording");
+        Object recording = recordingClass.getConstructor().newInstance();
+        for (FlightEvents.Type type : types) {
+            recordingClass.getMethod("enable", String.class).invoke(recording, type.getEventName());
+        }
+        recordingClass.getMethod("start").invoke(recording);
+        return recording;
+    }
+
+    /**
+     * @return name and the first string field found of each getpacket event
+     */
+    private List<String> stopRecording(Object recording, String... fields) throws Exception {
+        Class<?> recordingClass = recording.getClass();
+        recordingClass.getMethod("stop").invoke(recording);
+        Path file = folder.newFile("recording.jfr").toPath();
+        recordingClass.getMethod("dump", Path.class).invoke(recording, file);
+        recordingClass.getMethod("close").invoke(recording);
+
+        Class<?> recordingFile = Class.forName("jdk.jfr.consumer.RecordingFile");
+        Class<?> recordedEvent = Class.forName("jdk.jfr.consumer.RecordedEvent");
+        List<?> recorded = (List<?>) recordingFile.getMethod("readAllEvents", Path.class).invoke(null, file);
+        List<String> events = new ArrayList<>();
+        for (Object event : recorded) {
+            Object eventType = recordedEvent.getMethod("getEventType").invoke(event);
+            String name = (String) eventType.getClass().getMethod("getName").invoke(eventType);
+            if (!name.startsWith("com.siwind.getpacket.")) {
+                continue;
+            }
+            for (String field : fields) {
+                if ((boolean) recordedEvent.getMethod("hasField", String.class).invoke(event, field)) {
+                    events.add(name + " " + recordedEvent.getMethod("getString", String.class).invoke(event, field));
+                    break;
+                }
+            }
+        }
+        return events;
+    }
+}
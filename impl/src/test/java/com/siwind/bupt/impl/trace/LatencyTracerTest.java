@@ -0,0 +1,104 @@
+/*
+ * Copyright © 2016 siwind, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package com.siwind.bupt.impl.trace;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import com.siwind.bupt.impl.trace.LatencyTracer.Stage;
+
+public class LatencyTracerTest {
+
+    @Test
+    public void testBuckets() {
+        for (long value : new long[] { 0, 1, 31, 32, 63, 64, 1000, 123456789, Long.MAX_VALUE }) {
+            int index = LatencyHistogram.index(value);
+            assertTrue(index < LatencyHistogram.BUCKETS);
+            long highest = LatencyHistogram.highestValue(index);
+            // within the bucket, and the bucket narrower than 1/32 of the value
+            assertTrue(value + " in bucket up to " + highest, value <= highest);
+            assertTrue(highest - value <= value / 32);
+            assertEquals(index, LatencyHistogram.index(highest));
+        }
+        assertEquals(LatencyHistogram.BUCKETS - 1, LatencyHistogram.index(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void testPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i * 1000L);
+        }
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(1000, snapshot.getCount());
+        assertNear(500000, snapshot.getValueAtPercentile(50));
+        assertNear(990000, snapshot.getValueAtPercentile(99));
+        assertNear(999000, snapshot.getValueAtPercentile(99.9));
+        assertNear(1000000, snapshot.getMax());
+        assertEquals(0, LatencyHistogram.Snapshot.empty().getValueAtPercentile(99));
+    }
+
+    @Test
+    public void testSampling() {
+        LatencyTracer tracer = new LatencyTracer(4);
+        int traced = 0;
+        for (int i = 0; i < 100; i++) {
+            if (tracer.shouldTrace()) {
+                traced++;
+            }
+        }
+        assertEquals(25, traced);
+        assertTrue(new LatencyTracer(1).shouldTrace());
+    }
+
+    @Test
+    public void testMergeThreads() throws InterruptedException {
+        LatencyTracer tracer = new LatencyTracer(1);
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            long latency = (t + 1) * 1000L;
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 1000; i++) {
+                    tracer.record(Stage.SEND, latency);
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        LatencyHistogram.Snapshot send = tracer.getSnapshot(Stage.SEND);
+        assertEquals(4000, send.getCount());
+        assertNear(2000, send.getValueAtPercentile(50));
+        assertNear(4000, send.getMax());
+        assertEquals(0, tracer.getSnapshot(Stage.ACK).getCount());
+    }
+
+    @Test
+    public void testReset() {
+        LatencyTracer tracer = new LatencyTracer(1);
+        tracer.record(Stage.TOTAL, 1000000);
+        tracer.reset();
+        assertEquals(0, tracer.getSnapshot(Stage.TOTAL).getCount());
+        assertEquals(0, tracer.getSnapshot(Stage.TOTAL).getMax());
+
+        tracer.record(Stage.TOTAL, 500);
+        LatencyHistogram.Snapshot total = tracer.getSnapshots().get(Stage.TOTAL);
+        assertEquals(1, total.getCount());
+        assertNear(500, total.getMax());
+        assertFalse(total.getMax() > 1000);
+    }
+
+    private static void assertNear(long expected, long actual) {
+        assertTrue("expected about " + expected + " but was " + actual,
+                actual >= expected && actual - expected <= expected / 32);
+    }
+}
@@ -9,18 +9,47 @@ package com.siwind.bupt.it;
 
 import static org.ops4j.pax.exam.CoreOptions.composite;
 import static org.ops4j.pax.exam.CoreOptions.maven;
+import static org.ops4j.pax.exam.CoreOptions.propagateSystemProperties;
 import static org.ops4j.pax.exam.karaf.options.KarafDistributionOption.editConfigurationFilePut;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.inject.Inject;
+
 import org.junit.Assert;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.opendaylight.controller.md.sal.binding.api.NotificationPublishService;
 import org.opendaylight.controller.mdsal.it.base.AbstractMdsalTestBase;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.inventory.rev130819.NodeConnectorId;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.inventory.rev130819.NodeConnectorRef;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.inventory.rev130819.NodeId;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.inventory.rev130819.Nodes;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.inventory.rev130819.node.NodeConnector;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.inventory.rev130819.node.NodeConnectorKey;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.inventory.rev130819.nodes.Node;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.inventory.rev130819.nodes.NodeKey;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.packet.service.rev130709.PacketReceived;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.packet.service.rev130709.PacketReceivedBuilder;
+import org.opendaylight.yangtools.yang.binding.InstanceIdentifier;
+import org.ops4j.pax.exam.Configuration;
 import org.ops4j.pax.exam.Option;
+import org.ops4j.pax.exam.OptionUtils;
 import org.ops4j.pax.exam.junit.PaxExam;
 import org.ops4j.pax.exam.karaf.options.LogLevelOption.LogLevel;
 import org.ops4j.pax.exam.options.MavenUrlReference;
 import org.ops4j.pax.exam.spi.reactors.ExamReactorStrategy;
 import org.ops4j.pax.exam.spi.reactors.PerClass;
+import org.ops4j.pax.exam.util.Filter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -29,6 +58,63 @@ import org.slf4j.LoggerFactory;
 public class GetpacketIT extends AbstractMdsalTestBase {
     private static final Logger LOG = LoggerFactory.getLogger(GetpacketIT.class);
 
+    /**
+     * port the packet handler exports to
+     */
+    private static final int TRIDENT_PORT = 12321;
+
+    /**
+     * number of measured packet-ins
+     */
+    private static final String PACKETS = "getpacket.it.packets";
+
+    /**
+     * offered packet-ins per second, 0 to publish as fast as the notification service takes them
+     */
+    private static final String RATE = "getpacket.it.rate";
+
+    /**
+     * minimum sustained exports per second
+     */
+    private static final String MIN_PPS = "getpacket.it.minPps";
+
+    /**
+     * maximum 99th percentile of the packet-in to export latency, in milliseconds
+     */
+    private static final String MAX_P99_MS = "getpacket.it.maxP99Ms";
+
+    /**
+     * offered rate up to which no export may be lost, 0 to never require it
+     */
+    private static final String DROP_THRESHOLD_PPS = "getpacket.it.dropThresholdPps";
+
+    /**
+     * ingress ports the packet-ins are spread over
+     */
+    private static final String PORTS = "getpacket.it.ports";
+
+    /**
+     * file the measured results are written to
+     */
+    private static final String REPORT = "getpacket.it.report";
+
+    private static final long DRAIN_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(30);
+
+    private static final long WARMUP_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(60);
+
+    /**
+     * first octet of the destination address of measured and of warm-up packets,
+     * the remaining octets carry the sequence number
+     */
+    private static final int MEASURED_NET = 10;
+    private static final int WARMUP_NET = 11;
+
+    private static final int FRAME_LENGTH = 64;
+
+    @Inject
+    @Filter(timeout = 60000)
+    private NotificationPublishService notificationPublishService;
+
     @Override
     public MavenUrlReference getFeatureRepo() {
         return maven()
@@ -53,8 +139,210 @@ public class GetpacketIT extends AbstractMdsalTestBase {
         return option;
     }
 
+    @Override
+    @Configuration
+    public Option[] config() {
+        return OptionUtils.combine(super.config(), propagateSystemProperties(
+                PACKETS, RATE, MIN_PPS, MAX_P99_MS, DROP_THRESHOLD_PPS, PORTS, REPORT));
+    }
+
     @Test
     public void testgetpacketFeatureLoad() {
         Assert.assertTrue(true);
     }
+
+    /**
+     * Publishes a stream of TCP packet-ins through the notification service and
+     * checks every one of them is exported to a stub Trident, at the required rate
+     * and latency.
+     */
+    @Test
+    public void testPacketInExport() throws Exception {
+        int packets = Integer.getInteger(PACKETS, 20000);
+        int rate = Integer.getInteger(RATE, 2000);
+        int minPps = Integer.getInteger(MIN_PPS, 1000);
+        int maxP99Ms = Integer.getInteger(MAX_P99_MS, 100);
+        int dropThresholdPps = Integer.getInteger(DROP_THRESHOLD_PPS, 5000);
+        int ports = Integer.getInteger(PORTS, 4);
+        Assert.assertTrue("at most 2^24 packets", packets > 0 && packets < 1 << 24);
+
+        long[] published = new long[packets];
+        long[] latencies = new long[packets];
+        AtomicIntegerArray seen = new AtomicIntegerArray(packets);
+        AtomicLong exported = new AtomicLong();
+        AtomicLong duplicates = new AtomicLong();
+        AtomicLong warmups = new AtomicLong();
+        AtomicLong lastExport = new AtomicLong();
+
+        try (TridentStub trident = new TridentStub(TRIDENT_PORT, (target, receivedNanos) -> {
+            int dip = parseDip(target);
+            int seq = dip & 0xFFFFFF;
+            if (dip >>> 24 == WARMUP_NET) {
+                warmups.incrementAndGet();
+            } else if (dip >>> 24 == MEASURED_NET && seq < packets) {
+                if (seen.getAndSet(seq, 1) == 0) {
+                    latencies[seq] = receivedNanos - published[seq];
+                    lastExport.accumulateAndGet(receivedNanos, Math::max);
+                    exported.incrementAndGet();
+                } else {
+                    duplicates.incrementAndGet();
+                }
+            }
+        })) {
+            NodeConnectorRef[] ingress = new NodeConnectorRef[ports];
+            for (int i = 0; i < ports; i++) {
+                ingress[i] = createIngress("openflow:1:" + (i + 1));
+            }
+
+            // the provider registers its listener asynchronously, wait for the first export
+            long warmupDeadline = System.nanoTime() + WARMUP_TIMEOUT_NANOS;
+            for (int i = 0; warmups.get() == 0; i++) {
+                Assert.assertTrue("no export within the warm-up time", System.nanoTime() < warmupDeadline);
+                notificationPublishService.putNotification(createPacketIn(WARMUP_NET, i & 0xFFFFFF, ingress[0]));
+                Thread.sleep(100);
+            }
+
+            PacketReceived[] stream = new PacketReceived[packets];
+            for (int i = 0; i < packets; i++) {
+                stream[i] = createPacketIn(MEASURED_NET, i, ingress[i % ports]);
+            }
+
+            long intervalNanos = rate > 0 ? TimeUnit.SECONDS.toNanos(1) / rate : 0;
+            long start = System.nanoTime();
+            for (int i = 0; i < packets; i++) {
+                if (intervalNanos > 0) {
+                    waitUntil(start + i * intervalNanos);
+                }
+                published[i] = System.nanoTime();
+                notificationPublishService.putNotification(stream[i]);
+            }
+            long publishedNanos = System.nanoTime() - start;
+
+            long drainDeadline = System.nanoTime() + DRAIN_TIMEOUT_NANOS;
+            while (exported.get() < packets && System.nanoTime() < drainDeadline) {
+                Thread.sleep(10);
+            }
+
+            long count = exported.get();
+            long[] measured = new long[(int) count];
+            for (int i = 0, n = 0; i < packets && n < measured.length; i++) {
+                if (seen.get(i) != 0) {
+                    measured[n++] = latencies[i];
+                }
+            }
+            Arrays.sort(measured);
+            double offeredPps = packets * 1e9 / publishedNanos;
+            double exportedPps = count == 0 ? 0 : count * 1e9 / (lastExport.get() - start);
+            long p99 = percentile(measured, 99);
+
+            Properties results = new Properties();
+            results.setProperty("packets", String.valueOf(packets));
+            results.setProperty("exported", String.valueOf(count));
+            results.setProperty("duplicates", String.valueOf(duplicates.get()));
+            results.setProperty("offeredPps", String.format("%.0f", offeredPps));
+            results.setProperty("exportedPps", String.format("%.0f", exportedPps));
+            for (double p : new double[] { 50, 90, 99, 99.9, 100 }) {
+                results.setProperty("latencyUs.p" + (p == 100 ? "max" : String.valueOf(p).replace(".0", "")),
+                        String.format("%.1f", percentile(measured, p) / 1e3));
+            }
+            LOG.info("[Siwind] Packet-in export results {}", results);
+            writeReport(results);
+
+            Assert.assertEquals("duplicate exports", 0, duplicates.get());
+            if (dropThresholdPps > 0 && offeredPps <= dropThresholdPps) {
+                Assert.assertEquals("exports lost at " + (long) offeredPps + " packets/s", packets, count);
+            }
+            Assert.assertTrue("sustained " + (long) exportedPps + " packets/s, below " + minPps,
+                    exportedPps >= minPps);
+            Assert.assertTrue("p99 latency " + p99 / 1000 + " us, above " + maxP99Ms + " ms",
+                    p99 <= TimeUnit.MILLISECONDS.toNanos(maxP99Ms));
+            LOG.info("[Siwind] Stub Trident received {} requests", trident.getRequests());
+        }
+    }
+
+    private static NodeConnectorRef createIngress(String port) {
+        String node = port.substring(0, port.lastIndexOf(':'));
+        return new NodeConnectorRef(InstanceIdentifier.builder(Nodes.class)
+                .child(Node.class, new NodeKey(new NodeId(node)))
+                .child(NodeConnector.class, new NodeConnectorKey(new NodeConnectorId(port)))
+                .build());
+    }
+
+    /**
+     * Ethernet/IPv4/TCP frame from 192.168.0.1:40000 to net.seq:80.
+     */
+    private static PacketReceived createPacketIn(int net, int seq, NodeConnectorRef ingress) {
+        byte[] frame = new byte[FRAME_LENGTH];
+        frame[5] = 0x02;
+        frame[11] = 0x01;
+        frame[12] = 0x08;
+        frame[14] = 0x45;
+        frame[17] = FRAME_LENGTH - 14;
+        frame[22] = 64;
+        frame[23] = 6;
+        frame[26] = (byte) 192;
+        frame[27] = (byte) 168;
+        frame[29] = 1;
+        frame[30] = (byte) net;
+        frame[31] = (byte) (seq >>> 16);
+        frame[32] = (byte) (seq >>> 8);
+        frame[33] = (byte) seq;
+        frame[34] = (byte) (40000 >>> 8);
+        frame[35] = (byte) 40000;
+        frame[37] = 80;
+        frame[46] = 0x50;
+        frame[47] = 0x02;
+        return new PacketReceivedBuilder().setPayload(frame).setIngress(ingress).build();
+    }
+
+    /**
+     * @return destination address of an exported record as an int, 0 if there is none
+     */
+    private static int parseDip(String target) {
+        int start = target.indexOf("dip=");
+        if (start < 0) {
+            return 0;
+        }
+        int address = 0;
+        int octet = 0;
+        for (int i = start + 4; i < target.length(); i++) {
+            char c = target.charAt(i);
+            if (c >= '0' && c <= '9') {
+                octet = octet * 10 + c - '0';
+            } else if (c == '.') {
+                address = address << 8 | octet;
+                octet = 0;
+            } else {
+                break;
+            }
+        }
+        return address << 8 | octet;
+    }
+
+    private static long percentile(long[] sorted, double percentile) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int idx = (int) Math.ceil(percentile / 100 * sorted.length) - 1;
+        return sorted[Math.min(sorted.length - 1, Math.max(0, idx))];
+    }
+
+    private static void waitUntil(long due) {
+        long remaining;
+        while ((remaining = due - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(remaining);
+        }
+    }
+
+    private static void writeReport(Properties results) {
+        String report = System.getProperty(REPORT);
+        if (report == null || report.isEmpty()) {
+            return;
+        }
+        try (OutputStream out = Files.newOutputStream(Paths.get(report))) {
+            results.store(out, "getpacket packet-in export");
+        } catch (IOException e) {
+            LOG.warn("[Siwind] Failed to write {}", report, e);
+        }
+    }
 }
@@ -0,0 +1,141 @@
+/*
+ * Copyright © 2016 siwind, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package com.siwind.bupt.it;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.ObjLongConsumer;
+
+/**
+ * Local HTTP server standing in for Trident inside the test container. Answers
+ * every request with an empty 200 on a kept alive connection and hands the
+ * request target with its arrival time to a callback.
+ *
+ * <p>The impl bundle does not export its tools package, hence this copy of the
+ * stub receiver.
+ */
+final class TridentStub implements AutoCloseable {
+
+    private static final byte[] RESPONSE =
+            "HTTP/1.1 200 OK\r\nContent-Length: 0\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+
+    private static final int MAX_LINE_LENGTH = 8192;
+
+    private final ServerSocket serverSocket;
+    private final ObjLongConsumer<String> callback;
+    private final AtomicLong requests = new AtomicLong();
+    private final ExecutorService executor = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "getpacket-it-trident");
+        t.setDaemon(true);
+        return t;
+    });
+
+    /**
+     * @param port loopback port to listen on
+     * @param callback called with the request target and System.nanoTime() of its arrival
+     */
+    TridentStub(int port, ObjLongConsumer<String> callback) throws IOException {
+        this.callback = callback;
+        serverSocket = new ServerSocket();
+        serverSocket.setReuseAddress(true);
+        serverSocket.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+        executor.execute(this::accept);
+    }
+
+    long getRequests() {
+        return requests.get();
+    }
+
+    private void accept() {
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket socket = serverSocket.accept();
+                executor.execute(() -> serve(socket));
+            } catch (IOException e) {
+                // closed
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        try (Socket s = socket) {
+            s.setTcpNoDelay(true);
+            InputStream in = new BufferedInputStream(s.getInputStream());
+            OutputStream out = s.getOutputStream();
+            StringBuilder line = new StringBuilder();
+
+            String requestLine;
+            while ((requestLine = readLine(in, line)) != null) {
+                if (requestLine.isEmpty()) {
+                    continue;
+                }
+                long received = System.nanoTime();
+                int contentLength = 0;
+                String header;
+                while ((header = readLine(in, line)) != null && !header.isEmpty()) {
+                    String lower = header.toLowerCase(Locale.ROOT);
+                    if (lower.startsWith("content-length:")) {
+                        contentLength = Integer.parseInt(lower.substring(15).trim());
+                    }
+                }
+                for (int i = 0; i < contentLength; i++) {
+                    if (in.read() < 0) {
+                        return;
+                    }
+                }
+
+                requests.incrementAndGet();
+                int start = requestLine.indexOf(' ');
+                int end = requestLine.lastIndexOf(' ');
+                callback.accept(end > start ? requestLine.substring(start + 1, end) : requestLine, received);
+                out.write(RESPONSE);
+                out.flush();
+            }
+        } catch (SocketException e) {
+            // client went away
+        } catch (IOException | NumberFormatException e) {
+            // broken request, drop the connection
+        }
+    }
+
+    private static String readLine(InputStream in, StringBuilder line) throws IOException {
+        line.setLength(0);
+        int c;
+        while ((c = in.read()) >= 0) {
+            if (c == '\n') {
+                int length = line.length();
+                if (length > 0 && line.charAt(length - 1) == '\r') {
+                    line.setLength(length - 1);
+                }
+                return line.toString();
+            }
+            if (line.length() < MAX_LINE_LENGTH) {
+                line.append((char) c);
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+        executor.shutdownNow();
+    }
+}